@@ -10,6 +10,9 @@ import java.util.Map.Entry;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -18,6 +21,8 @@ import org.w3c.dom.NodeList;
 import edu.mit.blocks.codeblocks.BlockConnector.PositionType;
 import edu.mit.blocks.renderable.BlockImageIcon;
 import edu.mit.blocks.renderable.BlockImageIcon.ImageLocation;
+import edu.mit.blocks.renderable.Comment;
+import edu.mit.blocks.renderable.RenderableBlock;
 import edu.mit.blocks.workspace.ISupportMemento;
 import edu.mit.blocks.workspace.Workspace;
 import edu.mit.blocks.workspace.WorkspaceEnvironment;
@@ -86,9 +91,21 @@ public class Block implements ISupportMemento {
      * @param label the String label of this Block
      */
     protected Block(Workspace workspace, Long id, String genusName, String label, boolean linkToStubs) {
+        this(workspace.getEnv(), id, genusName, label, linkToStubs);
+    }
 
-        this.workspace = workspace;
-        this.env = workspace.getEnv();
+    /**
+     * Constructs a new Block from the specified information in the specified
+     * environment, which need not belong to a Workspace.
+     * @param env The environment in which this block should be created
+     * @param id the Block ID of this
+     * @param genusName the String name of this block's BlockGenus
+     * @param label the String label of this Block
+     */
+    protected Block(WorkspaceEnvironment env, Long id, String genusName, String label, boolean linkToStubs) {
+
+        this.workspace = env.getWorkspace();
+        this.env = env;
         // these fields have to be set before the call to addBlock()
         this.blockID = id;
         this.genusName = genusName;
@@ -98,7 +115,7 @@ public class Block implements ISupportMemento {
         //warning: publishing this block before constructor finishes has the
         //potential to cause some problems such as data races
         //other threads could access this block from getBlock()
-        workspace.getEnv().addBlock(this);
+        env.addBlock(this);
 
         sockets = new ArrayList<BlockConnector>();
         argumentDescriptions = new ArrayList<String>();
@@ -138,7 +155,7 @@ public class Block implements ISupportMemento {
         //add itself to stubs hashmap
         //however factory blocks will have entries in hashmap...
         if (linkToStubs && this.hasStubs()) {
-            BlockStub.putNewParentInStubMap(workspace, this.blockID);
+            BlockStub.putNewParentInStubMap(env, this.blockID);
         }
     }
 
@@ -196,16 +213,65 @@ public class Block implements ISupportMemento {
         this(workspace, genusName, workspace.getEnv().getGenusWithName(genusName).getInitialLabel(), linkToStubs);
     }
 
+    /**
+     * Constructs a new <code>Block</code> instance in the specified environment, which
+     * need not belong to a Workspace.  Using the genusName specified of this Block's
+     * corresponding BlockGenus, this constructor populates this Block with its genus
+     * information.
+     * @param env The environment in which this block should be created
+     * @param genusName the name of its associated <code>BlockGenus</code>
+     * @param label the label of this Block.
+     * @param linkToStubs if true, this block can have stubs and be linked to them;
+     * if false, then this block even though the genus specifies it will not be
+     * linked to stubs
+     */
+    public Block(WorkspaceEnvironment env, String genusName, String label, boolean linkToStubs) {
+        this(env, env.getNextBlockID(), genusName, label, linkToStubs);
+    }
+
+    /**
+     * Constructs a new <code>Block</code> instance in the specified environment, which
+     * need not belong to a Workspace.  Using the genusName specified of this Block's
+     * corresponding BlockGenus, this constructor populates this Block with its genus
+     * information.
+     * @param env The environment in which this block should be created
+     * @param genusName the name of its associated <code>BlockGenus</code>
+     * @param label the label of this Block.
+     */
+    public Block(WorkspaceEnvironment env, String genusName, String label) {
+        this(env, env.getNextBlockID(), genusName, label, true);
+    }
+
+    /**
+     * Constructs a new <code>Block</code> instance in the specified environment, which
+     * need not belong to a Workspace.  Using the genusName specified of this Block's
+     * corresponding BlockGenus, this constructor populates this Block with its genus
+     * information.
+     * @param env The environment in which this block should be created
+     * @param genusName the name of its associated <code>BlockGenus</code>
+     */
+    public Block(WorkspaceEnvironment env, String genusName) {
+        this(env, genusName, env.getGenusWithName(genusName).getInitialLabel());
+    }
+
     ///////////////////
     //BLOCK prop
     ///////////////////
     /**
-     * Returns the workspace that this block is living in
+     * Returns the workspace that this block is living in, or null if its
+     * environment does not belong to a workspace
      */
     public Workspace getWorkspace() {
         return workspace;
     }
 
+    /**
+     * Returns the environment that this block is living in
+     */
+    public WorkspaceEnvironment getEnv() {
+        return env;
+    }
+
     /**
      * Returns the block ID of this
      * @return the block ID of this
@@ -261,9 +327,10 @@ public class Block implements ISupportMemento {
      */
     public void setBlockLabel(String newLabel) {
         if (this.linkToStubs && this.hasStubs()) {
-            BlockStub.parentNameChanged(workspace, this.label, newLabel, this.blockID);
+            BlockStub.parentNameChanged(env, this.label, newLabel, this.blockID);
         }
         label = newLabel;
+        env.getKeywordIndex().blockChanged(blockID);
     }
 
     /**
@@ -273,7 +340,7 @@ public class Block implements ISupportMemento {
     public void setPageLabel(String newPageLabel) {
         //update stubs
         if (this.linkToStubs && this.hasStubs()) {
-            BlockStub.parentPageLabelChanged(workspace, newPageLabel, this.blockID);
+            BlockStub.parentPageLabelChanged(env, newPageLabel, this.blockID);
         }
         pageLabel = newPageLabel;
     }
@@ -491,7 +558,7 @@ public class Block implements ISupportMemento {
         //NOTE: must update the sockets of this before updating its stubs as stubs use this as a reference to update its own sockets
         //if block has stubs, update its stubs as well
         if (hasStubs()) {
-            BlockStub.parentConnectorsChanged(workspace, getBlockID());
+            BlockStub.parentConnectorsChanged(env, getBlockID());
         }
     }
 
@@ -511,7 +578,7 @@ public class Block implements ISupportMemento {
         //NOTE: must update the sockets of this before updating its stubs as stubs use this as a reference to update its own sockets
         //if block has stubs, update its stubs as well
         if (hasStubs()) {
-            BlockStub.parentConnectorsChanged(workspace, blockID);
+            BlockStub.parentConnectorsChanged(env, blockID);
         }
     }
 
@@ -551,7 +618,8 @@ public class Block implements ISupportMemento {
      * @return true if socket successfully replaced
      */
     public boolean setSocketAt(int index, String kind, PositionType pos, String label, boolean isLabelEditable, boolean isExpandable, Long blockID) {
-        return sockets.set(index, new BlockConnector(workspace, kind, pos, label, isLabelEditable, isExpandable, blockID)) != null;
+        env.getKeywordIndex().blockChanged(this.blockID);
+        return sockets.set(index, new BlockConnector(env, kind, pos, label, isLabelEditable, isExpandable, blockID)) != null;
     }
 
     /**
@@ -581,8 +649,9 @@ public class Block implements ISupportMemento {
      * @param blockID the block id of the block attached to new socket
      */
     public void addSocket(String kind, PositionType positionType, String label, boolean isLabelEditable, boolean isExpandable, Long blockID) {
-        BlockConnector newSocket = new BlockConnector(workspace, kind, positionType, label, isLabelEditable, isExpandable, blockID);
+        BlockConnector newSocket = new BlockConnector(env, kind, positionType, label, isLabelEditable, isExpandable, blockID);
         sockets.add(newSocket);
+        env.getKeywordIndex().blockChanged(this.blockID);
     }
 
     /**
@@ -598,8 +667,9 @@ public class Block implements ISupportMemento {
      * @param blockID the block id of the block attached to new socket
      */
     public BlockConnector addSocket(int index, String kind, PositionType positionType, String label, boolean isLabelEditable, boolean isExpandable, Long blockID) {
-        BlockConnector newSocket = new BlockConnector(workspace, kind, positionType, label, isLabelEditable, isExpandable, blockID);
+        BlockConnector newSocket = new BlockConnector(env, kind, positionType, label, isLabelEditable, isExpandable, blockID);
         sockets.add(index, newSocket);
+        env.getKeywordIndex().blockChanged(this.blockID);
         return newSocket;
     }
 
@@ -618,12 +688,16 @@ public class Block implements ISupportMemento {
     public void removeSocket(BlockConnector socket) {
         //disconnect any blocks connected to socket
         if (socket.getBlockID() != Block.NULL) {
-            Block connectedBlock = workspace.getEnv().getBlock(socket.getBlockID());
+            Block connectedBlock = env.getBlock(socket.getBlockID());
             connectedBlock.getConnectorTo(this.blockID).setConnectorBlockID(Block.NULL);
             socket.setConnectorBlockID(Block.NULL);
-            workspace.getEnv().getRenderableBlock(blockID).blockDisconnected(socket);
+            RenderableBlock rb = env.getRenderableBlock(blockID);
+            if (rb != null) {
+                rb.blockDisconnected(socket);
+            }
         }
         sockets.remove(socket);
+        env.getKeywordIndex().blockChanged(this.blockID);
     }
 
     //plug information
@@ -652,7 +726,7 @@ public class Block implements ISupportMemento {
      * @param blockID the block id of the block attached to plug
      */
     public void setPlug(String kind, PositionType positionType, String label, boolean isLabelEditable, Long blockID) {
-        plug = new BlockConnector(workspace, kind, positionType, label, isLabelEditable, false, blockID);
+        plug = new BlockConnector(env, kind, positionType, label, isLabelEditable, false, blockID);
     }
 
     /**
@@ -830,7 +904,7 @@ public class Block implements ISupportMemento {
                 defargIDs.add(id);
                 //if id not null, then connect def arg's plug to this block
                 if (id != Block.NULL) {
-                	workspace.getEnv()
+                	env
                 	.getBlock(id)
                 	.getPlug()
                 	.setConnectorBlockID(this.blockID);
@@ -853,7 +927,7 @@ public class Block implements ISupportMemento {
         if (this.linkToStubs && this.hasStubs()) {
             ArrayList<BlockStub> newStubBlocks = new ArrayList<BlockStub>();
             for (String stubGenus : getStubList()) {
-                newStubBlocks.add(new BlockStub(workspace, this.getBlockID(), this.getGenusName(), this.getBlockLabel(), stubGenus));
+                newStubBlocks.add(new BlockStub(env, this.getBlockID(), this.getGenusName(), this.getBlockLabel(), stubGenus));
             }
             return newStubBlocks;
         }
@@ -872,7 +946,11 @@ public class Block implements ISupportMemento {
      * view of an event/change to the block data from the ui side
      */
     public void notifyRenderable() {
-        workspace.getEnv().getRenderableBlock(blockID).repaintBlock();
+        RenderableBlock rb = env.getRenderableBlock(blockID);
+        //blocks loaded without a view yet (see StreamingProjectLoader) have nothing to repaint
+        if (rb != null) {
+            rb.repaintBlock();
+        }
     }
 
     ////////////////////////////////////////
@@ -1357,6 +1435,96 @@ public class Block implements ISupportMemento {
     	return blockElement;
     }
 
+    /**
+     * Writes the node of this to the specified writer, using additional location
+     * information specified in x and y and the specified comment.  The written
+     * node is identical to the one returned by getSaveNode(), without building it.
+     * @param writer the writer to write the node to
+     * @param x
+     * @param y
+     * @param comment the comment of this, or null if none
+     * @param isCollapsed
+     * @throws XMLStreamException if the node could not be written
+     */
+    public void writeSaveNode(XMLStreamWriter writer, int x, int y, Comment comment, boolean isCollapsed) throws XMLStreamException {
+        writer.writeStartElement("Block");
+        writer.writeAttribute("id", Long.toString(blockID));
+        writer.writeAttribute("genus-name", getGenusName());
+        if (hasFocus) {
+            writer.writeAttribute("has-focus", "yes");
+        }
+
+        if (!this.label.equals(this.getInitialLabel())) {
+            writeTextElement(writer, "Label", label);
+        }
+
+        if (pageLabel != null && !pageLabel.equals("")) {
+            writeTextElement(writer, "PageLabel", pageLabel);
+        }
+
+        if (this.isBad) {
+            writeTextElement(writer, "CompilerErrorMsg", badMsg);
+        }
+
+        // Location
+        writer.writeStartElement("Location");
+        writeTextElement(writer, "X", String.valueOf(x));
+        writeTextElement(writer, "Y", String.valueOf(y));
+        writer.writeEndElement();
+
+        if (isCollapsed) {
+            writer.writeEmptyElement("Collapsed");
+        }
+
+        if (comment != null) {
+            comment.writeSaveNode(writer);
+        }
+
+        if (this.hasBeforeConnector() && !this.getBeforeBlockID().equals(Block.NULL)) {
+            writeTextElement(writer, "BeforeBlockId", String.valueOf(getBeforeBlockID()));
+        }
+
+        if (this.hasAfterConnector() && !this.getAfterBlockID().equals(Block.NULL)) {
+            writeTextElement(writer, "AfterBlockId", String.valueOf(getAfterBlockID()));
+        }
+
+        if (plug != null) {
+            writer.writeStartElement("Plug");
+            plug.writeSaveNode(writer, "plug");
+            writer.writeEndElement();
+        }
+
+        if (sockets.size() > 0) {
+            writer.writeStartElement("Sockets");
+            writer.writeAttribute("num-sockets", String.valueOf(getNumSockets()));
+            for (BlockConnector con : getSockets()) {
+                con.writeSaveNode(writer, "socket");
+            }
+            writer.writeEndElement();
+        }
+
+        if (!properties.isEmpty()) {
+            writer.writeStartElement("LangSpecProperties");
+            for (Entry<String, String> property : properties.entrySet()) {
+                writer.writeEmptyElement("LangSpecProperty");
+                writer.writeAttribute("key", property.getKey());
+                writer.writeAttribute("value", property.getValue());
+            }
+            writer.writeEndElement();
+        }
+
+        writer.writeEndElement();
+    }
+
+    /**
+     * Writes an element holding only the specified text to writer.
+     */
+    static void writeTextElement(XMLStreamWriter writer, String ele, String text) throws XMLStreamException {
+        writer.writeStartElement(ele);
+        writer.writeCharacters(text);
+        writer.writeEndElement();
+    }
+
     /**
      * Loads Block information from the specified node and return a Block
      * instance with the loaded information
@@ -1365,6 +1533,18 @@ public class Block implements ISupportMemento {
      * @return Block instance containing loaded information
      */
     public static Block loadBlockFrom(Workspace workspace, Node node, HashMap<Long, Long> idMapping){
+        return loadBlockFrom(workspace.getEnv(), node, idMapping);
+    }
+
+    /**
+     * Loads Block information from the specified node into the specified
+     * environment, which need not belong to a Workspace, and return a Block
+     * instance with the loaded information
+     * @param env The environment in use
+     * @param node Node cantaining desired information
+     * @return Block instance containing loaded information
+     */
+    public static Block loadBlockFrom(WorkspaceEnvironment env, Node node, HashMap<Long, Long> idMapping){
         Block block = null;
         Long id = null;
         String genusName = null;
@@ -1406,7 +1586,7 @@ public class Block implements ISupportMemento {
             //load attributes
             nameMatcher = attrExtractor.matcher(node.getAttributes().getNamedItem("id").toString());
             if (nameMatcher.find()) {
-                id = translateLong(workspace, Long.parseLong(nameMatcher.group(1)), idMapping);
+                id = translateLong(env, Long.parseLong(nameMatcher.group(1)), idMapping);
             	//BUG: id may conflict with the new Block
             	//bug fix: HE Qichen 2012-2-24
             	
@@ -1442,16 +1622,16 @@ public class Block implements ISupportMemento {
                 } else if (child.getNodeName().equals("CompilerErrorMsg")) {
                     badMsg = child.getTextContent();
                 } else if (child.getNodeName().equals("BeforeBlockId")) {
-                    beforeID = translateLong(workspace, Long.parseLong(child.getTextContent()), idMapping);
+                    beforeID = translateLong(env, Long.parseLong(child.getTextContent()), idMapping);
                 } else if (child.getNodeName().equals("AfterBlockId")) {
-                    afterID = translateLong(workspace, Long.parseLong(child.getTextContent()), idMapping);
+                    afterID = translateLong(env, Long.parseLong(child.getTextContent()), idMapping);
                 } else if (child.getNodeName().equals("Plug")) {
                     NodeList plugs = child.getChildNodes(); //there should only one child
                     Node plugNode;
                     for (int j = 0; j < plugs.getLength(); j++) {
                         plugNode = plugs.item(j);
                         if (plugNode.getNodeName().equals("BlockConnector")) {
-                            plug = BlockConnector.loadBlockConnector(workspace, plugNode, idMapping);
+                            plug = BlockConnector.loadBlockConnector(env, plugNode, idMapping);
                         }
                     }
                 } else if (child.getNodeName().equals("Sockets")) {
@@ -1460,7 +1640,7 @@ public class Block implements ISupportMemento {
                     for (int k = 0; k < socketNodes.getLength(); k++) {
                         socketNode = socketNodes.item(k);
                         if (socketNode.getNodeName().equals("BlockConnector")) {
-                            sockets.add(BlockConnector.loadBlockConnector(workspace, socketNode, idMapping));
+                            sockets.add(BlockConnector.loadBlockConnector(env, socketNode, idMapping));
                         }
                     }
                 } else if (child.getNodeName().equals("LangSpecProperties")) {
@@ -1503,13 +1683,13 @@ public class Block implements ISupportMemento {
             //create block or block stub instance
             if (!isStubBlock) {
                 if (label == null) {
-                    block = new Block(workspace, id, genusName, workspace.getEnv().getGenusWithName(genusName).getInitialLabel(), true);
+                    block = new Block(env, id, genusName, env.getGenusWithName(genusName).getInitialLabel(), true);
                 } else {
-                    block = new Block(workspace, id, genusName, label, true);
+                    block = new Block(env, id, genusName, label, true);
                 }
             } else {
                 assert label != null : "Loading a block stub, but has a null label!";
-                block = new BlockStub(workspace, id, genusName, label, stubParentName, stubParentGenus);
+                block = new BlockStub(env, id, genusName, label, stubParentName, stubParentGenus);
             }
 
             if (plug != null) {
@@ -1551,13 +1731,17 @@ public class Block implements ISupportMemento {
     }
 
     public static Long translateLong(Workspace workspace, Long input, HashMap<Long, Long> mapping) {
+        return translateLong(workspace.getEnv(), input, mapping);
+    }
+
+    public static Long translateLong(WorkspaceEnvironment env, Long input, HashMap<Long, Long> mapping) {
         if (mapping == null) {
             return input;
         }
         if (mapping.containsKey(input)) {
             return mapping.get(input);
         }
-        Long newID = Long.valueOf(workspace.getEnv().getNextBlockID());
+        Long newID = Long.valueOf(env.getNextBlockID());
         mapping.put(input, newID);
         return newID;
     }
@@ -1653,39 +1837,39 @@ public class Block implements ISupportMemento {
             }
 
             //Genus stuff, to avoid more work than necessary
-            if (this.genusName != state.genusName) {
+            if (!this.genusName.equals(state.genusName)) {
                 this.changeGenusTo(state.genusName);
             }
 
-            if (state.plug == null) {
-                this.plug = null;
-            } else {
-                this.plug = BlockConnector.instantiateFromState(workspace, state.plug);
-            }
-
-            if (state.before == null) {
-                this.before = null;
-            } else {
-                this.before = BlockConnector.instantiateFromState(workspace, state.before);
-            }
-
-            if (state.after == null) {
-                this.after = null;
-            } else {
-                this.after = BlockConnector.instantiateFromState(workspace, state.after);
-            }
+            //reuse existing connectors so that the RenderableBlock keeps finding them
+            this.plug = loadConnectorState(this.plug, state.plug);
+            this.before = loadConnectorState(this.before, state.before);
+            this.after = loadConnectorState(this.after, state.after);
 
             for (int i = 0; i < state.numberOfSockets; i++) {
                 if (i >= this.getNumSockets()) {
-                    this.sockets.add(BlockConnector.instantiateFromState(workspace, state.sockets.get(i)));
+                    this.sockets.add(BlockConnector.instantiateFromState(env, state.sockets.get(i)));
                 } else {
                     this.sockets.get(i).loadState(state.sockets.get(i));
                 }
             }
 
-            for (int i = state.numberOfSockets; i < this.getNumSockets(); i++) {
-                this.removeSocket(i);
+            //the connected blocks are restored from their own state, so drop
+            //the extra sockets without disconnecting them
+            while (this.getNumSockets() > state.numberOfSockets) {
+                this.sockets.remove(this.getNumSockets() - 1);
             }
         }
     }
+
+    private BlockConnector loadConnectorState(BlockConnector connector, Object memento) {
+        if (memento == null) {
+            return null;
+        }
+        if (connector == null) {
+            return BlockConnector.instantiateFromState(env, memento);
+        }
+        connector.loadState(memento);
+        return connector;
+    }
 }
@@ -4,12 +4,16 @@ import java.util.HashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 
 import edu.mit.blocks.workspace.ISupportMemento;
 import edu.mit.blocks.workspace.Workspace;
+import edu.mit.blocks.workspace.WorkspaceEnvironment;
 
 /**
  * <code>BlockConnector</code> is a light class that describes the socket/plug
@@ -33,7 +37,7 @@ public class BlockConnector implements ISupportMemento {
     private boolean isExpandable = false;
     private boolean isLabelEditable = false;
     private String expandGroup = "";
-    private final Workspace workspace;
+    private final WorkspaceEnvironment env;
 
     //Specifies the PositionType of connector:
     //Single is the default connector that appears on only one side (left/right) of a block.
@@ -54,7 +58,23 @@ public class BlockConnector implements ISupportMemento {
      * @param connBlockID the ID of the block connected to this 
      */
     public BlockConnector(Workspace workspace, String kind, PositionType positionType, String label, boolean isLabelEditable, boolean isExpandable, String expandGroup, Long connBlockID) {
-        this(workspace, kind, positionType, label, isLabelEditable, isExpandable, connBlockID);
+        this(workspace.getEnv(), kind, positionType, label, isLabelEditable, isExpandable, expandGroup, connBlockID);
+    }
+
+    /**
+     * Constructs a new <code>BlockConnector</code> in an environment that need not
+     * belong to a Workspace
+     * @param env The environment this connector is created in
+     * @param kind the kind of this socket
+     * @param positionType the PositionType of connector
+     * @param label the String label of this socket
+	 * @param isLabelEditable is true iff this BlockConnector can have its labels edited.
+     * @param isExpandable whether this socket can expand into another connector when a block is connected
+     * @param expandGroup the expand socket group of this connector
+     * @param connBlockID the ID of the block connected to this
+     */
+    public BlockConnector(WorkspaceEnvironment env, String kind, PositionType positionType, String label, boolean isLabelEditable, boolean isExpandable, String expandGroup, Long connBlockID) {
+        this(env, kind, positionType, label, isLabelEditable, isExpandable, connBlockID);
         this.expandGroup = expandGroup == null ? "" : expandGroup;
     }
     
@@ -68,7 +88,21 @@ public class BlockConnector implements ISupportMemento {
      * @param positionType specifies the PositionType of connector
      */
     public BlockConnector(Workspace workspace, String kind, PositionType positionType, String label, boolean isLabelEditable, boolean isExpandable, Long connBlockID) {
-        this.workspace = workspace;
+        this(workspace.getEnv(), kind, positionType, label, isLabelEditable, isExpandable, connBlockID);
+    }
+
+    /**
+     * Constructs a new <code>BlockConnector</code> in an environment that need not
+     * belong to a Workspace
+     * @param env The environment this connector is created in
+     * @param label the String label of this socket
+     * @param kind the kind of this socket
+	 * @param isLabelEditable is true iff this BlockConnector can have its labels edited.
+     * @param isExpandable true if this socket can expand into another connector when a block is connected to this
+     * @param positionType specifies the PositionType of connector
+     */
+    public BlockConnector(WorkspaceEnvironment env, String kind, PositionType positionType, String label, boolean isLabelEditable, boolean isExpandable, Long connBlockID) {
+        this.env = env;
         this.kind = kind;
         this.positionType = positionType;
         this.label = label;
@@ -107,7 +141,7 @@ public class BlockConnector implements ISupportMemento {
      * @param con the BlockConnector to copy from
      */
     public BlockConnector(BlockConnector con) {
-        this(con.workspace, con.kind, con.positionType, con.label, con.isLabelEditable, con.isExpandable, con.connBlockID);
+        this(con.env, con.kind, con.positionType, con.label, con.isLabelEditable, con.isExpandable, con.connBlockID);
         this.hasDefArg = con.hasDefArg;
         this.arg = con.arg;
         this.isLabelEditable = con.isLabelEditable;
@@ -129,7 +163,15 @@ public class BlockConnector implements ISupportMemento {
     public String getKind() {
         return kind;
     }
-    
+
+    /**
+     * Returns the environment this connector was created in
+     * @return the environment this connector was created in
+     */
+    public WorkspaceEnvironment getEnv() {
+        return env;
+    }
+
     /**
      * Returns the initial kind of this
      * @return the initial kind of this
@@ -239,6 +281,20 @@ public class BlockConnector implements ISupportMemento {
         arg = new DefArgument(genusName, label);
     }
 
+    /**
+     * @return the BlockGenus name of this connector's default argument, or null if it has none
+     */
+    String getDefArgGenusName() {
+        return hasDefArg ? arg.getGenusName() : null;
+    }
+
+    /**
+     * @return the initial label of this connector's default argument, or null if it has none
+     */
+    String getDefArgLabel() {
+        return hasDefArg ? arg.getLabel() : null;
+    }
+
     /**
      * Connects this connector with its default argument, if it has any, and 
      * returns the block ID of the connected default argument or Block.NULL if there is none.
@@ -247,7 +303,7 @@ public class BlockConnector implements ISupportMemento {
     public Long linkDefArgument() {
         //checks if connector has a def arg or if connector already has a block
         if (hasDefArg && connBlockID == Block.NULL) {
-            Block block = new Block(workspace, arg.getGenusName(), arg.label);
+            Block block = new Block(env, arg.getGenusName(), arg.label);
             connBlockID = block.getBlockID();
             return connBlockID;
         }
@@ -303,6 +359,18 @@ public class BlockConnector implements ISupportMemento {
      * @return BlockConnector instance with the loaded information
      */
     public static BlockConnector loadBlockConnector(Workspace workspace, Node node, HashMap<Long, Long> idMapping) {
+        return loadBlockConnector(workspace.getEnv(), node, idMapping);
+    }
+
+    /**
+     * Loads information for a single BlockConnector into an environment that
+     * need not belong to a Workspace and returns an instance of BlockConnector
+     * with the loaded information
+     * @param env The environment in use
+     * @param node the Node containing the desired information
+     * @return BlockConnector instance with the loaded information
+     */
+    public static BlockConnector loadBlockConnector(WorkspaceEnvironment env, Node node, HashMap<Long, Long> idMapping) {
         Pattern attrExtractor = Pattern.compile("\"(.*)\"");
         Matcher nameMatcher;
 
@@ -336,7 +404,7 @@ public class BlockConnector implements ISupportMemento {
             if (opt_item != null) {
                 nameMatcher = attrExtractor.matcher(opt_item.toString());
                 if (nameMatcher.find()) {
-                    idConnected = Block.translateLong(workspace, Long.parseLong(nameMatcher.group(1)), idMapping);
+                    idConnected = Block.translateLong(env, Long.parseLong(nameMatcher.group(1)), idMapping);
                 }
             }
             opt_item = node.getAttributes().getNamedItem("label-editable");
@@ -371,13 +439,13 @@ public class BlockConnector implements ISupportMemento {
             assert initKind != null : "BlockConnector was not specified a initial connection kind";
 
             if (positionType.equals("single")) {
-                con = new BlockConnector(workspace, initKind, PositionType.SINGLE, label, isLabelEditable, isExpandable, idConnected);
+                con = new BlockConnector(env, initKind, PositionType.SINGLE, label, isLabelEditable, isExpandable, idConnected);
             } else if (positionType.equals("bottom")) {
-                con = new BlockConnector(workspace, initKind, PositionType.BOTTOM, label, isLabelEditable, isExpandable, idConnected);
+                con = new BlockConnector(env, initKind, PositionType.BOTTOM, label, isLabelEditable, isExpandable, idConnected);
             } else if (positionType.equals("mirror")) {
-                con = new BlockConnector(workspace, initKind, PositionType.MIRROR, label, isLabelEditable, isExpandable, idConnected);
+                con = new BlockConnector(env, initKind, PositionType.MIRROR, label, isLabelEditable, isExpandable, idConnected);
             } else if (positionType.endsWith("top")) {
-                con = new BlockConnector(workspace, initKind, PositionType.TOP, label, isLabelEditable, isExpandable, idConnected);
+                con = new BlockConnector(env, initKind, PositionType.TOP, label, isLabelEditable, isExpandable, idConnected);
             }
 
             con.expandGroup = expandGroup;
@@ -429,6 +497,44 @@ public class BlockConnector implements ISupportMemento {
 
         return connectorElement;
     }
+
+    /**
+     * Writes the node of this to the specified writer.  The written node is
+     * identical to the one returned by getSaveNode().
+     * @param writer the writer to write the node to
+     * @param conKind String containing if this is a socket or plug
+     * @throws XMLStreamException if the node could not be written
+     */
+    public void writeSaveNode(XMLStreamWriter writer, String conKind) throws XMLStreamException {
+        writer.writeEmptyElement("BlockConnector");
+        writer.writeAttribute("connector-kind", conKind);
+        writer.writeAttribute("connector-type", kind);
+        writer.writeAttribute("init-type", initKind);
+        writer.writeAttribute("label", label);
+        if (expandGroup.length() > 0) {
+            writer.writeAttribute("expand-group", expandGroup);
+        }
+        if (isExpandable) {
+            writer.writeAttribute("is-expandable", "yes");
+        }
+        if (this.positionType.equals(PositionType.SINGLE)) {
+            writer.writeAttribute("position-type", "single");
+        } else if (this.positionType.equals(PositionType.MIRROR)) {
+            writer.writeAttribute("position-type", "mirror");
+        } else if (this.positionType.equals(PositionType.BOTTOM)) {
+            writer.writeAttribute("position-type", "bottom");
+        } else if (this.positionType.equals(PositionType.TOP)) {
+            writer.writeAttribute("position-type", "top");
+        }
+
+        if (this.isLabelEditable) {
+            writer.writeAttribute("label-editable", "true");
+        }
+
+        if (!this.connBlockID.equals(Block.NULL)) {
+            writer.writeAttribute("con-block-id", Long.toString(connBlockID));
+        }
+    }
     
     /***********************************
     * State Saving Stuff for Undo/Redo *
@@ -507,10 +613,21 @@ public class BlockConnector implements ISupportMemento {
      * @return An instance of BlockConnector
      */
     public static BlockConnector instantiateFromState(Workspace workspace, Object memento) {
+        return instantiateFromState(workspace.getEnv(), memento);
+    }
+
+    /**
+     * Generates a BlockConnector from a memento in an environment that need
+     * not belong to a Workspace.
+     * @param env The environment in use
+     * @param memento The state to load
+     * @return An instance of BlockConnector
+     */
+    public static BlockConnector instantiateFromState(WorkspaceEnvironment env, Object memento) {
         if (memento instanceof BlockConnectorState) {
             BlockConnectorState state = (BlockConnectorState) memento;
 
-            BlockConnector instance = new BlockConnector(workspace, state.kind, state.positionType, state.label, state.isLabelEditable, state.isExpandable, state.connBlockID);
+            BlockConnector instance = new BlockConnector(env, state.kind, state.positionType, state.label, state.isLabelEditable, state.isExpandable, state.connBlockID);
             instance.isLabelEditable = state.isLabelEditable;
 
             if (state.hasDefArg) {
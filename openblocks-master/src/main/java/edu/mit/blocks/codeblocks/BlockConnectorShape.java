@@ -4,7 +4,6 @@ import java.awt.Dimension;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.GeneralPath;
 import java.awt.geom.Point2D;
-import java.util.HashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -13,6 +12,7 @@ import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
 import edu.mit.blocks.codeblocks.rendering.BlockShapeUtil;
+import edu.mit.blocks.workspace.WorkspaceEnvironment;
 
 
 /**
@@ -60,11 +60,8 @@ public class BlockConnectorShape {
     /** The path of the current connection begin drawn */
     private GeneralPath currentConnectorPath;
     
-    /** A hashmap mapping the application specific string of connection shapes to a shape identifying integer */
-    private static HashMap<String, Integer> SHAPE_MAPPINGS = new HashMap<String, Integer>();
-    
-    /** The shape name that maps to BlockConnectorShape.COMMAND*/
-    private static String COMMAND_SHAPE_NAME;
+    /** Extracts the value of an attribute from its string representation */
+    private static final Pattern attrExtractor = Pattern.compile("\"(.*)\"");
   
     /**Different styles of SocketShapes:
      * 1 is the normal shape
@@ -92,72 +89,23 @@ public class BlockConnectorShape {
     
     public static final int COMMAND = 14;
     
-    public static final boolean DEBUG_MODE = false;
-    
-    
-    public BlockConnectorShape() {
-        if (DEBUG_MODE) {
-            addDebugConnectionShapeMappings();
-        }
-    }
-    
-    
-    private void addDebugConnectionShapeMappings() {
-        addConnenctionShapeMapping("number", 1);
-        addConnenctionShapeMapping("number-list", 2);
-        addConnenctionShapeMapping("number-inv", 3);
-        addConnenctionShapeMapping("boolean", 4);
-        addConnenctionShapeMapping("boolean-list", 5);
-        addConnenctionShapeMapping("boolean-inv", 6);
-        addConnenctionShapeMapping("string", 7);
-        addConnenctionShapeMapping("string-list", 8);
-        addConnenctionShapeMapping("string-inv", 9);
-        addConnenctionShapeMapping("poly", 10);
-        addConnenctionShapeMapping("poly-list", 11);
-        addConnenctionShapeMapping("poly-inv", 12);
-        addConnenctionShapeMapping("proc-param", 13);
-        addConnenctionShapeMapping("cmd", 14);
-    }
-   
     ///////////////////////////////////////////
     ///// STATIC CONNECTOR SHAPE METHODS /////
     ///////////////////////////////////////////
     
     /**
-     * Add a mapping of an application specific string of a connection shape to a shape identifying integer
-     */
-    public static void addConnenctionShapeMapping(String shapeName, int integer) {
-        SHAPE_MAPPINGS.put(shapeName, integer);
-        if (integer == BlockConnectorShape.COMMAND) {
-            BlockConnectorShape.COMMAND_SHAPE_NAME = shapeName;
-        }
-    }
-    
-    /**
-     * Resets all the connector shape names to connector shape mappings.  
-     *
-     */
-    public static void resetConnectorShapeMappings(){
-        SHAPE_MAPPINGS.clear();
-    }
-    
-    /**
-     * Get a shape identifying integer mapped to an application specific string of a connection shape
+     * Get the shape identifying integer of a BlockConnector, from the connector shape
+     * mappings of the environment of the connector
      */
-    public static int getConnenctionShapeMapping(String shapeName) {
-        if (SHAPE_MAPPINGS.get(shapeName) == null) {
-            assert false : ("Unknown Connection Type: " + shapeName);
-            return -1;
-        } else {
-            return SHAPE_MAPPINGS.get(shapeName);
-        }
+    public static int getConnenctionShapeMapping(BlockConnector blockConnector) {
+        return blockConnector.getEnv().getConnectorShapeMapping(blockConnector.getKind());
     }
     
     /**
      * Gets the dimension of a given BlockConnector.  Mapping for the connector to a shape must already exist.
      */
     public static Dimension getConnectorDimensions(BlockConnector blockConnector) {
-        int mappedValue = getConnenctionShapeMapping(blockConnector.getKind());
+        int mappedValue = getConnenctionShapeMapping(blockConnector);
 
         //if shaped not yet mapped
         assert (mappedValue != -1) : "Block Connector is not mapped: " + blockConnector;
@@ -264,36 +212,36 @@ public class BlockConnectorShape {
      * Appends a dataPlug to the blockPath given.  Starts drawing from the top.
      *
      * @param blockPath the current GeneralPath of the block being drawn
-     * @param connectionShape specifies the socket shape to be added
+     * @param connector specifies the socket shape to be added
      * @param onRightSide (note this method assumes startingFromTop)
      */
-    public Point2D addDataSocket(GeneralPath blockPath, String connectionShape, boolean onRightSide) {
+    public Point2D addDataSocket(GeneralPath blockPath, BlockConnector connector, boolean onRightSide) {
         //if onRightSide, socket is convex-left
-        return addDataConnection(blockPath, connectionShape, true, !onRightSide);
+        return addDataConnection(blockPath, connector, true, !onRightSide);
     }
 
     //assosiated method to draw starting from the bottom of the socket
-    public Point2D addDataSocketUp(GeneralPath blockPath, String connectionShape, boolean onRightSide) {
+    public Point2D addDataSocketUp(GeneralPath blockPath, BlockConnector connector, boolean onRightSide) {
         //if onRightSide, socket is convex-left
-        return addDataConnection(blockPath, connectionShape, false, !onRightSide);
+        return addDataConnection(blockPath, connector, false, !onRightSide);
     }
     
     /**
      * Appends a dataSocket to the blockPath given.  Starts drawing from the top.
      * 
      * @param blockPath the current GeneralPath of the block being drawn
-     * @param connectionShape specifies the socket shape to be added
+     * @param connector specifies the socket shape to be added
      * @param onRightSide (note this method assumes startingFromTop)
      */
-    public Point2D addDataPlug(GeneralPath blockPath, String connectionShape, boolean onRightSide) {
+    public Point2D addDataPlug(GeneralPath blockPath, BlockConnector connector, boolean onRightSide) {
         //if onRightSide, plug is convex-right
-        return addDataConnection(blockPath, connectionShape, true, onRightSide);
+        return addDataConnection(blockPath, connector, true, onRightSide);
     }
 
     //  associated method to draw starting from the bottom of the socket
-    public Point2D addDataPlugUp(GeneralPath blockPath, String connectionShape, boolean onRightSide) {
+    public Point2D addDataPlugUp(GeneralPath blockPath, BlockConnector connector, boolean onRightSide) {
         //if onRightSide, plug is convex-right
-        return addDataConnection(blockPath, connectionShape, false, onRightSide);
+        return addDataConnection(blockPath, connector, false, onRightSide);
     }
     
     /**
@@ -306,14 +254,14 @@ public class BlockConnectorShape {
      * _lineTo and _curveTo are relative to the starting point of the the data connection to be drawn.
      * 
      * @param blockPath is the current GeneralPath to be appended
-     * @param connectionShape is the integer representing the kind and style of connection to be drawn
+     * @param connector is the connector whose kind and style of connection is to be drawn
      * @param startFromTop true if end of the current generalPath is at the top of the data connection to be drawn
      * @param convexRight true if curve drawn points to the right
      */
-    private Point2D addDataConnection(GeneralPath blockPath, String connectionShape, boolean startFromTop, boolean convexRight) {
+    private Point2D addDataConnection(GeneralPath blockPath, BlockConnector connector, boolean startFromTop, boolean convexRight) {
 
         //get the associated connection shape value
-        int connectionShapeInt = getConnenctionShapeMapping(connectionShape);
+        int connectionShapeInt = getConnenctionShapeMapping(connector);
 
         //get the initial point info and set the currentConnectorPath to use the _lineTo _curveTo methods
         startPoint = blockPath.getCurrentPoint();
@@ -576,11 +524,11 @@ public class BlockConnectorShape {
     }
 
     /**
-     * Loads the all the initial BlockConnectorShapes of this language
+     * Loads the all the initial BlockConnectorShapes of this language into an environment
+     * @param env the environment to map the connector shape names of the language in
      * @param root the Element carrying the specifications of the BlockConnectorShapes
      */
-    public static void loadBlockConnectorShapes(Element root) {
-        Pattern attrExtractor = Pattern.compile("\"(.*)\"");
+    public static void loadBlockConnectorShapes(WorkspaceEnvironment env, Element root) {
         Matcher nameMatcher;
         NodeList drawerNodes = root.getElementsByTagName("BlockConnectorShape");
         Node drawerNode;
@@ -599,7 +547,7 @@ public class BlockConnectorShape {
                 }
                 if (shapeType != null && shapeNumber != null) {
                     //create shape to number mapping here
-                    BlockConnectorShape.addConnenctionShapeMapping(shapeType, Integer.parseInt(shapeNumber));
+                    env.addConnectorShapeMapping(shapeType, Integer.parseInt(shapeNumber));
                 }
             }
         }
@@ -609,11 +557,11 @@ public class BlockConnectorShape {
     // STATIC HELPER METHODS //
     ///////////////////////////
     static public boolean isCommandConnector(BlockConnector connector) {
-        return (BlockConnectorShape.getConnenctionShapeMapping(connector.getKind()) == BlockConnectorShape.COMMAND);
+        return (BlockConnectorShape.getConnenctionShapeMapping(connector) == BlockConnectorShape.COMMAND);
     }
 
-    static public String getCommandShapeName() {
-        return BlockConnectorShape.COMMAND_SHAPE_NAME;
+    static public String getCommandShapeName(WorkspaceEnvironment env) {
+        return env.getCommandShapeName();
     }
 	
 }
@@ -2,6 +2,9 @@ package edu.mit.blocks.codeblocks;
 
 import java.awt.Color;
 import java.awt.Image;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
@@ -34,6 +37,8 @@ import edu.mit.blocks.workspace.WorkspaceEnvironment;
 public class BlockGenus {
 
     private static final String EMPTY_STRING = "";
+    /** Extracts the value of an attribute from its string representation */
+    private static final Pattern attrExtractor = Pattern.compile("\"(.*)\"");
 
     private final WorkspaceEnvironment env;
    
@@ -85,6 +90,9 @@ public class BlockGenus {
      */
     private List<List<BlockConnector>> expandGroups = new ArrayList<List<BlockConnector>>();
 
+    //the images loaded for this genus, as specified in the language definition
+    private List<ImageSpec> imageSpecs = new ArrayList<ImageSpec>();
+
     /**
      * Only BlockGenus can create BlockGenus objects, specifically only the function that loads
      * BlockGenuses information from the loadString can create BlockGenuses objects
@@ -493,12 +501,11 @@ public class BlockGenus {
 
     /**
      * Loads the BlockConnector information of the specified genus
-     * @param workspace The workspace in use
+     * @param env The environment in use
      * @param connectors NodeList of connector information to load from
      * @param genus BlockGenus to load block connector information onto
      */
-    private static void loadBlockConnectorInformation(Workspace workspace, NodeList connectors, BlockGenus genus) {
-        Pattern attrExtractor = Pattern.compile("\"(.*)\"");
+    private static void loadBlockConnectorInformation(WorkspaceEnvironment env, NodeList connectors, BlockGenus genus) {
         Matcher nameMatcher;
         Node opt_item;
         Node connector;
@@ -565,7 +572,7 @@ public class BlockGenus {
                                 if (nameMatcher.find()) {
                                     defargname = nameMatcher.group(1);
                                 }
-                                assert workspace.getEnv().getGenusWithName(defargname) != null : "Unknown BlockGenus: " + defargname;
+                                assert env.getGenusWithName(defargname) != null : "Unknown BlockGenus: " + defargname;
                                 //warning: if this block genus does not have an editable label, the label being loaded does not
                                 //have an affect
                                 opt_item = defarg.getAttributes().getNamedItem("label");
@@ -584,11 +591,11 @@ public class BlockGenus {
                 final BlockConnector socket;
                 //set the position type for this new connector, by default its set to single
                 if (positionType.equals("mirror")) {
-                    socket = new BlockConnector(workspace, connectorType, BlockConnector.PositionType.MIRROR, label, isLabelEditable, isExpandable, expandGroup, Block.NULL);
+                    socket = new BlockConnector(env, connectorType, BlockConnector.PositionType.MIRROR, label, isLabelEditable, isExpandable, expandGroup, Block.NULL);
                 } else if (positionType.equals("bottom")) {
-                    socket = new BlockConnector(workspace, connectorType, BlockConnector.PositionType.BOTTOM, label, isLabelEditable, isExpandable, expandGroup, Block.NULL);
+                    socket = new BlockConnector(env, connectorType, BlockConnector.PositionType.BOTTOM, label, isLabelEditable, isExpandable, expandGroup, Block.NULL);
                 } else {
-                    socket = new BlockConnector(workspace, connectorType, BlockConnector.PositionType.SINGLE, label, isLabelEditable, isExpandable, expandGroup, Block.NULL);
+                    socket = new BlockConnector(env, connectorType, BlockConnector.PositionType.SINGLE, label, isLabelEditable, isExpandable, expandGroup, Block.NULL);
                 }
 
                 //add def args if any
@@ -619,7 +626,6 @@ public class BlockGenus {
      * @param genus BlockGenus instance to load images onto
      */
     private static void loadBlockImages(NodeList images, BlockGenus genus) {
-        Pattern attrExtractor = Pattern.compile("\"(.*)\"");
         Matcher nameMatcher;
         Node imageNode;
         String location = null;
@@ -664,27 +670,7 @@ public class BlockGenus {
                     for (int j = 0; j < imageChildren.getLength(); j++) {
                         imageLocationNode = imageChildren.item(j);
                         if (imageLocationNode.getNodeName().equals("FileLocation")) {
-                            String fileLocation = imageLocationNode.getTextContent();
-                            try {
-                            	URL fileURL = BlockGenus.class.getClassLoader().getResource(fileLocation);
-                            	if (fileURL == null ) {
-                            		fileURL = new URL("file", "", /*workingDirectory +*/ fileLocation);
-                            	}
-                                if (fileURL != null && location != null) {
-                                    //translate location String to ImageLocation representation
-                                    ImageLocation imgLoc = ImageLocation.getImageLocation(location);
-                                    assert imgLoc != null : "Invalid location string loaded: " + imgLoc;
-
-                                    //store in blockImageMap
-                                    ImageIcon icon = new ImageIcon(fileURL);
-                                    if (width > 0 && height > 0) {
-                                        icon.setImage(icon.getImage().getScaledInstance(width, height, Image.SCALE_SMOOTH));
-                                    }
-                                    genus.blockImageMap.put(imgLoc, new BlockImageIcon(icon, imgLoc, isEditable, textWrap));
-                                }
-                            } catch (MalformedURLException e) {
-                                throw new RuntimeException(e);
-                            }
+                            addBlockImage(genus, new ImageSpec(imageLocationNode.getTextContent(), location, isEditable, textWrap, width, height));
                         }
                     }
                 }
@@ -692,13 +678,41 @@ public class BlockGenus {
         }
     }
 
+    /**
+     * Loads the image described by the specified spec onto the specified genus
+     * @param genus BlockGenus instance to load the image onto
+     * @param spec the description of the image
+     */
+    private static void addBlockImage(BlockGenus genus, ImageSpec spec) {
+        try {
+        	URL fileURL = BlockGenus.class.getClassLoader().getResource(spec.fileLocation);
+        	if (fileURL == null ) {
+        		fileURL = new URL("file", "", /*workingDirectory +*/ spec.fileLocation);
+        	}
+            if (fileURL != null && spec.location != null) {
+                //translate location String to ImageLocation representation
+                ImageLocation imgLoc = ImageLocation.getImageLocation(spec.location);
+                assert imgLoc != null : "Invalid location string loaded: " + imgLoc;
+
+                //store in blockImageMap
+                ImageIcon icon = new ImageIcon(fileURL);
+                if (spec.width > 0 && spec.height > 0) {
+                    icon.setImage(icon.getImage().getScaledInstance(spec.width, spec.height, Image.SCALE_SMOOTH));
+                }
+                genus.blockImageMap.put(imgLoc, new BlockImageIcon(icon, imgLoc, spec.isEditable, spec.textWrap));
+                genus.imageSpecs.add(spec);
+            }
+        } catch (MalformedURLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     /**
      * Loads the language definition properties of the specified genus
      * @param properties NodeList of properties to load from file
      * @param genus BlockGenus to load the properties onto
      */
     private static void loadLangDefProperties(NodeList properties, BlockGenus genus) {
-        Pattern attrExtractor = Pattern.compile("\"(.*)\"");
         Matcher nameMatcher;
         Node prop;
         String key = null, value = null;
@@ -733,7 +747,6 @@ public class BlockGenus {
      * @param genus BlockGenus to load stub information onto
      */
     private static void loadStubs(NodeList stubs, BlockGenus genus) {
-        Pattern attrExtractor = Pattern.compile("\"(.*)\"");
         Matcher nameMatcher;
         Node stub;
         String stubGenus = "";
@@ -778,9 +791,17 @@ public class BlockGenus {
      * @param root the Element carrying the specifications of the BlockGenuses
      */
     public static void loadBlockGenera(Workspace workspace, Element root) {
-    	WorkspaceEnvironment env = workspace.getEnv();
+        loadBlockGenera(workspace.getEnv(), root);
+    }
+
+    /**
+     * Loads the all the initial BlockGenuses and BlockGenus families of this language
+     * into an environment that need not belong to a Workspace
+     * @param env The environment in use
+     * @param root the Element carrying the specifications of the BlockGenuses
+     */
+    public static void loadBlockGenera(WorkspaceEnvironment env, Element root) {
 
-        Pattern attrExtractor = Pattern.compile("\"(.*)\"");
         Matcher nameMatcher;
         NodeList genusNodes = root.getElementsByTagName("BlockGenus"); //look for genus
         Node genusNode;
@@ -887,7 +908,7 @@ public class BlockGenus {
                         loadGenusDescription(genusChild.getChildNodes(), newGenus, attribName);
                     } else if (genusChild.getNodeName().equals("BlockConnectors")) {
                         /// LOAD BLOCK CONNECTOR INFORMATION ///
-                        loadBlockConnectorInformation(workspace, genusChild.getChildNodes(), newGenus);
+                        loadBlockConnectorInformation(env, genusChild.getChildNodes(), newGenus);
                         //if genus has two connectors both of bottom position type than this block is an infix operator
                         if (newGenus.sockets != null && newGenus.sockets.size() == 2
                                 && newGenus.sockets.get(0).getPositionType() == BlockConnector.PositionType.BOTTOM
@@ -909,10 +930,10 @@ public class BlockGenus {
 
                 // John's code to add command sockets... probably in the wrong place
                 if (!newGenus.isStarter) {
-                    newGenus.before = new BlockConnector(workspace, BlockConnectorShape.getCommandShapeName(), BlockConnector.PositionType.TOP, "", false, false, Block.NULL);
+                    newGenus.before = new BlockConnector(env, BlockConnectorShape.getCommandShapeName(env), BlockConnector.PositionType.TOP, "", false, false, Block.NULL);
                 }
                 if (!newGenus.isTerminator) {
-                    newGenus.after = new BlockConnector(workspace, BlockConnectorShape.getCommandShapeName(), BlockConnector.PositionType.BOTTOM, "", false, false, Block.NULL);
+                    newGenus.after = new BlockConnector(env, BlockConnectorShape.getCommandShapeName(env), BlockConnector.PositionType.BOTTOM, "", false, false, Block.NULL);
                 }
 
                 //System.out.println("Added "+newGenus.toString());
@@ -953,6 +974,190 @@ public class BlockGenus {
         }
     }
 
+    ///////////////////////////////
+    // LANGUAGE DEFINITION SNAPSHOT
+    ///////////////////////////////
+    /**
+     * Writes all the properties of this genus to the specified snapshot stream,
+     * as read back by readSnapshot().
+     */
+    void writeSnapshot(DataOutputStream out) throws IOException {
+        LangDefSnapshot.writeString(out, genusName);
+        out.writeBoolean(color != null);
+        if (color != null) {
+            out.writeInt(color.getRGB());
+        }
+        LangDefSnapshot.writeString(out, kind);
+        LangDefSnapshot.writeString(out, initLabel);
+        LangDefSnapshot.writeString(out, labelPrefix);
+        LangDefSnapshot.writeString(out, labelSuffix);
+        LangDefSnapshot.writeString(out, blockDescription);
+        out.writeBoolean(isStarter);
+        out.writeBoolean(isTerminator);
+        out.writeBoolean(isLabelEditable);
+        out.writeBoolean(labelMustBeUnique);
+        out.writeBoolean(isLabelValue);
+        out.writeBoolean(isPageLabelEnabled);
+        out.writeBoolean(hasDefArgs);
+        out.writeBoolean(areSocketsExpandable);
+        out.writeBoolean(isInfix);
+        writeConnector(out, plug);
+        writeConnectors(out, sockets);
+        writeConnector(out, before);
+        writeConnector(out, after);
+        LangDefSnapshot.writeStrings(out, familyList);
+        LangDefSnapshot.writeStrings(out, stubList);
+        out.writeInt(imageSpecs.size());
+        for (ImageSpec spec : imageSpecs) {
+            LangDefSnapshot.writeString(out, spec.fileLocation);
+            LangDefSnapshot.writeString(out, spec.location);
+            out.writeBoolean(spec.isEditable);
+            out.writeBoolean(spec.textWrap);
+            out.writeInt(spec.width);
+            out.writeInt(spec.height);
+        }
+        out.writeInt(properties.size());
+        for (Map.Entry<String, String> property : properties.entrySet()) {
+            LangDefSnapshot.writeString(out, property.getKey());
+            LangDefSnapshot.writeString(out, property.getValue());
+        }
+        LangDefSnapshot.writeStrings(out, argumentDescriptions);
+        out.writeInt(expandGroups.size());
+        for (List<BlockConnector> group : expandGroups) {
+            writeConnectors(out, group);
+        }
+    }
+
+    /**
+     * Reads a genus written by writeSnapshot().  The genus is not added to
+     * the environment.
+     * @param env The environment in use
+     * @param in the snapshot stream to read from
+     * @return the genus read
+     */
+    static BlockGenus readSnapshot(WorkspaceEnvironment env, DataInputStream in) throws IOException {
+        BlockGenus genus = new BlockGenus(env);
+        genus.genusName = LangDefSnapshot.readString(in);
+        if (in.readBoolean()) {
+            genus.color = new Color(in.readInt());
+        }
+        genus.kind = LangDefSnapshot.readString(in);
+        genus.initLabel = LangDefSnapshot.readString(in);
+        genus.labelPrefix = LangDefSnapshot.readString(in);
+        genus.labelSuffix = LangDefSnapshot.readString(in);
+        genus.blockDescription = LangDefSnapshot.readString(in);
+        genus.isStarter = in.readBoolean();
+        genus.isTerminator = in.readBoolean();
+        genus.isLabelEditable = in.readBoolean();
+        genus.labelMustBeUnique = in.readBoolean();
+        genus.isLabelValue = in.readBoolean();
+        genus.isPageLabelEnabled = in.readBoolean();
+        genus.hasDefArgs = in.readBoolean();
+        genus.areSocketsExpandable = in.readBoolean();
+        genus.isInfix = in.readBoolean();
+        genus.plug = readConnector(env, in);
+        genus.sockets = readConnectors(env, in);
+        genus.before = readConnector(env, in);
+        genus.after = readConnector(env, in);
+        genus.familyList = LangDefSnapshot.readStrings(in);
+        genus.stubList = LangDefSnapshot.readStrings(in);
+        int numImages = in.readInt();
+        for (int i = 0; i < numImages; i++) {
+            String fileLocation = LangDefSnapshot.readString(in);
+            String location = LangDefSnapshot.readString(in);
+            boolean isEditable = in.readBoolean();
+            boolean textWrap = in.readBoolean();
+            int width = in.readInt();
+            int height = in.readInt();
+            addBlockImage(genus, new ImageSpec(fileLocation, location, isEditable, textWrap, width, height));
+        }
+        int numProperties = in.readInt();
+        for (int i = 0; i < numProperties; i++) {
+            String key = LangDefSnapshot.readString(in);
+            genus.properties.put(key, LangDefSnapshot.readString(in));
+        }
+        genus.argumentDescriptions = LangDefSnapshot.readStrings(in);
+        int numGroups = in.readInt();
+        for (int i = 0; i < numGroups; i++) {
+            genus.expandGroups.add(readConnectors(env, in));
+        }
+        return genus;
+    }
+
+    private static void writeConnectors(DataOutputStream out, List<BlockConnector> connectors) throws IOException {
+        out.writeInt(connectors.size());
+        for (BlockConnector connector : connectors) {
+            writeConnector(out, connector);
+        }
+    }
+
+    private static List<BlockConnector> readConnectors(WorkspaceEnvironment env, DataInputStream in) throws IOException {
+        int size = in.readInt();
+        List<BlockConnector> connectors = new ArrayList<BlockConnector>(size);
+        for (int i = 0; i < size; i++) {
+            connectors.add(readConnector(env, in));
+        }
+        return connectors;
+    }
+
+    private static void writeConnector(DataOutputStream out, BlockConnector connector) throws IOException {
+        out.writeBoolean(connector != null);
+        if (connector == null) {
+            return;
+        }
+        LangDefSnapshot.writeString(out, connector.getKind());
+        LangDefSnapshot.writeString(out, connector.getPositionType().name());
+        LangDefSnapshot.writeString(out, connector.getLabel());
+        out.writeBoolean(connector.isLabelEditable());
+        out.writeBoolean(connector.isExpandable());
+        LangDefSnapshot.writeString(out, connector.getExpandGroup());
+        out.writeBoolean(connector.hasDefArg());
+        if (connector.hasDefArg()) {
+            LangDefSnapshot.writeString(out, connector.getDefArgGenusName());
+            LangDefSnapshot.writeString(out, connector.getDefArgLabel());
+        }
+    }
+
+    private static BlockConnector readConnector(WorkspaceEnvironment env, DataInputStream in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        String kind = LangDefSnapshot.readString(in);
+        BlockConnector.PositionType positionType = BlockConnector.PositionType.valueOf(LangDefSnapshot.readString(in));
+        String label = LangDefSnapshot.readString(in);
+        boolean isLabelEditable = in.readBoolean();
+        boolean isExpandable = in.readBoolean();
+        String expandGroup = LangDefSnapshot.readString(in);
+        BlockConnector connector = new BlockConnector(env, kind, positionType, label, isLabelEditable, isExpandable, expandGroup, Block.NULL);
+        if (in.readBoolean()) {
+            String genusName = LangDefSnapshot.readString(in);
+            connector.setDefaultArgument(genusName, LangDefSnapshot.readString(in));
+        }
+        return connector;
+    }
+
+    /**
+     * The description of an image of a genus, as loaded from the language definition
+     */
+    private static class ImageSpec {
+
+        private final String fileLocation;
+        private final String location;
+        private final boolean isEditable;
+        private final boolean textWrap;
+        private final int width;
+        private final int height;
+
+        ImageSpec(String fileLocation, String location, boolean isEditable, boolean textWrap, int width, int height) {
+            this.fileLocation = fileLocation;
+            this.location = location;
+            this.isEditable = isEditable;
+            this.textWrap = textWrap;
+            this.width = width;
+            this.height = height;
+        }
+    }
+
     /**
      * Returns String representation of this
      */
@@ -4,6 +4,7 @@ import edu.mit.blocks.codeblockutil.Sound;
 import edu.mit.blocks.codeblockutil.SoundManager;
 import edu.mit.blocks.renderable.RenderableBlock;
 import edu.mit.blocks.workspace.Workspace;
+import edu.mit.blocks.workspace.WorkspaceEnvironment;
 import edu.mit.blocks.workspace.WorkspaceEvent;
 
 /**
@@ -16,34 +17,34 @@ import edu.mit.blocks.workspace.WorkspaceEvent;
  * while a "socket" can either be a after or socket connector.  Plugs can only 
  * connect to other socket connectors, while before connectors can connect to 
  * after and command socket connectors.  
+ *
+ * Links of environments that do not belong to a Workspace connect their blocks
+ * without notifying any RenderableBlock or playing any sound.
  */
 public class BlockLink {
 
-    private final Workspace workspace;
+    private final WorkspaceEnvironment env;
     
     private static Sound clickSound;
+    private static boolean clickSoundLoaded = false;
     private Long plugBlockID;
     private Long socketBlockID;
     private Long lastPlugBlockID;
     private BlockConnector plug;
     private BlockConnector socket;
-    //information regarding the last BlockLink instance
-    private static Long lastPlugID;
-    private static Long lastSocketID;
-    private static BlockConnector lastPlug;
-    private static BlockConnector lastSocket;
-    private static BlockLink lastLink;
+    //the last BlockLink instance created by each thread, which workspaces each use from a single thread
+    private static final ThreadLocal<BlockLink> lastLink = new ThreadLocal<BlockLink>();
 
     /**
      * Private constructor to (somewhat) limit object creation
-     * @param workspace The corresponding workspace
+     * @param env The corresponding environment
      * @param block1
      * @param block2
      * @param socket1
      * @param socket2
      */
-    private BlockLink(Workspace workspace, Block block1, Block block2, BlockConnector socket1, BlockConnector socket2) {
-        this.workspace = workspace;
+    private BlockLink(WorkspaceEnvironment env, Block block1, Block block2, BlockConnector socket1, BlockConnector socket2) {
+        this.env = env;
         boolean isPlug1 = (block1.hasPlug() && block1.getPlug() == socket1)
                 || (block1.hasBeforeConnector() && block1.getBeforeConnector() == socket1);
         boolean isPlug2 = (block2.hasPlug() && block2.getPlug() == socket2)
@@ -62,20 +63,23 @@ public class BlockLink {
             plugBlockID = block2.getBlockID();
             socketBlockID = block1.getBlockID();
         }
-        lastPlugID = plugBlockID;
-        lastSocketID = socketBlockID;
-        lastPlug = plug;
-        lastSocket = socket;
         lastPlugBlockID = Block.NULL;
     }
 
-    static {
-        //load the sound for connecting blocks, but only once
-        try {
-            clickSound = SoundManager.loadSound("/edu/mit/blocks/codeblocks/click.wav");
-        } catch (Exception e) {
-            System.out.println("Error initializing sounds.  Continuing...");
+    /**
+     * @return the sound for connecting blocks, loaded the first time blocks
+     * 			of a workspace are connected, or null if it could not be loaded
+     */
+    private static synchronized Sound getClickSound() {
+        if (!clickSoundLoaded) {
+            clickSoundLoaded = true;
+            try {
+                clickSound = SoundManager.loadSound("/edu/mit/blocks/codeblocks/click.wav");
+            } catch (Exception e) {
+                System.out.println("Error initializing sounds.  Continuing...");
+            }
         }
+        return clickSound;
     }
 
     /**
@@ -130,18 +134,21 @@ public class BlockLink {
             lastPlugBlockID = socket.getBlockID();
 
             // break the link between the socket block and the block in that socket
-            Block plugBlock = workspace.getEnv().getBlock(lastPlugBlockID);
+            Block plugBlock = env.getBlock(lastPlugBlockID);
             BlockConnector plugBlockPlug = BlockLinkChecker.getPlugEquivalent(plugBlock);
             if (plugBlockPlug != null && plugBlockPlug.hasBlock()) {
-                Block socketBlock = workspace.getEnv().getBlock(plugBlockPlug.getBlockID());
-                BlockLink link = BlockLink.getBlockLink(workspace, plugBlock, socketBlock, plugBlockPlug, socket);
+                Block socketBlock = env.getBlock(plugBlockPlug.getBlockID());
+                BlockLink link = BlockLink.getBlockLink(env, plugBlock, socketBlock, plugBlockPlug, socket);
                 link.disconnect();
                 //don't tell the block about the disconnect like we would normally do, because
                 // we don't actually want it to have a chance to remove any expandable sockets
                 // since the inserted block will be filling whatever socket was vacated by this
                 // broken link.
                 //NOTIFY WORKSPACE LISTENERS OF DISCONNECTION (not sure if this is great because the connection is immediately replaced)
-                workspace.notifyListeners(new WorkspaceEvent(workspace, workspace.getEnv().getRenderableBlock(socketBlock.getBlockID()).getParentWidget(), link, WorkspaceEvent.BLOCKS_DISCONNECTED));
+                Workspace workspace = env.getWorkspace();
+                if (workspace != null) {
+                    workspace.notifyListeners(new WorkspaceEvent(workspace, env.getRenderableBlock(socketBlock.getBlockID()).getParentWidget(), link, WorkspaceEvent.BLOCKS_DISCONNECTED));
+                }
             }
         }
         if (plug.hasBlock()) {
@@ -156,13 +163,20 @@ public class BlockLink {
         plug.setConnectorBlockID(socketBlockID);
         socket.setConnectorBlockID(plugBlockID);
 
+        if (env.getWorkspace() == null) {
+            //without a renderable block, notify the socket block itself
+            env.getBlock(socketBlockID).blockConnected(socket, plugBlockID);
+            return;
+        }
+
         //notify renderable block of connection so it can redraw with stretching
-        RenderableBlock socketRB = workspace.getEnv().getRenderableBlock(socketBlockID);
+        RenderableBlock socketRB = env.getRenderableBlock(socketBlockID);
         socketRB.blockConnected(socket, plugBlockID);
 
-        if (clickSound != null) {
+        Sound sound = getClickSound();
+        if (sound != null) {
             //System.out.println("playing click sound");
-            clickSound.play();
+            sound.play();
         }
     }
 
@@ -181,14 +195,31 @@ public class BlockLink {
      * @return a BlockLink object storing the potential link between block1 and block2
      */
     public static BlockLink getBlockLink(Workspace workspace, Block block1, Block block2, BlockConnector socket1, BlockConnector socket2) {
+        return getBlockLink(workspace.getEnv(), block1, block2, socket1, socket2);
+    }
+
+    /**
+     * Factory method for creating BlockLink objects in an environment that need
+     * not belong to a Workspace
+     * @param env The current environment
+     * @param block1 one of the Block objects in the potential link
+     * @param block2 the other Block object
+     * @param socket1 the BlockConnector from block1
+     * @param socket2 the BlockConnector from block2
+     * @return a BlockLink object storing the potential link between block1 and block2
+     */
+    public static BlockLink getBlockLink(WorkspaceEnvironment env, Block block1, Block block2, BlockConnector socket1, BlockConnector socket2) {
         // If these arguments are the same as the last call to getBlockLink, return the old object instead of creating a new one
-        if (!((block1.getBlockID().equals(lastPlugID) && block2.getBlockID().equals(lastSocketID)
-                && socket1.equals(lastPlug) && socket2.equals(lastSocket))
-                || (block2.getBlockID().equals(lastPlugID) && block1.getBlockID().equals(lastSocketID)
-                && socket2.equals(lastPlug) && socket1.equals(lastSocket)))) {
-            lastLink = new BlockLink(workspace, block1, block2, socket1, socket2);
+        BlockLink last = lastLink.get();
+        if (last == null || last.env != env
+                || !((block1.getBlockID().equals(last.plugBlockID) && block2.getBlockID().equals(last.socketBlockID)
+                && socket1.equals(last.plug) && socket2.equals(last.socket))
+                || (block2.getBlockID().equals(last.plugBlockID) && block1.getBlockID().equals(last.socketBlockID)
+                && socket2.equals(last.plug) && socket1.equals(last.socket)))) {
+            last = new BlockLink(env, block1, block2, socket1, socket2);
+            lastLink.set(last);
         }
-        return lastLink;
+        return last;
     }
 
     public String toString() {
@@ -2,7 +2,6 @@ package edu.mit.blocks.codeblocks;
 
 import java.awt.geom.Point2D;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.Collections;
 
 import edu.mit.blocks.renderable.RenderableBlock;
@@ -16,56 +15,73 @@ import edu.mit.blocks.workspace.WorkspaceListener;
  * Interested <code>Block</code> objects may make a static call to canLink() to determine if it can link to another
  * <code>Block</code> object.
  * 
- * <code>BlockLinkChecker</code> uses a list of <code>LinkRule</code>s to check the <code>Connector</code>s of each
- * <code>Block</code>.  Rules may be added, inserted, and removed from the checker.  
+ * <code>BlockLinkChecker</code> uses the <code>LinkRuleRegistry</code> of each workspace to check the
+ * <code>Connector</code>s of each <code>Block</code>.  Rules may be added, inserted, and removed from the
+ * registry of a workspace without affecting any other workspace.
  * 
  * There is only one instance of the <code>BlockLinkChecker</code>.
  */
 public class BlockLinkChecker {
 
-    private static ArrayList<LinkRule> rules = new ArrayList<LinkRule>();
     // TODO get a better value
     private static double MAX_LINK_DISTANCE = 20.0;
 
     /**
-     * Clears all the rules within this.
+     * Clears all the rules of the specified workspace and stops rules that are
+     * WorkspaceListeners from listening to it.
+     * @param workspace The workspace in use
      */
-    public static void reset() {
-        rules.clear();
+    public static void reset(Workspace workspace) {
+        LinkRuleRegistry registry = workspace.getEnv().getLinkRuleRegistry();
+        for (LinkRule rule : registry.getRules()) {
+            if (rule instanceof WorkspaceListener) {
+                workspace.removeWorkspaceListener((WorkspaceListener) rule);
+            }
+        }
+        registry.clear();
     }
 
     /**
-     * Adds a rule to the end of this checker's list of rules.
-     * If the rule already exists in the rule list, the rule is removed in the original location and 
-     * added to the end of the list.
+     * Adds a rule to the end of the specified workspace's list of rules.
+     * @param workspace The workspace in use
      * @param rule the desired LinkRule to be added
      */
     public static void addRule(Workspace workspace, LinkRule rule) {
-        rules.add(rule);
+        workspace.getEnv().getLinkRuleRegistry().add(rule);
         if (rule instanceof WorkspaceListener) {
             workspace.addWorkspaceListener((WorkspaceListener) rule);
         }
     }
 
     /**
-     * Insert rule at the specified index in this checker's list of rules.  The original rule at the 
+     * Insert rule at the specified index in the specified workspace's list of rules.  The original rule at the 
      * specified index and rules after it are shifted down the list. If the index is greater 
      * or equal to the length of the rule list, then the rule is added to the end of the list.  
      * If the rule already exists in the rule list, the rule is moved to the specified index.
+     * @param workspace The workspace in use
      * @param rule the desired rule to insert
      * @param index the index to insert the rule in
      */
-    public static void insertRule(LinkRule rule, int index) {
-        rules.remove(rule);
-        rules.add(index, rule);
+    public static void insertRule(Workspace workspace, LinkRule rule, int index) {
+        workspace.getEnv().getLinkRuleRegistry().insert(rule, index);
     }
 
     /**
-     * Removes the specified rule from the rule list
+     * Removes the specified rule from the specified workspace's rule list
+     * @param workspace The workspace in use
      * @param rule the desired LinkRule to remove
      */
-    public static void removeRule(LinkRule rule) {
-        rules.remove(rule);
+    public static void removeRule(Workspace workspace, LinkRule rule) {
+        workspace.getEnv().getLinkRuleRegistry().remove(rule);
+    }
+
+    /**
+     * Returns the maximum distance, in pixels, between a plug and a socket
+     * for getLink() to consider linking them.
+     * @return the maximum link distance
+     */
+    public static double getMaxLinkDistance() {
+        return MAX_LINK_DISTANCE;
     }
 
     /**
@@ -78,7 +94,7 @@ public class BlockLinkChecker {
      * @param con2 the BlockConnector at block2 to compare against con1
      */
     public static BlockLink canLink(Workspace workspace, Block block1, Block block2, BlockConnector con1, BlockConnector con2) {
-        if (checkRules(block1, block2, con1, con2)) {
+        if (checkRules(workspace, block1, block2, con1, con2)) {
             return BlockLink.getBlockLink(workspace, block1, block2, con1, con2);
         }
 
@@ -117,7 +133,7 @@ public class BlockLinkChecker {
                 for (BlockConnector currentSocket : getSocketEquivalents(block2)) {
                     currentSocketPoint = getAbsoluteSocketPoint(rblock2, currentSocket);
                     currentDistance = currentPlugPoint.distance(currentSocketPoint);
-                    if ((currentDistance < closestDistance) && checkRules(block1, block2, currentPlug, currentSocket)) {
+                    if ((currentDistance < closestDistance) && checkRules(workspace, block1, block2, currentPlug, currentSocket)) {
                         closestBlock2 = block2;
                         closestSocket1 = currentPlug;
                         closestSocket2 = currentSocket;
@@ -132,7 +148,7 @@ public class BlockLinkChecker {
                 for (BlockConnector currentSocket : getSocketEquivalents(block1)) {
                     currentSocketPoint = getAbsoluteSocketPoint(rblock1, currentSocket);
                     currentDistance = currentPlugPoint.distance(currentSocketPoint);
-                    if ((currentDistance < closestDistance) && checkRules(block1, block2, currentSocket, currentPlug)) {
+                    if ((currentDistance < closestDistance) && checkRules(workspace, block1, block2, currentSocket, currentPlug)) {
                         closestBlock2 = block2;
                         closestSocket1 = currentSocket;
                         closestSocket2 = currentPlug;
@@ -187,7 +203,7 @@ public class BlockLinkChecker {
                 for (BlockConnector currentSocket : getSocketEquivalents(block2)) {
                     currentSocketPoint = getAbsoluteSocketPoint(rblock2, currentSocket);
                     currentDistance = currentPlugPoint.distance(currentSocketPoint);
-                    if ((currentDistance < closestDistance) && checkRules(block1, block2, currentPlug, currentSocket)) {
+                    if ((currentDistance < closestDistance) && checkRules(workspace, block1, block2, currentPlug, currentSocket)) {
                         closestBlock2 = block2;
                         closestSocket1 = currentPlug;
                         closestSocket2 = currentSocket;
@@ -202,7 +218,7 @@ public class BlockLinkChecker {
                 for (BlockConnector currentSocket : getSocketEquivalents(block1)) {
                     currentSocketPoint = getAbsoluteSocketPoint(rblock1, currentSocket);
                     currentDistance = currentPlugPoint.distance(currentSocketPoint);
-                    if ((currentDistance < closestDistance) && checkRules(block1, block2, currentSocket, currentPlug)) {
+                    if ((currentDistance < closestDistance) && checkRules(workspace, block1, block2, currentSocket, currentPlug)) {
                         closestBlock2 = block2;
                         closestSocket1 = currentSocket;
                         closestSocket2 = currentPlug;
@@ -220,27 +236,16 @@ public class BlockLinkChecker {
     }
 
     /**
-     * Checks if a potential link satisfies ANY of the rules loaded into the link checker
+     * Checks if a potential link satisfies the rules loaded into the specified workspace
+     * @param workspace The workspace in use
      * @param block1 one Block in the potential link
      * @param block2 the other Block
      * @param socket1 the BlockConnector from block1 in the potential link
      * @param socket2 the BlockConnector from block2
      * @return true if the pairing of block1 and block2 at socket1 and socket2 passes any rules, false otherwise
      */
-    private static boolean checkRules(Block block1, Block block2, BlockConnector socket1, BlockConnector socket2) {
-        Iterator<LinkRule> rulesList = Collections.unmodifiableList(rules).iterator();
-        LinkRule currentRule = null;
-        boolean foundRule = false;
-        while (rulesList.hasNext()) {
-            currentRule = rulesList.next();
-            boolean canLink = currentRule.canLink(block1, block2, socket1, socket2);
-            if (!currentRule.isMandatory()) {
-                foundRule |= canLink;
-            } else if (!canLink) {
-                return false;
-            }
-        }
-        return foundRule;
+    private static boolean checkRules(Workspace workspace, Block block1, Block block2, BlockConnector socket1, BlockConnector socket2) {
+        return workspace.getEnv().getLinkRuleRegistry().checkRules(block1, block2, socket1, socket2);
     }
 
     /**
@@ -357,7 +357,7 @@ public class BlockShape {
         if ((block.getPlug() != null)
                 && (block.getPlug().getPositionType().equals(BlockConnector.PositionType.MIRROR))) {
             //add the plug to the gpRight
-            BCS.addDataPlug(gpRight, block.getPlug().getKind(), true);
+            BCS.addDataPlug(gpRight, block.getPlug(), true);
 
         }
 
@@ -385,7 +385,7 @@ public class BlockShape {
                     appendConnectorOffset(gpRight, topRightCorner, botRightCorner, curSocket, true);
 
                     //it's a data socket
-                    Point2D p = BCS.addDataSocket(gpRight, curSocket.getKind(), true);
+                    Point2D p = BCS.addDataSocket(gpRight, curSocket, true);
                     rb.updateSocketPoint(curSocket, p);
 
                     int spacerHeight = getSocketSpacerHeight(curSocket, BlockConnectorShape.DATA_PLUG_HEIGHT);
@@ -426,7 +426,7 @@ public class BlockShape {
             appendConnectorOffset(gpLeft, topLeftCorner, botLeftCorner, block.getPlug(), true);
 
             //add the plug shape to the gpLeft
-            Point2D p = BCS.addDataPlug(gpLeft, block.getPlug().getKind(), false);
+            Point2D p = BCS.addDataPlug(gpLeft, block.getPlug(), false);
             rb.updateSocketPoint(block.getPlug(), p);
 
             appendConnectorOffset(gpLeft, topLeftCorner, botLeftCorner, block.getPlug(), false);
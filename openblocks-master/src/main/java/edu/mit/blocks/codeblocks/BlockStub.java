@@ -2,9 +2,11 @@ package edu.mit.blocks.codeblocks;
 
 import java.awt.Color;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
 import java.util.Iterator;
-import java.util.Map;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -12,8 +14,10 @@ import org.w3c.dom.Node;
 
 import edu.mit.blocks.codeblocks.BlockConnector.PositionType;
 
+import edu.mit.blocks.renderable.Comment;
 import edu.mit.blocks.renderable.RenderableBlock;
 import edu.mit.blocks.workspace.Workspace;
+import edu.mit.blocks.workspace.WorkspaceEnvironment;
 import edu.mit.blocks.workspace.WorkspaceEvent;
 
 /**
@@ -30,12 +34,6 @@ import edu.mit.blocks.workspace.WorkspaceEvent;
  */
 public class BlockStub extends Block {
 
-    /**
-     * Temporary mapping for parent type (caller plugs). 
-     * TODO remove once BlockUtilities cloneBlock() is finished
-     */
-    private static Map<String, String> parentToPlugType = new HashMap<String, String>();
-
     //stub type string constants
     private static final String GETTER_STUB = "getter";
     private static final String SETTER_STUB = "setter";
@@ -48,6 +46,8 @@ public class BlockStub extends Block {
     private String parentName;
     private final String parentGenus;
     private final String stubGenus;
+    /** True while the renderable notification of this is deferred by the BlockStubRegistry */
+    boolean notificationPending = false;
 
     /**
      * mySocketToParentSocket maps the sockets of this stubs to the sockets of its parent
@@ -66,7 +66,20 @@ public class BlockStub extends Block {
      * @param stubGenus
      */
     public BlockStub(Workspace workspace, Long initParentID, String parentGenus, String parentName, String stubGenus) {
-        super(workspace, stubGenus);
+        this(workspace.getEnv(), initParentID, parentGenus, parentName, stubGenus);
+    }
+
+    /**
+     * Constructs a new <code>BlockStub</code> instance in an environment that need not
+     * belong to a Workspace.
+     * @param env The environment this stub should be created in
+     * @param initParentID the Long block ID of its initial parent
+     * @param parentGenus the BlockGenus String name of its initial parent
+     * @param parentName
+     * @param stubGenus
+     */
+    public BlockStub(WorkspaceEnvironment env, Long initParentID, String parentGenus, String parentName, String stubGenus) {
+        super(env, stubGenus);
 
         assert initParentID != Block.NULL : "Parent id of stub should not be null";
 
@@ -75,7 +88,7 @@ public class BlockStub extends Block {
         this.stubGenus = stubGenus;
 
         //initial parent of this
-        Block parent = workspace.getEnv().getBlock(initParentID);
+        Block parent = getEnv().getBlock(initParentID);
         //has parent block label
         this.setBlockLabel(parent.getBlockLabel());
         //initialize stub properties based on stubGenus such as sockets, plugs, and labels
@@ -109,7 +122,7 @@ public class BlockStub extends Block {
                     BlockConnector socket = sockets.next();
                     //socket labels should correspond with the socket blocks of parent
                     if (socket.getBlockID() != Block.NULL) {
-                        addSocket(socket.getKind(), BlockConnector.PositionType.SINGLE, workspace.getEnv().getBlock(socket.getBlockID()).getBlockLabel(), false, false, Block.NULL);
+                        addSocket(socket.getKind(), BlockConnector.PositionType.SINGLE, getEnv().getBlock(socket.getBlockID()).getBlockLabel(), false, false, Block.NULL);
                     }
                 }
             }
@@ -118,7 +131,7 @@ public class BlockStub extends Block {
             // If our parent already has a plug type, we want to update 
             // Note that we don't need to call renderables, since we are still
             // in the constructor
-            String kind = parentToPlugType.get(parent.getBlockLabel() + parent.getGenusName());
+            String kind = getEnv().getStubRegistry().getPlugKind(parent.getBlockLabel(), parent.getGenusName());
             if (kind != null) {
                 removeBeforeAndAfter();
                 //TODO ria commented code relates to creating mirror plugs for caller stubs that have no sockets
@@ -152,11 +165,10 @@ public class BlockStub extends Block {
 
         //has  page label of parent if parent has page label
         this.setPageLabel(parent.getPageLabel());
-        //add new stub to hashmaps
-        //parent should have existed in hashmap before this stub was created
+        //add new stub to the registry
+        //parent should have existed in the registry before this stub was created
         //(look at main Block constructor)
-        //thus no problem should occur with following line
-        workspace.getEnv().getBlockStubs(parentName + parentGenus).add(this.getBlockID());
+        getEnv().getStubRegistry().addStub(parentName, parentGenus, this.getBlockID());
 
     }
 
@@ -171,7 +183,21 @@ public class BlockStub extends Block {
      * @param parentGenus the String BlockGenus name of its parent
      */
     protected BlockStub(Workspace workspace, Long blockID, String stubGenus, String label, String parentName, String parentGenus) {
-        super(workspace, blockID, stubGenus, label, true);   //stubs may have stubs...
+        this(workspace.getEnv(), blockID, stubGenus, label, parentName, parentGenus);
+    }
+
+    /**
+     * Constructs a new BlockStub instance in an environment that need not belong to a
+     * Workspace, while Block loads its information from the save String
+     * @param env The environment this stub should be created in
+     * @param blockID the Long block ID of this
+     * @param stubGenus the BlockGenus of this
+     * @param label the Block label of this
+     * @param parentName the String name of its parent
+     * @param parentGenus the String BlockGenus name of its parent
+     */
+    protected BlockStub(WorkspaceEnvironment env, Long blockID, String stubGenus, String label, String parentName, String parentGenus) {
+        super(env, blockID, stubGenus, label, true);   //stubs may have stubs...
         //unlike the above constructor, the blockID specified should already
         //be referencing a fully loaded block with all necessary information
         //such as sockets, plugs, labels, etc.
@@ -180,15 +206,9 @@ public class BlockStub extends Block {
         this.parentName = parentName;
         this.parentGenus = parentGenus;
 
-        //there's a chance that the parent for this has not been added to parentNameToBlockStubs mapping
-        String key = parentName + parentGenus;
-        if (workspace.getEnv().containsBlockStubs(key)) {
-            workspace.getEnv().getBlockStubs(parentName + parentGenus).add(this.getBlockID());
-        } else {
-            ArrayList<Long> stubs = new ArrayList<Long>();
-            stubs.add(this.getBlockID());
-            workspace.getEnv().putBlockStubs(key, stubs);
-        }
+        //there's a chance that the parent for this has not been added to the registry yet;
+        //the stub then waits for a parent of its parent name and genus
+        getEnv().getStubRegistry().addStub(parentName, parentGenus, this.getBlockID());
     }
 
     /**
@@ -196,12 +216,14 @@ public class BlockStub extends Block {
      * @param blockID
      */
     public static Iterable<Long> getStubsOfParent(Workspace workspace, Block block) {
-        ArrayList<Long> stubs = workspace.getEnv().getBlockStubs(block.getBlockLabel() + block.getGenusName());
-        if (stubs != null) {
-            return stubs;
-        } else {
-            return new ArrayList<Long>();
-        }
+        return getStubsOfParent(workspace.getEnv(), block);
+    }
+
+    /**
+     * @see #getStubsOfParent(Workspace, Block)
+     */
+    public static Iterable<Long> getStubsOfParent(WorkspaceEnvironment env, Block block) {
+        return env.getStubRegistry().getStubs(block.getBlockLabel(), block.getGenusName());
     }
 
     /**
@@ -209,21 +231,29 @@ public class BlockStub extends Block {
      * @param blockID
      */
     public static void putNewParentInStubMap(Workspace workspace, Long blockID) {
-        String key = workspace.getEnv().getBlock(blockID).getBlockLabel() + workspace.getEnv().getBlock(blockID).getGenusName();
-        workspace.getEnv().putParentBlock(key, blockID);
+        putNewParentInStubMap(workspace.getEnv(), blockID);
+    }
 
-        if (workspace.getEnv().getBlockStubs(key) == null) {
-            workspace.getEnv().putBlockStubs(key, new ArrayList<Long>());
-        }
+    /**
+     * @see #putNewParentInStubMap(Workspace, Long)
+     */
+    public static void putNewParentInStubMap(WorkspaceEnvironment env, Long blockID) {
+        BlockStubRegistry registry = env.getStubRegistry();
+        Block parent = env.getBlock(blockID);
+        registry.putParent(parent.getBlockLabel(), parent.getGenusName(), blockID);
 
         //notify dangling stubs and update their renderables
         //dangling stubs will be waiting to have a parent assigned to them
         //and reflect that graphically
-        for (Long stubID : workspace.getEnv().getBlockStubs(key)) {
-            BlockStub stub = (BlockStub) workspace.getEnv().getBlock(stubID);
-            stub.notifyRenderable();
+        registry.beginBatch();
+        try {
+            for (Long stubID : registry.getStubs(parent.getBlockLabel(), parent.getGenusName())) {
+                BlockStub stub = (BlockStub) env.getBlock(stubID);
+                stub.notifyRenderable();
+            }
+        } finally {
+            registry.endBatch();
         }
-
     }
 
     /**
@@ -233,35 +263,34 @@ public class BlockStub extends Block {
      * @param parentID
      */
     public static void parentNameChanged(Workspace workspace, String oldParentName, String newParentName, Long parentID) {
-        String oldKey = oldParentName + workspace.getEnv().getBlock(parentID).getGenusName();
-        String newKey = newParentName + workspace.getEnv().getBlock(parentID).getGenusName();
+        parentNameChanged(workspace.getEnv(), oldParentName, newParentName, parentID);
+    }
+
+    /**
+     * @see #parentNameChanged(Workspace, String, String, Long)
+     */
+    public static void parentNameChanged(WorkspaceEnvironment env, String oldParentName, String newParentName, Long parentID) {
+        String parentGenus = env.getBlock(parentID).getGenusName();
 
         //only update if parents name really did "change" meaning the new parent name is
         //different from the old parent name
-        if (!oldKey.equals(newKey)) {
-            workspace.getEnv().putParentBlock(newKey, parentID);
+        if (oldParentName == null ? newParentName != null : !oldParentName.equals(newParentName)) {
+            BlockStubRegistry registry = env.getStubRegistry();
+            Collection<Long> stubs = registry.renameParent(oldParentName, newParentName, parentGenus, parentID);
 
             //update the parent name of each stub
-            ArrayList<Long> stubs = workspace.getEnv().getBlockStubs(oldKey);
-            for (Long stub : stubs) {
-                BlockStub blockStub = ((BlockStub) workspace.getEnv().getBlock(stub));
-                blockStub.parentName = newParentName;
-                //update block label of each
-                blockStub.setBlockLabel(newParentName);
-                blockStub.notifyRenderable();
-            }
-
-            //check if any stubs already exist for new key
-            ArrayList<Long> existingStubs = workspace.getEnv().getBlockStubs(newKey);
-            if (existingStubs != null) {
-                stubs.addAll(existingStubs);
+            registry.beginBatch();
+            try {
+                for (Long stub : stubs) {
+                    BlockStub blockStub = ((BlockStub) env.getBlock(stub));
+                    blockStub.parentName = newParentName;
+                    //update block label of each
+                    blockStub.setBlockLabel(newParentName);
+                    blockStub.notifyRenderable();
+                }
+            } finally {
+                registry.endBatch();
             }
-
-            workspace.getEnv().putBlockStubs(newKey, stubs);
-
-            //remove old parent name from hash maps
-            workspace.getEnv().removeParentBlock(oldKey);
-            workspace.getEnv().removeBlockStubs(oldKey);
         }
     }
 
@@ -271,16 +300,26 @@ public class BlockStub extends Block {
      * @param parentID
      */
     public static void parentPageLabelChanged(Workspace workspace, String newPageLabel, Long parentID) {
-        String key = workspace.getEnv().getBlock(parentID).getBlockLabel() + workspace.getEnv().getBlock(parentID).getGenusName();
+        parentPageLabelChanged(workspace.getEnv(), newPageLabel, parentID);
+    }
+
+    /**
+     * @see #parentPageLabelChanged(Workspace, String, Long)
+     */
+    public static void parentPageLabelChanged(WorkspaceEnvironment env, String newPageLabel, Long parentID) {
+        BlockStubRegistry registry = env.getStubRegistry();
 
         //update each stub
-        ArrayList<Long> stubs = workspace.getEnv().getBlockStubs(key);
-        for (Long stub : stubs) {
-            BlockStub blockStub = ((BlockStub) workspace.getEnv().getBlock(stub));
-            blockStub.setPageLabel(newPageLabel);
-            blockStub.notifyRenderable();
+        registry.beginBatch();
+        try {
+            for (Long stub : getStubsOfParent(env, env.getBlock(parentID))) {
+                BlockStub blockStub = ((BlockStub) env.getBlock(stub));
+                blockStub.setPageLabel(newPageLabel);
+                blockStub.notifyRenderable();
+            }
+        } finally {
+            registry.endBatch();
         }
-
     }
 
     /**
@@ -288,18 +327,29 @@ public class BlockStub extends Block {
      * @param parentID
      */
     public static void parentConnectorsChanged(Workspace workspace, Long parentID) {
-        String key = workspace.getEnv().getBlock(parentID).getBlockLabel() + workspace.getEnv().getBlock(parentID).getGenusName();
+        parentConnectorsChanged(workspace.getEnv(), parentID);
+    }
+
+    /**
+     * @see #parentConnectorsChanged(Workspace, Long)
+     */
+    public static void parentConnectorsChanged(WorkspaceEnvironment env, Long parentID) {
+        BlockStubRegistry registry = env.getStubRegistry();
 
         //update each stub only if stub is a caller (as callers are the only type of stubs that 
         //can change its connectors after being created)
-        ArrayList<Long> stubs = workspace.getEnv().getBlockStubs(key);
-        for (Long stub : stubs) {
-            BlockStub blockStub = ((BlockStub) workspace.getEnv().getBlock(stub));
-            if (blockStub.stubGenus.startsWith(CALLER_STUB)) {
-                blockStub.updateConnectors();
-                //System.out.println("updated connectors of: "+blockStub);
-                blockStub.notifyRenderable();
+        registry.beginBatch();
+        try {
+            for (Long stub : getStubsOfParent(env, env.getBlock(parentID))) {
+                BlockStub blockStub = ((BlockStub) env.getBlock(stub));
+                if (blockStub.stubGenus.startsWith(CALLER_STUB)) {
+                    blockStub.updateConnectors();
+                    //System.out.println("updated connectors of: "+blockStub);
+                    blockStub.notifyRenderable();
+                }
             }
+        } finally {
+            registry.endBatch();
         }
     }
 
@@ -308,26 +358,27 @@ public class BlockStub extends Block {
      * @param kind the new plug kind that callers should set
      */
     public static void parentPlugChanged(Workspace workspace, Long parentID, String kind) {
-        String key = workspace.getEnv().getBlock(parentID).getBlockLabel() + workspace.getEnv().getBlock(parentID).getGenusName();
+        BlockStubRegistry registry = workspace.getEnv().getStubRegistry();
+        Block parent = workspace.getEnv().getBlock(parentID);
 
         // Update our type mapping.
-        if (kind == null) {
-            parentToPlugType.remove(key);
-        } else {
-            parentToPlugType.put(key, kind);
-        }
+        registry.setPlugKind(parent.getBlockLabel(), parent.getGenusName(), kind);
 
         // update each stub only if stub is a caller
-        ArrayList<Long> stubs = workspace.getEnv().getBlockStubs(key);
-        for (Long stub : stubs) {
-            BlockStub blockStub = ((BlockStub) workspace.getEnv().getBlock(stub));
-            if (blockStub.stubGenus.startsWith(CALLER_STUB)) {
-                if (kind == null) {
-                    blockStub.restoreInitConnectors();
-                } else {
-                    blockStub.updatePlug(kind);
+        registry.beginBatch();
+        try {
+            for (Long stub : new ArrayList<Long>(registry.getStubs(parent.getBlockLabel(), parent.getGenusName()))) {
+                BlockStub blockStub = ((BlockStub) workspace.getEnv().getBlock(stub));
+                if (blockStub.stubGenus.startsWith(CALLER_STUB)) {
+                    if (kind == null) {
+                        blockStub.restoreInitConnectors();
+                    } else {
+                        blockStub.updatePlug(kind);
+                    }
                 }
             }
+        } finally {
+            registry.endBatch();
         }
     }
 
@@ -336,41 +387,42 @@ public class BlockStub extends Block {
      * @param kind the new plug kind that callers should set
      */
     public static void parentVarPlugChanged(Workspace workspace, Long parentID, String kind) {
-        String key = workspace.getEnv().getBlock(parentID).getBlockLabel() + workspace.getEnv().getBlock(parentID).getGenusName();
+        BlockStubRegistry registry = workspace.getEnv().getStubRegistry();
+        Block parent = workspace.getEnv().getBlock(parentID);
 
         // Update our type mapping.
-        if (kind == null) {
-            parentToPlugType.remove(key);
-        } else {
-            parentToPlugType.put(key, kind);
-        }
+        registry.setPlugKind(parent.getBlockLabel(), parent.getGenusName(), kind);
 
         // update each stub only if stub is a getter
-        ArrayList<Long> stubs = workspace.getEnv().getBlockStubs(key);
-        for (Long stub : stubs) {
-            BlockStub blockStub = ((BlockStub) workspace.getEnv().getBlock(stub));
-            if (blockStub.stubGenus.startsWith(GETTER_STUB)) {
-                if (kind == null) {
-                    //blockStub.restoreInitConnectors();
-                    if (!blockStub.hasPlug()) {
-                        return;     // Already in original state
-                    }
-                    // We have to check for a plug connector.
-                    Long id = blockStub.getPlugBlockID();
-                    if (id != null && !id.equals(Block.NULL)) {
-                    	blockStub.disconnectBlock(id);
-                    }
+        registry.beginBatch();
+        try {
+            for (Long stub : new ArrayList<Long>(registry.getStubs(parent.getBlockLabel(), parent.getGenusName()))) {
+                BlockStub blockStub = ((BlockStub) workspace.getEnv().getBlock(stub));
+                if (blockStub.stubGenus.startsWith(GETTER_STUB)) {
+                    if (kind == null) {
+                        //blockStub.restoreInitConnectors();
+                        if (!blockStub.hasPlug()) {
+                            return;     // Already in original state
+                        }
+                        // We have to check for a plug connector.
+                        Long id = blockStub.getPlugBlockID();
+                        if (id != null && !id.equals(Block.NULL)) {
+                        	blockStub.disconnectBlock(id);
+                        }
 
-                    // Always synchronize! We can't have both a plug and a before.
-                    blockStub.removePlug();
-                    //resetBeforeAndAfter();
-                    workspace.getEnv().getRenderableBlock(blockStub.getBlockID()).updateConnectors();
-                    blockStub.notifyRenderable();
-                } else {
-                	blockStub.updateVarPlug(kind);
-                	//blockStub.updateParentVarSocket(kind);
+                        // Always synchronize! We can't have both a plug and a before.
+                        blockStub.removePlug();
+                        //resetBeforeAndAfter();
+                        workspace.getEnv().getRenderableBlock(blockStub.getBlockID()).updateConnectors();
+                        blockStub.notifyRenderable();
+                    } else {
+                    	blockStub.updateVarPlug(kind);
+                    	//blockStub.updateParentVarSocket(kind);
+                    }
                 }
             }
+        } finally {
+            registry.endBatch();
         }
     }
 
@@ -390,11 +442,11 @@ public class BlockStub extends Block {
      * @return the parent block of this stub
      */
     public Block getParent() {
-        String key = parentName + parentGenus;
-        if (!workspace.getEnv().containsParentBlock(key)) {
+        Long parentID = getEnv().getStubRegistry().getParentID(parentName, parentGenus);
+        if (parentID == null) {
             return null;
         }
-        return workspace.getEnv().getBlock(workspace.getEnv().getParentBlockID(key));
+        return getEnv().getBlock(parentID);
     }
 
     /**
@@ -450,11 +502,11 @@ public class BlockStub extends Block {
                     if (i > this.getNumSockets() - 1) {
                         //socket labels should correspond with the socket blocks of parent
                         if (parentSocket.getBlockID() != Block.NULL) {
-                            addSocket(parentSocket.getKind(), BlockConnector.PositionType.SINGLE, workspace.getEnv().getBlock(parentSocket.getBlockID()).getBlockLabel(), false, false, Block.NULL);
+                            addSocket(parentSocket.getKind(), BlockConnector.PositionType.SINGLE, getEnv().getBlock(parentSocket.getBlockID()).getBlockLabel(), false, false, Block.NULL);
                         }
                     } else {
                         BlockConnector con = getSocketAt(i);
-                        this.setSocketAt(i, parentSocket.getKind(), con.getPositionType(), workspace.getEnv().getBlock(parentSocket.getBlockID()).getBlockLabel(), con.isLabelEditable(),
+                        this.setSocketAt(i, parentSocket.getKind(), con.getPositionType(), getEnv().getBlock(parentSocket.getBlockID()).getBlockLabel(), con.isLabelEditable(),
                                 con.isExpandable(), con.getBlockID());
                     }
                 }
@@ -479,7 +531,7 @@ public class BlockStub extends Block {
         // Always synchronize! We can't have both a plug and a before.
         removePlug();
         resetBeforeAndAfter();
-        workspace.getEnv().getRenderableBlock(getBlockID()).updateConnectors();
+        updateRenderableConnectors();
         notifyRenderable();
     }
 
@@ -514,7 +566,7 @@ public class BlockStub extends Block {
         // Always synchronize! We can't have both a plug and a before.
         removeBeforeAndAfter();
         setPlug(kind, PositionType.SINGLE, kind, false, Block.NULL);
-        workspace.getEnv().getRenderableBlock(getBlockID()).updateConnectors();
+        updateRenderableConnectors();
         notifyRenderable();
     }
 
@@ -549,7 +601,7 @@ public class BlockStub extends Block {
         // Always synchronize! We can't have both a plug and a before.
         removeBeforeAndAfter();
         setPlug(kind, PositionType.MIRROR, kind, false, Block.NULL);
-        workspace.getEnv().getRenderableBlock(getBlockID()).updateConnectors();
+        updateRenderableConnectors();
         notifyRenderable();
     }
 
@@ -585,20 +637,33 @@ public class BlockStub extends Block {
         removeBeforeAndAfter();
         //setPlug(kind, PositionType.SINGLE, kind, false, Block.NULL);
         setSocketAt(0, kind, PositionType.SINGLE, kind, false, false, Block.NULL);
-        workspace.getEnv().getRenderableBlock(getBlockID()).updateConnectors();
+        updateRenderableConnectors();
         notifyRenderable();
     }
 
+    /**
+     * Updates the connectors of the renderable of this stub, if it has one.
+     */
+    private void updateRenderableConnectors() {
+        RenderableBlock rb = getEnv().getRenderableBlock(getBlockID());
+        if (rb != null) {
+            rb.updateConnectors();
+        }
+    }
+
     /**
      * Disconnect the given block from us. Must have a valid id.
      */
     private void disconnectBlock(Long id) {
-        Block b2 = workspace.getEnv().getBlock(id);
+        Block b2 = getEnv().getBlock(id);
         BlockConnector conn2 = b2.getConnectorTo(getBlockID());
         BlockConnector conn = getConnectorTo(id);
-        BlockLink link = BlockLink.getBlockLink(workspace, this, b2, conn, conn2);
-        RenderableBlock rb = workspace.getEnv().getRenderableBlock(link.getSocketBlockID());
+        BlockLink link = BlockLink.getBlockLink(getEnv(), this, b2, conn, conn2);
+        RenderableBlock rb = getEnv().getRenderableBlock(link.getSocketBlockID());
         link.disconnect();
+        if (rb == null) {
+            return;
+        }
         rb.blockDisconnected(link.getSocket());
         workspace.notifyListeners(
                 new WorkspaceEvent(workspace, rb.getParentWidget(), link, WorkspaceEvent.BLOCKS_DISCONNECTED));
@@ -619,6 +684,17 @@ public class BlockStub extends Block {
         return getParent().getColor();
     }
 
+    /**
+     * Notifies the renderable of this stub, or defers it to the end of the parent
+     * change being applied to the stubs of its parent.
+     */
+    @Override
+    public void notifyRenderable() {
+        if (!getEnv().getStubRegistry().deferNotification(this)) {
+            super.notifyRenderable();
+        }
+    }
+
     /**
      * @return current information about block
      */
@@ -660,5 +736,14 @@ public class BlockStub extends Block {
     	
     	return stubElement;
     }
+
+    @Override
+    public void writeSaveNode(XMLStreamWriter writer, int x, int y, Comment comment, boolean collapsed) throws XMLStreamException {
+        writer.writeStartElement("BlockStub");
+        writeTextElement(writer, "StubParentName", parentName);
+        writeTextElement(writer, "StubParentGenus", parentGenus);
+        super.writeSaveNode(writer, x, y, comment, collapsed);
+        writer.writeEndElement();
+    }
     
 }
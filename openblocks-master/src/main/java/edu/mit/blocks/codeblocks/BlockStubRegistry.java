@@ -0,0 +1,244 @@
+package edu.mit.blocks.codeblocks;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A BlockStubRegistry keeps track of the stub parents of a single workspace
+ * and of the stubs referring to them.
+ *
+ * Parents and stubs are connected by the name and genus of the parent rather
+ * than by its block id: when a parent is removed, its stubs become dangling
+ * references, which are resolved once a new parent of the same name and genus
+ * is created.  Both are part of the key because two parents of different
+ * genera may share a name.
+ *
+ * The stubs of a parent are kept in insertion order in a set, so that a stub
+ * is added or removed in constant time, and all the stubs of a renamed parent
+ * are moved to its new name at once.
+ *
+ * While a parent change is applied to its stubs, the registry batches their
+ * renderable notifications, so that a stub updated several times by the same
+ * change is only repainted once, after all its stubs were updated.
+ */
+public class BlockStubRegistry {
+
+    /** The block id of each parent */
+    private final Map<ParentKey, Long> parents = new HashMap<ParentKey, Long>();
+    /** The block ids of the stubs of each parent, whether the parent exists or not */
+    private final Map<ParentKey, Set<Long>> stubs = new HashMap<ParentKey, Set<Long>>();
+    /** The plug kind of the caller stubs of each parent, if it was changed from its genus */
+    private final Map<ParentKey, String> plugKinds = new HashMap<ParentKey, String>();
+    /** The stubs whose renderables are notified once the current batch ends */
+    private final List<BlockStub> pendingNotifications = new ArrayList<BlockStub>();
+    /** The number of batches currently open */
+    private int batchDepth = 0;
+
+    /**
+     * @return the block id of the parent of the specified name and genus,
+     * 			or null if there is no such parent
+     */
+    public Long getParentID(String parentName, String parentGenus) {
+        return parents.get(new ParentKey(parentName, parentGenus));
+    }
+
+    /**
+     * @return true if a parent of the specified name and genus exists
+     */
+    public boolean containsParent(String parentName, String parentGenus) {
+        return parents.containsKey(new ParentKey(parentName, parentGenus));
+    }
+
+    /**
+     * Makes the specified block the parent of the specified name and genus.
+     */
+    public void putParent(String parentName, String parentGenus, Long parentID) {
+        ParentKey key = new ParentKey(parentName, parentGenus);
+        parents.put(key, parentID);
+        getStubSet(key);
+    }
+
+    /**
+     * Removes the parent of the specified name and genus; its stubs are kept.
+     */
+    public void removeParent(String parentName, String parentGenus) {
+        parents.remove(new ParentKey(parentName, parentGenus));
+    }
+
+    /**
+     * @return a live, read-only view of the block ids of the stubs of the parent
+     * 			of the specified name and genus, in the order they were added
+     */
+    public Collection<Long> getStubs(String parentName, String parentGenus) {
+        Set<Long> set = stubs.get(new ParentKey(parentName, parentGenus));
+        if (set == null) {
+            return Collections.emptySet();
+        }
+        return Collections.unmodifiableSet(set);
+    }
+
+    /**
+     * Adds a stub to the parent of the specified name and genus.
+     */
+    public void addStub(String parentName, String parentGenus, Long stubID) {
+        getStubSet(new ParentKey(parentName, parentGenus)).add(stubID);
+    }
+
+    /**
+     * Removes a stub from the parent of the specified name and genus.
+     */
+    public void removeStub(String parentName, String parentGenus, Long stubID) {
+        Set<Long> set = stubs.get(new ParentKey(parentName, parentGenus));
+        if (set != null) {
+            set.remove(stubID);
+        }
+    }
+
+    /**
+     * Moves the parent of the specified genus, along with its stubs, from
+     * oldName to newName.  The stubs already waiting for a parent named
+     * newName are kept.
+     * @return a live, read-only view of the stubs moved from oldName
+     */
+    public Collection<Long> renameParent(String oldName, String newName, String parentGenus, Long parentID) {
+        ParentKey oldKey = new ParentKey(oldName, parentGenus);
+        ParentKey newKey = new ParentKey(newName, parentGenus);
+        parents.remove(oldKey);
+        parents.put(newKey, parentID);
+        Set<Long> moved = stubs.remove(oldKey);
+        if (moved == null) {
+            moved = new LinkedHashSet<Long>();
+        }
+        Set<Long> existing = stubs.get(newKey);
+        if (existing == null) {
+            stubs.put(newKey, moved);
+        } else {
+            existing.addAll(moved);
+        }
+        String plugKind = plugKinds.remove(oldKey);
+        if (plugKind != null) {
+            plugKinds.put(newKey, plugKind);
+        }
+        return Collections.unmodifiableSet(moved);
+    }
+
+    /**
+     * @return the plug kind of the caller stubs of the parent of the specified
+     * 			name and genus, or null if it was not changed
+     */
+    public String getPlugKind(String parentName, String parentGenus) {
+        return plugKinds.get(new ParentKey(parentName, parentGenus));
+    }
+
+    /**
+     * Sets the plug kind of the caller stubs of the parent of the specified
+     * name and genus; null restores the plug of their genus.
+     */
+    public void setPlugKind(String parentName, String parentGenus, String kind) {
+        ParentKey key = new ParentKey(parentName, parentGenus);
+        if (kind == null) {
+            plugKinds.remove(key);
+        } else {
+            plugKinds.put(key, kind);
+        }
+    }
+
+    private Set<Long> getStubSet(ParentKey key) {
+        Set<Long> set = stubs.get(key);
+        if (set == null) {
+            set = new LinkedHashSet<Long>();
+            stubs.put(key, set);
+        }
+        return set;
+    }
+
+    /**
+     * Starts batching the renderable notifications of stubs.  Batches may be
+     * nested; the notifications are sent when the outermost batch ends.
+     */
+    void beginBatch() {
+        batchDepth++;
+    }
+
+    /**
+     * Ends a batch started with beginBatch(), notifying the renderables of the
+     * stubs updated during the batch once each if it was the outermost one.
+     */
+    void endBatch() {
+        if (--batchDepth > 0 || pendingNotifications.isEmpty()) {
+            return;
+        }
+        BlockStub[] pending = pendingNotifications.toArray(new BlockStub[pendingNotifications.size()]);
+        pendingNotifications.clear();
+        for (BlockStub stub : pending) {
+            stub.notificationPending = false;
+            stub.notifyRenderable();
+        }
+    }
+
+    /**
+     * Defers the renderable notification of the specified stub to the end of
+     * the current batch.
+     * @return false if no batch is open, in which case the stub should notify
+     * 			its renderable right away
+     */
+    boolean deferNotification(BlockStub stub) {
+        if (batchDepth == 0) {
+            return false;
+        }
+        if (!stub.notificationPending) {
+            stub.notificationPending = true;
+            pendingNotifications.add(stub);
+        }
+        return true;
+    }
+
+    /**
+     * Removes all parents and stubs.
+     */
+    public void clear() {
+        parents.clear();
+        stubs.clear();
+        plugKinds.clear();
+        for (BlockStub stub : pendingNotifications) {
+            stub.notificationPending = false;
+        }
+        pendingNotifications.clear();
+        batchDepth = 0;
+    }
+
+    /**
+     * The name and genus identifying a stub parent
+     */
+    private static final class ParentKey {
+
+        private final String name;
+        private final String genus;
+
+        ParentKey(String name, String genus) {
+            this.name = name;
+            this.genus = genus;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ParentKey)) {
+                return false;
+            }
+            ParentKey k = (ParentKey) o;
+            return (name == null ? k.name == null : name.equals(k.name))
+                    && (genus == null ? k.genus == null : genus.equals(k.genus));
+        }
+
+        @Override
+        public int hashCode() {
+            return (name == null ? 0 : name.hashCode()) * 31 + (genus == null ? 0 : genus.hashCode());
+        }
+    }
+}
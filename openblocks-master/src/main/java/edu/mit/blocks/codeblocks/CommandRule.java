@@ -3,11 +3,12 @@ package edu.mit.blocks.codeblocks;
 import edu.mit.blocks.renderable.Comment;
 import edu.mit.blocks.renderable.RenderableBlock;
 import edu.mit.blocks.workspace.Workspace;
+import edu.mit.blocks.workspace.WorkspaceEnvironment;
 import edu.mit.blocks.workspace.WorkspaceEvent;
 import edu.mit.blocks.workspace.WorkspaceListener;
 import edu.mit.blocks.codeblocks.CommentBlock;
 
-public class CommandRule implements LinkRule, WorkspaceListener {
+public class CommandRule implements StaticLinkRule, WorkspaceListener {
     
     private final Workspace workspace;
 
@@ -15,6 +16,10 @@ public class CommandRule implements LinkRule, WorkspaceListener {
         this.workspace = workspace;
     }
 
+    public CommandRule(WorkspaceEnvironment env) {
+        this(env.getWorkspace());
+    }
+
     public boolean canLink(Block block1, Block block2, BlockConnector socket1, BlockConnector socket2) {
         if (!BlockConnectorShape.isCommandConnector(socket1) || !BlockConnectorShape.isCommandConnector(socket2)) {
             return false;
@@ -93,5 +98,11 @@ public class CommandRule implements LinkRule, WorkspaceListener {
             	
             }*/
         }
+        if (e.isBlockCloned()) {
+            CommentBlock cBlock = new CommentBlock(workspace);
+            for (Long blockID : e.getSourceBlockIDs()) {
+                cBlock.ComBlock(workspace.getEnv().getBlock(blockID));
+            }
+        }
     }
 }
@@ -75,7 +75,7 @@ public class InfixBlockShape extends BlockShape {
 
                 if (curSocket.getBlockID() == Block.NULL) {
                     //draw first socket - up left side
-                    Point2D leftSocket = BCS.addDataSocketUp(gpBottom, curSocket.getKind(), true);
+                    Point2D leftSocket = BCS.addDataSocketUp(gpBottom, curSocket, true);
                     rb.updateSocketPoint(curSocket, leftSocket);
                     //System.out.println("socket poitn: "+rb.getSocketPoint(curSocket));
 
@@ -88,7 +88,7 @@ public class InfixBlockShape extends BlockShape {
 
 
                     //draw first socket - down right side
-                    BCS.addDataSocket(gpBottom, curSocket.getKind(), false);
+                    BCS.addDataSocket(gpBottom, curSocket, false);
                     //rb.updateSocketPoint(curSocket, rightSocket);
                 } else { //there is a connected block
                     Block connectedBlock = rb.getWorkspace().getEnv().getBlock(curSocket.getBlockID());
@@ -195,7 +195,7 @@ public class InfixBlockShape extends BlockShape {
 
                 //now draw the empty right socket side
                 //draw first socket - down right side
-                BCS.addDataSocket(gpBottom, socket.getKind(), false);
+                BCS.addDataSocket(gpBottom, socket, false);
                 //TODO:lastBottomPathWidth = (int)BOTTOM_SOCKET_SIDE_SPACER;
             } else {
                 //a block is connected to this socket, check if that block has sockets
@@ -0,0 +1,224 @@
+package edu.mit.blocks.codeblocks;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.mit.blocks.workspace.Workspace;
+
+/**
+ * A LangDefSnapshot is a compact binary copy of the connector shapes and
+ * block genera (including their families and stub genera) loaded from a
+ * language definition file.
+ *
+ * Loading a language from its XML walks every BlockGenus element and parses
+ * every attribute of it.  A snapshot written after such a load is read back
+ * in a fraction of that time on later starts.  Snapshots are stored in a
+ * cache directory under a key derived from the content of the language
+ * definition and from anything else that altered what was loaded from it
+ * (such as localization), so that a changed language never loads a stale
+ * snapshot.
+ *
+ * Drawers and pages are not part of a snapshot; they are still loaded from
+ * the language definition, since loading them creates the factory blocks.
+ */
+public class LangDefSnapshot {
+
+    /** Identifies snapshot files */
+    private static final int MAGIC = 0x4C444653;
+    /** The version of the snapshot format; snapshots of other versions are ignored */
+    private static final int FORMAT_VERSION = 1;
+
+    private final File file;
+    private final String key;
+
+    /**
+     * Constructs a LangDefSnapshot stored in the specified directory
+     * @param directory the cache directory holding the snapshots
+     * @param key the key of the language definition, as returned by computeKey()
+     */
+    public LangDefSnapshot(File directory, String key) {
+        this.file = new File(directory, "langdef-" + key + ".bin");
+        this.key = key;
+    }
+
+    /**
+     * Computes the key of a language definition.
+     * @param langDefContents the content of the language definition file
+     * @param variant anything else that alters what is loaded from the language
+     * 			definition, such as the locale or localized labels
+     * @return a key identifying the language definition
+     */
+    public static String computeKey(byte[] langDefContents, Collection<String> variant) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update(langDefContents);
+            for (String s : variant) {
+                digest.update((byte) 0);
+                digest.update(s.getBytes("UTF-8"));
+            }
+            StringBuilder key = new StringBuilder();
+            for (byte b : digest.digest()) {
+                key.append(Character.forDigit((b >> 4) & 0xF, 16));
+                key.append(Character.forDigit(b & 0xF, 16));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return true if this snapshot was written
+     */
+    public boolean exists() {
+        return file.isFile();
+    }
+
+    /**
+     * Loads the connector shapes and block genera of this snapshot into the
+     * specified workspace.  Nothing is loaded if the snapshot does not exist or
+     * cannot be read; an unreadable snapshot is deleted.
+     * @param workspace the workspace to load the genera into
+     * @return true if the snapshot was loaded
+     */
+    public boolean load(Workspace workspace) {
+        if (!exists()) {
+            return false;
+        }
+        Map<String, Integer> shapes = new LinkedHashMap<String, Integer>();
+        String commandShapeName;
+        List<BlockGenus> genera = new ArrayList<BlockGenus>();
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION || !key.equals(in.readUTF())) {
+                    throw new IOException("Not a snapshot of this language definition: " + file);
+                }
+                int numShapes = in.readInt();
+                for (int i = 0; i < numShapes; i++) {
+                    String shapeName = in.readUTF();
+                    shapes.put(shapeName, in.readInt());
+                }
+                commandShapeName = readString(in);
+                int numGenera = in.readInt();
+                for (int i = 0; i < numGenera; i++) {
+                    genera.add(BlockGenus.readSnapshot(workspace.getEnv(), in));
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            file.delete();
+            return false;
+        } catch (RuntimeException e) {
+            // a snapshot naming an unknown position type or a malformed string
+            file.delete();
+            return false;
+        }
+        for (Map.Entry<String, Integer> shape : shapes.entrySet()) {
+            workspace.getEnv().addConnectorShapeMapping(shape.getKey(), shape.getValue());
+        }
+        if (commandShapeName != null) {
+            // several names may map to the command shape; keep the one that was loaded last
+            workspace.getEnv().addConnectorShapeMapping(commandShapeName, BlockConnectorShape.COMMAND);
+        }
+        for (BlockGenus genus : genera) {
+            workspace.getEnv().addBlockGenus(genus);
+        }
+        return true;
+    }
+
+    /**
+     * Writes the connector shapes and block genera currently loaded into the
+     * specified workspace to this snapshot.  The snapshot is written to a
+     * temporary file first, so that a snapshot is never read half written.
+     * @param workspace the workspace whose genera to write
+     * @return true if the snapshot was written
+     */
+    public boolean save(Workspace workspace) {
+        File dir = file.getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            return false;
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeUTF(key);
+                Map<String, Integer> shapes = workspace.getEnv().getConnectorShapeMappings();
+                out.writeInt(shapes.size());
+                for (Map.Entry<String, Integer> shape : shapes.entrySet()) {
+                    out.writeUTF(shape.getKey());
+                    out.writeInt(shape.getValue());
+                }
+                writeString(out, workspace.getEnv().getCommandShapeName());
+                Collection<BlockGenus> genera = workspace.getEnv().getGenera();
+                out.writeInt(genera.size());
+                for (BlockGenus genus : genera) {
+                    genus.writeSnapshot(out);
+                }
+            } finally {
+                out.close();
+            }
+            file.delete();
+            if (tmp.renameTo(file)) {
+                return true;
+            }
+        } catch (IOException e) {
+            // the snapshot is only a cache; the language is loaded from its definition next time
+        }
+        tmp.delete();
+        return false;
+    }
+
+    /**
+     * Writes a string that may be null.
+     */
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) {
+            out.writeUTF(s);
+        }
+    }
+
+    /**
+     * Reads a string written by writeString().
+     */
+    static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    static void writeStrings(DataOutputStream out, List<String> strings) throws IOException {
+        out.writeInt(strings.size());
+        for (String s : strings) {
+            writeString(out, s);
+        }
+    }
+
+    static List<String> readStrings(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        List<String> strings = new ArrayList<String>(size);
+        for (int i = 0; i < size; i++) {
+            strings.add(readString(in));
+        }
+        return strings;
+    }
+}
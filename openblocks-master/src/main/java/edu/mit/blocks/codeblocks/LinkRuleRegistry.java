@@ -0,0 +1,233 @@
+package edu.mit.blocks.codeblocks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A <code>LinkRuleRegistry</code> holds the ordered list of <code>LinkRule</code>s of a single workspace.
+ * Each <code>WorkspaceEnvironment</code> owns one registry, so several workspaces running in the same JVM
+ * neither share nor multiply each other's rules.
+ *
+ * Rules implementing <code>StaticLinkRule</code> are compiled into a decision table keyed by the traits of
+ * both blocks and connectors, so that during a drag each candidate pair costs a table lookup plus the
+ * evaluation of the remaining, stateful rules.  The table is discarded whenever the rule list changes.
+ *
+ * The registry is thread-safe: changes to the rule list are serialized, and each change publishes a new
+ * immutable compiled form that checkRules() reads without locking.
+ */
+public class LinkRuleRegistry {
+
+    /** The number of entries after which the decision table is cleared instead of grown */
+    private static final int MAX_DECISIONS = 10000;
+    /** Decision: a mandatory rule rejected the link */
+    private static final byte VETOED = 0;
+    /** Decision: no mandatory rule rejected the link and no other rule accepted it */
+    private static final byte UNDECIDED = 1;
+    /** Decision: no mandatory rule rejected the link and another rule accepted it */
+    private static final byte ACCEPTED = 2;
+
+    /** The rules of this registry, in order.  Guarded by this. */
+    private final ArrayList<LinkRule> rules = new ArrayList<LinkRule>();
+    /** The compiled form of rules, replaced on every change */
+    private volatile CompiledRules compiled = new CompiledRules(rules);
+
+    /**
+     * Removes all the rules within this.
+     */
+    public synchronized void clear() {
+        rules.clear();
+        compiled = new CompiledRules(rules);
+    }
+
+    /**
+     * Adds a rule to the end of this registry's list of rules.
+     * @param rule the desired LinkRule to be added
+     */
+    public synchronized void add(LinkRule rule) {
+        rules.add(rule);
+        compiled = new CompiledRules(rules);
+    }
+
+    /**
+     * Inserts rule at the specified index in this registry's list of rules.  If the rule already
+     * exists in the rule list, the rule is moved to the specified index.
+     * @param rule the desired rule to insert
+     * @param index the index to insert the rule in
+     */
+    public synchronized void insert(LinkRule rule, int index) {
+        rules.remove(rule);
+        rules.add(Math.min(index, rules.size()), rule);
+        compiled = new CompiledRules(rules);
+    }
+
+    /**
+     * Removes the specified rule from the rule list
+     * @param rule the desired LinkRule to remove
+     */
+    public synchronized void remove(LinkRule rule) {
+        rules.remove(rule);
+        compiled = new CompiledRules(rules);
+    }
+
+    /**
+     * @return an unmodifiable copy of the rules of this registry, in order
+     */
+    public synchronized List<LinkRule> getRules() {
+        return Collections.unmodifiableList(new ArrayList<LinkRule>(rules));
+    }
+
+    /**
+     * Checks if a potential link satisfies the rules of this registry: no mandatory rule may
+     * reject it and at least one other rule must accept it.
+     * @param block1 one Block in the potential link
+     * @param block2 the other Block
+     * @param socket1 the BlockConnector from block1 in the potential link
+     * @param socket2 the BlockConnector from block2
+     * @return true if the pairing of block1 and block2 at socket1 and socket2 passes the rules, false otherwise
+     */
+    public boolean checkRules(Block block1, Block block2, BlockConnector socket1, BlockConnector socket2) {
+        return compiled.check(block1, block2, socket1, socket2);
+    }
+
+    /**
+     * An immutable snapshot of a rule list split into static and dynamic rules,
+     * along with the decisions of the static rules made so far.
+     */
+    private static class CompiledRules {
+
+        private final LinkRule[] staticRules;
+        private final LinkRule[] dynamicRules;
+        private final ConcurrentHashMap<LinkTraits, Byte> decisionTable = new ConcurrentHashMap<LinkTraits, Byte>();
+
+        CompiledRules(List<LinkRule> rules) {
+            ArrayList<LinkRule> staticList = new ArrayList<LinkRule>();
+            ArrayList<LinkRule> dynamicList = new ArrayList<LinkRule>();
+            for (LinkRule rule : rules) {
+                if (rule instanceof StaticLinkRule) {
+                    staticList.add(rule);
+                } else {
+                    dynamicList.add(rule);
+                }
+            }
+            staticRules = staticList.toArray(new LinkRule[staticList.size()]);
+            dynamicRules = dynamicList.toArray(new LinkRule[dynamicList.size()]);
+        }
+
+        boolean check(Block block1, Block block2, BlockConnector socket1, BlockConnector socket2) {
+            LinkTraits traits = new LinkTraits(block1, block2, socket1, socket2);
+            Byte decision = decisionTable.get(traits);
+            if (decision == null) {
+                decision = Byte.valueOf(evaluate(staticRules, block1, block2, socket1, socket2));
+                if (decisionTable.size() >= MAX_DECISIONS) {
+                    decisionTable.clear();
+                }
+                decisionTable.put(traits, decision);
+            }
+            if (decision.byteValue() == VETOED) {
+                return false;
+            }
+            byte dynamicDecision = evaluate(dynamicRules, block1, block2, socket1, socket2);
+            if (dynamicDecision == VETOED) {
+                return false;
+            }
+            return decision.byteValue() == ACCEPTED || dynamicDecision == ACCEPTED;
+        }
+
+        /**
+         * Evaluates the specified rules against a potential link.
+         * @return VETOED if a mandatory rule rejects the link, otherwise ACCEPTED if any
+         * other rule accepts it, otherwise UNDECIDED
+         */
+        private static byte evaluate(LinkRule[] ruleList, Block block1, Block block2, BlockConnector socket1, BlockConnector socket2) {
+            boolean foundRule = false;
+            for (LinkRule currentRule : ruleList) {
+                boolean canLink = currentRule.canLink(block1, block2, socket1, socket2);
+                if (!currentRule.isMandatory()) {
+                    foundRule |= canLink;
+                } else if (!canLink) {
+                    return VETOED;
+                }
+            }
+            return foundRule ? ACCEPTED : UNDECIDED;
+        }
+    }
+
+    /**
+     * The traits of a potential link that a <code>StaticLinkRule</code> may base its decision on:
+     * the genus of each block and the kind, position type, role and occupancy of each connector.
+     */
+    private static class LinkTraits {
+
+        private static final int PLUG = 0;
+        private static final int BEFORE = 1;
+        private static final int AFTER = 2;
+        private static final int SOCKET = 3;
+
+        private final String genus1;
+        private final String genus2;
+        private final String kind1;
+        private final String kind2;
+        private final BlockConnector.PositionType position1;
+        private final BlockConnector.PositionType position2;
+        /** role and occupancy of both connectors, packed into one int */
+        private final int flags;
+        private final int hash;
+
+        LinkTraits(Block block1, Block block2, BlockConnector socket1, BlockConnector socket2) {
+            genus1 = block1.getGenusName();
+            genus2 = block2.getGenusName();
+            kind1 = socket1.getKind();
+            kind2 = socket2.getKind();
+            position1 = socket1.getPositionType();
+            position2 = socket2.getPositionType();
+            flags = getRole(block1, socket1)
+                    | (socket1.hasBlock() ? 4 : 0)
+                    | (getRole(block2, socket2) << 3)
+                    | (socket2.hasBlock() ? 32 : 0);
+            int h = flags;
+            h = 31 * h + (genus1 == null ? 0 : genus1.hashCode());
+            h = 31 * h + (genus2 == null ? 0 : genus2.hashCode());
+            h = 31 * h + (kind1 == null ? 0 : kind1.hashCode());
+            h = 31 * h + (kind2 == null ? 0 : kind2.hashCode());
+            h = 31 * h + (position1 == null ? 0 : position1.hashCode());
+            h = 31 * h + (position2 == null ? 0 : position2.hashCode());
+            hash = h;
+        }
+
+        private static int getRole(Block block, BlockConnector connector) {
+            if (connector == block.getPlug()) {
+                return PLUG;
+            }
+            if (connector == block.getBeforeConnector()) {
+                return BEFORE;
+            }
+            if (connector == block.getAfterConnector()) {
+                return AFTER;
+            }
+            return SOCKET;
+        }
+
+        private static boolean same(Object o1, Object o2) {
+            return o1 == null ? o2 == null : o1.equals(o2);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof LinkTraits)) {
+                return false;
+            }
+            LinkTraits other = (LinkTraits) o;
+            return hash == other.hash && flags == other.flags
+                    && position1 == other.position1 && position2 == other.position2
+                    && same(kind1, other.kind1) && same(kind2, other.kind2)
+                    && same(genus1, other.genus1) && same(genus2, other.genus2);
+        }
+    }
+}
@@ -8,7 +8,7 @@ import edu.mit.blocks.codeblocks.BlockConnector;
  * LinkRule that prevents constants from linking as procedure parameters and prevents parameters
  * from linking as constants in other code.
  */
-public class ParamRule implements LinkRule{
+public class ParamRule implements StaticLinkRule {
 
     public boolean canLink(Block block1, Block block2, BlockConnector socket1, BlockConnector socket2) {
         switch (socket1.getPositionType()) {
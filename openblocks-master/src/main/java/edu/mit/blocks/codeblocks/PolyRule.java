@@ -1,6 +1,10 @@
 package edu.mit.blocks.codeblocks;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
 
 import edu.mit.blocks.codeblocks.Block;
 import edu.mit.blocks.codeblocks.BlockConnector;
@@ -8,6 +12,7 @@ import edu.mit.blocks.codeblocks.BlockLink;
 import edu.mit.blocks.codeblocks.BlockStub;
 import edu.mit.blocks.codeblocks.LinkRule;
 import edu.mit.blocks.workspace.Workspace;
+import edu.mit.blocks.workspace.WorkspaceEnvironment;
 import edu.mit.blocks.workspace.WorkspaceEvent;
 import edu.mit.blocks.workspace.WorkspaceListener;
 
@@ -50,7 +55,7 @@ import edu.mit.blocks.workspace.WorkspaceListener;
  *************************************************************************************************************************
  */
 
-public class PolyRule implements LinkRule, WorkspaceListener {
+public class PolyRule implements StaticLinkRule, WorkspaceListener {
 	
     private final Workspace workspace;		//*****
 
@@ -58,6 +63,15 @@ public class PolyRule implements LinkRule, WorkspaceListener {
         this.workspace = workspace;
     }
 
+    /**
+     * Creates a PolyRule for the specified environment.  Poly types are
+     * propagated on workspace events, so an environment without a workspace
+     * only has its poly links checked, not retyped.
+     */
+    public PolyRule(WorkspaceEnvironment env) {
+        this(env.getWorkspace());
+    }
+
 	/**
      * Connector is initially a poly shape
 	 */
@@ -187,6 +201,10 @@ public class PolyRule implements LinkRule, WorkspaceListener {
  *  		meaning that if the connector may receive information across a link and propagate it to the rest of the
  *  		block, or the other way around, but not both. We keep track of the ID of the last block checked so that
  *  		the recursion doesn't travel backwards onto blocks we've already checked, preventing infinite loop.
+ *
+ *  	--> Technical note: The "recursion" is run on a worklist of SETTER CONNs rather than on the call stack, so
+ *  		that large programs don't overflow it, and each block is visited at most once per connect/disconnect.
+ *  		Only the blocks connected through POLY connectors to the changed link are ever visited.
  *  
  *************************************************************************************************************************
  */
@@ -231,7 +249,7 @@ public class PolyRule implements LinkRule, WorkspaceListener {
 		if (link != null){
 		//System.out.println(link.toString());
 		}
-		ProcedureOutputManager.procedureUpdateInfo(e);
+		workspace.getProcedureOutputManager().procedureUpdateInfo(e);
 		//VariableOutputManager.VariableUpdateInfo(e);
 		//LCDManager.LCDUpdateInfo(e);
 	}
@@ -327,27 +345,35 @@ public class PolyRule implements LinkRule, WorkspaceListener {
 	 * @param setterConn is the SETTER CONN
      */
     private void setPolyConnectors(BlockConnector setterConn, Long setterBlockID) {
-    	Block otherBlock = workspace.getEnv().getBlock(setterConn.getBlockID());
-    	// Set only the directly connected POLY connector if block is PROC-RELATED
-    	if (isProcRelated(otherBlock.getBlockID())) {
-    		BlockConnector polyConn = otherBlock.getConnectorTo(setterBlockID);
-    		setPolyKind(otherBlock, polyConn, setterConn.getKind());
-    		otherBlock.notifyRenderable();
-	        if(otherBlock.hasStubs()) // Update stubs
-	        	BlockStub.parentConnectorsChanged(workspace, otherBlock.getBlockID());
-    	}
-    	// Otherwise set all POLY connectors in the block and recurse
-    	else {
-    		for (BlockConnector polyConn : getPolyConnectors(otherBlock)) {
-    			if (isCurrentlyPoly(polyConn)) {
-    				setPolyKind(otherBlock, polyConn, setterConn.getKind());
-    				// Make sure we don't recurse on blocks we've checked already
-    				if (polyConn.hasBlock() && !polyConn.getBlockID().equals(setterBlockID))
-    					setPolyConnectors(polyConn, otherBlock.getBlockID());
-    					//System.out.println("toto");
-    			}
-    		}
-    		otherBlock.notifyRenderable();
+    	Deque<SetterConnector> pending = new ArrayDeque<SetterConnector>();
+    	Set<Long> visited = new HashSet<Long>();
+    	pending.push(new SetterConnector(setterConn, setterBlockID));
+    	visited.add(setterBlockID);
+    	while (!pending.isEmpty()) {
+    		SetterConnector setter = pending.pop();
+	    	Block otherBlock = workspace.getEnv().getBlock(setter.conn.getBlockID());
+	    	if (!visited.add(otherBlock.getBlockID()))
+	    		continue;
+	    	// Set only the directly connected POLY connector if block is PROC-RELATED
+	    	if (isProcRelated(otherBlock.getBlockID())) {
+	    		BlockConnector polyConn = otherBlock.getConnectorTo(setter.blockID);
+	    		setPolyKind(otherBlock, polyConn, setter.conn.getKind());
+	    		otherBlock.notifyRenderable();
+		        if(otherBlock.hasStubs()) // Update stubs
+		        	BlockStub.parentConnectorsChanged(workspace, otherBlock.getBlockID());
+	    	}
+	    	// Otherwise set all POLY connectors in the block and queue the blocks they connect to
+	    	else {
+	    		for (BlockConnector polyConn : getPolyConnectors(otherBlock)) {
+	    			if (isCurrentlyPoly(polyConn)) {
+	    				setPolyKind(otherBlock, polyConn, setter.conn.getKind());
+	    				// Make sure we don't recurse on blocks we've checked already
+	    				if (polyConn.hasBlock() && !visited.contains(polyConn.getBlockID()))
+	    					pending.push(new SetterConnector(polyConn, otherBlock.getBlockID()));
+	    			}
+	    		}
+	    		otherBlock.notifyRenderable();
+	    	}
     	}
     }
 
@@ -438,17 +464,24 @@ public class PolyRule implements LinkRule, WorkspaceListener {
 	 * @return false iff at any point one of the POLY connectors checked is connected to a TYPED connector
      */
     private boolean canRevertPolyConnectors(Block b, Long prevBlock) {
-    	if (isProcRelated(b.getBlockID())) // Proc-related block is a dead-end (no need to check further)
-    		return true;
-    	Block otherBlock;
-    	for (BlockConnector polyConn : getPolyConnectors(b)) { // Propagate to connected blocks
-   			if (polyConn.hasBlock() && polyConn.getBlockID() != prevBlock) {
-   				otherBlock = workspace.getEnv().getBlock(polyConn.getBlockID());
-    			if (!(isInitPoly(otherBlock.getConnectorTo(b.getBlockID())) &&
-    					canRevertPolyConnectors(otherBlock, b.getBlockID())))
-   					return false;
-   			}
-   		}
+    	Deque<Block> pending = new ArrayDeque<Block>();
+    	Set<Long> visited = new HashSet<Long>();
+    	pending.push(b);
+    	visited.add(prevBlock);
+    	while (!pending.isEmpty()) {
+    		Block block = pending.pop();
+    		visited.add(block.getBlockID());
+	    	if (isProcRelated(block.getBlockID())) // Proc-related block is a dead-end (no need to check further)
+	    		continue;
+	    	for (BlockConnector polyConn : getPolyConnectors(block)) { // Propagate to connected blocks
+	   			if (polyConn.hasBlock() && !visited.contains(polyConn.getBlockID())) {
+	   				Block otherBlock = workspace.getEnv().getBlock(polyConn.getBlockID());
+	    			if (!isInitPoly(otherBlock.getConnectorTo(block.getBlockID())))
+	   					return false;
+	    			pending.push(otherBlock);
+	   			}
+	   		}
+    	}
    		return true;
     }
     
@@ -497,25 +530,34 @@ public class PolyRule implements LinkRule, WorkspaceListener {
 	 * @param setterConn is the SETTER CONN
      */
     private void revertPolyConnectors(BlockConnector setterConn, Long setterBlockID) {
-		Block otherBlock = workspace.getEnv().getBlock(setterConn.getBlockID());
-		// Revert only the directly connected POLY connector if block is PROC-RELATED
-	    if (isProcRelated(otherBlock.getBlockID())) {
-    		BlockConnector polyConn = otherBlock.getConnectorTo(setterBlockID);
-    		revertPolyKind(polyConn,setterConn);
-	        otherBlock.notifyRenderable();
-	        if(otherBlock.hasStubs())
-	        	BlockStub.parentConnectorsChanged(workspace, otherBlock.getBlockID());
-	    }
-	    // Otherwise revert all POLY connectors in the block and recurse
-	    else {
-	    	for (BlockConnector polyConn : getPolyConnectors(otherBlock)) {
-	    		revertPolyKind(polyConn,setterConn);
-	    		// Make sure we don't recurse on blocks we've checked already
-   				if (polyConn.hasBlock() && !polyConn.getBlockID().equals(setterBlockID))
-   					revertPolyConnectors(polyConn,otherBlock.getBlockID());
-	    	}
-   		}
-   		otherBlock.notifyRenderable();
+    	Deque<SetterConnector> pending = new ArrayDeque<SetterConnector>();
+    	Set<Long> visited = new HashSet<Long>();
+    	pending.push(new SetterConnector(setterConn, setterBlockID));
+    	visited.add(setterBlockID);
+    	while (!pending.isEmpty()) {
+    		SetterConnector setter = pending.pop();
+			Block otherBlock = workspace.getEnv().getBlock(setter.conn.getBlockID());
+	    	if (!visited.add(otherBlock.getBlockID()))
+	    		continue;
+			// Revert only the directly connected POLY connector if block is PROC-RELATED
+		    if (isProcRelated(otherBlock.getBlockID())) {
+	    		BlockConnector polyConn = otherBlock.getConnectorTo(setter.blockID);
+	    		revertPolyKind(polyConn, setter.conn);
+		        otherBlock.notifyRenderable();
+		        if(otherBlock.hasStubs())
+		        	BlockStub.parentConnectorsChanged(workspace, otherBlock.getBlockID());
+		    }
+		    // Otherwise revert all POLY connectors in the block and queue the blocks they connect to
+		    else {
+		    	for (BlockConnector polyConn : getPolyConnectors(otherBlock)) {
+		    		revertPolyKind(polyConn, setter.conn);
+		    		// Make sure we don't recurse on blocks we've checked already
+	   				if (polyConn.hasBlock() && !visited.contains(polyConn.getBlockID()))
+	   					pending.push(new SetterConnector(polyConn, otherBlock.getBlockID()));
+		    	}
+	   		}
+	   		otherBlock.notifyRenderable();
+    	}
     }
     
     /**
@@ -542,4 +584,18 @@ public class PolyRule implements LinkRule, WorkspaceListener {
 			polyConn.setKind("poly");
 	}
 	
+    /**
+     * A SETTER CONN waiting on the worklist, along with the ID of its block.
+     */
+    private static final class SetterConnector {
+    	
+    	private final BlockConnector conn;
+    	private final Long blockID;
+    	
+    	SetterConnector(BlockConnector conn, Long blockID) {
+    		this.conn = conn;
+    		this.blockID = blockID;
+    	}
+    }
+	
 }
@@ -1,9 +1,13 @@
 package edu.mit.blocks.codeblocks;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import edu.mit.blocks.renderable.RenderableBlock;
 
@@ -31,10 +35,14 @@ import edu.mit.blocks.workspace.WorkspaceEnvironment;
  * procedure output checking in the compiler, since we make no guarantees 
  * about code branches or even output types (since we don't modify blocks
  * that are already connected to something). 
+ *
+ * <p>Each workspace has its own ProcedureOutputManager.  An edit only updates
+ * the procedure stack it happened in, and only walks the part of the stack
+ * that was connected or disconnected.
  */
 public class ProcedureOutputManager
 {   
-	private static Workspace workspace;
+	private final Workspace workspace;
 	
     /** Default starting space for output blocks. */
     private final static int DEFAULT_SIZE = 5;
@@ -45,7 +53,7 @@ public class ProcedureOutputManager
      * and whether it has a type.
      */
     private static class OutputInfo {
-        private final List<Long> outputs = new ArrayList<Long>(DEFAULT_SIZE);
+        private final Set<Long> outputs = new LinkedHashSet<Long>(DEFAULT_SIZE);
         private String type = null;
         
         /** The number of output blocks that are connected to something. */
@@ -53,14 +61,20 @@ public class ProcedureOutputManager
     }
     
     /** The procedure block to output type mapping. */
-    private final static Map<Long, OutputInfo> myProcInfo = 
+    private final Map<Long, OutputInfo> myProcInfo = 
         new HashMap<Long, OutputInfo>();
     
+    /**
+     * The top block of each block looked up during the current update, or
+     * Block.NULL if the block is not in a valid stack.  Blocks are connected
+     * and disconnected between updates, so this is cleared before each one.
+     */
+    private final Map<Long, Long> topBlockIDs = new HashMap<Long, Long>();
+    
     /** 
      * Constructs a ProcedureOutputManager instance, which is required to deal with
      * adding and removing outputs from a procedure by keeping track of myProcInfo.
      * @param wworkspace: the Workspace instance to manage the Procedure Outputs.
-     * 	(needs to be static because we call it in some static methods)
      */
     public ProcedureOutputManager(Workspace wworkspace) {
     	workspace = wworkspace;
@@ -89,9 +103,21 @@ public class ProcedureOutputManager
      * I think the event is necessary to call the other listeners in the case that
      * outputs don't match and we have to disconnect blocks...
      */
-    public static void procedureUpdateInfo(WorkspaceEvent event) {
+    public void procedureUpdateInfo(WorkspaceEvent event) {
+        topBlockIDs.clear();
         Block b = getBlock(event.getSourceBlockID());
         BlockLink link = event.getSourceLink();
+
+        if (event.getEventType() == WorkspaceEvent.BLOCK_ADDED || event.isBlockCloned()) {
+            for (Long blockID : event.getSourceBlockIDs()) {
+                Block added = getBlock(blockID);
+                if (added != null && added.isProcedureDeclBlock()) {
+                    // Create a new entry for this proc 
+                    myProcInfo.put(blockID, new OutputInfo());
+                }
+            }
+            return;
+        }
         
         switch (event.getEventType()) {
         case WorkspaceEvent.BLOCKS_CONNECTED:
@@ -110,15 +136,6 @@ public class ProcedureOutputManager
             }
             return;
             
-        case WorkspaceEvent.BLOCK_ADDED:
-            if (b != null) {
-                if (b.isProcedureDeclBlock()) {
-                    // Create a new entry for this proc 
-                    myProcInfo.put(b.getBlockID(), new OutputInfo());
-                }
-            }
-            return;
-            
         case WorkspaceEvent.BLOCK_REMOVED:
             if (b != null && b.isProcedureDeclBlock()) {
             	// System.out.println("procedure of type "+myProcInfo.get(b.getBlockID()).type+" removed.");
@@ -150,7 +167,10 @@ public class ProcedureOutputManager
 	 *		revert the types of incorrect output sockets
 	 *		disconnect incorrect output types
      */
-    public static void finishLoad() {
+    public void finishLoad() {
+    	
+    	// The outputs of a procedure share most of their way up to it.
+    	topBlockIDs.clear();
     	
     	// Create new output info for each procedure on the canvas.
     	for(Block p : workspace.getBlocksFromGenus("procedure")) {
@@ -166,7 +186,7 @@ public class ProcedureOutputManager
     			OutputInfo info = myProcInfo.get(top);
     			
     			// Check that the output hasn't already been visited (shouldn't have but just to be safe...)
-				if (!info.outputs.contains(b)) {
+				if (!info.outputs.contains(b.getBlockID())) {
 					
 					// Change the procedure type if it has not been set and is not of the generic type poly.
     				if (info.type == null && !b.getSocketAt(0).getKind().equals("poly")) {
@@ -187,6 +207,7 @@ public class ProcedureOutputManager
     			//System.out.println("numtyped "+info.numTyped+" type "+info.type);
     		}
     	}
+    	topBlockIDs.clear();
     }
     
     /**
@@ -194,8 +215,9 @@ public class ProcedureOutputManager
      * when resetting the workspace (WorkspaceController.resetWorkspace()), 
      * which occurs when loading a project or creating a new one.
      */
-    public static void reset() {
+    public void reset() {
     	myProcInfo.clear();
+    	topBlockIDs.clear();
     }
     
     /**
@@ -203,7 +225,7 @@ public class ProcedureOutputManager
      * stack. If so, check to see whether we should update the output type,
      * and if any existing blocks are affected by this change. 
      */
-    private static void blocksConnected(WorkspaceWidget w, Long socket, Long plug) {
+    private void blocksConnected(WorkspaceWidget w, Long socket, Long plug) {
         // Don't do anything if we're not in a procedure stack.
         Long top = getTopBlockID(socket);
 
@@ -251,7 +273,7 @@ public class ProcedureOutputManager
      * When blocks are disconnected, update the proc stack and revert any
      * affected output blocks/callers.
      */
-    private static void blocksDisconnected(WorkspaceWidget w, Long socket, Long plug) {
+    private void blocksDisconnected(WorkspaceWidget w, Long socket, Long plug) {
         // Don't do anything if we're not in a procedure stack.
         Long top = getTopBlockID(socket);
         if (top == null || !workspace.getEnv().getBlock(top).isProcedureDeclBlock()) return;
@@ -289,13 +311,13 @@ public class ProcedureOutputManager
      * 
      * @param info Filled with new output block ids 
      */
-    private static void examineType(boolean add, Block b, OutputInfo info) {
-        if (isOutput(b)) {
-            if (add) {
-                info.outputs.add(b.getBlockID());
+    private void examineType(boolean add, Block b, OutputInfo info) {
+        for (Block output : getOutputs(b)) {
+            if (add || output != b) {
+                info.outputs.add(output.getBlockID());
             }
             
-            BlockConnector socket = b.getSocketAt(0);
+            BlockConnector socket = output.getSocketAt(0);
             Block b2 = getBlock(socket.getBlockID());
             if (b2 != null) {
                 // Found a type - set it and keep looking for blocks.
@@ -306,31 +328,16 @@ public class ProcedureOutputManager
             else if (!socket.getKind().equals(socket.initKind())) {
                 // Reset its type, regardless of what it was before.
                 socket.setKind(socket.initKind());
-                b.notifyRenderable();
+                output.notifyRenderable();
             }
-            
-            // There are no blocks after outputs.
-            return;
-        }
-        
-        // Traverse sockets first.
-        for (BlockConnector conn : b.getSockets()) {
-            Block b2 = getBlock(conn.getBlockID());
-            if (b2 != null)
-                examineType(true, b2, info);
         }
-        
-        // Traverse after block.
-        Block b2 = getBlock(b.getAfterBlockID());
-        if (b2 != null)
-            examineType(true, b2, info);
     }
     
     /**
      * Changes the output block types in the given list, disconnecting
      * blocks if necessary.
      */
-    private static void changeType(OutputInfo info, 
+    private void changeType(OutputInfo info, 
                                    WorkspaceWidget w, List<WorkspaceEvent> e) 
     {
         String type = info.type;
@@ -363,22 +370,22 @@ public class ProcedureOutputManager
      * @param info Filled with output block ids. 
      * @param events Filled with workspace events to be fired
      */
-    private static void changeType(boolean add, 
+    private void changeType(boolean add, 
                                    Block b, String type, OutputInfo info,
                                    WorkspaceWidget w, List<WorkspaceEvent> e) 
     {
-        if (isOutput(b)) {
-            if (add) {
-                info.outputs.add(b.getBlockID());
+        for (Block output : getOutputs(b)) {
+            if (add || output != b) {
+                info.outputs.add(output.getBlockID());
             }
             
             // If there is nothing connected to it, we just change the socket
             // type.
-            BlockConnector socket = b.getSocketAt(0);
+            BlockConnector socket = output.getSocketAt(0);
             Block b2 = getBlock(socket.getBlockID());
             if (b2 == null && !socket.getKind().equals(type)) {
                 socket.setKind(type);
-                b.notifyRenderable();
+                output.notifyRenderable();
             }
             
             // Otherwise, we might have to disconnect what's already there.
@@ -387,9 +394,9 @@ public class ProcedureOutputManager
                 // because the disconnected event will correct this.
                 info.numTyped++;
                 
-                BlockLink link = BlockLink.getBlockLink(workspace, b, b2, socket, b2.getPlug());
+                BlockLink link = BlockLink.getBlockLink(workspace, output, b2, socket, b2.getPlug());
                 link.disconnect();
-                workspace.getEnv().getRenderableBlock(b.getBlockID()).blockDisconnected(socket);
+                workspace.getEnv().getRenderableBlock(output.getBlockID()).blockDisconnected(socket);
                 e.add(new WorkspaceEvent(workspace, w, link, WorkspaceEvent.BLOCKS_DISCONNECTED));
             }
             
@@ -397,76 +404,73 @@ public class ProcedureOutputManager
             else {
                 info.numTyped++;
             }
-        
-            // There is nothing after an output block.
-            return;
         }
-        
-        // Traverse sockets first.
-        for (BlockConnector conn : b.getSockets()) {
-            Block b2 = getBlock(conn.getBlockID());
-            if (b2 != null)
-                changeType(true, b2, type, info, w, e);
-        }
-        
-        // Traverse after block.
-        Block b2 = getBlock(b.getAfterBlockID());
-        if (b2 != null)
-            changeType(true, b2, type, info, w, e);
     }
     
     /** 
      * Revert the output blocks to their original socket types, starting from
      * the given block. Updates the proc info.
      */
-    private static void revertType(Block b, OutputInfo info, boolean remove) {
-        if (isOutput(b)) {
+    private void revertType(Block b, OutputInfo info, boolean remove) {
+        for (Block output : getOutputs(b)) {
             if (remove) {
-                info.outputs.remove(b.getBlockID());
+                info.outputs.remove(output.getBlockID());
             }
             
             // If there is nothing connected to it, we just change the socket
             // type.
-            BlockConnector socket = b.getSocketAt(0);
+            BlockConnector socket = output.getSocketAt(0);
             Block b2 = getBlock(socket.getBlockID());
             if (b2 == null && !socket.getKind().equals(socket.initKind())) {
                 socket.setKind(socket.initKind());
-                b.notifyRenderable();
+                output.notifyRenderable();
             }
             
             // Otherwise, decrement our connected counter.
             else if (b2 != null && remove) {
                 info.numTyped--;
             }
-        
-            // There is nothing after an output block.
-            return;
         }
-        
-        // Traverse sockets first.
-        for (BlockConnector conn : b.getSockets()) {
-            Block b2 = getBlock(conn.getBlockID());
-            if (b2 != null)
-                revertType(b2, info, remove);
+    }
+    
+    /**
+     * Returns the output blocks of the portion of the stack starting at the
+     * given block, in the order in which a traversal of the sockets of each
+     * block, then of its after block, reaches them.  There is nothing after
+     * an output block, so the traversal does not go past outputs.
+     * The stack is walked with a worklist rather than recursively, so that
+     * long stacks do not overflow the call stack.
+     */
+    private List<Block> getOutputs(Block b) {
+        List<Block> outputs = new ArrayList<Block>(DEFAULT_SIZE);
+        Deque<Block> pending = new ArrayDeque<Block>();
+        pending.push(b);
+        while (!pending.isEmpty()) {
+            Block next = pending.pop();
+            if (isOutput(next)) {
+                outputs.add(next);
+                continue;
+            }
+            
+            // Traverse sockets first, so push them after the after block.
+            Block after = getBlock(next.getAfterBlockID());
+            if (after != null)
+                pending.push(after);
+            for (int i = next.getNumSockets() - 1; i >= 0; i--) {
+                Block b2 = getBlock(next.getSocketAt(i).getBlockID());
+                if (b2 != null)
+                    pending.push(b2);
+            }
         }
-        
-        // Traverse after block.
-        Block b2 = getBlock(b.getAfterBlockID());
-        if (b2 != null)
-            revertType(b2, info, remove);
+        return outputs;
     }
     
     /** Returns the block if one exists, or null if not. */
-    public static Block getBlock(Long id) {
+    public Block getBlock(Long id) {
         if (id == null || id.equals(Block.NULL)) 
             return null;
         else {
-        	if (workspace != null){
-        		return workspace.getEnv().getBlock(id);
-        	}
-        	else {
-        		return null;
-        	}
+        	return workspace.getEnv().getBlock(id);
         }
     }
     
@@ -479,23 +483,53 @@ public class ProcedureOutputManager
     
     
     // Ajout 2013
-    private static Long getTopBlockID(Long blockID) {
-    	if (blockID == null || Block.NULL.equals(blockID)  || workspace.getEnv().getBlock(blockID) == null)
-			return null;
-        Block b = workspace.getEnv().getBlock(blockID);
-        if (b.hasBeforeConnector()) return getTopBlockID(b.getBeforeBlockID());
-        if (b.hasPlug()) return getTopBlockID(b.getPlugBlockID());
-    
-        // b is the top block, but is it a valid type?
-        if (b.isProcedureDeclBlock()) return blockID;
-        return isForeverRunBlock(blockID) ? blockID : null;
+    /**
+     * Returns the top block of the stack containing the given block, if it is
+     * a procedure or a forever-run block, or null otherwise.  The top block of
+     * every block on the way up is remembered until the next update, so that
+     * blocks of the same stack are only walked once.
+     */
+    private Long getTopBlockID(Long blockID) {
+        List<Long> path = new ArrayList<Long>();
+        Long top;
+        Long id = blockID;
+        while (true) {
+            if (id == null || Block.NULL.equals(id)) {
+                top = Block.NULL;
+                break;
+            }
+            Long known = topBlockIDs.get(id);
+            if (known != null) {
+                top = known;
+                break;
+            }
+            Block b = workspace.getEnv().getBlock(id);
+            if (b == null) {
+                top = Block.NULL;
+                break;
+            }
+            path.add(id);
+            if (b.hasBeforeConnector()) {
+                id = b.getBeforeBlockID();
+            } else if (b.hasPlug()) {
+                id = b.getPlugBlockID();
+            } else {
+                // b is the top block, but is it a valid type?
+                top = b.isProcedureDeclBlock() || isForeverRunBlock(id) ? id : Block.NULL;
+                break;
+            }
+        }
+        for (Long visited : path) {
+            topBlockIDs.put(visited, top);
+        }
+        return Block.NULL.equals(top) ? null : top;
     }
     
     /**
      * Returns true if the given block is a forever-run block 
      * (forever, runforsometime, runonce).
      */
-    public static boolean isForeverRunBlock(Long blockID) {
+    public boolean isForeverRunBlock(Long blockID) {
         if (blockID.equals(Block.NULL)) return false;
         RuntimeType rt = getRuntimeType(workspace.getEnv().getBlock(blockID));
         return rt == RuntimeType.FOREVER || rt == RuntimeType.RUNFORSOMETIME ||
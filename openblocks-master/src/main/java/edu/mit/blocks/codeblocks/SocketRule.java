@@ -5,7 +5,7 @@ package edu.mit.blocks.codeblocks;
  * match in kind.
  *
  */
-public class SocketRule implements LinkRule {
+public class SocketRule implements StaticLinkRule {
 
     /**
      * Returns true if the two sockets of the two blocks can link by matching their socket kind; false if not.
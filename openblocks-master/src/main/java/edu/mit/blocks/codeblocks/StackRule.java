@@ -3,6 +3,7 @@ package edu.mit.blocks.codeblocks;
 import java.util.HashMap;
 
 import edu.mit.blocks.workspace.Workspace;
+import edu.mit.blocks.workspace.WorkspaceEnvironment;
 import edu.mit.blocks.workspace.WorkspaceEvent;
 import edu.mit.blocks.workspace.WorkspaceListener;
 import edu.mit.blocks.codeblocks.Block;
@@ -13,13 +14,17 @@ import edu.mit.blocks.codeblocks.LinkRule;
 
 public class StackRule implements LinkRule, WorkspaceListener {
 
-    private final Workspace workspace;
+    private final WorkspaceEnvironment env;
   
-	private static HashMap<Long, Long> topBlock;
-	private static HashMap<Long, String> stackType;
+	private final HashMap<Long, Long> topBlock;
+	private final HashMap<Long, String> stackType;
 	
 	public StackRule(Workspace workspace) {
-		this.workspace = workspace;
+		this(workspace.getEnv());
+	}
+
+	public StackRule(WorkspaceEnvironment env) {
+		this.env = env;
 		topBlock = new HashMap<Long, Long>();
 		stackType = new HashMap<Long, String>();
 	}
@@ -72,7 +77,7 @@ public class StackRule implements LinkRule, WorkspaceListener {
 		if (startID == Block.NULL)
 			return "";
 		topBlock.put(startID, topID);
-		Block b = workspace.getEnv().getBlock(startID);
+		Block b = env.getBlock(startID);
 		String type = b.getProperty("stack-type");
 		if (type != null && type.length() > currentType.length())
 			currentType = type;
@@ -92,14 +97,15 @@ public class StackRule implements LinkRule, WorkspaceListener {
 	}
 	
 	private Long getTopBlock(Long blockID) {
-		if (!topBlock.containsKey(blockID)) {
+		// without a workspace no event keeps the stacks up to date, so find them anew
+		if (env.getWorkspace() == null || !topBlock.containsKey(blockID)) {
 			makeStack(findTopBlock(blockID));
 		}
 		return topBlock.get(blockID);
 	}
 	
 	private Long findTopBlock(Long blockID) {
-		BlockConnector plug = BlockLinkChecker.getPlugEquivalent(workspace.getEnv().getBlock(blockID));
+		BlockConnector plug = BlockLinkChecker.getPlugEquivalent(env.getBlock(blockID));
 		if (plug == null || !plug.hasBlock())
 			return blockID;
 		return findTopBlock(plug.getBlockID());
@@ -0,0 +1,13 @@
+package edu.mit.blocks.codeblocks;
+
+/**
+ * A <code>StaticLinkRule</code> is a <code>LinkRule</code> whose decision depends only on the genus of each
+ * <code>Block</code> and on the kind, position type, role (plug, before, after or socket) and occupancy of each
+ * <code>BlockConnector</code>.  <code>BlockLinkChecker</code> evaluates such rules once per distinct combination
+ * of these traits and reuses the decision for every later candidate pair with the same traits.
+ *
+ * Rules that keep their own state, or that look at the blocks already connected to either block, must
+ * implement <code>LinkRule</code> directly so they are evaluated for every candidate pair.
+ */
+public interface StaticLinkRule extends LinkRule {
+}
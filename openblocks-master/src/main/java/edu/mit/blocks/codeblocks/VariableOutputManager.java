@@ -35,7 +35,7 @@ import edu.mit.blocks.workspace.WorkspaceEnvironment;
  */
 public class VariableOutputManager
 {   
-	private static Workspace workspace;
+	private final Workspace workspace;
 	
     /** Default starting space for output blocks. */
     private final static int DEFAULT_SIZE = 5;
@@ -55,14 +55,13 @@ public class VariableOutputManager
     }
     
     /** The procedure block to output type mapping. */
-    private final static Map<Long, VariableInfo> myVarInfo = 
+    private final Map<Long, VariableInfo> myVarInfo = 
         new HashMap<Long, VariableInfo>();
     
     /** 
      * Constructs a ProcedureOutputManager instance, which is required to deal with
      * adding and removing variables from a procedure by keeping track of myVarInfo.
      * @param wworkspace: the Workspace instance to manage the Procedure variables.
-     * 	(needs to be static because we call it in some static methods)
      */
     public VariableOutputManager(Workspace wworkspace) {
     	workspace = wworkspace;
@@ -92,9 +91,20 @@ public class VariableOutputManager
      * I think the event is necessary to call the other listeners in the case that
      * variables don't match and we have to disconnect blocks...
      */
-    public static void VariableUpdateInfo(WorkspaceEvent event) {
+    public void VariableUpdateInfo(WorkspaceEvent event) {
         Block b = getBlock(event.getSourceBlockID());
         BlockLink link = event.getSourceLink();
+
+        if (event.getEventType() == WorkspaceEvent.BLOCK_ADDED || event.isBlockCloned()) {
+            for (Long blockID : event.getSourceBlockIDs()) {
+                Block added = getBlock(blockID);
+                if (added != null && added.isVariableDeclBlock()) {
+                    // Create a new entry for this variable 
+                    myVarInfo.put(blockID, new VariableInfo());
+                }
+            }
+            return;
+        }
         
         switch (event.getEventType()) {
         case WorkspaceEvent.BLOCKS_CONNECTED:
@@ -114,15 +124,6 @@ public class VariableOutputManager
             }
             return;
             
-        case WorkspaceEvent.BLOCK_ADDED:
-            if (b != null) {
-                if (b.isVariableDeclBlock()) {
-                    // Create a new entry for this variable 
-                    myVarInfo.put(b.getBlockID(), new VariableInfo());
-                }
-            }
-            return;
-            
         case WorkspaceEvent.BLOCK_REMOVED:
             if (b != null && b.isVariableDeclBlock()) {
             	// System.out.println("procedure of type "+myVarInfo.get(b.getBlockID()).type+" removed.");
@@ -154,7 +155,7 @@ public class VariableOutputManager
 	 *		revert the types of incorrect output sockets
 	 *		disconnect incorrect output types
      */
-    public static void finishLoad() {
+    public void finishLoad() {
     	
     	// Create new output info for each procedure on the canvas.
     	for(Block p : workspace.getBlocksFromGenus("variable")) {
@@ -199,7 +200,7 @@ public class VariableOutputManager
      * when resetting the workspace (WorkspaceController.resetWorkspace()), 
      * which occurs when loading a project or creating a new one.
      */
-    public static void reset() {
+    public void reset() {
     	myVarInfo.clear();
     }
     
@@ -208,7 +209,7 @@ public class VariableOutputManager
      * stack. If so, check to see whether we should update the output type,
      * and if any existing blocks are affected by this change. 
      */
-    private static void blocksConnected(WorkspaceWidget w, Long socket, Long plug, BlockConnector sock) {
+    private void blocksConnected(WorkspaceWidget w, Long socket, Long plug, BlockConnector sock) {
         // Don't do anything if we're not in a variable setter.
         Long decVar = getDecVarBlockID(plug);
         
@@ -278,7 +279,7 @@ public class VariableOutputManager
      * When blocks are disconnected, update the proc stack and revert any
      * affected output blocks/callers.
      */
-    private static void blocksDisconnected(WorkspaceWidget w, Long socket, Long plug) {
+    private void blocksDisconnected(WorkspaceWidget w, Long socket, Long plug) {
         // Don't do anything if we're not in a procedure stack.
         Long decVar = getDecVarBlockID(plug);
         boolean socketDecVar = workspace.getEnv().getBlock(socket).isVariableDeclBlock();
@@ -369,7 +370,7 @@ public class VariableOutputManager
      * 
      * @param info Filled with new output block ids 
      */
-    private static void examineType(boolean add, Block b, VariableInfo info, BlockConnector sock) {
+    private void examineType(boolean add, Block b, VariableInfo info, BlockConnector sock) {
         //if (isSetter(b)) {
             if (add) {
                 info.variables.add(b.getBlockID());
@@ -413,7 +414,7 @@ public class VariableOutputManager
      * Changes the output block types in the given list, disconnecting
      * blocks if necessary.
      */
-    private static void changeType(VariableInfo info, 
+    private void changeType(VariableInfo info, 
                                    WorkspaceWidget w, List<WorkspaceEvent> e) 
     {
         String type = info.type;
@@ -447,7 +448,7 @@ public class VariableOutputManager
      * @param info Filled with output block ids. 
      * @param events Filled with workspace events to be fired
      */
-    private static void changeType(boolean add, 
+    private void changeType(boolean add, 
                                    Block b, String type, VariableInfo info,
                                    WorkspaceWidget w, List<WorkspaceEvent> e) 
     {
@@ -503,7 +504,7 @@ public class VariableOutputManager
      * Revert the output blocks to their original socket types, starting from
      * the given block. Updates the proc info.
      */
-    private static void revertType(Block b, VariableInfo info, boolean remove) {
+    private void revertType(Block b, VariableInfo info, boolean remove) {
         //if (isSetter(b)) {
             if (remove) {
                 info.variables.remove(b.getBlockID());
@@ -541,7 +542,7 @@ public class VariableOutputManager
     }
     
     /** Returns the block if one exists, or null if not. */
-    public static Block getBlock(Long id) {
+    public Block getBlock(Long id) {
         if (id == null || id.equals(Block.NULL)) 
             return null;
         else {
@@ -563,7 +564,7 @@ public class VariableOutputManager
     
     
     // Ajout 2013
-    private static Long getDecVarBlockID(Long blockID) {
+    private Long getDecVarBlockID(Long blockID) {
     	if (blockID == null || Block.NULL.equals(blockID)  || workspace.getEnv().getBlock(blockID) == null)
 			return null;
         Block b = workspace.getEnv().getBlock(blockID);
@@ -585,7 +586,7 @@ public class VariableOutputManager
         return b != null && cmd.equals(b.getProperty(VM_COMMAND_NAME));
     }
 
-    public static Block getParent(Block b) {
+    public Block getParent(Block b) {
         if (b instanceof BlockStub) {
             Block parent = ((BlockStub) b).getParent();
             if (parent != null && 
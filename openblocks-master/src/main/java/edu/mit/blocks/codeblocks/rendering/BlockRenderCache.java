@@ -0,0 +1,111 @@
+package edu.mit.blocks.codeblocks.rendering;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.geom.Area;
+import java.awt.image.BufferedImage;
+
+import edu.mit.blocks.codeblockutil.GraphicsManager;
+import edu.mit.blocks.codeblockutil.ImageCache;
+
+/**
+ * BlockRenderCache holds the rasters of rendered block shapes, that is the
+ * colored and beveled area of a block without its labels and sockets, so that
+ * blocks of identical shape, color and zoom share a single raster.
+ *
+ * The cache is bounded by a byte budget rather than by a number of rasters.
+ * When a new raster would exceed the budget, the least recently used rasters
+ * are evicted.  An evicted raster remains valid for the blocks still drawing
+ * it; it is merely no longer shared with blocks rendered afterwards.
+ *
+ * Rasters handed out by the cache are shared and must be treated as read-only:
+ * they must not be drawn on, nor recycled through the GraphicsManager.
+ */
+public class BlockRenderCache {
+
+    /** The default byte budget of the cache: 16 MB */
+    public static final long DEFAULT_BYTE_BUDGET = 16L * 1024 * 1024;
+
+    private static final ImageCache<RenderCacheKey> rasters = new ImageCache<RenderCacheKey>(DEFAULT_BYTE_BUDGET);
+
+    /**
+     * Returns the raster of a block of the specified shape, color and zoom,
+     * rendering it if it is not cached yet.
+     * @param area the shape of the block, already scaled to zoom
+     * @param color the color of the block
+     * @param zoom the zoom level the shape was scaled to
+     * @return a shared, read-only raster of the block shape
+     */
+    public static BufferedImage getBlockImage(Area area, Color color, double zoom) {
+        Rectangle bounds = area.getBounds();
+        ShapeFingerprint shape = new ShapeFingerprint(area, bounds.width, bounds.height);
+        RenderCacheKey key = new RenderCacheKey(shape, color, zoom);
+        BufferedImage img = rasters.get(key);
+        if (img == null) {
+            img = renderBlockImage(shape, area, color);
+            rasters.put(key, img);
+        }
+        return img;
+    }
+
+    private static BufferedImage renderBlockImage(ShapeFingerprint shape, Area area, Color color) {
+        BufferedImage img = GraphicsManager.gc.createCompatibleImage(Math.max(1, shape.getWidth()), Math.max(1, shape.getHeight()), Transparency.TRANSLUCENT);
+        Graphics2D g2 = (Graphics2D) img.getGraphics();
+        // get size of block to determine size needed for bevel image
+        Image bevelImage = BlockShapeUtil.getBevelImage(shape, area);
+
+        // need antialiasing to remove color fill artifacts outside the bevel
+        g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+
+        // ADD BLOCK COLOR
+        g2.setColor(color);
+        g2.fill(area);
+
+        // draw the bevel on the shape -- comment this line to not apply
+        // beveling
+        g2.drawImage(bevelImage, 0, 0, null);
+        g2.dispose();
+        return img;
+    }
+
+    /**
+     * @return the cache of block rasters, to tune its byte budget or
+     * 			read its statistics
+     */
+    public static ImageCache<?> getCache() {
+        return rasters;
+    }
+
+    private static class RenderCacheKey {
+
+        public final ShapeFingerprint shape;
+        public final int rgb;
+        public final double zoom;
+        private final int hashCode;
+
+        public RenderCacheKey(ShapeFingerprint shape, Color color, double zoom) {
+            this.shape = shape;
+            this.rgb = color == null ? 0 : color.getRGB();
+            this.zoom = zoom;
+            this.hashCode = (shape.hashCode() * 31 + rgb) * 31 + (int) (zoom * 1000);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof RenderCacheKey) || o.hashCode() != hashCode) {
+                return false;
+            }
+            RenderCacheKey k = (RenderCacheKey) o;
+            return rgb == k.rgb && zoom == k.zoom && shape.equals(k.shape);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
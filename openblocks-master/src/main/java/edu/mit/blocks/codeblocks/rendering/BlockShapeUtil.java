@@ -2,6 +2,7 @@ package edu.mit.blocks.codeblocks.rendering;
 
 import java.awt.Graphics2D;
 import java.awt.Image;
+import java.awt.Rectangle;
 import java.awt.RenderingHints;
 import java.awt.Transparency;
 import java.awt.geom.AffineTransform;
@@ -11,9 +12,13 @@ import java.awt.geom.PathIterator;
 import java.awt.geom.Point2D;
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import edu.mit.blocks.codeblockutil.GraphicsManager;
-import edu.mit.blocks.codeblockutil.LRUCache;
+import edu.mit.blocks.codeblockutil.ImageCache;
 
 public class BlockShapeUtil {
 	
@@ -107,86 +112,107 @@ public class BlockShapeUtil {
         gp.curveTo((x1 + x2) / 2, (y1 + y2) / 2, (x2 + x3) / 2, (y2 + y3) / 2, x3, y3);
     }
 	
-    private static class BevelCacheKey {
-
-        public final int width, height;
-        public final Area area;
-        private final int hashCode;
-        
-        public BevelCacheKey(int width, int height, Area area) {
-            this.width = width;
-            this.height = height;
-            this.area = area;
-            this.hashCode = computeHashCode();
-        }
-        
-        private int computeHashCode() {
-            int hash = width * 1313 + height * 71;
-            // Area.hashCode() is not implemented, so we have to do it ourselves..
-            PathIterator pi = area.getPathIterator(null);
-            double[] arg = new double[6];
-            while (!pi.isDone()) {
-                for (int i = 0; i < 6; i++) {
-                    arg[i] = 0;
-                }
-                int val = pi.getWindingRule();
-                val += 3 * pi.currentSegment(arg);
-                for (int i = 0; i < 6; i++) {
-                    val = (val * 5) + (int) Math.floor(arg[i] * 1000);
-                }
-                hash = hash * 7 + val;
-                pi.next();
-            }
-            return hash;
-        }
-        
-        @Override
-        public boolean equals(Object o) {
-            if (!(o instanceof BevelCacheKey) || o.hashCode() != hashCode) {
-                return false;
-            }
-            BevelCacheKey b = (BevelCacheKey) o;
-            return width == b.width && height == b.height && area.equals(b.area);
-        }
-        
-        @Override
-        public int hashCode() {
-            return hashCode;
-        }
-    }
+    /** The default byte budget of the bevel cache: 8 MB */
+    public static final long DEFAULT_BEVEL_CACHE_BUDGET = 8L * 1024 * 1024;
+
+    static private final ImageCache<ShapeFingerprint> bevelCache = new ImageCache<ShapeFingerprint>(DEFAULT_BEVEL_CACHE_BUDGET);
+
+    /** The thread pre-warming the bevel cache, created on first use */
+    static private ExecutorService prewarmExecutor = null;
 
-    static private final int BEVEL_CACHE_SIZE = 200;
-    
-    static private final LRUCache<BevelCacheKey, BufferedImage> bevelCache = new LRUCache<BevelCacheKey, BufferedImage>(BEVEL_CACHE_SIZE);
-	
     /**
      * Static method to return bufferedImage of a Beveled outline of a block
      */
     public static Image getBevelImage(int width, int height, Area s) {
-        BevelCacheKey key = new BevelCacheKey(width, height, s);
-        BufferedImage img;
-        img = bevelCache.get(key);
+        return getBevelImage(new ShapeFingerprint(s, width, height), s);
+    }
+
+    /**
+     * Returns the bevel image of the shape s identified by key, rendering it
+     * if it is not cached yet.
+     */
+    static BufferedImage getBevelImage(ShapeFingerprint key, Area s) {
+        BufferedImage img = bevelCache.get(key);
         if (img != null) {
-            //System.out.println("Found cached bevel!");
             return img;
         }
-        //System.out.println("Not found cached bevel!");
+        img = renderBevelImage(key.getWidth(), key.getHeight(), s);
+        bevelCache.put(key, img);
+        return img;
+    }
+
+    private static BufferedImage renderBevelImage(int width, int height, Area s) {
         //generic light vector - "chosen to look good"
         float[] light = ShapeBevel.getLightVector(-1, -2, 2);
         int bevelSize = 3;
         //create image
-        img = GraphicsManager.gc.createCompatibleImage(width, height, Transparency.TRANSLUCENT);
+        BufferedImage img = GraphicsManager.gc.createCompatibleImage(width, height, Transparency.TRANSLUCENT);
         Graphics2D g2 = (Graphics2D) img.getGraphics();
         g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
         g2.setColor(ShapeBevel.getFrontFaceOverlay(light));
         g2.fill(s);
         ShapeBevel.createShapeBevel(g2, s, 0.1, bevelSize, bevelSize, light);
-        // Make a copy of the Area to prevent aliasing.
-        BevelCacheKey key2 = new BevelCacheKey(width, height, new Area(s));
-        bevelCache.put(key2, img);
+        g2.dispose();
         return img;
     }
 
+    /**
+     * @return the cache of bevel images, to tune its byte budget or
+     * 			read its statistics
+     */
+    public static ImageCache<?> getBevelCache() {
+        return bevelCache;
+    }
+
+    /**
+     * Renders, on a background thread, the bevel images of the specified
+     * unzoomed block shapes at each of the specified zoom levels, so that
+     * blocks of these shapes do not have to render them while painting.
+     * The shapes must not be modified afterwards.
+     * @param abstractAreas the shapes of the blocks at zoom level 1.0
+     * @param zoomLevels the zoom levels to render the bevels at
+     */
+    public static void prewarmBevelImages(final Collection<Area> abstractAreas, final double[] zoomLevels) {
+        getPrewarmExecutor().execute(new Runnable() {
+
+            @Override
+            public void run() {
+                for (double zoom : zoomLevels) {
+                    // scale the same way RenderableBlock does, so that the fingerprints match
+                    AffineTransform at = new AffineTransform();
+                    at.setToScale(zoom, zoom);
+                    for (Area abstractArea : abstractAreas) {
+                        Area area = abstractArea.createTransformedArea(at);
+                        Rectangle bounds = area.getBounds();
+                        if (bounds.width <= 0 || bounds.height <= 0) {
+                            continue;
+                        }
+                        ShapeFingerprint key = new ShapeFingerprint(area, bounds.width, bounds.height);
+                        if (!bevelCache.containsKey(key)) {
+                            bevelCache.put(key, renderBevelImage(bounds.width, bounds.height, area));
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    private static synchronized ExecutorService getPrewarmExecutor() {
+        if (prewarmExecutor == null) {
+            prewarmExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "BevelPrewarm");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+        }
+        return prewarmExecutor;
+    }
+
     /**
      * Appends path gp2 to gp1.
      * Taken from pre-redesign code.
@@ -0,0 +1,106 @@
+package edu.mit.blocks.codeblocks.rendering;
+
+import java.awt.geom.Area;
+import java.awt.geom.PathIterator;
+import java.util.Arrays;
+
+/**
+ * A ShapeFingerprint identifies the outline of a block shape by the
+ * segments of its path, along with the size of the image it is drawn on.
+ * It is meant as a cache key for images rendered from a shape.
+ *
+ * Area does not implement hashCode(), and Area.equals() is an expensive
+ * geometric comparison that also requires keeping a private copy of the
+ * Area.  Two fingerprints are instead equal when their paths have the same
+ * winding rule and the same segments with the same coordinates, which holds
+ * for shapes built the same way, as blocks of the same genus and size are.
+ * Comparing them only compares two arrays, and no Area is retained.
+ */
+public final class ShapeFingerprint {
+
+    private final int width, height;
+    private final int windingRule;
+    /** The type of each segment of the path */
+    private final byte[] types;
+    /** The coordinates of all segments of the path, in order */
+    private final float[] coords;
+    private final int hashCode;
+
+    /**
+     * Fingerprints the specified shape drawn on an image of the specified size.
+     */
+    public ShapeFingerprint(Area area, int width, int height) {
+        this.width = width;
+        this.height = height;
+        PathIterator pi = area.getPathIterator(null);
+        this.windingRule = pi.getWindingRule();
+        byte[] t = new byte[16];
+        float[] c = new float[96];
+        int numTypes = 0;
+        int numCoords = 0;
+        float[] segment = new float[6];
+        while (!pi.isDone()) {
+            int type = pi.currentSegment(segment);
+            int n = getCoordCount(type);
+            if (numTypes == t.length) {
+                t = Arrays.copyOf(t, t.length * 2);
+            }
+            if (numCoords + n > c.length) {
+                c = Arrays.copyOf(c, c.length * 2 + n);
+            }
+            t[numTypes++] = (byte) type;
+            System.arraycopy(segment, 0, c, numCoords, n);
+            numCoords += n;
+            pi.next();
+        }
+        this.types = Arrays.copyOf(t, numTypes);
+        this.coords = Arrays.copyOf(c, numCoords);
+        int hash = width * 1313 + height * 71 + windingRule;
+        hash = hash * 31 + Arrays.hashCode(types);
+        hash = hash * 31 + Arrays.hashCode(coords);
+        this.hashCode = hash;
+    }
+
+    private static int getCoordCount(int segmentType) {
+        switch (segmentType) {
+            case PathIterator.SEG_MOVETO:
+            case PathIterator.SEG_LINETO:
+                return 2;
+            case PathIterator.SEG_QUADTO:
+                return 4;
+            case PathIterator.SEG_CUBICTO:
+                return 6;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * @return the width of the image the shape is drawn on
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return the height of the image the shape is drawn on
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof ShapeFingerprint) || o.hashCode() != hashCode) {
+            return false;
+        }
+        ShapeFingerprint f = (ShapeFingerprint) o;
+        return width == f.width && height == f.height && windingRule == f.windingRule
+                && Arrays.equals(types, f.types) && Arrays.equals(coords, f.coords);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+}
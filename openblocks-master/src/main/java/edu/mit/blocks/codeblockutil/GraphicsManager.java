@@ -56,9 +56,10 @@ public class GraphicsManager {
         if (img == null) {
             return;
         }
-        // Make sure we don't waste too much memory
+        // Make sure we don't waste too much memory: once the pool is full,
+        // released images are left to the garbage collector
         if (numRecycledImages >= MAX_RECYCLED_IMAGES) {
-            recycledImages.clear();
+            return;
         }
         Dimension dim = new Dimension(img.getWidth(), img.getHeight());
         List<BufferedImage> imgList = recycledImages.get(dim);
@@ -67,5 +68,6 @@ public class GraphicsManager {
             recycledImages.put(dim, imgList);
         }
         imgList.add(img);
+        numRecycledImages++;
     }
 }
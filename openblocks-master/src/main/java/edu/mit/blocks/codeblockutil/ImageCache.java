@@ -0,0 +1,129 @@
+package edu.mit.blocks.codeblockutil;
+
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class implements a Least Recently Used cache of images that is bounded
+ * by the number of bytes its images occupy rather than by their number.
+ * When an image would exceed the budget, the least recently used images are
+ * evicted; the most recently added image is always kept.
+ *
+ * An ImageCache may be used from several threads.
+ */
+public class ImageCache<K> {
+
+    private long byteBudget;
+    private long byteSize = 0;
+    private long hits = 0;
+    private long misses = 0;
+    /** The cached images in access order, least recently used first */
+    private final LinkedHashMap<K, BufferedImage> map = new LinkedHashMap<K, BufferedImage>(64, 0.75f, true);
+
+    /**
+     * @param byteBudget the number of bytes the cached images may occupy
+     */
+    public ImageCache(long byteBudget) {
+        this.byteBudget = byteBudget;
+    }
+
+    /**
+     * @return the image associated with key, if it is in the cache (or null otherwise)
+     */
+    public synchronized BufferedImage get(K key) {
+        BufferedImage img = map.get(key);
+        if (img == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return img;
+    }
+
+    /**
+     * @return true if an image is associated with key, without counting a hit or a miss
+     */
+    public synchronized boolean containsKey(K key) {
+        return map.containsKey(key);
+    }
+
+    /**
+     * Adds an entry to the cache, evicting older entries if the cache no
+     * longer fits its budget.
+     */
+    public synchronized void put(K key, BufferedImage img) {
+        BufferedImage old = map.put(key, img);
+        if (old != null) {
+            byteSize -= getByteSize(old);
+        }
+        byteSize += getByteSize(img);
+        evict();
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<K, BufferedImage>> it = map.entrySet().iterator();
+        while (byteSize > byteBudget && map.size() > 1 && it.hasNext()) {
+            byteSize -= getByteSize(it.next().getValue());
+            it.remove();
+        }
+    }
+
+    private static long getByteSize(BufferedImage img) {
+        // translucent compatible images use four bytes per pixel
+        return 4L * img.getWidth() * img.getHeight();
+    }
+
+    /**
+     * Sets the number of bytes the cached images may occupy, evicting images
+     * if the cache no longer fits.
+     */
+    public synchronized void setByteBudget(long budget) {
+        byteBudget = budget;
+        evict();
+    }
+
+    /**
+     * @return the number of bytes the cached images may occupy
+     */
+    public synchronized long getByteBudget() {
+        return byteBudget;
+    }
+
+    /**
+     * @return the number of bytes occupied by the cached images
+     */
+    public synchronized long getByteSize() {
+        return byteSize;
+    }
+
+    /**
+     * @return the number of cached images
+     */
+    public synchronized int size() {
+        return map.size();
+    }
+
+    /**
+     * @return the number of lookups that found an image so far
+     */
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * @return the number of lookups that found no image so far
+     */
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * Evicts all images.
+     */
+    public synchronized void clear() {
+        map.clear();
+        byteSize = 0;
+    }
+}
@@ -0,0 +1,226 @@
+package edu.mit.blocks.codeblockutil;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * A KeywordIndex finds the elements whose keyword contains a query, ignoring
+ * case, without comparing the query against every keyword.
+ *
+ * Each element is filed under the trigrams (substrings of three characters)
+ * of its keyword.  A keyword containing the query contains all of its
+ * trigrams, so the elements filed under the rarest trigram of the query are
+ * the only candidates, and only those are compared against the query.
+ * Queries shorter than a trigram, or whose rarest trigram is common, are
+ * instead compared against every keyword.  Keywords are kept in lower case and
+ * in sorted order, so that no string is created per comparison and ranking
+ * the matches of such queries only groups them by the position of the query.
+ *
+ * Elements are added, re-filed and removed one at a time, so the index can be
+ * kept up to date as keywords change rather than being rebuilt.
+ */
+public class KeywordIndex<E> {
+
+    private static final int GRAM_LENGTH = 3;
+    /** The share of all elements above which the candidates of a query are not worth sorting */
+    private static final int SCAN_RATIO = 8;
+
+    /** The lower case keyword of each element */
+    private final Map<E, String> keywords = new HashMap<E, String>();
+    /** The elements filed under each trigram */
+    private final Map<String, Set<E>> postings = new HashMap<String, Set<E>>();
+    /** The elements filed under each lower case keyword, in keyword order */
+    private final TreeMap<String, Set<E>> elementsByKeyword = new TreeMap<String, Set<E>>();
+
+    /**
+     * Files the specified element under the specified keyword, replacing the
+     * keyword it was filed under, if any.
+     */
+    public void put(E element, String keyword) {
+        String lower = keyword == null ? "" : keyword.toLowerCase();
+        String old = keywords.put(element, lower);
+        if (lower.equals(old)) {
+            return;
+        }
+        if (old != null) {
+            unpost(element, old);
+        }
+        Set<E> sameKeyword = elementsByKeyword.get(lower);
+        if (sameKeyword == null) {
+            sameKeyword = new LinkedHashSet<E>();
+            elementsByKeyword.put(lower, sameKeyword);
+        }
+        sameKeyword.add(element);
+        for (String gram : getGrams(lower)) {
+            Set<E> elements = postings.get(gram);
+            if (elements == null) {
+                elements = new HashSet<E>();
+                postings.put(gram, elements);
+            }
+            elements.add(element);
+        }
+    }
+
+    /**
+     * Removes the specified element from this index, if it was filed.
+     */
+    public void remove(E element) {
+        String old = keywords.remove(element);
+        if (old != null) {
+            unpost(element, old);
+        }
+    }
+
+    private void unpost(E element, String keyword) {
+        Set<E> sameKeyword = elementsByKeyword.get(keyword);
+        if (sameKeyword != null) {
+            sameKeyword.remove(element);
+            if (sameKeyword.isEmpty()) {
+                elementsByKeyword.remove(keyword);
+            }
+        }
+        for (String gram : getGrams(keyword)) {
+            Set<E> elements = postings.get(gram);
+            if (elements != null) {
+                elements.remove(element);
+                if (elements.isEmpty()) {
+                    postings.remove(gram);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the lower case keyword the specified element is filed under,
+     * 			or null if it is not filed
+     */
+    public String getKeyword(E element) {
+        return keywords.get(element);
+    }
+
+    /**
+     * @return the number of elements filed
+     */
+    public int size() {
+        return keywords.size();
+    }
+
+    /**
+     * Removes all elements.
+     */
+    public void clear() {
+        keywords.clear();
+        postings.clear();
+        elementsByKeyword.clear();
+    }
+
+    /**
+     * Returns the elements whose keyword contains the specified query, ignoring
+     * case.  Elements are ranked by the position of the query in their keyword,
+     * earliest first, then by keyword.
+     * @param query the text to find
+     * @return the matching elements, ranked
+     */
+    public List<E> find(String query) {
+        String lower = query.toLowerCase();
+        Collection<E> candidates = null;
+        for (String gram : getGrams(lower)) {
+            Set<E> elements = postings.get(gram);
+            if (elements == null) {
+                return Collections.emptyList();
+            }
+            if (candidates == null || elements.size() < candidates.size()) {
+                candidates = elements;
+            }
+        }
+        if (candidates == null || candidates.size() > keywords.size() / SCAN_RATIO) {
+            return scan(lower);
+        }
+        List<Match<E>> matches = new ArrayList<Match<E>>();
+        for (E element : candidates) {
+            String keyword = keywords.get(element);
+            int position = keyword.indexOf(lower);
+            if (position >= 0) {
+                matches.add(new Match<E>(element, keyword, position));
+            }
+        }
+        Collections.sort(matches);
+        List<E> result = new ArrayList<E>(matches.size());
+        for (Match<E> match : matches) {
+            result.add(match.element);
+        }
+        return result;
+    }
+
+    /**
+     * Finds the elements whose keyword contains the specified lower case query
+     * by comparing it against every keyword.  Since keywords are visited in
+     * order, grouping the matches by position ranks them.
+     */
+    private List<E> scan(String lower) {
+        List<List<E>> matchesByPosition = new ArrayList<List<E>>();
+        int numMatches = 0;
+        for (Map.Entry<String, Set<E>> entry : elementsByKeyword.entrySet()) {
+            int position = entry.getKey().indexOf(lower);
+            if (position < 0) {
+                continue;
+            }
+            while (matchesByPosition.size() <= position) {
+                matchesByPosition.add(null);
+            }
+            List<E> matches = matchesByPosition.get(position);
+            if (matches == null) {
+                matches = new ArrayList<E>();
+                matchesByPosition.set(position, matches);
+            }
+            matches.addAll(entry.getValue());
+            numMatches += entry.getValue().size();
+        }
+        List<E> result = new ArrayList<E>(numMatches);
+        for (List<E> matches : matchesByPosition) {
+            if (matches != null) {
+                result.addAll(matches);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the distinct trigrams of the specified lower case text
+     */
+    private static Set<String> getGrams(String text) {
+        Set<String> grams = new HashSet<String>();
+        for (int i = 0; i + GRAM_LENGTH <= text.length(); i++) {
+            grams.add(text.substring(i, i + GRAM_LENGTH));
+        }
+        return grams;
+    }
+
+    private static class Match<E> implements Comparable<Match<E>> {
+
+        private final E element;
+        private final String keyword;
+        private final int position;
+
+        Match(E element, String keyword, int position) {
+            this.element = element;
+            this.keyword = keyword;
+            this.position = position;
+        }
+
+        public int compareTo(Match<E> m) {
+            if (position != m.position) {
+                return position < m.position ? -1 : 1;
+            }
+            return keyword.compareTo(m.keyword);
+        }
+    }
+}
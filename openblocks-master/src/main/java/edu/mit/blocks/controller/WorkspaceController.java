@@ -4,15 +4,24 @@ import java.awt.BorderLayout;
 import java.awt.Component;
 import java.awt.Dimension;
 import java.awt.event.ActionEvent;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.io.Writer;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Locale;
 import java.util.ResourceBundle;
 import java.util.List;
 
@@ -27,7 +36,11 @@ import javax.xml.XMLConstants;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
 import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Source;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
@@ -52,13 +65,12 @@ import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import org.xml.sax.EntityResolver;
 
-import edu.mit.blocks.codeblocks.ProcedureOutputManager;	//*****
-import edu.mit.blocks.codeblocks.VariableOutputManager;	//*****
 
 import edu.mit.blocks.codeblocks.BlockConnectorShape;
 import edu.mit.blocks.codeblocks.BlockGenus;
 import edu.mit.blocks.codeblocks.BlockLinkChecker;
 import edu.mit.blocks.codeblocks.CommandRule;
+import edu.mit.blocks.codeblocks.LangDefSnapshot;
 import edu.mit.blocks.codeblocks.Constants;
 import edu.mit.blocks.codeblocks.SocketRule;
 import edu.mit.blocks.codeblocks.ParamRule;
@@ -66,6 +78,7 @@ import edu.mit.blocks.codeblocks.PolyRule;
 import edu.mit.blocks.codeblocks.StackRule;
 import edu.mit.blocks.workspace.SearchBar;
 import edu.mit.blocks.workspace.SearchableContainer;
+import edu.mit.blocks.workspace.StreamingProjectLoader;
 import edu.mit.blocks.workspace.Workspace;
 
 /**
@@ -87,6 +100,10 @@ public class WorkspaceController {
 
     //flag to indicate if a new lang definition file has been set
     private boolean langDefDirty = true;
+    //the content of the lang definition file, to key its snapshot
+    private byte[] langDefContents;
+    //directory of the lang definition snapshots, or null not to use snapshots
+    private File langDefCacheDirectory;
     // handle the case of loading the DTD from jar file. 
     private InputStream langDefDtd;
     //flag to indicate if a workspace has been loaded/initialized 
@@ -103,9 +120,6 @@ public class WorkspaceController {
 	// List of styles
     private List<String[]> styleList;
     
-    private static ProcedureOutputManager pom;	//*****
-    private static VariableOutputManager vom;	//*****
-    
 
     /**
      * Constructs a WorkspaceController instance that manages the
@@ -114,8 +128,6 @@ public class WorkspaceController {
      */
     public WorkspaceController() {
         this.workspace = new Workspace();
-        pom = new ProcedureOutputManager(workspace);	//*****
-        vom = new VariableOutputManager(workspace);	//*****
     }
     
     public void setLangDefDtd(InputStream is) {
@@ -130,6 +142,24 @@ public class WorkspaceController {
     	styleList = list;
     }
 
+    /**
+     * Sets the directory holding the snapshots of loaded language definitions.
+     * Once a language definition was loaded from its XML, a snapshot of its
+     * genera is written there and loaded instead of the XML on later starts.
+     * @param directory the snapshot directory, or null not to use snapshots
+     */
+    public void setLangDefCacheDirectory(File directory) {
+        langDefCacheDirectory = directory;
+    }
+
+    /**
+     * @return the root of the language definition set by setLangDefFilePath()
+     * 			or setLangDefStream(), or null if none was set
+     */
+    public Element getLangDefRoot() {
+        return langDefRoot;
+    }
+
     /**
      * Sets the file path for the language definition file, if the
      * language definition file is located in
@@ -163,6 +193,7 @@ public class WorkspaceController {
         final DocumentBuilder builder;
         final Document doc;
         try {
+            langDefContents = readFully(in);
             builder = factory.newDocumentBuilder();
             if (langDefDtd != null) {
             	builder.setEntityResolver(new EntityResolver () {
@@ -171,7 +202,7 @@ public class WorkspaceController {
             		}
             	});
             }
-            doc = builder.parse(in);
+            doc = builder.parse(new ByteArrayInputStream(langDefContents));
             // TODO modify the L10N text and style here
             ardublockLocalize(doc);
             ardublockStyling(doc);
@@ -254,12 +285,19 @@ public class WorkspaceController {
      * @param root Loads the language specified in the Element root
      */
     public void loadBlockLanguage(final Element root) {
-        /* MUST load shapes before genuses in order to initialize
-         connectors within each block correctly */
-        BlockConnectorShape.loadBlockConnectorShapes(root);
+        LangDefSnapshot snapshot = getLangDefSnapshot(root);
+        if (snapshot == null || !snapshot.load(workspace)) {
+            /* MUST load shapes before genuses in order to initialize
+             connectors within each block correctly */
+            BlockConnectorShape.loadBlockConnectorShapes(workspace.getEnv(), root);
+
+            //load genuses
+            BlockGenus.loadBlockGenera(workspace, root);
 
-        //load genuses
-        BlockGenus.loadBlockGenera(workspace, root);
+            if (snapshot != null) {
+                snapshot.save(workspace);
+            }
+        }
 
         //load rules
         BlockLinkChecker.addRule(workspace, new CommandRule(workspace));
@@ -273,15 +311,52 @@ public class WorkspaceController {
         langDefDirty = false;
     }
 
+    /**
+     * @return the snapshot of the specified language definition root, or null
+     * 			if snapshots are not used or root is not the language definition
+     * 			set by setLangDefFilePath() or setLangDefStream()
+     */
+    private LangDefSnapshot getLangDefSnapshot(Element root) {
+        if (langDefCacheDirectory == null || langDefContents == null || root != langDefRoot) {
+            return null;
+        }
+        //the loaded genera also depend on the localization and styling of the language definition
+        List<String> variant = new ArrayList<String>();
+        variant.add(Locale.getDefault().toString());
+        if (styleList != null) {
+            for (String[] style : styleList) {
+                variant.add(style[0] + "=" + style[1]);
+            }
+        }
+        if (langResourceBundle != null) {
+            List<String> keys = Collections.list(langResourceBundle.getKeys());
+            Collections.sort(keys);
+            for (String key : keys) {
+                variant.add(key + "=" + langResourceBundle.getObject(key));
+            }
+        }
+        return new LangDefSnapshot(langDefCacheDirectory, LangDefSnapshot.computeKey(langDefContents, variant));
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
     /**
      * Resets the current language within the active
      * Workspace.
      *
      */
     public void resetLanguage() {
-        BlockConnectorShape.resetConnectorShapeMappings();
+        getWorkspace().getEnv().resetConnectorShapeMappings();
         getWorkspace().getEnv().resetAllGenuses();
-        BlockLinkChecker.reset();
+        BlockLinkChecker.reset(getWorkspace());
     }
 
     /**
@@ -354,18 +429,79 @@ public class WorkspaceController {
         }
     }
 
+    /**
+     * Writes the save document for the entire workspace to the specified stream,
+     * encoded as UTF-8.  The document follows the same schema as the one returned
+     * by getSaveNode(), but is written while walking the workspace instead of being
+     * built in memory first.  The stream is flushed but not closed.
+     * @param out the stream to write to
+     * @throws RuntimeException If the document could not be written
+     */
+    public void writeSave(OutputStream out) {
+        try {
+            XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(out, "UTF-8");
+            writer.writeStartDocument("UTF-8", "1.0");
+            writeSave(writer);
+        }
+        catch (XMLStreamException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Writes the save document for the entire workspace to the specified writer.
+     * The document follows the same schema as the one returned by getSaveNode(),
+     * but is written while walking the workspace instead of being built in memory
+     * first.  The writer is flushed but not closed.
+     * @param out the writer to write to
+     * @throws RuntimeException If the document could not be written
+     */
+    public void writeSave(Writer out) {
+        try {
+            XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(out);
+            writer.writeStartDocument("1.0");
+            writeSave(writer);
+        }
+        catch (XMLStreamException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void writeSave(XMLStreamWriter writer) throws XMLStreamException {
+        writer.writeStartElement("cb", "CODEBLOCKS", Constants.XML_CODEBLOCKS_NS);
+        writer.writeNamespace("cb", Constants.XML_CODEBLOCKS_NS);
+        writer.writeNamespace("xsi", XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI);
+        // schema reference
+        writer.writeAttribute("xsi", XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI, "schemaLocation", Constants.XML_CODEBLOCKS_NS+" "+Constants.XML_CODEBLOCKS_SCHEMA_URI);
+        workspace.writeSaveNode(writer);
+        writer.writeEndElement();
+        writer.writeEndDocument();
+        writer.flush();
+    }
+
     /**
      * Validates the code blocks document against the schema
      * @param document The document to check
      * @throws RuntimeException If the validation failed
      */
     private void validate(Document document) {
+        validate(new DOMSource(document));
+    }
+
+    /**
+     * Validates a code blocks document against the schema.  Use this to check
+     * the output of writeSave(), for example with a StreamSource over the
+     * written file, separately from writing it.
+     * @param source The document to check
+     * @throws RuntimeException If the validation failed
+     */
+    public void validate(Source source) {
         try {
             SchemaFactory schemaFactory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
             URL schemaUrl = this.getClass().getResource("/edu/mit/blocks/codeblocks/codeblocks.xsd");
             Schema schema = schemaFactory.newSchema(schemaUrl);
             Validator validator = schema.newValidator();
-            validator.validate(new DOMSource(document));
+            validator.validate(source);
         }
         catch (MalformedURLException e) {
             throw new RuntimeException(e);
@@ -426,6 +562,29 @@ public class WorkspaceController {
         }
     }
 
+    /**
+     * Loads the pages and blocks of the programming project from the specified
+     * file path without building a DOM of the whole project.  The blocks of each
+     * page only get their RenderableBlocks once the page is shown, which makes
+     * this method suitable for loading projects headless.  Drawers and workspace
+     * settings saved in the project are not loaded; see StreamingProjectLoader.
+     * This method assumes that a Language Definition File has already
+     * been specified for this programming project.
+     * @param path String file path of the programming project to load
+     */
+    public void loadProjectPagesFromPath(final String path) throws IOException {
+        final InputStream in = new BufferedInputStream(new FileInputStream(path));
+        try {
+            workspace.getProcedureOutputManager().finishLoad();
+            workspace.getVariableOutputManager().finishLoad();
+            final StreamingProjectLoader loader = new StreamingProjectLoader(workspace);
+            loader.addPages(loader.load(in));
+            workspaceLoaded = true;
+        } finally {
+            in.close();
+        }
+    }
+
     /**
      * Loads the programming project from the specified element. This method
      * assumes that a Language Definition File has already been specified for
@@ -498,8 +657,8 @@ public class WorkspaceController {
         //clear all block and renderable block instances
         workspace.reset();
         //clear procedure output information
-        ProcedureOutputManager.reset();	//*****
-        VariableOutputManager.reset();	//*****
+        workspace.getProcedureOutputManager().reset();	//*****
+        workspace.getVariableOutputManager().reset();	//*****
 
     }
 
@@ -612,14 +771,14 @@ public class WorkspaceController {
      * @throws IOException If save failed
      */
     private void saveToFile(File file) throws IOException {
-        FileWriter fileWriter = null;
+        OutputStream out = null;
         try {
-            fileWriter = new FileWriter(file);
-            fileWriter.write(getSaveString());
+            out = new BufferedOutputStream(new FileOutputStream(file));
+            writeSave(out);
         }
         finally {
-            if (fileWriter != null) {
-                fileWriter.close();
+            if (out != null) {
+                out.close();
             }
         }
     }
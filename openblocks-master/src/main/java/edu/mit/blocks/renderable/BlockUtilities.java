@@ -1,11 +1,16 @@
 package edu.mit.blocks.renderable;
 
 import java.awt.Container;
+import java.awt.GraphicsEnvironment;
+import java.awt.Rectangle;
+import java.awt.geom.Area;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -16,6 +21,9 @@ import edu.mit.blocks.codeblocks.BlockConnector;
 import edu.mit.blocks.codeblocks.BlockLink;
 import edu.mit.blocks.codeblocks.BlockLinkChecker;
 import edu.mit.blocks.codeblocks.BlockStub;
+import edu.mit.blocks.codeblocks.rendering.BlockShapeUtil;
+import edu.mit.blocks.codeblocks.rendering.ShapeFingerprint;
+import edu.mit.blocks.workspace.FactoryManager;
 import edu.mit.blocks.workspace.Workspace;
 import edu.mit.blocks.workspace.WorkspaceEvent;
 import edu.mit.blocks.workspace.WorkspaceWidget;
@@ -34,6 +42,54 @@ public class BlockUtilities {
         zoom = newZoom;
     }
 
+    /**
+     * Renders, on a background thread, the bevel images of the shapes of the
+     * specified blocks at the current zoom level and at each of the specified
+     * zoom levels, so that painting blocks of these shapes does not have to
+     * wait for their bevels.  Typically called with the factory blocks once
+     * the block language and drawers are loaded.
+     * @param blocks the blocks whose shapes to render
+     * @param zoomLevels the zoom levels to render the bevels at, besides the current one
+     */
+    public static void prewarmBevelImages(Iterable<RenderableBlock> blocks, double[] zoomLevels) {
+        prewarmBevelImages(blocks, zoomLevels, new HashSet<ShapeFingerprint>());
+    }
+
+    /**
+     * Renders, on a background thread, the bevel images of the shapes of the
+     * specified blocks that are not in the specified set of shapes, and adds
+     * them to it.  Blocks of the same shape, as blocks of the same genus and
+     * sockets usually are, have only their first shape copied and rendered,
+     * so that calls spread over several events can share the set.
+     * @param blocks the blocks whose shapes to render
+     * @param zoomLevels the zoom levels to render the bevels at, besides the current one
+     * @param prewarmed the unzoomed shapes already handed to the background
+     */
+    public static void prewarmBevelImages(Iterable<RenderableBlock> blocks, double[] zoomLevels, Set<ShapeFingerprint> prewarmed) {
+        if (GraphicsEnvironment.isHeadless()) {
+            return;
+        }
+        // copy the shapes now, since blocks replace them as they change
+        List<Area> areas = new ArrayList<Area>();
+        for (RenderableBlock rb : blocks) {
+            Area area = rb.getAbstractBlockArea();
+            if (area == null) {
+                continue;
+            }
+            Rectangle bounds = area.getBounds();
+            if (prewarmed.add(new ShapeFingerprint(area, bounds.width, bounds.height))) {
+                areas.add(new Area(area));
+            }
+        }
+        if (areas.isEmpty()) {
+            return;
+        }
+        double[] levels = new double[zoomLevels.length + 1];
+        levels[0] = zoom;
+        System.arraycopy(zoomLevels, 0, levels, 1, zoomLevels.length);
+        BlockShapeUtil.prewarmBevelImages(areas, levels);
+    }
+
     /**
      * Returns true if the specified label is valid according to the specifications
      * of this block's genus. For example, if this block's label must be unique
@@ -203,34 +259,29 @@ public class BlockUtilities {
      */
     public static List<TextualFactoryBlock> getAllMatchingBlocks(Workspace workspace, String keyword) {
         //Use Set such that we don't get any repeats
-        Set<TextualFactoryBlock> matchingBlocks = new TreeSet<TextualFactoryBlock>(new MatchingComparator(keyword));
-
-        //find all FactoryRenderableBlocks and check for a match
-        for (RenderableBlock renderable : workspace.getFactoryManager().getBlocks()) {
-
-            // TODO: don't assume they're all FactoryRenderableBlocks!  Collisions aren't...
-            if (renderable == null || renderable.getBlockID().equals(Block.NULL) || !(renderable instanceof FactoryRenderableBlock)) {
+        Set<TextualFactoryBlock> matchingBlocks = new LinkedHashSet<TextualFactoryBlock>();
+        FactoryManager factory = workspace.getFactoryManager();
+        factory.loadPendingBlocks();
+        String lowerKeyword = keyword.toLowerCase();
+        boolean quoted = keyword.startsWith("\"");
+
+        //the keyword index finds the factory blocks whose disambiguated string representation
+        //contains the keyword, ranked the way MatchingComparator sorts them
+        for (RenderableBlock renderable : workspace.getEnv().getKeywordIndex().findFactoryBlocks(keyword)) {
+
+            //skip the blocks of removed drawers
+            if (!factory.containsBlock(renderable)) {
                 continue;
             }
 
             // first, check if query matches block keyword
-            if (renderable.getKeyword().toLowerCase().contains(keyword.toLowerCase())) {
+            if (renderable.getKeyword().toLowerCase().contains(lowerKeyword)) {
                 matchingBlocks.add(new TextualFactoryBlock((FactoryRenderableBlock) renderable, renderable.getBlock().getBlockLabel()));
-            }
-
-            // grabs the quote block needed TODO: needs to be independent!
-            if (keyword.startsWith("\"") && renderable.getBlock().getGenusName().equalsIgnoreCase("string")) {
-                String[] quote = keyword.split("\"");
-                // makes sure that there is text after the " so that it can be placed onto the block
-                if (quote.length > 1) {
-                    matchingBlocks.add(new TextualFactoryBlock((FactoryRenderableBlock) renderable, "\"" + quote[1] + "\""));
-                }
-            } // otherwise, if the keyword is too long, check to see if
-            // the user is trying to type extra info for disambiguation
-            else if (keyword.length() > renderable.getKeyword().length()) {
-                if (disambiguousStringRep((FactoryRenderableBlock) renderable).toLowerCase().contains(keyword.toLowerCase())) {
-                    matchingBlocks.add(new TextualFactoryBlock((FactoryRenderableBlock) renderable, disambiguousStringRep((FactoryRenderableBlock) renderable)));
-                }
+            } // otherwise, if the keyword is too long, the user is trying
+            // to type extra info for disambiguation
+            else if (keyword.length() > renderable.getKeyword().length()
+                    && !(quoted && renderable.getBlock().getGenusName().equalsIgnoreCase("string"))) {
+                matchingBlocks.add(new TextualFactoryBlock((FactoryRenderableBlock) renderable, disambiguousStringRep(renderable)));
             }
 
             /////////////////////////////////////
@@ -239,6 +290,20 @@ public class BlockUtilities {
 
         }
 
+        // grabs the quote block needed TODO: needs to be independent!
+        String[] quote = keyword.split("\"");
+        // makes sure that there is text after the " so that it can be placed onto the block
+        if (quoted && quote.length > 1) {
+            for (RenderableBlock renderable : factory.getLoadedBlocks()) {
+                if (renderable instanceof FactoryRenderableBlock && renderable.getBlock().getGenusName().equalsIgnoreCase("string")) {
+                    matchingBlocks.add(new TextualFactoryBlock((FactoryRenderableBlock) renderable, "\"" + quote[1] + "\""));
+                }
+            }
+            List<TextualFactoryBlock> sorted = new ArrayList<TextualFactoryBlock>(matchingBlocks);
+            Collections.sort(sorted, new MatchingComparator(keyword));
+            matchingBlocks = new LinkedHashSet<TextualFactoryBlock>(sorted);
+        }
+
         /* if blocks have the same labels, the search results will be ambiguous.
          * the following expands the string representation of the TFB if needed
          * to disambiguate the blocks. */
@@ -27,6 +27,8 @@ import javax.swing.JTextArea;
 import javax.swing.undo.CannotRedoException;
 import javax.swing.undo.CannotUndoException;
 import javax.swing.undo.UndoManager;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -257,6 +259,13 @@ public class Comment extends JPanel {
         update();
     }
 
+    /**
+     * @return the zoom level of this comment
+     */
+    public double getZoom() {
+        return zoom;
+    }
+
     /**
      * Set a new zoom level, changes font size, label size, location, shape of comment, and arrow for this comment
      * @param newZoom
@@ -364,6 +373,44 @@ public class Comment extends JPanel {
     	return commentElement;
     }
 
+    /**
+     * Writes the node for this comment to the specified writer.  The written
+     * node is identical to the one returned by getSaveNode().
+     * @param writer the writer to write the node to
+     * @throws XMLStreamException if the node could not be written
+     */
+    public void writeSaveNode(XMLStreamWriter writer) throws XMLStreamException {
+        writer.writeStartElement("Comment");
+
+        // Text
+        writeTextElement(writer, "Text", this.getText().replaceAll("`", "'"));
+
+        // Location
+        writer.writeStartElement("Location");
+        writeTextElement(writer, "X", String.valueOf(descale(getLocation().getX())));
+        writeTextElement(writer, "Y", String.valueOf(descale(getLocation().getY())));
+        writer.writeEndElement();
+
+        // Box size
+        writer.writeStartElement("BoxSize");
+        writeTextElement(writer, "Width", String.valueOf(descale(getWidth())));
+        writeTextElement(writer, "Height", String.valueOf(descale(getHeight())));
+        writer.writeEndElement();
+
+        // Collapse
+        if (!commentLabel.isActive()) {
+            writer.writeEmptyElement("Collapsed");
+        }
+
+        writer.writeEndElement();
+    }
+
+    private static void writeTextElement(XMLStreamWriter writer, String ele, String text) throws XMLStreamException {
+        writer.writeStartElement(ele);
+        writer.writeCharacters(text);
+        writer.writeEndElement();
+    }
+
     /**
      * Loads the comment from a NodeList of comment parts
      * @param workspace The workspace in use
@@ -490,7 +537,7 @@ public class Comment extends JPanel {
         }
         super.setLocation(x, y);
         arrow.updateArrow();
-        workspace.getMiniMap().repaint();
+        workspace.getMiniMap().update();
     }
 
     /**
@@ -105,13 +105,20 @@ public class CommentArrow {
      * @author joshua
      *
      */
-    private class Arrow extends JComponent {
+    public class Arrow extends JComponent {
 
         public int[] xpoints;
         public int[] ypoints;
         int minx, miny;
         private static final long serialVersionUID = 328149080427L;
 
+        /**
+         * @return the zoom level of the comment this arrow points from
+         */
+        public double getZoom() {
+            return comment.getZoom();
+        }
+
         public void paint(Graphics g) {
             Graphics2D g2 = (Graphics2D) g;
             g2.addRenderingHints(new RenderingHints(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON));
@@ -88,7 +88,7 @@ public class CommentLabel extends BlockControlLabel {
         update();
         rb.revalidate();
         rb.repaint();
-        workspace.getMiniMap().repaint();
+        workspace.getMiniMap().update();
     }
 
     /**
@@ -0,0 +1,132 @@
+package edu.mit.blocks.renderable;
+
+import java.awt.Container;
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.swing.SwingUtilities;
+
+import edu.mit.blocks.codeblocks.Block;
+import edu.mit.blocks.codeblocks.BlockConnector;
+import edu.mit.blocks.codeblocks.BlockLinkChecker;
+import edu.mit.blocks.workspace.WorkspaceEnvironment;
+
+/**
+ * A ConnectedBlockLayout aligns all the blocks plugged, directly or not,
+ * into a given block with the location of that block.
+ *
+ * The layout is done in two passes.  The first pass walks the blocks
+ * plugged into the given block with an explicit stack rather than by
+ * recursion, so that deeply nested blocks cannot overflow the call stack,
+ * and computes where each block belongs from where the block it is plugged
+ * into belongs.  The offset between the parents of two blocks is computed
+ * once per parent rather than once per block.  The second pass then moves
+ * the blocks that are not where they belong, so that blocks already in place
+ * neither fire component events nor register areas to repaint.  Swing
+ * coalesces the areas registered by the blocks moved into a single repaint.
+ */
+class ConnectedBlockLayout {
+
+    private final WorkspaceEnvironment env;
+    /** The parent of the block the others are aligned with */
+    private final Container root;
+    /** The location of the origin of each parent met, in root's coordinate space */
+    private final Map<Container, Point> origins = new HashMap<Container, Point>();
+    /** The blocks to align, in the order they were met */
+    private final List<RenderableBlock> blocks = new ArrayList<RenderableBlock>();
+    /** The location each block of blocks belongs at, in its parent's coordinate space */
+    private final List<Point> locations = new ArrayList<Point>();
+
+    /**
+     * Computes where each block plugged into the specified block belongs.
+     * @param top the block to align the others with, which must have a parent
+     */
+    ConnectedBlockLayout(RenderableBlock top) {
+        this.env = top.getWorkspace().getEnv();
+        this.root = top.getParent();
+        origins.put(root, new Point(0, 0));
+
+        // blocks whose sockets are still to be laid out, depth first
+        List<RenderableBlock> pending = new ArrayList<RenderableBlock>();
+        List<Point> pendingLocations = new ArrayList<Point>();
+        pending.add(top);
+        pendingLocations.add(top.getLocation());
+        while (!pending.isEmpty()) {
+            RenderableBlock parentBlock = pending.remove(pending.size() - 1);
+            Point parentLocation = pendingLocations.remove(pendingLocations.size() - 1);
+            Point parentOrigin = getOrigin(parentBlock.getParent());
+            List<RenderableBlock> children = new ArrayList<RenderableBlock>();
+            List<Point> childLocations = new ArrayList<Point>();
+            for (BlockConnector socket : BlockLinkChecker.getSocketEquivalents(parentBlock.getBlock())) {
+                Point socketLocation = parentBlock.getSocketPixelPoint(socket);
+                if (!socket.hasBlock()) {
+                    continue;
+                }
+                RenderableBlock rb = env.getRenderableBlock(socket.getBlockID());
+
+                // TODO: djwendel - this is a patch, but the root of the problem
+                // needs to be found and fixed!!
+                if (rb == null) {
+                    System.out.println("Block doesn't exist yet: " + socket.getBlockID());
+                    continue;
+                }
+
+                Block b = env.getBlock(socket.getBlockID());
+                Point plugLocation = rb.getSocketPixelPoint(BlockLinkChecker.getPlugEquivalent(b));
+                Point origin = getOrigin(rb.getParent());
+                Point location = new Point(
+                        (int) Math.round((float) parentLocation.getX()
+                        + socketLocation.getX()
+                        - (float) (origin.x - parentOrigin.x)
+                        - plugLocation.getX()),
+                        (int) Math.round((float) parentLocation.getY()
+                        + socketLocation.getY()
+                        - (float) (origin.y - parentOrigin.y)
+                        - plugLocation.getY()));
+                blocks.add(rb);
+                locations.add(location);
+
+                // blocks without a parent are moved but not laid out themselves
+                if (rb.getParent() != null) {
+                    children.add(rb);
+                    childLocations.add(location);
+                }
+            }
+            // push the children in reverse so that they are laid out in socket order
+            for (int i = children.size() - 1; i >= 0; i--) {
+                pending.add(children.get(i));
+                pendingLocations.add(childLocations.get(i));
+            }
+        }
+    }
+
+    /**
+     * @return the location of the origin of the specified parent in the
+     * 			coordinate space of the parent of the block the others are
+     * 			aligned with
+     */
+    private Point getOrigin(Container parent) {
+        Point origin = origins.get(parent);
+        if (origin == null) {
+            origin = SwingUtilities.convertPoint(parent, 0, 0, root);
+            origins.put(parent, origin);
+        }
+        return origin;
+    }
+
+    /**
+     * Moves each block that is not where it belongs.
+     */
+    void apply() {
+        for (int i = 0; i < blocks.size(); i++) {
+            RenderableBlock rb = blocks.get(i);
+            Point location = locations.get(i);
+            if (rb.getX() != location.x || rb.getY() != location.y) {
+                rb.setLocation(location.x, location.y);
+            }
+        }
+    }
+}
@@ -54,6 +54,13 @@ public class RBHighlightHandler extends JComponent implements ComponentListener,
         rb.addComponentListener(this);
     }
 
+    /**
+     * @return the zoom level of the block this highlights
+     */
+    public double getZoom() {
+        return rb.getZoom();
+    }
+
     public void setHighlightColor(Color c) {
         hColor = c;
         updateImage();
@@ -191,6 +198,8 @@ public class RBHighlightHandler extends JComponent implements ComponentListener,
     public void componentHidden(ComponentEvent arg0) {
         GraphicsManager.recycleGCCompatibleImage(hImage);
         hImage = null;
+        // redraw the highlight once the RB is shown again
+        blockArea = null;
     }
 
     /*************************************************************
@@ -7,11 +7,9 @@ import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.GraphicsEnvironment;
-import java.awt.Image;
 import java.awt.Point;
 import java.awt.PopupMenu;
 import java.awt.Rectangle;
-import java.awt.RenderingHints;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
 import java.awt.event.MouseEvent;
@@ -31,6 +29,8 @@ import javax.swing.JComponent;
 import javax.swing.JToolTip;
 import javax.swing.KeyStroke;
 import javax.swing.SwingUtilities;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
@@ -44,15 +44,15 @@ import edu.mit.blocks.codeblocks.BlockLinkChecker;
 import edu.mit.blocks.codeblocks.BlockShape;
 import edu.mit.blocks.codeblocks.InfixBlockShape;
 import edu.mit.blocks.codeblocks.JComponentDragHandler;
-import edu.mit.blocks.codeblocks.rendering.BlockShapeUtil;
+import edu.mit.blocks.codeblocks.rendering.BlockRenderCache;
 import edu.mit.blocks.codeblockutil.CToolTip;
-import edu.mit.blocks.codeblockutil.GraphicsManager;
 import edu.mit.blocks.renderable.BlockImageIcon.ImageLocation;
 import edu.mit.blocks.renderable.BlockUtilities;
 import edu.mit.blocks.workspace.ContextMenu;
 import edu.mit.blocks.workspace.FactoryManager;
 import edu.mit.blocks.workspace.ISupportMemento;
 import edu.mit.blocks.workspace.MiniMap;
+import edu.mit.blocks.workspace.Page;
 import edu.mit.blocks.workspace.RBParent;
 import edu.mit.blocks.workspace.SearchableElement;
 import edu.mit.blocks.workspace.Workspace;
@@ -79,10 +79,15 @@ public class RenderableBlock extends JComponent implements SearchableElement,
 	 * The maximum distance between blocks that are still considered nearby
 	 * enough to link
 	 */
-	private static final double NEARBY_RADIUS = 20.0;
+	static final double NEARBY_RADIUS = 20.0;
 
 	/** The alpha level while dragging - lower means more transparent */
 	private static final float DRAGGING_ALPHA = 0.66F;
+	/**
+	 * The number of blocks plugged into a dragged block from which they are
+	 * dragged as a single StackDragLayer
+	 */
+	private static final int STACK_DRAG_LAYER_THRESHOLD = 8;
 
 	// /////////////////////
 	// COMPONENT FIELDS
@@ -150,8 +155,17 @@ public class RenderableBlock extends JComponent implements SearchableElement,
 	private boolean isSearchResult = false;
 	private boolean pickedUp = false;
 	private boolean dragging = false;
+	/** Stands in for the blocks plugged into this block while it is dragged, if any */
+	private StackDragLayer stackDragLayer = null;
 	private boolean linkedDefArgsBefore = false;
 	private boolean isLoading = false;
+	/**
+	 * The dimensions of the stack starting at this block, or null if they
+	 * must be recalculated, along with the id of the after block they were
+	 * calculated with
+	 */
+	private Dimension stackDimension = null;
+	private Long stackDimensionAfterID = Block.NULL;
 	// /////////////////////////
 	// Sockets and Labels
 	/** TODO: Documentation does not exist for these components. Consult author */
@@ -283,6 +297,16 @@ public class RenderableBlock extends JComponent implements SearchableElement,
 		setCursor(dragHandler.getDragHintCursor());
 	}
 
+	/**
+	 * Constructs a new RenderableBlock instance that puts off reforming its
+	 * shape until it is redrawn from the top, for blocks whose connected
+	 * blocks are created along with it.
+	 */
+	static RenderableBlock newLoadingBlock(Workspace workspace,
+			WorkspaceWidget parent, Long blockID) {
+		return new RenderableBlock(workspace, parent, blockID, true);
+	}
+
 	/**
 	 * Returns the workspace in which this block is living in
 	 * 
@@ -415,29 +439,72 @@ public class RenderableBlock extends JComponent implements SearchableElement,
 	 *         top of its stack.
 	 */
 	public Rectangle getStackBounds() {
-		return new Rectangle(this.getLocation(), calcStackDimensions(this));
+		return new Rectangle(this.getLocation(), getStackDimension());
 	}
 
 	/**
-	 * Helper method to calculate the bounds of a stack. For now this method
-	 * naively traverses through the entire stack of the specified
-	 * RenderableBlock rb and calculates the bounds.
+	 * Returns the dimensions of the stack starting at this block. Each block
+	 * of a stack caches the dimensions of the stack starting at it, so only
+	 * the blocks invalidated since the last call are recalculated, from the
+	 * bottom of the stack up.
 	 * 
-	 * @param rb
-	 *            the RenderableBlock to calculate the stack bounds of
-	 * @return Dimensions of the stack of the specified rb
-	 */
-	private Dimension calcStackDimensions(RenderableBlock rb) {
-		if (rb.getBlock().getAfterBlockID() != Block.NULL) {
-			Dimension dim = calcStackDimensions(workspace.getEnv()
-					.getRenderableBlock(rb.getBlock().getAfterBlockID()));
-			return new Dimension(Math.max(
-					rb.getBlockWidth()
-							+ rb.getMaxWidthOfSockets(rb.getBlockID()),
-					dim.width), rb.getBlockHeight() + dim.height);
-		} else {
-			return new Dimension(rb.getBlockWidth()
-					+ rb.getMaxWidthOfSockets(rb.blockID), rb.getBlockHeight());
+	 * @return Dimensions of the stack starting at this block
+	 */
+	private Dimension getStackDimension() {
+		// walk down the stack to the first block whose dimensions are known
+		List<RenderableBlock> stale = new ArrayList<RenderableBlock>();
+		RenderableBlock rb = this;
+		while (rb != null && !rb.hasStackDimension()) {
+			stale.add(rb);
+			rb = workspace.getEnv().getRenderableBlock(
+					rb.getBlock().getAfterBlockID());
+		}
+		for (int i = stale.size() - 1; i >= 0; i--) {
+			stale.get(i).calcStackDimension();
+		}
+		return stackDimension;
+	}
+
+	private boolean hasStackDimension() {
+		return stackDimension != null
+				&& stackDimensionAfterID.equals(getBlock().getAfterBlockID());
+	}
+
+	/**
+	 * Calculates the dimensions of the stack starting at this block from
+	 * those of the block after it, which must be known.
+	 */
+	private void calcStackDimension() {
+		Long afterID = getBlock().getAfterBlockID();
+		Dimension dim = new Dimension(getBlockWidth()
+				+ getMaxWidthOfSockets(blockID), getBlockHeight());
+		RenderableBlock after = workspace.getEnv().getRenderableBlock(afterID);
+		if (after != null) {
+			dim.width = Math.max(dim.width, after.stackDimension.width);
+			dim.height += after.stackDimension.height;
+		}
+		stackDimension = dim;
+		stackDimensionAfterID = afterID;
+	}
+
+	/**
+	 * Discards the cached stack dimensions of this block and of the blocks
+	 * above it in its stack. Must be called whenever the shape, the sockets
+	 * or the after block of this block change. Blocks this block is plugged
+	 * into reform their shape when their socket space is updated, which
+	 * invalidates their own stacks.
+	 */
+	private void invalidateStackDimension() {
+		stackDimension = null;
+		Block block = getBlock();
+		RenderableBlock rb = block == null ? null : workspace.getEnv()
+				.getRenderableBlock(block.getBeforeBlockID());
+		// the blocks above one without known dimensions have none either
+		while (rb != null && rb.stackDimension != null) {
+			rb.stackDimension = null;
+			block = rb.getBlock();
+			rb = block == null ? null : workspace.getEnv().getRenderableBlock(
+					block.getBeforeBlockID());
 		}
 	}
 
@@ -761,7 +828,7 @@ public class RenderableBlock extends JComponent implements SearchableElement,
 	 */
 	public BlockLink getNearbyLink() {
 		return BlockLinkChecker.getLink(workspace, this, workspace
-				.getBlockCanvas().getBlocks());
+				.getBlockCanvas().getBlocksNear(this));
 	}
 
 	// /////////////////////
@@ -1218,6 +1285,7 @@ public class RenderableBlock extends JComponent implements SearchableElement,
 		// notify block first so that we will only need to repaint this block
 		// once
 		getBlock().blockConnected(connectedSocket, connectedBlockID);
+		invalidateStackDimension();
 
 		// synchronize sockets
 		synchronizeSockets();
@@ -1236,6 +1304,7 @@ public class RenderableBlock extends JComponent implements SearchableElement,
 		// notify block first so that we will only need to repaint this block
 		// once
 		getBlock().blockDisconnected(disconnectedSocket);
+		invalidateStackDimension();
 
 		updateSocketSpace(disconnectedSocket, Block.NULL, false);
 
@@ -1247,10 +1316,10 @@ public class RenderableBlock extends JComponent implements SearchableElement,
 	// BLOCK RENDERING//
 	// /////////////////
 	/**
-	 * Clears the BufferedImage of this
+	 * Clears the BufferedImage of this. The image is shared through the
+	 * BlockRenderCache, so it is only dropped, never recycled.
 	 */
 	public void clearBufferedImage() {
-		GraphicsManager.recycleGCCompatibleImage(buffImg);
 		buffImg = null;
 	}
 
@@ -1305,6 +1374,7 @@ public class RenderableBlock extends JComponent implements SearchableElement,
 	 * updateBuffImg.
 	 */
 	private void reformBlockShape() {
+		invalidateStackDimension();
 		abstractBlockArea = blockShape.reformArea();
 		// TODO for zooming, create an AffineTransform to scale the block shape
 		AffineTransform at = new AffineTransform();
@@ -1372,35 +1442,10 @@ public class RenderableBlock extends JComponent implements SearchableElement,
 								// reform AGAIN
 		}
 
-		// create image
-		// note: need to add twice the highlight stroke width so that the
-		// highlight does not get cut off
-		GraphicsManager.recycleGCCompatibleImage(buffImg);
-		buffImg = GraphicsManager.getGCCompatibleImage(
-				blockArea.getBounds().width, blockArea.getBounds().height);
-		Graphics2D buffImgG2 = (Graphics2D) buffImg.getGraphics();
-
-		// update bounds of this renderableBlock as bounds of the shape
-		Dimension updatedDimensionRect = new Dimension(blockArea.getBounds()
-				.getSize());
-
-		// get size of block to determine size needed for bevel image
-		Image bevelImage = BlockShapeUtil.getBevelImage(
-				updatedDimensionRect.width, updatedDimensionRect.height,
-				blockArea);
-
-		// need antialiasing to remove color fill artifacts outside the bevel
-		buffImgG2.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
-				RenderingHints.VALUE_ANTIALIAS_ON);
-
-		// ADD BLOCK COLOR
-		Color blockColor = this.getBLockColor();
-		buffImgG2.setColor(blockColor);
-		buffImgG2.fill(blockArea);
-
-		// draw the bevel on the shape -- comment this line to not apply
-		// beveling
-		buffImgG2.drawImage(bevelImage, 0, 0, null);
+		// get the colored and beveled shape, shared with all blocks of the
+		// same shape, color and zoom
+		buffImg = BlockRenderCache.getBlockImage(blockArea,
+				this.getBLockColor(), zoom);
 
 		// DRAW BLOCK IMAGES
 		repositionBlockImages(blockArea.getBounds().width,
@@ -1612,7 +1657,6 @@ public class RenderableBlock extends JComponent implements SearchableElement,
 			//RenderableBlock toto = (RenderableBlock) rb;
 			cloneThis((RenderableBlock) rb, false, false);
 		}
-		//workspace.notifyListeners(new WorkspaceEvent(workspace, this.getParentWidget(), this.getBlockID(), WorkspaceEvent.BLOCK_CLONED_THIS, true));
 	}
 
 	public void cloneMe(Object rb, boolean right) {
@@ -1620,7 +1664,6 @@ public class RenderableBlock extends JComponent implements SearchableElement,
 			//RenderableBlock toto = (RenderableBlock) rb;
 			cloneThis((RenderableBlock) rb, right, false);
 		}
-		//workspace.notifyListeners(new WorkspaceEvent(workspace, this.getParentWidget(), this.getBlockID(), WorkspaceEvent.BLOCK_CLONED_RIGHT, true));
 	}
 
 	public void cloneMe(Object rb, boolean right, boolean all) {
@@ -1628,90 +1671,23 @@ public class RenderableBlock extends JComponent implements SearchableElement,
 			//RenderableBlock toto = (RenderableBlock) rb;
 			cloneThis((RenderableBlock) rb, right, all);
 		}
-		//workspace.notifyListeners(new WorkspaceEvent(workspace, this.getParentWidget(), this.getBlockID(), WorkspaceEvent.BLOCK_CLONED_ALL, true));
 	}
 
 
-	private RenderableBlock cloneThis(RenderableBlock rb, boolean right, boolean all)
-    {
-		Block oriBlock = rb.getBlock();
-    	oriBlock.getSockets();
-    	//RenderableBlock newRb = BlockUtilities.cloneBlock(oriBlock);
-    	
-    	Point oriLocation =rb.getLocation();
-    	
-    	Block newBlock = new Block(workspace, rb.getGenus(), rb.blockLabel.getText());
-    	RenderableBlock newRb = new RenderableBlock(workspace, parent, newBlock.getBlockID(), false);
-
-    	newRb.setLocation(oriLocation.x+(int)(NEARBY_RADIUS),oriLocation.y+(int)(NEARBY_RADIUS));
-    	newRb.moveConnectedBlocks();
-    	parent.addBlock(newRb);
-		
-    	int i = 0;
-    	Iterable<BlockConnector> oriSockets = oriBlock.getSockets();
-    	
-    	if (right) {
-    		for (BlockConnector oriSocket: oriSockets)
-        	{
-        		BlockConnector newSocket = newBlock.getSocketAt(i);
-        		
-        		if (oriSocket.hasBlock())
-        		{
-        			if (newSocket.hasBlock())
-            		{
-        				RenderableBlock subnewRb = workspace.getEnv().getRenderableBlock(newSocket.getBlockID());
-        				BlockUtilities.deleteBlock(subnewRb);
-            		}
-        			RenderableBlock subRb = workspace.getEnv().getRenderableBlock(oriSocket.getBlockID());
-        			RenderableBlock newSubRb = cloneThis(subRb, true, true);
-        			
-        			if (newSubRb.getBlock().isFunctionBlock())
-        			{
-        				newSubRb.getBlock().getPlug().setConnectorBlockID(newRb.getBlockID());
-        				newSocket.setConnectorBlockID(newSubRb.getBlockID());
-        			}
-        			if (newSubRb.getBlock().isDataBlock())
-        			{
-        				newSubRb.getBlock().getPlug().setConnectorBlockID(newRb.getBlockID());
-        				newSocket.setConnectorBlockID(newSubRb.getBlockID());
-        			}
-        			if (newSubRb.getBlock().isCommandBlock())
-        			{
-        				newSubRb.getBlock().getBeforeConnector().setConnectorBlockID(newRb.getBlockID());
-        				newSocket.setConnectorBlockID(newSubRb.getBlockID());
-        			}
-        			    			
-        		}
-        		++i;
-        	}	
-    	}
-    	
-    	if (rb.getBlock().isCommandBlock() && all)
-    	{
-    		BlockConnector oriAfterConnector = rb.getBlock().getAfterConnector();
-    		if (oriAfterConnector != null)
-    		{
-	    		if (oriAfterConnector.hasBlock())
-	    		{
-	    			RenderableBlock oriAfterRb = workspace.getEnv().getRenderableBlock(oriAfterConnector.getBlockID());
-	    			RenderableBlock newAfterRb = cloneThis(oriAfterRb, true, true);
-	    			
-	    			newAfterRb.getBlock().getBeforeConnector().setConnectorBlockID(newRb.getBlockID());
-	    			newRb.getBlock().getAfterConnector().setConnectorBlockID(newAfterRb.getBlockID());
-	    		}
-    		}
-    	}
-    	
-    	BlockLink link = BlockLinkChecker.getLink(workspace, newRb, workspace.getBlockCanvas().getBlocks());
-		if (link != null) {
-			link.connect();
-			workspace.notifyListeners(new WorkspaceEvent(workspace, newRb
-					.getParentWidget(), link,
-					WorkspaceEvent.BLOCKS_CONNECTED, true));
-		}
-    	newRb.linkedDefArgsBefore = true;
-    	return newRb;
-    }
+	/**
+	 * Clones the specified block next to it, all at once (see StackCloner).
+	 * 
+	 * @param rb
+	 *            the block to clone
+	 * @param right
+	 *            true to also clone the blocks plugged into its sockets
+	 * @param all
+	 *            true to also clone the blocks after it
+	 * @return the clone of rb
+	 */
+	private RenderableBlock cloneThis(RenderableBlock rb, boolean right, boolean all) {
+		return new StackCloner(rb, right, all).cloneStack();
+	}
 
 	// ////////////////////////////////
 	// MOVEMENT OF CONNECTED BLOCKS //
@@ -1719,7 +1695,8 @@ public class RenderableBlock extends JComponent implements SearchableElement,
 	/**
 	 * Aligns all RenderableBlocks plugged into this one with the current
 	 * location of this RenderableBlock. These RenderableBlocks to move include
-	 * blocks connected at sockets and the after connector.
+	 * blocks connected at sockets and the after connector, and the blocks
+	 * connected to these in turn (see ConnectedBlockLayout).
 	 */
 	public void moveConnectedBlocks() {
 		if (DEBUG) {
@@ -1732,47 +1709,28 @@ public class RenderableBlock extends JComponent implements SearchableElement,
 			return;
 		}
 
-		Block b = workspace.getEnv().getBlock(blockID);
-		Point socketLocation;
-		Point plugLocation;
-		RenderableBlock rb;
-		Point myScreenOffset = getLocation();
-		Point otherScreenOffset;
-		for (BlockConnector socket : BlockLinkChecker.getSocketEquivalents(b)) {
-			socketLocation = getSocketPixelPoint(socket);
-			if (socket.hasBlock()) {
-				rb = workspace.getEnv().getRenderableBlock(socket.getBlockID());
-
-				// TODO: djwendel - this is a patch, but the root of the problem
-				// needs to be found and fixed!!
-				if (rb == null) {
-					System.out.println("Block doesn't exist yet: "
-							+ socket.getBlockID());
-					continue;
-				}
+		new ConnectedBlockLayout(this).apply();
+	}
 
-				plugLocation = rb.getSocketPixelPoint(BlockLinkChecker
-						.getPlugEquivalent(workspace.getEnv().getBlock(
-								socket.getBlockID())));
-				otherScreenOffset = SwingUtilities.convertPoint(rb.getParent(),
-						rb.getLocation(), getParent());
-				otherScreenOffset.translate(-rb.getX(), -rb.getY());
-				rb.setLocation(
-						(int) Math.round((float) myScreenOffset.getX()
-								+ socketLocation.getX()
-								- (float) otherScreenOffset.getX()
-								- plugLocation.getX()),
-						(int) Math.round((float) myScreenOffset.getY()
-								+ socketLocation.getY()
-								- (float) otherScreenOffset.getY()
-								- plugLocation.getY()));
-
-				rb.moveConnectedBlocks();
+	private void startDragging(RenderableBlock renderable,
+			WorkspaceWidget widget) {
+		pickUp(renderable, widget);
+		for (BlockConnector socket : BlockLinkChecker
+				.getSocketEquivalents(workspace.getEnv().getBlock(
+						renderable.blockID))) {
+			if (socket.hasBlock()) {
+				startDragging(
+						workspace.getEnv().getRenderableBlock(
+								socket.getBlockID()), widget);
 			}
 		}
 	}
 
-	private void startDragging(RenderableBlock renderable,
+	/**
+	 * Moves the specified block, without the blocks plugged into it, into the
+	 * drag layer of the workspace.
+	 */
+	private static void pickUp(RenderableBlock renderable,
 			WorkspaceWidget widget) {
 		renderable.pickedUp = true;
 		renderable.lastDragWidget = widget;
@@ -1785,17 +1743,115 @@ public class RenderableBlock extends JComponent implements SearchableElement,
 		renderable.setLocation(SwingUtilities.convertPoint(oldParent,
 				renderable.getLocation(), workspace));
 		renderable.setHighlightParent(workspace);
+	}
+
+	/**
+	 * Picks up this block along with the blocks plugged into it as a single
+	 * StackDragLayer, if there are enough of them for moving them one by one
+	 * to slow dragging down.  The blocks the layer stands in for are hidden
+	 * and left on their page; only this block and the followers of the layer
+	 * are moved into the drag layer of the workspace.
+	 * 
+	 * @return true if the stack was picked up, false if its blocks are to be
+	 *         picked up one by one
+	 */
+	private boolean startStackDrag(WorkspaceWidget widget) {
+		if (GraphicsEnvironment.isHeadless()) {
+			return false;
+		}
+		List<RenderableBlock> blocks = new ArrayList<RenderableBlock>();
+		List<RenderableBlock> followers = new ArrayList<RenderableBlock>();
+		collectStack(this, blocks, followers);
+		if (blocks.size() + followers.size() < STACK_DRAG_LAYER_THRESHOLD
+				|| blocks.isEmpty()) {
+			return false;
+		}
+		stackDragLayer = new StackDragLayer(blocks, followers, DRAGGING_ALPHA);
+		stackDragLayer.setLocation(SwingUtilities.convertPoint(getParent(),
+				stackDragLayer.getLocation(), workspace));
+		workspace.addToBlockLayer(stackDragLayer);
+		for (RenderableBlock rb : blocks) {
+			rb.setVisible(false);
+		}
+		pickUp(this, widget);
+		for (RenderableBlock rb : followers) {
+			pickUp(rb, widget);
+			rb.dragging = true;
+		}
+		return true;
+	}
+
+	private void collectStack(RenderableBlock renderable,
+			List<RenderableBlock> blocks, List<RenderableBlock> followers) {
 		for (BlockConnector socket : BlockLinkChecker
-				.getSocketEquivalents(workspace.getEnv().getBlock(
-						renderable.blockID))) {
+				.getSocketEquivalents(renderable.getBlock())) {
 			if (socket.hasBlock()) {
-				startDragging(
-						workspace.getEnv().getRenderableBlock(
-								socket.getBlockID()), widget);
+				RenderableBlock child = workspace.getEnv().getRenderableBlock(
+						socket.getBlockID());
+				// a comment follows its block, and a collapsed block stays
+				// hidden, so keep the block itself
+				if (child.hasComment() || !child.isVisible()) {
+					followers.add(child);
+				} else {
+					blocks.add(child);
+				}
+				collectStack(child, blocks, followers);
 			}
 		}
 	}
 
+	/**
+	 * Drops this block along with the blocks plugged into it on the specified
+	 * widget.
+	 * 
+	 * @param widget
+	 *            the WorkspaceWidget where this RenderableBlock is being
+	 *            dropped.
+	 */
+	private void drop(WorkspaceWidget widget) {
+		if (stackDragLayer == null) {
+			stopDragging(this, widget);
+			return;
+		}
+		// move the hidden blocks to where the layer was dragged, bottom-first;
+		// those staying on their page only need to be brought to the front
+		int dx = stackDragLayer.getTravelX();
+		int dy = stackDragLayer.getTravelY();
+		List<RenderableBlock> blocks = stackDragLayer.getBlocks();
+		RenderableBlock rightmost = null;
+		for (int i = blocks.size() - 1; i >= 0; i--) {
+			RenderableBlock rb = blocks.get(i);
+			rb.setLocation(rb.getX() + dx, rb.getY() + dy);
+			if (widget instanceof Page && rb.getParentWidget() == widget) {
+				rb.getParent().setComponentZOrder(rb, 0);
+				if (rightmost == null
+						|| rb.getX() + rb.getWidth() > rightmost.getX()
+								+ rightmost.getWidth()) {
+					rightmost = rb;
+				}
+			} else {
+				widget.blockDropped(rb);
+			}
+			rb.setVisible(true);
+		}
+		Rectangle bounds = stackDragLayer.getBounds();
+		workspace.remove(stackDragLayer);
+		workspace.repaint(bounds);
+		stackDragLayer.dispose();
+		List<RenderableBlock> followers = stackDragLayer.getFollowers();
+		stackDragLayer = null;
+
+		for (int i = followers.size() - 1; i >= 0; i--) {
+			dropBlock(followers.get(i), widget);
+		}
+		dropBlock(this, widget);
+		// grow the page to fit the blocks that were not dropped on it
+		if (rightmost != null) {
+			((Page) widget).reformBlockPosition(rightmost);
+		}
+		moveConnectedBlocks();
+	}
+
 	/**
 	 * This method is called when this RenderableBlock is plugged into another
 	 * RenderableBlock that has finished dragging.
@@ -1817,6 +1873,19 @@ public class RenderableBlock extends JComponent implements SearchableElement,
 						.getRenderableBlock(socket.getBlockID()), widget);
 			}
 		}
+		dropBlock(renderable, widget);
+	// When dragging, Child blocks can become mis-aligned to their Parent Block which is very annoying
+	// I can't stop this happening, nor work out why it happens.
+	// This is just a quick 'fix' to stop things looking too bad
+	renderable.moveConnectedBlocks();
+	}
+
+	/**
+	 * Drops the specified block, without the blocks plugged into it, on the
+	 * specified widget.
+	 */
+	private static void dropBlock(RenderableBlock renderable,
+			WorkspaceWidget widget) {
 		// drop this block on its widget (if w is null it'll throw an exception)
 		widget.blockDropped(renderable);
 		// stop rendering as transparent
@@ -1834,10 +1903,6 @@ public class RenderableBlock extends JComponent implements SearchableElement,
 			renderable.comment.setLocation(renderable.comment.getLocation());
 			renderable.comment.getArrow().updateArrow();
 		}
-	// When dragging, Child blocks can become mis-aligned to their Parent Block which is very annoying
-	// I can't stop this happening, nor work out why it happens.
-	// This is just a quick 'fix' to stop things looking too bad
-	renderable.moveConnectedBlocks();
 	}
 
 	private void drag(RenderableBlock renderable, int dx, int dy,
@@ -1868,6 +1933,11 @@ public class RenderableBlock extends JComponent implements SearchableElement,
 		// automatically,
 		// but putting the call here takes out any lag.
 		renderable.highlighter.repaint();
+		// the blocks plugged into a large stack move as one layer
+		if (isTopLevelBlock && renderable.stackDragLayer != null) {
+			renderable.stackDragLayer.follow(dx, dy);
+			return;
+		}
 		// Propagate the drag event to anything plugged into this block
 		for (BlockConnector socket : BlockLinkChecker
 				.getSocketEquivalents(renderable.getBlock())) {
@@ -1905,7 +1975,7 @@ public class RenderableBlock extends JComponent implements SearchableElement,
 				// if a suitable link wasn't found, just drop the block
 				if (link == null) {
 					widget = lastDragWidget;
-					stopDragging(this, widget);
+					drop(widget);
 				} // otherwise, if a link WAS found...
 				else {
 
@@ -1929,7 +1999,7 @@ public class RenderableBlock extends JComponent implements SearchableElement,
 					}
 
 					// drop the block and connect its link
-					stopDragging(this, widget);
+					drop(widget);
 					link.connect();
 					workspace.notifyListeners(new WorkspaceEvent(workspace,
 							widget, link, WorkspaceEvent.BLOCKS_CONNECTED));
@@ -2009,13 +2079,15 @@ public class RenderableBlock extends JComponent implements SearchableElement,
 					workspace.notifyListeners(new WorkspaceEvent(workspace,
 							widget, link, WorkspaceEvent.BLOCKS_DISCONNECTED));
 				}
-				startDragging(this, widget);
+				if (!startStackDrag(widget)) {
+					startDragging(this, widget);
+				}
 			}
 
 			// drag this block and all attached to it
 			drag(this, dragHandler.dragDX, dragHandler.dragDY, widget, true);
 
-			workspace.getMiniMap().repaint();
+			workspace.getMiniMap().scheduleRepaint();
 		}
 	}
 
@@ -2079,6 +2151,13 @@ public class RenderableBlock extends JComponent implements SearchableElement,
 		return getBlock().getGenusName();
 	}
 
+	/**
+	 * @return the text of the name label of this
+	 */
+	String getLabelText() {
+		return blockLabel.getText();
+	}
+
 	public void updateInSearchResults(boolean inSearchResults) {
 		isSearchResult = inSearchResults;
 		highlighter.setIsSearchResult(isSearchResult);
@@ -2105,6 +2184,19 @@ public class RenderableBlock extends JComponent implements SearchableElement,
 				isCollapsed());
 	}
 
+	/**
+	 * Writes the node of this to the specified writer without building it.
+	 * 
+	 * @param writer
+	 *            the writer to write the node to
+	 * @throws XMLStreamException
+	 *             if the node could not be written
+	 */
+	public void writeSaveNode(XMLStreamWriter writer) throws XMLStreamException {
+		getBlock().writeSaveNode(writer, descale(this.getX()),
+				descale(this.getY()), comment, isCollapsed());
+	}
+
 	/**
 	 * Returns whether or not this is still loading data.
 	 * 
@@ -2135,9 +2227,37 @@ public class RenderableBlock extends JComponent implements SearchableElement,
 		boolean isBlockStub = blockNode.getNodeName().equals("BlockStub");
 
 		if (isBlock || isBlockStub) {
-			RenderableBlock rb = new RenderableBlock(workspace, parent, Block
+			return loadBlockNode(workspace, blockNode, parent, Block
 					.loadBlockFrom(workspace, blockNode, idMapping)
-					.getBlockID(), true);
+					.getBlockID());
+		}
+		return null;
+	}
+
+	/**
+	 * Loads a RenderableBlock for a Block instance that was already loaded
+	 * from the specified blockNode; returns null if no RenderableBlock was
+	 * loaded.
+	 * 
+	 * @param workspace
+	 *            The workspace to use
+	 * @param blockNode
+	 *            Node the Block instance was loaded from
+	 * @param parent
+	 *            WorkspaceWidget to contain the block to load
+	 * @param blockID
+	 *            the id of the loaded Block instance
+	 * @return RenderableBlock instance holding the information in blockNode;
+	 *         null if no RenderableBlock loaded
+	 */
+	public static RenderableBlock loadBlockNode(Workspace workspace,
+			Node blockNode, WorkspaceWidget parent, Long blockID) {
+		boolean isBlock = blockNode.getNodeName().equals("Block");
+		boolean isBlockStub = blockNode.getNodeName().equals("BlockStub");
+
+		if (isBlock || isBlockStub) {
+			RenderableBlock rb = new RenderableBlock(workspace, parent,
+					blockID, true);
 
 			if (isBlockStub) {
 				// need to get actual block node
@@ -2253,6 +2373,10 @@ public class RenderableBlock extends JComponent implements SearchableElement,
 		assert (memento instanceof RenderableBlockState) : "ISupportMemento contract violated in RenderableBlock";
 		if (memento instanceof RenderableBlockState) {
 			RenderableBlockState state = (RenderableBlockState) memento;
+			// the block may have gained or lost sockets and links along with
+			// its state
+			invalidateStackDimension();
+			synchronizeSockets();
 			this.setLocation(state.x, state.y);
 		}
 	}
@@ -0,0 +1,215 @@
+package edu.mit.blocks.renderable;
+
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.mit.blocks.codeblocks.Block;
+import edu.mit.blocks.codeblocks.BlockConnector;
+import edu.mit.blocks.codeblocks.BlockLink;
+import edu.mit.blocks.codeblocks.BlockLinkChecker;
+import edu.mit.blocks.codeblocks.BlockStub;
+import edu.mit.blocks.workspace.Page;
+import edu.mit.blocks.workspace.Workspace;
+import edu.mit.blocks.workspace.WorkspaceEvent;
+import edu.mit.blocks.workspace.WorkspaceWidget;
+
+/**
+ * A StackCloner clones a block, and optionally the blocks plugged into it,
+ * all at once.
+ *
+ * The Block instances of the clone are created first, in a single walk of
+ * the original blocks that maps the id of each original block to the id of
+ * its clone.  The clones are then linked with the help of this mapping, and
+ * only the sockets the clone leaves empty get their default arguments, so that
+ * no default argument is created to be deleted right away.  The
+ * RenderableBlocks of the clone are created last, added to the page together
+ * and laid out once, and the whole clone is reported by a single block cloned
+ * event.
+ */
+class StackCloner {
+
+    private final Workspace workspace;
+    private final RenderableBlock original;
+    /** True to clone the blocks plugged into the sockets of the original */
+    private final boolean right;
+    /** True to also clone the blocks after the original */
+    private final boolean all;
+    /** The id of the clone of each original block */
+    private final Map<Long, Long> cloneIDs = new HashMap<Long, Long>();
+    /** The ids of the original blocks, in the order they were cloned */
+    private final List<Long> originalIDs = new ArrayList<Long>();
+    /** The ids of all the blocks created, in the order they were created */
+    private final List<Long> createdIDs = new ArrayList<Long>();
+
+    /**
+     * @param original the block to clone
+     * @param right true to clone the blocks plugged into the sockets of
+     * 			original, along with the blocks plugged into them in turn
+     * @param all true to also clone the blocks after original, along with the
+     * 			blocks plugged into them
+     */
+    StackCloner(RenderableBlock original, boolean right, boolean all) {
+        this.workspace = original.getWorkspace();
+        this.original = original;
+        this.right = right;
+        this.all = all;
+    }
+
+    /**
+     * Clones the blocks, adds the clones next to the original and reports them.
+     * @return the clone of the original block
+     */
+    RenderableBlock cloneStack() {
+        copyBlocks();
+        linkBlocks();
+        RenderableBlock top = makeRenderables();
+
+        WorkspaceWidget widget = top.getParentWidget();
+        if (widget instanceof Page) {
+            workspace.notifyListeners(new WorkspaceEvent(workspace, widget,
+                    top.getBlockID(), createdIDs, getEventType(), true));
+        }
+
+        BlockLink link = BlockLinkChecker.getLink(workspace, top, workspace.getBlockCanvas().getBlocksNear(top));
+        if (link != null) {
+            link.connect();
+            workspace.notifyListeners(new WorkspaceEvent(workspace, top
+                    .getParentWidget(), link,
+                    WorkspaceEvent.BLOCKS_CONNECTED, true));
+        }
+        return top;
+    }
+
+    private int getEventType() {
+        if (all) {
+            return WorkspaceEvent.BLOCK_CLONED_ALL;
+        }
+        return right ? WorkspaceEvent.BLOCK_CLONED_RIGHT : WorkspaceEvent.BLOCK_CLONED_THIS;
+    }
+
+    /**
+     * Creates a Block instance for each block to clone.
+     */
+    private void copyBlocks() {
+        List<Long> pending = new ArrayList<Long>();
+        pending.add(original.getBlockID());
+        while (!pending.isEmpty()) {
+            Long id = pending.remove(pending.size() - 1);
+            Block block = workspace.getEnv().getBlock(id);
+            Block clone = copyBlock(block, workspace.getEnv().getRenderableBlock(id));
+            cloneIDs.put(id, clone.getBlockID());
+            originalIDs.add(id);
+            createdIDs.add(clone.getBlockID());
+
+            boolean isOriginal = id.equals(original.getBlockID());
+            if (block.isCommandBlock() && (all || !isOriginal)) {
+                BlockConnector after = block.getAfterConnector();
+                if (after != null && after.hasBlock()) {
+                    pending.add(after.getBlockID());
+                }
+            }
+            if (right || !isOriginal) {
+                for (BlockConnector socket : block.getSockets()) {
+                    if (socket.hasBlock()) {
+                        pending.add(socket.getBlockID());
+                    }
+                }
+            }
+        }
+    }
+
+    private Block copyBlock(Block block, RenderableBlock rb) {
+        if (block instanceof BlockStub) {
+            Block parent = ((BlockStub) block).getParent();
+            if (parent != null) {
+                return new BlockStub(workspace, parent.getBlockID(), parent.getGenusName(), parent.getBlockLabel(), block.getGenusName());
+            }
+            // a stub whose parent is gone is cloned from its genus alone
+        }
+        String label = rb != null ? rb.getLabelText() : block.getBlockLabel();
+        return new Block(workspace, block.getGenusName(), label);
+    }
+
+    /**
+     * Links the clones the way the original blocks are linked, then gives the
+     * sockets the clones leave empty their default arguments.
+     */
+    private void linkBlocks() {
+        for (Long id : originalIDs) {
+            Block block = workspace.getEnv().getBlock(id);
+            Block clone = workspace.getEnv().getBlock(cloneIDs.get(id));
+            int i = 0;
+            for (BlockConnector socket : block.getSockets()) {
+                Long childID = cloneIDs.get(socket.getBlockID());
+                if (childID != null && i < clone.getNumSockets()) {
+                    BlockConnector cloneSocket = clone.getSocketAt(i);
+                    link(clone, cloneSocket, childID);
+                    // lets expandable sockets grow, so that socket i + 1 exists
+                    clone.blockConnected(cloneSocket, childID);
+                }
+                i++;
+            }
+            if (block.hasAfterConnector()) {
+                Long afterID = cloneIDs.get(block.getAfterBlockID());
+                if (afterID != null) {
+                    link(clone, clone.getAfterConnector(), afterID);
+                }
+            }
+        }
+        for (Long id : originalIDs) {
+            Block clone = workspace.getEnv().getBlock(cloneIDs.get(id));
+            Iterable<Long> argIDs = clone.linkAllDefaultArgs();
+            if (argIDs != null) {
+                for (Long argID : argIDs) {
+                    if (!Block.NULL.equals(argID)) {
+                        createdIDs.add(argID);
+                    }
+                }
+            }
+        }
+    }
+
+    private void link(Block parent, BlockConnector socket, Long childID) {
+        socket.setConnectorBlockID(childID);
+        BlockLinkChecker.getPlugEquivalent(workspace.getEnv().getBlock(childID)).setConnectorBlockID(parent.getBlockID());
+    }
+
+    /**
+     * Creates the RenderableBlocks of the clone, adds them next to the
+     * original and lays them out.
+     * @return the RenderableBlock of the clone of the original block
+     */
+    private RenderableBlock makeRenderables() {
+        WorkspaceWidget widget = original.getParentWidget();
+        Point location = original.getLocation();
+        location.translate((int) RenderableBlock.NEARBY_RADIUS, (int) RenderableBlock.NEARBY_RADIUS);
+
+        List<RenderableBlock> clones = new ArrayList<RenderableBlock>(createdIDs.size());
+        for (Long id : createdIDs) {
+            // loading blocks put off reforming their shape until redrawn from the top
+            RenderableBlock rb = RenderableBlock.newLoadingBlock(workspace, widget, id);
+            rb.setZoomLevel(original.getZoom());
+            rb.setLocation(location);
+            rb.ignoreDefaultArguments();
+            clones.add(rb);
+        }
+        RenderableBlock top = clones.get(0);
+
+        if (widget instanceof Page) {
+            Page page = (Page) widget;
+            page.addClonedBlocks(clones);
+            top.redrawFromTop();
+            top.moveConnectedBlocks();
+            page.reformBlockPosition(top);
+        } else {
+            // other widgets report each block added themselves
+            widget.addBlocks(clones);
+            top.redrawFromTop();
+            top.moveConnectedBlocks();
+        }
+        return top;
+    }
+}
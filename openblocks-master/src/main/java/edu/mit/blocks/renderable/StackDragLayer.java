@@ -0,0 +1,133 @@
+package edu.mit.blocks.renderable;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.List;
+
+import javax.swing.JComponent;
+
+import edu.mit.blocks.codeblockutil.GraphicsManager;
+
+/**
+ * A StackDragLayer stands in for the blocks plugged into a dragged block
+ * while the stack is being dragged.
+ *
+ * When the stack is picked up, its blocks are painted once into a single
+ * image and hidden, and stay on the page they were on.  Each drag step then
+ * only moves this layer along with the dragged block, instead of moving,
+ * revalidating and repainting every block of the stack.  When the stack is
+ * dropped, the blocks are moved by the distance the layer travelled and shown
+ * again.
+ *
+ * Blocks with a comment are not painted into the layer but moved along with
+ * it, so that their comment follows them.
+ */
+class StackDragLayer extends JComponent {
+
+    private static final long serialVersionUID = 328149080430L;
+    /** The blocks this layer stands in for, in the order they were picked up */
+    private final List<RenderableBlock> blocks;
+    /** The blocks moved along with this layer */
+    private final List<RenderableBlock> followers;
+    /** The distance this layer travelled since the stack was picked up */
+    private int travelX = 0, travelY = 0;
+    private final float alpha;
+    private BufferedImage image;
+
+    /**
+     * Paints the specified blocks into a new layer covering them, in the
+     * coordinate space of their parent.
+     * @param blocks the blocks to stand in for, which must share a parent
+     * @param followers the blocks to move along with this layer
+     * @param alpha the opacity to paint the blocks with
+     */
+    StackDragLayer(List<RenderableBlock> blocks, List<RenderableBlock> followers, float alpha) {
+        this.blocks = blocks;
+        this.followers = followers;
+        this.alpha = alpha;
+        this.setOpaque(false);
+        Rectangle bounds = new Rectangle(blocks.get(0).getBounds());
+        for (RenderableBlock rb : blocks) {
+            bounds.add(rb.getBounds());
+        }
+        setBounds(bounds);
+        image = GraphicsManager.getGCCompatibleImage(bounds.width, bounds.height);
+        Graphics2D g = image.createGraphics();
+        // blocks picked up later lie lower in the drag layer, so paint them first
+        for (int i = blocks.size() - 1; i >= 0; i--) {
+            RenderableBlock rb = blocks.get(i);
+            Graphics blockGraphics = g.create(rb.getX() - bounds.x, rb.getY() - bounds.y, rb.getWidth(), rb.getHeight());
+            rb.paint(blockGraphics);
+            blockGraphics.dispose();
+        }
+        g.dispose();
+    }
+
+    /**
+     * @return the blocks this layer stands in for
+     */
+    List<RenderableBlock> getBlocks() {
+        return blocks;
+    }
+
+    /**
+     * @return the blocks moved along with this layer
+     */
+    List<RenderableBlock> getFollowers() {
+        return followers;
+    }
+
+    /**
+     * Moves this layer and its followers along with the dragged block.
+     */
+    void follow(int dx, int dy) {
+        setLocation(getX() + dx, getY() + dy);
+        travelX += dx;
+        travelY += dy;
+        for (RenderableBlock rb : followers) {
+            rb.setLocation(rb.getX() + dx, rb.getY() + dy);
+        }
+    }
+
+    /**
+     * @return the horizontal distance this layer travelled since the stack was
+     * 			picked up
+     */
+    int getTravelX() {
+        return travelX;
+    }
+
+    /**
+     * @return the vertical distance this layer travelled since the stack was
+     * 			picked up
+     */
+    int getTravelY() {
+        return travelY;
+    }
+
+    /**
+     * Releases the image of this layer.
+     */
+    void dispose() {
+        GraphicsManager.recycleGCCompatibleImage(image);
+        image = null;
+    }
+
+    @Override
+    public boolean contains(int x, int y) {
+        // leave mouse events to the blocks underneath
+        return false;
+    }
+
+    @Override
+    public void paintComponent(Graphics g) {
+        if (image != null) {
+            Graphics2D g2 = (Graphics2D) g;
+            g2.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, alpha));
+            g2.drawImage(image, 0, 0, null);
+        }
+    }
+}
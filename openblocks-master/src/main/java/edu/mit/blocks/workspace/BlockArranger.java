@@ -0,0 +1,217 @@
+package edu.mit.blocks.workspace;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import javax.swing.JComponent;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+import edu.mit.blocks.renderable.RenderableBlock;
+
+/**
+ * A BlockArranger automatically arranges the top level blocks of a set of
+ * pages, with a StackPacker.
+ *
+ * The bounds of the stacks are read once, when the arranger is created, so
+ * that the layout of each page only works on rectangles, and the blocks are
+ * then either moved at once or flown to their new location.  Once the blocks
+ * are moved, the arranger lets go of them.
+ */
+class BlockArranger implements ActionListener {
+
+    /** The delay between two steps of the animation, in milliseconds */
+    private static final int ANIMATION_DELAY = 25;
+    /** The number of steps of the animation */
+    private static final int ANIMATION_STEPS = 10;
+
+    private final List<PageLayout> layouts = new ArrayList<PageLayout>();
+    private Timer timer = null;
+    private int step = 0;
+
+    /**
+     * Lays out the top level blocks of the specified pages.
+     * @requires called in the event dispatch thread
+     */
+    BlockArranger(Collection<Page> pages) {
+        for (Page page : pages) {
+            PageLayout layout = new PageLayout(page);
+            layout.layOut();
+            layouts.add(layout);
+        }
+    }
+
+    /**
+     * Moves every block to its new location at once.
+     */
+    void apply() {
+        for (PageLayout layout : layouts) {
+            layout.apply();
+        }
+        layouts.clear();
+    }
+
+    /**
+     * Flies every block to its new location.  Blocks moved by someone else
+     * while flying are left where they were moved.
+     */
+    void animate() {
+        for (PageLayout layout : layouts) {
+            layout.widenPage();
+        }
+        timer = new Timer(ANIMATION_DELAY, this);
+        timer.start();
+    }
+
+    /**
+     * Stops the animation, if any, and moves the blocks still flying to their
+     * new location.
+     */
+    void finish() {
+        if (timer != null && timer.isRunning()) {
+            timer.stop();
+            apply();
+        }
+    }
+
+    /**
+     * Stops the animation, if any, leaving the blocks still flying where they
+     * are.
+     */
+    void stop() {
+        if (timer != null) {
+            timer.stop();
+        }
+        layouts.clear();
+    }
+
+    @Override
+    public void actionPerformed(ActionEvent e) {
+        step++;
+        if (step >= ANIMATION_STEPS) {
+            timer.stop();
+            apply();
+        } else {
+            // ease out: cover most of the distance in the first steps
+            float remaining = 1f - (float) step / ANIMATION_STEPS;
+            float progress = 1f - remaining * remaining;
+            for (PageLayout layout : layouts) {
+                layout.moveTowards(progress);
+            }
+        }
+    }
+
+    /**
+     * The layout of the top level blocks of one page.
+     */
+    private static class PageLayout {
+
+        private final Page page;
+        private final int height;
+        private final List<RenderableBlock> blocks = new ArrayList<RenderableBlock>();
+        /** The bounds of each stack when the layout was made, in the page's coordinate space */
+        private final List<Rectangle> bounds = new ArrayList<Rectangle>();
+        /** Where each block was last moved to, or null once it is no longer arranged */
+        private final List<Point> locations = new ArrayList<Point>();
+        private Point[] targets;
+
+        PageLayout(Page page) {
+            this.page = page;
+            JComponent pageJComponent = page.getJComponent();
+            this.height = pageJComponent.getHeight();
+            for (RenderableBlock rb : page.getTopLevelBlocks()) {
+                Rectangle r = rb.getStackBounds();
+                if (rb.getParent() != pageJComponent && rb.getParent() != null) {
+                    r.setLocation(SwingUtilities.convertPoint(rb.getParent(), r.getLocation(), pageJComponent));
+                }
+                blocks.add(rb);
+                bounds.add(r);
+                locations.add(rb.getLocation());
+            }
+        }
+
+        /**
+         * Computes the new location of each stack from the bounds read when
+         * this layout was made.
+         */
+        void layOut() {
+            targets = StackPacker.pack(bounds, height);
+        }
+
+        /**
+         * Widens the page so that it fits the stacks at their new location.
+         */
+        void widenPage() {
+            int right = 0;
+            for (int i = 0; i < targets.length; i++) {
+                right = Math.max(right, targets[i].x + bounds.get(i).width);
+            }
+            int width = page.getJComponent().getWidth();
+            if (right > width) {
+                page.addPixelWidth(right - width);
+            }
+        }
+
+        /**
+         * Moves each block still arranged the specified share of the way from
+         * where it was to its new location.
+         */
+        void moveTowards(float progress) {
+            for (int i = 0; i < blocks.size(); i++) {
+                RenderableBlock rb = blocks.get(i);
+                if (!isArranged(i)) {
+                    continue;
+                }
+                Rectangle from = bounds.get(i);
+                Point location = new Point(
+                        Math.round(from.x + (targets[i].x - from.x) * progress),
+                        Math.round(from.y + (targets[i].y - from.y) * progress));
+                rb.setLocation(location);
+                rb.moveConnectedBlocks();
+                locations.set(i, location);
+            }
+        }
+
+        /**
+         * Moves each block still arranged to its new location.
+         */
+        void apply() {
+            widenPage();
+            for (int i = 0; i < blocks.size(); i++) {
+                RenderableBlock rb = blocks.get(i);
+                if (!isArranged(i)) {
+                    continue;
+                }
+                Point target = targets[i];
+                rb.setLocation(target);
+                //sets the x and y position for when workspace is unzoomed
+                rb.setUnzoomedX(rb.calculateUnzoomedX(target.x));
+                rb.setUnzoomedY(rb.calculateUnzoomedY(target.y));
+                rb.moveConnectedBlocks();
+                locations.set(i, null);
+            }
+        }
+
+        /**
+         * @return true if the ith block is still on the page and where it was
+         * 			last moved to
+         */
+        private boolean isArranged(int i) {
+            Point location = locations.get(i);
+            if (location == null) {
+                return false;
+            }
+            RenderableBlock rb = blocks.get(i);
+            if (rb.getParent() != page.getJComponent() || !location.equals(rb.getLocation())) {
+                locations.set(i, null);
+                return false;
+            }
+            return true;
+        }
+    }
+}
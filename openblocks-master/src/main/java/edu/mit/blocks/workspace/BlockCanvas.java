@@ -4,20 +4,27 @@ import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.GraphicsEnvironment;
 import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.PopupMenu;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 
 import javax.swing.BoundedRangeModel;
 import javax.swing.JComponent;
 import javax.swing.JLayeredPane;
 import javax.swing.SwingUtilities;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -62,6 +69,10 @@ public class BlockCanvas implements PageChangeListener, ISupportMemento {
     private final Workspace workspace;
     
     private boolean collapsible = false;
+    /** True if the blocks of pages outside the viewport should not hold on to their rasters */
+    private boolean memoryPressure = false;
+    /** The last arrangement of the blocks of this, which may still be animating */
+    private BlockArranger arranger = null;
 
     //////////////////////////////
     //Constructor/Destructor	//
@@ -82,12 +93,25 @@ public class BlockCanvas implements PageChangeListener, ISupportMemento {
         canvas.setBackground(Color.gray);
         canvas.setOpaque(true);
         PageChangeEventManager.addPageChangeListener(this);
+        scrollPane.getHorizontalModel().addChangeListener(new ChangeListener() {
+
+            @Override
+            public void stateChanged(ChangeEvent e) {
+                if (memoryPressure) {
+                    releaseOffscreenRasters();
+                }
+            }
+        });
     }
 
     /**
      * @effects resets BlockCanvas by removing all pages, dividers, and blocks.
      */
     public void reset() {
+        if (arranger != null) {
+            arranger.stop();
+            arranger = null;
+        }
         pages.clear();
         canvas.removeAll();
         dividers.clear();
@@ -169,23 +193,85 @@ public class BlockCanvas implements PageChangeListener, ISupportMemento {
     //Block Mutators/Accessors	//
     //////////////////////////////
     /**
-     * @return the RendearbleBlocks that are contained within this widget
-     * 			or an empty Iterable if no blocks exists
+     * @return a live, read-only view of the RendearbleBlocks that are contained
+     * 			within this widget, page by page, or an empty Iterable if no
+     * 			blocks exists
      */
     public Iterable<RenderableBlock> getBlocks() {
-        ArrayList<RenderableBlock> allPageBlocks = new ArrayList<RenderableBlock>();
+        loadPendingBlocks();
+        return new Iterable<RenderableBlock>() {
+
+            @Override
+            public Iterator<RenderableBlock> iterator() {
+                final Iterator<Page> pageIterator = pages.iterator();
+                return new Iterator<RenderableBlock>() {
+
+                    private Iterator<RenderableBlock> blockIterator = null;
+
+                    @Override
+                    public boolean hasNext() {
+                        while (blockIterator == null || !blockIterator.hasNext()) {
+                            if (!pageIterator.hasNext()) {
+                                return false;
+                            }
+                            blockIterator = pageIterator.next().getLoadedBlocks().iterator();
+                        }
+                        return true;
+                    }
+
+                    @Override
+                    public RenderableBlock next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        return blockIterator.next();
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * @param block - the RenderableBlock whose connectors to search around
+     * @return the RenderableBlocks of all pages that are close enough
+     * 			to block to possibly link with it
+     */
+    public Iterable<RenderableBlock> getBlocksNear(RenderableBlock block) {
+        ArrayList<RenderableBlock> nearbyBlocks = new ArrayList<RenderableBlock>();
         for (Page p : pages) {
-            allPageBlocks.addAll(p.getBlocks());
+            nearbyBlocks.addAll(p.getBlocksNear(block));
         }
-        return allPageBlocks;
+        return nearbyBlocks;
     }
 
     /**
      * @effects Automatically arranges all the blocks within this.
      */
     public void arrangeAllBlocks() {
-        for (Page page : pages) {
-            page.reformBlockOrdering();
+        arrangeAllBlocks(false);
+    }
+
+    /**
+     * Automatically arranges all the blocks within this, packing the stacks
+     * of each page into columns no taller than the page.
+     * @param animate true to fly the blocks to their new location, false to
+     * 			move them there at once
+     */
+    public void arrangeAllBlocks(boolean animate) {
+        if (arranger != null) {
+            arranger.finish();
+            arranger = null;
+        }
+        if (animate) {
+            arranger = new BlockArranger(pages);
+            arranger.animate();
+        } else {
+            new BlockArranger(pages).apply();
         }
     }
 
@@ -195,7 +281,50 @@ public class BlockCanvas implements PageChangeListener, ISupportMemento {
      * 			collection if no blocks are found on this page.
      */
     public Iterable<RenderableBlock> getTopLevelBlocks() {
-        return null;
+        loadPendingBlocks();
+        return workspace.getEnv().getBlockIndex().getTopLevelBlocks();
+    }
+
+    /**
+     * Creates the RenderableBlocks of all pages that were loaded but not shown yet.
+     */
+    public void loadPendingBlocks() {
+        for (Page p : pages) {
+            p.loadPendingBlocks();
+        }
+    }
+
+    /**
+     * Sets whether this canvas is under memory pressure.  While it is, the
+     * blocks of pages scrolled out of the viewport drop their rasters, so
+     * that the memory held by block rasters is proportional to the visible
+     * blocks rather than to all blocks.
+     * @param memoryPressure true to enable memory pressure mode
+     */
+    public void setMemoryPressure(boolean memoryPressure) {
+        this.memoryPressure = memoryPressure;
+        if (memoryPressure) {
+            releaseOffscreenRasters();
+        }
+    }
+
+    /**
+     * @return true if this canvas is in memory pressure mode
+     */
+    public boolean isMemoryPressure() {
+        return memoryPressure;
+    }
+
+    /**
+     * Drops the rasters of the blocks of all pages lying outside the viewport.
+     */
+    public void releaseOffscreenRasters() {
+        Rectangle visible = canvas.getVisibleRect();
+        for (Page p : pages) {
+            if (!visible.intersects(p.getJComponent().getBounds())) {
+                p.releaseBlockRasters();
+            }
+        }
     }
 
     /**
@@ -462,6 +591,27 @@ public class BlockCanvas implements PageChangeListener, ISupportMemento {
         return null;
     }
 
+    /**
+     * Writes an XML node describing all the blocks and pages within
+     * the BlockCanvas to the specified writer.  Writes nothing if
+     * there are no pages.
+     * @param writer the writer to write the node to
+     * @throws XMLStreamException if the node could not be written
+     */
+    public void writeSaveNode(XMLStreamWriter writer) throws XMLStreamException {
+        if (pages.size() > 0) {
+            writer.writeStartElement("Pages");
+            if (Workspace.everyPageHasDrawer) {
+                writer.writeAttribute("drawer-with-page", "yes");
+            }
+            writer.writeAttribute("collapsible-pages", collapsible ? "yes" : "no");
+            for (Page page : pages) {
+                page.writeSaveNode(writer);
+            }
+            writer.writeEndElement();
+        }
+    }
+
     /**
      * Loads all the RenderableBlocks and their associated Blocks that
      * reside within the block canvas.  All blocks will have their nessary
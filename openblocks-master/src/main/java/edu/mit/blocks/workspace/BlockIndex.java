@@ -0,0 +1,249 @@
+package edu.mit.blocks.workspace;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import edu.mit.blocks.codeblocks.Block;
+import edu.mit.blocks.codeblocks.BlockLink;
+import edu.mit.blocks.renderable.RenderableBlock;
+
+/**
+ * A BlockIndex keeps track of the live RenderableBlocks of a workspace, that
+ * is the blocks residing on one of its pages, grouped by genus and by page,
+ * along with the top level blocks of each page (the first block of each stack).
+ *
+ * The index is kept up to date from WorkspaceEvents: a block is re-filed
+ * whenever an event names it, either as its source block or as one of the
+ * two blocks of its source link.  Since pages may be added or replaced along
+ * with all their blocks, the index is rebuilt from the pages of the workspace
+ * whenever a page is added or removed.
+ *
+ * All the collections returned by a BlockIndex are live, read-only views:
+ * they reflect later changes to the workspace without being requested again.
+ * As with any view, callers that change the workspace while iterating one
+ * should iterate over a copy.
+ */
+class BlockIndex implements WorkspaceListener {
+
+    private final WorkspaceEnvironment env;
+    /** The live blocks, in the order they were added */
+    private final Set<RenderableBlock> blocks = new LinkedHashSet<RenderableBlock>();
+    /** The live blocks of each genus, by genus name */
+    private final Map<String, Set<RenderableBlock>> blocksByGenus = new HashMap<String, Set<RenderableBlock>>();
+    /** The live blocks of each page */
+    private final Map<Page, Set<RenderableBlock>> blocksByPage = new HashMap<Page, Set<RenderableBlock>>();
+    /** The top level blocks of each page */
+    private final Map<Page, Set<RenderableBlock>> topLevelBlocksByPage = new HashMap<Page, Set<RenderableBlock>>();
+    /** The top level blocks of all pages */
+    private final Set<RenderableBlock> topLevelBlocks = new LinkedHashSet<RenderableBlock>();
+    /** How each live block is currently filed, by block id */
+    private final Map<Long, Entry> entries = new HashMap<Long, Entry>();
+
+    BlockIndex(WorkspaceEnvironment env) {
+        this.env = env;
+    }
+
+    /**
+     * @return a live view of all the live blocks
+     */
+    Collection<RenderableBlock> getBlocks() {
+        return Collections.unmodifiableSet(blocks);
+    }
+
+    /**
+     * @param blockID the id of the block to look for
+     * @return true if the specified block is a live block
+     */
+    boolean contains(Long blockID) {
+        return entries.containsKey(blockID);
+    }
+
+    /**
+     * @param genusName the genus name of the blocks to return
+     * @return a live view of the live blocks of the specified genus
+     */
+    Collection<RenderableBlock> getBlocksFromGenus(String genusName) {
+        return Collections.unmodifiableSet(getSet(blocksByGenus, genusName));
+    }
+
+    /**
+     * @param page the page whose blocks to return
+     * @return a live view of the blocks residing on the specified page
+     */
+    Collection<RenderableBlock> getBlocksOnPage(Page page) {
+        return Collections.unmodifiableSet(getSet(blocksByPage, page));
+    }
+
+    /**
+     * @return a live view of the top level blocks of all pages
+     */
+    Collection<RenderableBlock> getTopLevelBlocks() {
+        return Collections.unmodifiableSet(topLevelBlocks);
+    }
+
+    /**
+     * @param page the page whose top level blocks to return
+     * @return a live view of the top level blocks of the specified page
+     */
+    Collection<RenderableBlock> getTopLevelBlocks(Page page) {
+        return Collections.unmodifiableSet(getSet(topLevelBlocksByPage, page));
+    }
+
+    public void workspaceEventOccurred(WorkspaceEvent event) {
+        switch (event.getEventType()) {
+            case WorkspaceEvent.PAGE_ADDED:
+            case WorkspaceEvent.PAGE_REMOVED:
+                rebuild(event.getWorkspace());
+                return;
+            default:
+                break;
+        }
+        for (Long blockID : event.getSourceBlockIDs()) {
+            update(blockID);
+        }
+        BlockLink link = event.getSourceLink();
+        if (link != null) {
+            update(link.getPlugBlockID());
+            update(link.getSocketBlockID());
+        }
+    }
+
+    /**
+     * Re-files the specified block according to its current genus, page and
+     * connections, or removes it if it no longer resides on a page.
+     * @param blockID the id of the block to update
+     */
+    void update(Long blockID) {
+        if (blockID == null || Block.NULL.equals(blockID)) {
+            return;
+        }
+        RenderableBlock rb = env.getRenderableBlock(blockID);
+        Block block = env.getBlock(blockID);
+        Entry old = entries.get(blockID);
+        Entry current = null;
+        if (rb != null && block != null && rb.getParentWidget() instanceof Page) {
+            current = new Entry(rb, block.getGenusName(), (Page) rb.getParentWidget(), isTopLevel(block));
+        }
+        if (old != null && old.equals(current)) {
+            //unchanged; leave the sets alone so that views being iterated stay valid
+            return;
+        }
+        if (old != null) {
+            remove(old);
+            entries.remove(blockID);
+        }
+        if (current != null) {
+            add(current);
+            entries.put(blockID, current);
+        }
+    }
+
+    /**
+     * Forgets all blocks, then files the blocks residing on the pages of the
+     * specified workspace.  Blocks of pages that were not shown yet are filed
+     * when they are loaded.
+     */
+    void rebuild(Workspace workspace) {
+        clear();
+        for (Page page : workspace.getBlockCanvas().getPages()) {
+            for (RenderableBlock rb : page.getLoadedBlocks()) {
+                update(rb.getBlockID());
+            }
+        }
+    }
+
+    /**
+     * Forgets all blocks.
+     */
+    void clear() {
+        blocks.clear();
+        blocksByGenus.clear();
+        blocksByPage.clear();
+        topLevelBlocksByPage.clear();
+        topLevelBlocks.clear();
+        entries.clear();
+    }
+
+    private void add(Entry entry) {
+        blocks.add(entry.block);
+        getSet(blocksByGenus, entry.genusName).add(entry.block);
+        getSet(blocksByPage, entry.page).add(entry.block);
+        if (entry.topLevel) {
+            getSet(topLevelBlocksByPage, entry.page).add(entry.block);
+            topLevelBlocks.add(entry.block);
+        }
+    }
+
+    private void remove(Entry entry) {
+        blocks.remove(entry.block);
+        getSet(blocksByGenus, entry.genusName).remove(entry.block);
+        getSet(blocksByPage, entry.page).remove(entry.block);
+        if (entry.topLevel) {
+            getSet(topLevelBlocksByPage, entry.page).remove(entry.block);
+            topLevelBlocks.remove(entry.block);
+        }
+    }
+
+    /**
+     * Returns the set mapped to key, creating it if needed.  Sets are never
+     * removed from the maps, so that views handed out earlier stay live.
+     */
+    private static <K> Set<RenderableBlock> getSet(Map<K, Set<RenderableBlock>> map, K key) {
+        Set<RenderableBlock> set = map.get(key);
+        if (set == null) {
+            set = new LinkedHashSet<RenderableBlock>();
+            map.put(key, set);
+        }
+        return set;
+    }
+
+    /**
+     * @return true if block is the first block of a stack, that is if neither
+     * 			its plug nor its before connector is connected
+     */
+    private static boolean isTopLevel(Block block) {
+        if (block.getPlug() == null || block.getPlugBlockID() == null || block.getPlugBlockID().equals(Block.NULL)) {
+            if (block.getBeforeConnector() == null || block.getBeforeBlockID() == null || block.getBeforeBlockID().equals(Block.NULL)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * How a single block is filed in the index.
+     */
+    private static class Entry {
+
+        private final RenderableBlock block;
+        private final String genusName;
+        private final Page page;
+        private final boolean topLevel;
+
+        Entry(RenderableBlock block, String genusName, Page page, boolean topLevel) {
+            this.block = block;
+            this.genusName = genusName;
+            this.page = page;
+            this.topLevel = topLevel;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Entry)) {
+                return false;
+            }
+            Entry other = (Entry) o;
+            return block == other.block && page == other.page && topLevel == other.topLevel
+                    && genusName.equals(other.genusName);
+        }
+
+        @Override
+        public int hashCode() {
+            return block.hashCode();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package edu.mit.blocks.workspace;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import edu.mit.blocks.codeblocks.Block;
+import edu.mit.blocks.codeblockutil.KeywordIndex;
+import edu.mit.blocks.renderable.BlockUtilities;
+import edu.mit.blocks.renderable.FactoryRenderableBlock;
+import edu.mit.blocks.renderable.RenderableBlock;
+
+/**
+ * A BlockKeywordIndex finds the RenderableBlocks of a workspace by keyword,
+ * for the type blocking autocompletion and the search bar.
+ *
+ * Factory blocks are filed under their disambiguated string representation
+ * (their label followed by the labels of their sockets), which is what
+ * autocompletion matches against.  Since that representation starts with the
+ * label, it also finds the factory blocks whose label contains a query.
+ * Other blocks are filed under their label.
+ *
+ * A block is re-filed lazily: changing its label or sockets, or an event
+ * naming it, only marks it as changed, and the changed blocks are re-filed
+ * before the next query.  Keeping the index up to date thus costs a little
+ * per change, and nothing while no block changes.
+ *
+ * Factory blocks are filed whether or not their drawer is loaded, so callers
+ * should check where the factory blocks found reside.  Other blocks are only
+ * filed while they reside on a page, so that removed blocks are not found.
+ */
+public class BlockKeywordIndex implements WorkspaceListener {
+
+    private final WorkspaceEnvironment env;
+    /** The factory blocks, by block id */
+    private final KeywordIndex<Long> factoryBlocks = new KeywordIndex<Long>();
+    /** The other blocks, by block id */
+    private final KeywordIndex<Long> blocks = new KeywordIndex<Long>();
+    /** The blocks to re-file before the next query */
+    private final Set<Long> changedBlocks = new LinkedHashSet<Long>();
+
+    BlockKeywordIndex(WorkspaceEnvironment env) {
+        this.env = env;
+    }
+
+    /**
+     * Marks the specified block as changed, so that it is re-filed before the
+     * next query.  Called whenever a block is created or its label or sockets
+     * change.
+     * @param blockID the id of the changed block
+     */
+    public synchronized void blockChanged(Long blockID) {
+        if (blockID != null && !Block.NULL.equals(blockID)) {
+            changedBlocks.add(blockID);
+        }
+    }
+
+    /**
+     * @param query the text to find
+     * @return the factory blocks whose disambiguated string representation
+     * 			contains the query, ignoring case, ranked by the position of the
+     * 			query in it and then by the representation
+     */
+    public synchronized List<RenderableBlock> findFactoryBlocks(String query) {
+        refile();
+        return getRenderableBlocks(factoryBlocks.find(query));
+    }
+
+    /**
+     * @param query the text to find
+     * @return the blocks, other than factory blocks, whose label contains the
+     * 			query, ignoring case, ranked by the position of the query in it
+     * 			and then by label
+     */
+    public synchronized List<RenderableBlock> findBlocks(String query) {
+        refile();
+        return getRenderableBlocks(blocks.find(query));
+    }
+
+    public void workspaceEventOccurred(WorkspaceEvent event) {
+        int type = event.getEventType();
+        if (type == WorkspaceEvent.BLOCK_ADDED || event.isBlockCloned() || type == WorkspaceEvent.BLOCK_REMOVED
+                || type == WorkspaceEvent.BLOCK_RENAMED || type == WorkspaceEvent.BLOCK_GENUS_CHANGED) {
+            for (Long blockID : event.getSourceBlockIDs()) {
+                blockChanged(blockID);
+            }
+        }
+    }
+
+    /**
+     * Forgets all blocks.
+     */
+    synchronized void clear() {
+        factoryBlocks.clear();
+        blocks.clear();
+        changedBlocks.clear();
+    }
+
+    private void refile() {
+        if (changedBlocks.isEmpty()) {
+            return;
+        }
+        for (Long blockID : changedBlocks) {
+            RenderableBlock rb = env.getRenderableBlock(blockID);
+            if (rb == null || rb.getBlock() == null) {
+                factoryBlocks.remove(blockID);
+                blocks.remove(blockID);
+            } else if (rb instanceof FactoryRenderableBlock) {
+                factoryBlocks.put(blockID, BlockUtilities.disambiguousStringRep(rb));
+                blocks.remove(blockID);
+            } else if (!(rb.getParentWidget() instanceof Page)) {
+                // removed blocks keep their renderable, but no longer reside on a page
+                factoryBlocks.remove(blockID);
+                blocks.remove(blockID);
+            } else {
+                blocks.put(blockID, rb.getKeyword());
+                factoryBlocks.remove(blockID);
+            }
+        }
+        changedBlocks.clear();
+    }
+
+    private List<RenderableBlock> getRenderableBlocks(List<Long> blockIDs) {
+        List<RenderableBlock> result = new ArrayList<RenderableBlock>(blockIDs.size());
+        for (Long blockID : blockIDs) {
+            RenderableBlock rb = env.getRenderableBlock(blockID);
+            if (rb != null) {
+                result.add(rb);
+            }
+        }
+        return result;
+    }
+}
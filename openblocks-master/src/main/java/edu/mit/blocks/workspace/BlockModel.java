@@ -0,0 +1,432 @@
+package edu.mit.blocks.workspace;
+
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import edu.mit.blocks.codeblocks.Block;
+import edu.mit.blocks.codeblocks.BlockConnector;
+import edu.mit.blocks.codeblocks.BlockConnectorShape;
+import edu.mit.blocks.codeblocks.BlockGenus;
+import edu.mit.blocks.codeblocks.BlockLink;
+import edu.mit.blocks.codeblocks.BlockLinkChecker;
+import edu.mit.blocks.codeblocks.CommandRule;
+import edu.mit.blocks.codeblocks.Constants;
+import edu.mit.blocks.codeblocks.LinkRuleRegistry;
+import edu.mit.blocks.codeblocks.ParamRule;
+import edu.mit.blocks.codeblocks.PolyRule;
+import edu.mit.blocks.codeblocks.SocketRule;
+import edu.mit.blocks.codeblocks.StackRule;
+
+/**
+ * A BlockModel holds the pages and Blocks of a project without any Swing
+ * component, so that projects can be loaded, linked, checked against the
+ * link rules of their language and saved by batch tools such as graders and
+ * converters, on threads other than the event dispatch thread.
+ *
+ * A BlockModel owns a {@link WorkspaceEnvironment} that does not belong to a
+ * workspace.  Its blocks are linked the way dropping them on a workspace
+ * would, but no workspace event is fired: poly connectors keep the type they
+ * were saved with and procedure outputs are not updated.
+ *
+ * A BlockModel is not thread-safe and should be used by one thread at a
+ * time, but separate BlockModels may be used on separate threads at once.
+ */
+public class BlockModel {
+
+    /** The environment of the blocks of this model */
+    private final WorkspaceEnvironment env = new WorkspaceEnvironment();
+    /** The pages of this model, in order */
+    private final List<ModelPage> pages = new ArrayList<ModelPage>();
+    /** True if the pages of this model are collapsible */
+    private boolean collapsible = false;
+
+    /**
+     * Constructs a new BlockModel for the language specified by root
+     * @param root the root element of the language definition
+     */
+    public BlockModel(Element root) {
+        /* MUST load shapes before genuses in order to initialize
+         connectors within each block correctly */
+        BlockConnectorShape.loadBlockConnectorShapes(env, root);
+        BlockGenus.loadBlockGenera(env, root);
+
+        //the rules of WorkspaceController.loadBlockLanguage(), in order
+        LinkRuleRegistry rules = env.getLinkRuleRegistry();
+        rules.add(new CommandRule(env));
+        rules.add(new SocketRule());
+        rules.add(new PolyRule(env));
+        rules.add(new StackRule(env));
+        rules.add(new ParamRule());
+    }
+
+    /**
+     * @return the environment holding the blocks of this model
+     */
+    public WorkspaceEnvironment getEnv() {
+        return env;
+    }
+
+    /**
+     * Reads the saved project in the specified stream and adds its pages
+     * and blocks to this model.
+     * @param in the stream holding the saved project
+     * @throws RuntimeException if the project could not be read
+     */
+    public void load(InputStream in) {
+        for (StreamingProjectLoader.LoadedPage loaded : new StreamingProjectLoader(env).load(in)) {
+            ModelPage page = new ModelPage(loaded.getName());
+            page.color = loaded.getColor() == null ? null
+                    : loaded.getColor().getRed() + " " + loaded.getColor().getGreen() + " " + loaded.getColor().getBlue();
+            page.width = loaded.getWidth();
+            page.drawer = loaded.getDrawer();
+            page.inFullview = loaded.isInFullview();
+            page.pageId = loaded.getPageId();
+            for (Map.Entry<Long, Node> entry : loaded.getBlockNodes().entrySet()) {
+                page.placements.put(entry.getKey(), new Placement((Element) entry.getValue()));
+            }
+            collapsible = loaded.isCollapsible();
+            pages.add(page);
+        }
+    }
+
+    /**
+     * Adds a new empty page to the end of this model.
+     * @param name the name of the new page
+     */
+    public void addPage(String name) {
+        pages.add(new ModelPage(name));
+    }
+
+    /**
+     * @return the names of the pages of this model, in order
+     */
+    public List<String> getPageNames() {
+        List<String> names = new ArrayList<String>();
+        for (ModelPage page : pages) {
+            names.add(page.name);
+        }
+        return names;
+    }
+
+    /**
+     * Creates a new block of the specified genus on the specified page.
+     * @param genusName the name of the genus of the new block
+     * @param pageName the name of the page to place the block on
+     * @param x the horizontal location of the block on the page
+     * @param y the vertical location of the block on the page
+     * @return the new block
+     * @throws RuntimeException if there is no such genus or page
+     */
+    public Block createBlock(String genusName, String pageName, int x, int y) {
+        ModelPage page = getPage(pageName);
+        if (page == null) {
+            throw new RuntimeException("pageName: " + pageName + " does not exist.");
+        }
+        BlockGenus genus = env.getGenusWithName(genusName);
+        if (genus == null) {
+            throw new RuntimeException("genusName: " + genusName + " does not exist.");
+        }
+        Block block = new Block(env, genusName);
+        page.placements.put(block.getBlockID(), new Placement(x, y));
+        return block;
+    }
+
+    /**
+     * @return the blocks on all pages of this model, page by page
+     */
+    public List<Block> getBlocks() {
+        List<Block> blocks = new ArrayList<Block>();
+        for (ModelPage page : pages) {
+            blocks.addAll(getBlocks(page));
+        }
+        return blocks;
+    }
+
+    /**
+     * @param pageName the name of a page of this model
+     * @return the blocks on the specified page, or an empty list if there is
+     * 			no such page
+     */
+    public List<Block> getBlocks(String pageName) {
+        ModelPage page = getPage(pageName);
+        return page == null ? new ArrayList<Block>() : getBlocks(page);
+    }
+
+    /**
+     * @return the blocks on all pages of this model that are not plugged
+     * 			into another block, page by page
+     */
+    public List<Block> getTopBlocks() {
+        List<Block> topBlocks = new ArrayList<Block>();
+        for (Block block : getBlocks()) {
+            BlockConnector plug = BlockLinkChecker.getPlugEquivalent(block);
+            if (plug == null || !plug.hasBlock()) {
+                topBlocks.add(block);
+            }
+        }
+        return topBlocks;
+    }
+
+    /**
+     * Checks whether the specified connectors of the specified blocks may be
+     * linked according to the link rules of the language.
+     * @return the link between the connectors if they may be linked, null
+     * 			otherwise
+     */
+    public BlockLink canLink(Block block1, Block block2, BlockConnector con1, BlockConnector con2) {
+        if (env.getLinkRuleRegistry().checkRules(block1, block2, con1, con2)) {
+            return BlockLink.getBlockLink(env, block1, block2, con1, con2);
+        }
+        return null;
+    }
+
+    /**
+     * Links the specified connectors of the specified blocks if the link
+     * rules of the language allow it.  A block already in the socket is
+     * unlinked first, as when a block is dropped on a workspace.
+     * @return the link formed, or null if the rules do not allow it
+     */
+    public BlockLink connect(Block block1, Block block2, BlockConnector con1, BlockConnector con2) {
+        BlockLink link = canLink(block1, block2, con1, con2);
+        if (link != null) {
+            link.connect();
+        }
+        return link;
+    }
+
+    /**
+     * Unlinks the specified block from the block it is plugged into, if any.
+     * @param block the block to unplug
+     */
+    public void disconnect(Block block) {
+        BlockConnector plug = BlockLinkChecker.getPlugEquivalent(block);
+        if (plug != null && plug.hasBlock()) {
+            Block parent = env.getBlock(plug.getBlockID());
+            BlockConnector socket = parent.getConnectorTo(block.getBlockID());
+            BlockLink.getBlockLink(env, block, parent, plug, socket).disconnect();
+            parent.blockDisconnected(socket);
+        }
+    }
+
+    /**
+     * Checks every link between the blocks of this model against the link
+     * rules of the language, as if each link were formed anew.
+     * @return the links the rules would not allow, page by page
+     */
+    public List<BlockLink> getBadLinks() {
+        List<BlockLink> badLinks = new ArrayList<BlockLink>();
+        for (Block block : getBlocks()) {
+            for (BlockConnector socket : BlockLinkChecker.getSocketEquivalents(block)) {
+                if (!socket.hasBlock()) {
+                    continue;
+                }
+                Long plugBlockID = socket.getBlockID();
+                Block plugBlock = env.getBlock(plugBlockID);
+                BlockConnector plug = BlockLinkChecker.getPlugEquivalent(plugBlock);
+                if (plug == null) {
+                    continue;
+                }
+                //rules check links about to be formed, so unlink the blocks meanwhile
+                socket.setConnectorBlockID(Block.NULL);
+                plug.setConnectorBlockID(Block.NULL);
+                boolean allowed = env.getLinkRuleRegistry().checkRules(block, plugBlock, socket, plug);
+                socket.setConnectorBlockID(plugBlockID);
+                plug.setConnectorBlockID(block.getBlockID());
+                if (!allowed) {
+                    badLinks.add(BlockLink.getBlockLink(env, block, plugBlock, socket, plug));
+                }
+            }
+        }
+        return badLinks;
+    }
+
+    ////////////////////////
+    // SAVING             //
+    ////////////////////////
+    /**
+     * Returns a DOM node for this model, following the same schema as
+     * WorkspaceController.getSaveNode().
+     * @return the DOM node for this model
+     */
+    public Node getSaveNode() {
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            Document document = factory.newDocumentBuilder().newDocument();
+
+            Element documentElement = document.createElementNS(Constants.XML_CODEBLOCKS_NS, "cb:CODEBLOCKS");
+            // schema reference
+            documentElement.setAttributeNS(XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI, "xsi:schemaLocation", Constants.XML_CODEBLOCKS_NS+" "+Constants.XML_CODEBLOCKS_SCHEMA_URI);
+
+            if (pages.size() > 0) {
+                Element pagesElement = document.createElement("Pages");
+                pagesElement.setAttribute("collapsible-pages", collapsible ? "yes" : "no");
+                for (ModelPage page : pages) {
+                    pagesElement.appendChild(page.getSaveNode(document));
+                }
+                documentElement.appendChild(pagesElement);
+            }
+
+            document.appendChild(documentElement);
+            return document;
+        }
+        catch (ParserConfigurationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return the string representation of the node returned by getSaveNode()
+     */
+    public String getSaveString() {
+        try {
+            StringWriter writer = new StringWriter();
+            Transformer transformer = TransformerFactory.newInstance().newTransformer();
+            transformer.setOutputProperty(OutputKeys.INDENT, "yes");
+            transformer.transform(new DOMSource(getSaveNode()), new StreamResult(writer));
+            return writer.toString();
+        }
+        catch (TransformerException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private ModelPage getPage(String name) {
+        for (ModelPage page : pages) {
+            if (page.name.equals(name)) {
+                return page;
+            }
+        }
+        return null;
+    }
+
+    private List<Block> getBlocks(ModelPage page) {
+        List<Block> blocks = new ArrayList<Block>(page.placements.size());
+        for (Long blockID : page.placements.keySet()) {
+            Block block = env.getBlock(blockID);
+            if (block != null) {
+                blocks.add(block);
+            }
+        }
+        return blocks;
+    }
+
+    /**
+     * A page of a BlockModel: its saved attributes and where its blocks are.
+     */
+    private class ModelPage {
+
+        private final String name;
+        private String color = null;
+        private int width = 0;
+        private String drawer = null;
+        private boolean inFullview = true;
+        private String pageId = null;
+        /** The placement of each block on this page, in order */
+        private final Map<Long, Placement> placements = new LinkedHashMap<Long, Placement>();
+
+        private ModelPage(String name) {
+            this.name = name;
+        }
+
+        private Node getSaveNode(Document document) {
+            Element pageElement = document.createElement("Page");
+            pageElement.setAttribute("page-name", name);
+            if (color != null) {
+                pageElement.setAttribute("page-color", color);
+            }
+            pageElement.setAttribute("page-width", String.valueOf(width));
+            pageElement.setAttribute("page-infullview", inFullview ? "yes" : "no");
+            if (drawer != null) {
+                pageElement.setAttribute("page-drawer", drawer);
+            }
+            if (pageId != null) {
+                pageElement.setAttribute("page-id", pageId);
+            }
+
+            List<Block> blocks = getBlocks(this);
+            if (blocks.size() > 0) {
+                Element pageBlocksElement = document.createElement("PageBlocks");
+                for (Block block : blocks) {
+                    Placement placement = placements.get(block.getBlockID());
+                    Node commentNode = placement.comment == null ? null : document.importNode(placement.comment, true);
+                    pageBlocksElement.appendChild(block.getSaveNode(document, placement.x, placement.y, commentNode, placement.collapsed));
+                }
+                pageElement.appendChild(pageBlocksElement);
+            }
+            return pageElement;
+        }
+    }
+
+    /**
+     * Where a block is on its page, along with the parts of its saved node
+     * that a RenderableBlock would otherwise provide.
+     */
+    private static class Placement {
+
+        private final int x;
+        private final int y;
+        private final boolean collapsed;
+        /** The saved comment of the block, or null if it has none */
+        private final Node comment;
+
+        private Placement(int x, int y) {
+            this.x = x;
+            this.y = y;
+            this.collapsed = false;
+            this.comment = null;
+        }
+
+        /**
+         * Reads the placement of a block from its saved node.
+         */
+        private Placement(Element node) {
+            int x = 0;
+            int y = 0;
+            boolean collapsed = false;
+            Node comment = null;
+            NodeList children = node.getChildNodes();
+            for (int i = 0; i < children.getLength(); i++) {
+                Node child = children.item(i);
+                if (child.getNodeName().equals("Location")) {
+                    NodeList coordinates = child.getChildNodes();
+                    for (int j = 0; j < coordinates.getLength(); j++) {
+                        Node coordinate = coordinates.item(j);
+                        if (coordinate.getNodeName().equals("X")) {
+                            x = Integer.parseInt(coordinate.getTextContent().trim());
+                        } else if (coordinate.getNodeName().equals("Y")) {
+                            y = Integer.parseInt(coordinate.getTextContent().trim());
+                        }
+                    }
+                } else if (child.getNodeName().equals("Collapsed")) {
+                    collapsed = true;
+                } else if (child.getNodeName().equals("Comment")) {
+                    comment = child;
+                }
+            }
+            this.x = x;
+            this.y = y;
+            this.collapsed = collapsed;
+            this.comment = comment;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package edu.mit.blocks.workspace;
+
+import java.awt.Component;
+import java.awt.Container;
+import java.awt.Point;
+import java.awt.event.ComponentEvent;
+import java.awt.event.ComponentListener;
+import java.awt.event.ContainerEvent;
+import java.awt.event.ContainerListener;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.swing.SwingUtilities;
+
+import edu.mit.blocks.codeblocks.Block;
+import edu.mit.blocks.codeblocks.BlockConnector;
+import edu.mit.blocks.codeblocks.BlockLinkChecker;
+import edu.mit.blocks.renderable.RenderableBlock;
+
+/**
+ * A ConnectorIndex is a uniform grid laid over the coordinate space of a
+ * single page.  Every RenderableBlock residing on the page is registered
+ * in each grid cell that holds the pixel location of one of its plug or
+ * socket equivalents.  Because a cell is at least as wide as the maximum
+ * link distance, any connector close enough to link with a given point is
+ * registered in the cell of that point or in one of its eight neighbours.
+ *
+ * The index keeps itself up to date by listening to the page's container
+ * (blocks added to or removed from the page) and to every block on the page
+ * (blocks moved, or resized because they were reshaped, connected, or zoomed).
+ * Blocks that are being dragged are reparented away from the page and are
+ * therefore not indexed until they are dropped again.
+ */
+class ConnectorIndex implements ContainerListener, ComponentListener {
+
+    /** The workspace in use */
+    private final Workspace workspace;
+    /** The page container whose blocks are indexed */
+    private final Container container;
+    /** The width and height, in pixels, of a single grid cell */
+    private final int cellSize;
+    /** Maps a packed cell coordinate to the blocks with a connector in that cell */
+    private final Map<Long, Set<RenderableBlock>> cells = new HashMap<Long, Set<RenderableBlock>>();
+    /** Maps each indexed block to the packed cell coordinates it is registered in */
+    private final Map<RenderableBlock, List<Long>> blockCells = new HashMap<RenderableBlock, List<Long>>();
+
+    /**
+     * Constructs a new ConnectorIndex over the blocks of the specified container.
+     * @param workspace the workspace in use
+     * @param container the page container to index
+     */
+    ConnectorIndex(Workspace workspace, Container container) {
+        this.workspace = workspace;
+        this.container = container;
+        this.cellSize = Math.max(1, (int) Math.ceil(BlockLinkChecker.getMaxLinkDistance()));
+        container.addContainerListener(this);
+    }
+
+    /**
+     * @param block the RenderableBlock whose connectors are compared against the index
+     * @return the blocks of this page that have at least one connector close enough
+     * 			to one of the connectors of block to possibly link with it.  The
+     * 			returned collection never contains block itself.
+     */
+    Collection<RenderableBlock> getBlocksNear(RenderableBlock block) {
+        Set<RenderableBlock> nearby = new LinkedHashSet<RenderableBlock>();
+        if (cells.isEmpty() || block.getParent() == null) {
+            return nearby;
+        }
+        for (Point p : getConnectorPoints(block)) {
+            Point local = SwingUtilities.convertPoint(block.getParent(), p, container);
+            int cx = toCell(local.x);
+            int cy = toCell(local.y);
+            for (int i = cx - 1; i <= cx + 1; i++) {
+                for (int j = cy - 1; j <= cy + 1; j++) {
+                    Set<RenderableBlock> cell = cells.get(cellKey(i, j));
+                    if (cell != null) {
+                        nearby.addAll(cell);
+                    }
+                }
+            }
+        }
+        nearby.remove(block);
+        return nearby;
+    }
+
+    /**
+     * Re-registers block at the current locations of its connectors, or
+     * unregisters it if block no longer resides on this page.
+     * @param block the block to update
+     */
+    void update(RenderableBlock block) {
+        remove(block);
+        if (block.getParent() != container) {
+            return;
+        }
+        List<Long> keys = new ArrayList<Long>();
+        for (Point p : getConnectorPoints(block)) {
+            Long key = cellKey(toCell(p.x), toCell(p.y));
+            if (keys.contains(key)) {
+                continue;
+            }
+            keys.add(key);
+            Set<RenderableBlock> cell = cells.get(key);
+            if (cell == null) {
+                cell = new LinkedHashSet<RenderableBlock>();
+                cells.put(key, cell);
+            }
+            cell.add(block);
+        }
+        blockCells.put(block, keys);
+    }
+
+    /**
+     * Unregisters block from every cell it is registered in.
+     * @param block the block to remove
+     */
+    void remove(RenderableBlock block) {
+        List<Long> keys = blockCells.remove(block);
+        if (keys == null) {
+            return;
+        }
+        for (Long key : keys) {
+            Set<RenderableBlock> cell = cells.get(key);
+            if (cell != null) {
+                cell.remove(block);
+                if (cell.isEmpty()) {
+                    cells.remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the locations of the plug and socket equivalents of block,
+     * 			in the coordinate space of block's parent
+     */
+    private List<Point> getConnectorPoints(RenderableBlock block) {
+        List<Point> points = new ArrayList<Point>();
+        Block b = workspace.getEnv().getBlock(block.getBlockID());
+        if (b == null) {
+            return points;
+        }
+        BlockConnector plug = BlockLinkChecker.getPlugEquivalent(b);
+        if (plug != null) {
+            points.add(toParentPoint(block, plug));
+        }
+        for (BlockConnector socket : BlockLinkChecker.getSocketEquivalents(b)) {
+            points.add(toParentPoint(block, socket));
+        }
+        return points;
+    }
+
+    private static Point toParentPoint(RenderableBlock block, BlockConnector connector) {
+        Point p = block.getSocketPixelPoint(connector);
+        p.translate(block.getX(), block.getY());
+        return p;
+    }
+
+    /**
+     * @return the grid coordinate of the cell containing pixel coordinate v,
+     * 			rounding towards negative infinity for negative coordinates
+     */
+    private int toCell(int v) {
+        return v >= 0 ? v / cellSize : -((-v - 1) / cellSize) - 1;
+    }
+
+    private static Long cellKey(int cx, int cy) {
+        return Long.valueOf(((long) cx << 32) | (cy & 0xffffffffL));
+    }
+
+    //////////////////////////////
+    //CONTAINER LISTENER		//
+    //////////////////////////////
+    @Override
+    public void componentAdded(ContainerEvent e) {
+        Component c = e.getChild();
+        if (c instanceof RenderableBlock) {
+            c.removeComponentListener(this);
+            c.addComponentListener(this);
+            update((RenderableBlock) c);
+        }
+    }
+
+    @Override
+    public void componentRemoved(ContainerEvent e) {
+        Component c = e.getChild();
+        if (c instanceof RenderableBlock) {
+            c.removeComponentListener(this);
+            remove((RenderableBlock) c);
+        }
+    }
+
+    //////////////////////////////
+    //COMPONENT LISTENER		//
+    //////////////////////////////
+    @Override
+    public void componentMoved(ComponentEvent e) {
+        update((RenderableBlock) e.getComponent());
+    }
+
+    @Override
+    public void componentResized(ComponentEvent e) {
+        update((RenderableBlock) e.getComponent());
+    }
+
+    @Override
+    public void componentShown(ComponentEvent e) {
+    }
+
+    @Override
+    public void componentHidden(ComponentEvent e) {
+    }
+}
@@ -173,7 +173,7 @@ public class ContextMenu extends PopupMenu implements ActionListener {
         if (a.getActionCommand() == ARRANGE_ALL_BLOCKS) {
             //notify the component that launched the context menu in the first place
             if (activeComponent != null && activeComponent instanceof BlockCanvas) {
-                ((BlockCanvas) activeComponent).arrangeAllBlocks();
+                ((BlockCanvas) activeComponent).arrangeAllBlocks(true);
             }
         } else if (a.getActionCommand() == ADD_COMMENT_BLOCK) {
             //notify the renderableblock componenet that lauched the conetxt menu
@@ -5,7 +5,11 @@ import java.awt.Component;
 import java.awt.Dimension;
 import java.awt.event.ComponentEvent;
 import java.awt.event.ComponentListener;
+import java.awt.event.HierarchyEvent;
+import java.awt.event.HierarchyListener;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 
 import javax.swing.JComponent;
 import javax.swing.JPanel;
@@ -22,8 +26,13 @@ import edu.mit.blocks.codeblockutil.Canvas;
  * accessor methods.  In addition it also supports
  * various methods for blocks such as searching,
  * highlighting, etc.
+ *
+ * The blocks of a drawer loaded from a language definition are not created
+ * along with the drawer.  Only the names of their genera are kept until the
+ * drawer is first shown or searched, so that drawers nobody opens cost
+ * neither the Blocks nor the RenderableBlocks of their content.
  */
-class FactoryCanvas extends JPanel implements Canvas, SearchableContainer, RBParent, ComponentListener {
+class FactoryCanvas extends JPanel implements Canvas, SearchableContainer, RBParent, ComponentListener, HierarchyListener {
 
     private static final long serialVersionUID = 328149080291L;
     private static final int BORDER_WIDTH = 10;
@@ -31,6 +40,10 @@ class FactoryCanvas extends JPanel implements Canvas, SearchableContainer, RBPar
     private Color highlight = null;
     /** The color of this canvas */
     private Color color;
+    /** The genera of the blocks of this drawer that were not created yet, in drawer order */
+    private final List<String> pendingGenera = new ArrayList<String>();
+    /** The manager creating the pending blocks of this drawer */
+    private FactoryManager manager = null;
 
     /**
      * Constructs a new FactoryCanvas
@@ -43,6 +56,7 @@ class FactoryCanvas extends JPanel implements Canvas, SearchableContainer, RBPar
         this.setName(name);
         this.setColor(color);
         this.setLayout(null);
+        this.addHierarchyListener(this);
     }
 
     FactoryCanvas(String name) {
@@ -50,9 +64,45 @@ class FactoryCanvas extends JPanel implements Canvas, SearchableContainer, RBPar
     }
 
     public Iterable<? extends SearchableElement> getSearchableElements() {
+        this.loadPendingBlocks();
         return this.getBlocks();
     }
 
+    /**
+     * Adds blocks of the specified genera to this drawer without creating them.
+     * They are created by the specified manager once this drawer is shown or
+     * searched, or once loadPendingBlocks() is called.
+     * @param manager the manager creating the blocks
+     * @param genusNames the genera of the blocks to add, in drawer order
+     */
+    void addPendingGenera(FactoryManager manager, Collection<String> genusNames) {
+        this.manager = manager;
+        this.pendingGenera.addAll(genusNames);
+        if (this.isShowing()) {
+            this.loadPendingBlocks();
+        }
+    }
+
+    /**
+     * @return true if a block of the specified genus was added to this drawer
+     * 			but not created yet
+     */
+    boolean hasPendingGenus(String genusName) {
+        return this.pendingGenera.contains(genusName);
+    }
+
+    /**
+     * Creates the blocks of this drawer that were not created yet.
+     */
+    void loadPendingBlocks() {
+        if (this.pendingGenera.isEmpty()) {
+            return;
+        }
+        List<String> genusNames = new ArrayList<String>(this.pendingGenera);
+        this.pendingGenera.clear();
+        this.manager.loadFactoryBlocks(this, genusNames);
+    }
+
     ArrayList<RenderableBlock> getBlocks() {
         ArrayList<RenderableBlock> list = new ArrayList<RenderableBlock>();
         for (Component comp : this.getComponents()) {
@@ -164,4 +214,10 @@ class FactoryCanvas extends JPanel implements Canvas, SearchableContainer, RBPar
 
     public void componentShown(ComponentEvent e) {
     }
+
+    public void hierarchyChanged(HierarchyEvent e) {
+        if ((e.getChangeFlags() & HierarchyEvent.SHOWING_CHANGED) != 0 && this.isShowing()) {
+            this.loadPendingBlocks();
+        }
+    }
 }
@@ -22,6 +22,7 @@ import edu.mit.blocks.codeblockutil.CBorderlessButton;
 import edu.mit.blocks.codeblockutil.CLabel;
 import edu.mit.blocks.codeblockutil.Canvas;
 import edu.mit.blocks.codeblockutil.Navigator;
+import edu.mit.blocks.renderable.BlockUtilities;
 import edu.mit.blocks.renderable.FactoryRenderableBlock;
 import edu.mit.blocks.renderable.RenderableBlock;
 
@@ -96,6 +97,8 @@ public class FactoryManager implements WorkspaceWidget, ComponentListener, Works
     private static final String DYNAMIC_NAME = "My Blocks";
     /** The string identifier of subset drawers */
     private static final String SUBSETS_NAME = "Subsets";
+    /** The zoom levels at which the bevels of drawer blocks are rendered ahead of use */
+    private static final double[] PREWARM_ZOOM_LEVELS = {0.5, 0.75, 1.0, 1.25, 1.5, 2.0};
     /** The high-level UI that manages the controlling of internal CWsing components */
     private Navigator navigator;
     /** The high-level UI widget that manages swicthing between different factories */
@@ -568,6 +571,7 @@ public class FactoryManager implements WorkspaceWidget, ComponentListener, Works
         ArrayList<RenderableBlock> blocks = new ArrayList<RenderableBlock>();
         for (FactoryCanvas canvas : this.staticCanvases) {
             if (canvas.getName().equals(name)) {
+                canvas.loadPendingBlocks();
                 blocks.addAll(canvas.getBlocks());
                 return blocks;
             }
@@ -594,6 +598,35 @@ public class FactoryManager implements WorkspaceWidget, ComponentListener, Works
      * 			return an empty set.
      */
     public Collection<RenderableBlock> getBlocks() {
+        loadPendingBlocks();
+        return getLoadedBlocks();
+    }
+
+    /**
+     * Creates the blocks of all drawers that were not created yet.
+     */
+    public void loadPendingBlocks() {
+        for (FactoryCanvas canvas : this.staticCanvases) {
+            canvas.loadPendingBlocks();
+        }
+    }
+
+    /**
+     * @return true if the specified block resides in one of the drawers
+     * 			returned by getBlocks()
+     */
+    public boolean containsBlock(RenderableBlock block) {
+        Container parent = block.getParent();
+        return parent instanceof FactoryCanvas
+                && (this.staticCanvases.contains(parent) || this.dynamicCanvases.contains(parent));
+    }
+
+    /**
+     * @return all blocks in all drawers that were created so far, leaving the
+     * 			blocks of drawers that were never shown nor searched uncreated.
+     * 			If no blocks found, return an empty set.
+     */
+    public Collection<RenderableBlock> getLoadedBlocks() {
         ArrayList<RenderableBlock> blocks = new ArrayList<RenderableBlock>();
         for (FactoryCanvas canvas : this.staticCanvases) {
             blocks.addAll(canvas.getBlocks());
@@ -617,6 +650,8 @@ public class FactoryManager implements WorkspaceWidget, ComponentListener, Works
                     printError("Attempting to add a null instance of block");
                     return;
                 } else {
+                    //keep the blocks of the drawer ahead of the added block
+                    canvas.loadPendingBlocks();
                     canvas.addBlock(block);
                     workspace.notifyListeners(new WorkspaceEvent(workspace, this, block.getBlockID(), WorkspaceEvent.BLOCK_ADDED));
                     canvas.layoutBlocks();
@@ -658,6 +693,8 @@ public class FactoryManager implements WorkspaceWidget, ComponentListener, Works
         //find canvas
         for (FactoryCanvas canvas : this.staticCanvases) {
             if (canvas.getName().equals(drawer)) {
+                //keep the blocks of the drawer ahead of the added blocks
+                canvas.loadPendingBlocks();
                 for (RenderableBlock block : blocks) {
                     if (block == null || Block.NULL.equals(block.getBlockID())) {
                         continue;
@@ -674,6 +711,50 @@ public class FactoryManager implements WorkspaceWidget, ComponentListener, Works
         return;
     }
 
+    /**
+     * Adds blocks of the specified genera to the static drawer with the specified
+     * name.  The blocks are only created once the drawer is first shown or
+     * searched, so that loading a language does not create the content of
+     * every drawer up front.  Do nothing if no drawer of the specified name is
+     * found.
+     *
+     * @param genusNames the genera of the blocks to add, in drawer order
+     * @param drawer the name of the drawer
+     */
+    public void addStaticGenera(Collection<String> genusNames, String drawer) {
+        for (FactoryCanvas canvas : this.staticCanvases) {
+            if (canvas.getName().equals(drawer)) {
+                canvas.addPendingGenera(this, genusNames);
+                return;
+            }
+        }
+        this.printError("Drawer not found: " + drawer);
+        return;
+    }
+
+    /**
+     * Creates the factory blocks of the specified genera and adds them to the
+     * specified drawer, as addStaticBlocks() does.
+     */
+    void loadFactoryBlocks(FactoryCanvas canvas, List<String> genusNames) {
+        List<RenderableBlock> blocks = new ArrayList<RenderableBlock>();
+        for (String genusName : genusNames) {
+            //don't link factory blocks to their stubs because they will
+            //forever remain inside the drawer and never be active
+            Block block = new Block(workspace, genusName, false);
+            blocks.add(new FactoryRenderableBlock(workspace, this, block.getBlockID()));
+        }
+        for (RenderableBlock block : blocks) {
+            //blocks loaded after a zoom were not reshaped by it
+            block.setZoomLevel(workspace.getCurrentWorkspaceZoom());
+            canvas.addBlock(block);
+            workspace.notifyListeners(new WorkspaceEvent(workspace, this, block.getBlockID(), WorkspaceEvent.BLOCK_ADDED));
+        }
+        canvas.layoutBlocks();
+        //render the bevels of the drawer blocks before they are first dragged or zoomed
+        BlockUtilities.prewarmBevelImages(blocks, PREWARM_ZOOM_LEVELS);
+    }
+
     public void addDynamicBlocks(Collection<RenderableBlock> blocks, String drawer) {
         //find canvas
         for (FactoryCanvas canvas : this.dynamicCanvases) {
@@ -812,6 +893,9 @@ public class FactoryManager implements WorkspaceWidget, ComponentListener, Works
     
     private String staticdrawer(BlockStub stub) {
 	    for (FactoryCanvas canvas : this.staticCanvases) {
+	    	if (canvas.hasPendingGenus(stub.getParentGenus())) {
+	    		return canvas.getName();
+	    	}
 	    	for (RenderableBlock bl : canvas.getBlocks()) {
 	    		if (bl.getGenus().equals(stub.getParentGenus())) {
 	    			return canvas.getName();
@@ -825,16 +909,19 @@ public class FactoryManager implements WorkspaceWidget, ComponentListener, Works
         //THIS ENTIRE METHOD IS A HACK!
         //PLEASE CHANGE WITH CAUTION
         //IT DOES SOME PREETY STRANGE THINGS
-        if (event.getEventType() == WorkspaceEvent.BLOCK_ADDED) {
+        if (event.getEventType() == WorkspaceEvent.BLOCK_ADDED || event.isBlockCloned()) {
             if (event.getSourceWidget() instanceof Page) {
                 Page page = (Page) event.getSourceWidget();
-                Block block = workspace.getEnv().getBlock(event.getSourceBlockID());
-                //block may not be null if this is a block added event
-                if (block.hasStubs()) {
-                    for (BlockStub stub : block.getFreshStubs()) {
-                        this.addStaticBlock(
-                                new FactoryRenderableBlock(event.getWorkspace(), this, stub.getBlockID()),
-                                staticdrawer(stub));	//drawerName);	//"Procedure");//	page.getPageDrawer());	//
+                //a block cloned event adds every block of the clone
+                for (Long blockID : event.getSourceBlockIDs()) {
+                    Block block = workspace.getEnv().getBlock(blockID);
+                    //block may not be null if this is a block added event
+                    if (block.hasStubs()) {
+                        for (BlockStub stub : block.getFreshStubs()) {
+                            this.addStaticBlock(
+                                    new FactoryRenderableBlock(event.getWorkspace(), this, stub.getBlockID()),
+                                    staticdrawer(stub));	//drawerName);	//"Procedure");//	page.getPageDrawer());	//
+                        }
                     }
                 }
             }
@@ -1,19 +1,27 @@
 package edu.mit.blocks.workspace;
 
+import java.awt.AlphaComposite;
 import java.awt.Color;
 import java.awt.Component;
 import java.awt.Dimension;
 import java.awt.Font;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
 import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.ContainerEvent;
+import java.awt.event.ContainerListener;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
+import java.awt.image.BufferedImage;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
 
 import javax.swing.JComponent;
 import javax.swing.JPanel;
@@ -48,8 +56,14 @@ import edu.mit.blocks.renderable.RenderableBlock;
  * mapheight: Integer				//this MiniMap's maximum height
  * ratio : Double					//the aspect ratio that this should maintain
  * 									//		when rendering this.blocks and this.comments
+ * 
+ * The pages, with their blocks and comments, are drawn from a thumbnail image
+ * per page rather than from the blocks themselves.  A thumbnail is redrawn only
+ * where blocks of its page were added, moved, or removed since it was last
+ * painted, which workspace events and changes to the components of the page
+ * tell.  Only the blocks being dragged are drawn on every repaint.
  */
-public class MiniMap extends JPanel implements WorkspaceWidget, MouseListener, MouseMotionListener, SearchableContainer, PageChangeListener {
+public class MiniMap extends JPanel implements WorkspaceWidget, MouseListener, MouseMotionListener, SearchableContainer, PageChangeListener, WorkspaceListener {
     /*
      * Implementation Notes:
      * -should be initialized BEFORE blockCanvas (that is, should initialize miniMap
@@ -80,6 +94,17 @@ public class MiniMap extends JPanel implements WorkspaceWidget, MouseListener, M
     private static final int DEFAULT_WIDTH = 150;
     /**the default height of a mini map*/
     private static final int DEFAULT_HEIGHT = 75;
+    /**the least number of milliseconds between two repaints requested while dragging*/
+    private static final int REPAINT_INTERVAL = 40;
+    /**the colors of the shadow border, from the outside in*/
+    private static final Color[] BORDER_COLORS = new Color[BORDER_WIDTH];
+
+    static {
+        for (int i = 0; i < BORDER_WIDTH; i++) {
+            BORDER_COLORS[i] = new Color(200, 200, 150, 50 * (i + 1));
+        }
+    }
+
     /**this.width*/
     private int MAPWIDTH = 150;
     /**this.height*/
@@ -92,6 +117,23 @@ public class MiniMap extends JPanel implements WorkspaceWidget, MouseListener, M
     private double transformX = 1;
     private double transformY = 1;
     private final Workspace workspace;
+    /**the thumbnail of each page painted so far*/
+    private final Map<Page, PageThumbnail> thumbnails = new HashMap<Page, PageThumbnail>();
+    /**the number of times this has been painted*/
+    private int paintCount = 0;
+    /**fires the repaints requested through scheduleRepaint()*/
+    private final Timer repaintTimer;
+    /**marks a page for update when blocks are added to or removed from it*/
+    private final ContainerListener pageContentListener = new ContainerListener() {
+
+        public void componentAdded(ContainerEvent e) {
+            markDirty(e.getContainer());
+        }
+
+        public void componentRemoved(ContainerEvent e) {
+            markDirty(e.getContainer());
+        }
+    };
 
     /**
      * @effects  constructs a MiniMap, M, such that
@@ -114,6 +156,13 @@ public class MiniMap extends JPanel implements WorkspaceWidget, MouseListener, M
         this.addMouseListener(this);
         this.addMouseMotionListener(this);
         this.enlarger = new MiniMapEnlargerTimer();
+        this.repaintTimer = new Timer(REPAINT_INTERVAL, new ActionListener() {
+
+            public void actionPerformed(ActionEvent e) {
+                repaint();
+            }
+        });
+        this.repaintTimer.setRepeats(false);
         PageChangeEventManager.addPageChangeListener(this);
     }
 
@@ -127,8 +176,74 @@ public class MiniMap extends JPanel implements WorkspaceWidget, MouseListener, M
         this.setVisible(false);
     }
 
+    /**
+     * Updates the thumbnails of all pages, for changes that no workspace
+     * event tells, such as moving a comment or undoing a move.
+     */
     public void update() {
-        this.repaint();
+        for (PageThumbnail thumbnail : thumbnails.values()) {
+            thumbnail.dirty = true;
+        }
+        scheduleRepaint();
+    }
+
+    /**
+     * Repaints this MiniMap, no sooner than REPAINT_INTERVAL milliseconds after
+     * the previous repaint requested this way.  Requests made in between are
+     * merged into a single repaint, so that dragging a block repaints this at
+     * a bounded rate rather than on each mouse event.
+     */
+    public void scheduleRepaint() {
+        if (!repaintTimer.isRunning()) {
+            repaintTimer.start();
+        }
+    }
+
+    /**
+     * Marks the thumbnail of the page with the specified component for update.
+     */
+    private void markDirty(Component pageComponent) {
+        for (PageThumbnail thumbnail : thumbnails.values()) {
+            if (thumbnail.page.getJComponent() == pageComponent) {
+                thumbnail.dirty = true;
+            }
+        }
+    }
+
+    /**
+     * Marks the thumbnail of the specified widget for update, if it is a page.
+     */
+    private void markDirty(WorkspaceWidget widget) {
+        if (widget instanceof Page) {
+            PageThumbnail thumbnail = thumbnails.get(widget);
+            if (thumbnail != null) {
+                thumbnail.dirty = true;
+            }
+        }
+    }
+
+    /**
+     * Marks the thumbnails of the pages affected by the specified event for update.
+     */
+    public void workspaceEventOccurred(WorkspaceEvent event) {
+        switch (event.getEventType()) {
+            case WorkspaceEvent.PAGE_ADDED:
+            case WorkspaceEvent.PAGE_REMOVED:
+            case WorkspaceEvent.PAGE_RENAMED:
+            case WorkspaceEvent.PAGE_RESIZED:
+            case WorkspaceEvent.WORKSPACE_FINISHED_LOADING:
+                update();
+                return;
+        }
+        markDirty(event.getSourceWidget());
+        Long blockID = event.getSourceBlockID();
+        if (blockID != null) {
+            RenderableBlock block = workspace.getEnv().getRenderableBlock(blockID);
+            if (block != null) {
+                markDirty(block.getParentWidget());
+            }
+        }
+        scheduleRepaint();
     }
 
     /**
@@ -142,7 +257,8 @@ public class MiniMap extends JPanel implements WorkspaceWidget, MouseListener, M
      * Specified by codeblocks.workspace.SearchableContainer interface
      */
     public void updateContainsSearchResults(boolean containsSearchResults) {
-        this.repaint();
+        // search results are drawn in another color
+        this.update();
     }
 
     public void repositionMiniMap() {
@@ -168,7 +284,7 @@ public class MiniMap extends JPanel implements WorkspaceWidget, MouseListener, M
 
         // draw shadow border
         for (int i = 0; i < BORDER_WIDTH; i++) {
-            g.setColor(new Color(200, 200, 150, 50 * (i + 1)));
+            g.setColor(BORDER_COLORS[i]);
             g.drawRect(i, i, this.getWidth() - 1 - 2 * i, this.getHeight() - 1 - 2 * i);
         }
 
@@ -178,33 +294,26 @@ public class MiniMap extends JPanel implements WorkspaceWidget, MouseListener, M
         this.transformY = (double) (MAPHEIGHT) / this.getCanvas().getHeight();
 
         g.translate(5, 5);
+        paintCount++;
         for (Page page : this.blockCanvas.getPages()) {
-            Color pageColor = page.getPageColor();
-            g.setColor(new Color(pageColor.getRed(), pageColor.getGreen(), pageColor.getBlue(), 200));
-            Rectangle pageRect = rescaleRect(page.getJComponent().getBounds());
-            g.fillRect(pageRect.x, pageRect.y, pageRect.width, pageRect.height);
-            g.setColor(Color.white);
-            g.clipRect(pageRect.x, pageRect.y, pageRect.width, pageRect.height);
-            g.drawString(page.getPageName(), pageRect.x + 1, pageRect.height - 3);
-            if (page.getIcon() != null && expand) {
-                g.drawImage(page.getIcon(), pageRect.x + 1, pageRect.height - 28, 15, 15, null);
+            PageThumbnail thumbnail = thumbnails.get(page);
+            if (thumbnail == null) {
+                thumbnail = new PageThumbnail(page);
+                thumbnails.put(page, thumbnail);
+                page.getJComponent().addContainerListener(pageContentListener);
             }
-            g.setClip(null);
-            for (Component component : page.getJComponent().getComponents()) {
-                //re-render this.blocks and this.comments
-                if (component instanceof RenderableBlock && component != null && component.isVisible()) {
-                    if (((RenderableBlock) component).isSearchResult()) {
-                        g.setColor(Color.yellow);
-                    } else {
-                        g.setColor(((RenderableBlock) component).getBLockColor());
-                    }
-                    drawBoundingBox(g, component);
-                } else if (component instanceof Comment && component.isVisible()) {
-                    g.setColor(Color.yellow);
-                    drawBoundingBox(g, component);
-                }
+            Rectangle pageRect = rescaleRect(page.getJComponent().getBounds());
+            updateThumbnail(thumbnail, pageRect);
+            thumbnail.paintCount = paintCount;
+            g.drawImage(thumbnail.image, pageRect.x, pageRect.y, null);
+        }
+        // forget the thumbnails of removed pages
+        for (Iterator<PageThumbnail> it = thumbnails.values().iterator(); it.hasNext();) {
+            PageThumbnail thumbnail = it.next();
+            if (thumbnail.paintCount != paintCount) {
+                thumbnail.page.getJComponent().removeContainerListener(pageContentListener);
+                it.remove();
             }
-
         }
         for (Component component : this.getCanvas().getComponents()) {
             if (component instanceof PageDivider) {
@@ -230,6 +339,128 @@ public class MiniMap extends JPanel implements WorkspaceWidget, MouseListener, M
                 rescaleY(blockCanvas.getHeight()));
     }
 
+    /**
+     * Brings the thumbnail of a page up to date with the blocks and comments
+     * of the page.  The thumbnail is redrawn entirely if the page was resized,
+     * renamed or recolored, or if this MiniMap was resized.  Otherwise, if the
+     * thumbnail was marked for update, only the areas of the blocks that were
+     * added, moved, resized, recolored or removed since it was last updated
+     * are redrawn.
+     * @param pageRect the bounds of the page, rescaled to fit this MiniMap
+     */
+    private void updateThumbnail(PageThumbnail thumbnail, Rectangle pageRect) {
+        Page page = thumbnail.page;
+        Color pageColor = page.getPageColor();
+        String pageName = page.getPageName();
+        boolean showIcon = page.getIcon() != null && expand;
+        Rectangle damage = null;
+        if (thumbnail.image == null
+                || !pageRect.equals(thumbnail.pageRect)
+                || transformX != thumbnail.transformX
+                || transformY != thumbnail.transformY
+                || !pageColor.equals(thumbnail.pageColor)
+                || !pageName.equals(thumbnail.pageName)
+                || showIcon != thumbnail.showIcon) {
+            thumbnail.image = new BufferedImage(Math.max(1, pageRect.width), Math.max(1, pageRect.height), BufferedImage.TYPE_INT_ARGB);
+            thumbnail.pageRect = pageRect;
+            thumbnail.transformX = transformX;
+            thumbnail.transformY = transformY;
+            thumbnail.pageColor = pageColor;
+            thumbnail.pageName = pageName;
+            thumbnail.showIcon = showIcon;
+            thumbnail.boxes.clear();
+            thumbnail.dirty = true;
+            damage = new Rectangle(0, 0, pageRect.width, pageRect.height);
+        }
+        if (!thumbnail.dirty) {
+            return;
+        }
+        thumbnail.dirty = false;
+
+        // find the boxes that changed, in thumbnail coordinates
+        int mark = ++thumbnail.updateCount;
+        JComponent pageComponent = page.getJComponent();
+        for (Component component : pageComponent.getComponents()) {
+            Color color = getBoxColor(component);
+            if (color == null) {
+                continue;
+            }
+            int x = (int) ((pageComponent.getX() + component.getX()) * transformX) - pageRect.x;
+            int y = (int) ((pageComponent.getY() + component.getY()) * transformY) - pageRect.y;
+            int width = (int) (component.getWidth() * transformX);
+            int height = (int) (component.getHeight() * transformY);
+            Box box = thumbnail.boxes.get(component);
+            if (box == null) {
+                box = new Box();
+                thumbnail.boxes.put(component, box);
+            } else if (box.x == x && box.y == y && box.width == width && box.height == height && box.color.equals(color)) {
+                box.updateCount = mark;
+                continue;
+            } else {
+                damage = box.addTo(damage);
+            }
+            box.x = x;
+            box.y = y;
+            box.width = width;
+            box.height = height;
+            box.color = color;
+            box.updateCount = mark;
+            damage = box.addTo(damage);
+        }
+        for (Iterator<Box> it = thumbnail.boxes.values().iterator(); it.hasNext();) {
+            Box box = it.next();
+            if (box.updateCount != mark) {
+                damage = box.addTo(damage);
+                it.remove();
+            }
+        }
+        if (damage == null) {
+            return;
+        }
+
+        // redraw the damaged area: the page, its name, then the boxes over it
+        Graphics2D g = thumbnail.image.createGraphics();
+        g.setFont(getFont());
+        g.clip(damage);
+        g.setComposite(AlphaComposite.Src);
+        g.setColor(new Color(pageColor.getRed(), pageColor.getGreen(), pageColor.getBlue(), 200));
+        g.fillRect(damage.x, damage.y, damage.width, damage.height);
+        g.setComposite(AlphaComposite.SrcOver);
+        g.setColor(Color.white);
+        g.drawString(pageName, 1, pageRect.height - 3 - pageRect.y);
+        if (showIcon) {
+            g.drawImage(page.getIcon(), 1, pageRect.height - 28 - pageRect.y, 15, 15, null);
+        }
+        for (Component component : pageComponent.getComponents()) {
+            Box box = thumbnail.boxes.get(component);
+            if (box != null && box.intersects(damage)) {
+                g.setColor(box.color);
+                g.fillRect(box.x, box.y, box.width, box.height);
+                g.setColor(Color.white);
+                g.drawRect(box.x, box.y, box.width, box.height);
+            }
+        }
+        g.dispose();
+    }
+
+    /**
+     * @return the color the specified component is drawn with on this MiniMap,
+     * 			or null if it is not drawn
+     */
+    private static Color getBoxColor(Component component) {
+        if (!component.isVisible()) {
+            return null;
+        }
+        if (component instanceof RenderableBlock) {
+            RenderableBlock block = (RenderableBlock) component;
+            return block.isSearchResult() ? Color.yellow : block.getBLockColor();
+        }
+        if (component instanceof Comment) {
+            return Color.yellow;
+        }
+        return null;
+    }
+
     /**
      * @effects Renders a JComponent by drawing a rectangle around
      * 		   its bounding box (rescaled to fit MiniMap) using
@@ -602,4 +833,57 @@ public class MiniMap extends JPanel implements WorkspaceWidget, MouseListener, M
             //this.timer.start();
         }
     }
+
+    /**
+     * The thumbnail image of a page, along with what was drawn on it.
+     */
+    private static class PageThumbnail {
+
+        private final Page page;
+        private BufferedImage image;
+        /**the state of the page and of this MiniMap the image was drawn for*/
+        private Rectangle pageRect;
+        private double transformX;
+        private double transformY;
+        private Color pageColor;
+        private String pageName;
+        private boolean showIcon;
+        /**the box drawn for each block and comment of the page*/
+        private final Map<Component, Box> boxes = new HashMap<Component, Box>();
+        /**true if blocks of the page may have changed since the image was updated*/
+        private boolean dirty = true;
+        private int updateCount = 0;
+        private int paintCount = 0;
+
+        PageThumbnail(Page page) {
+            this.page = page;
+        }
+    }
+
+    /**
+     * The box drawn on a thumbnail for a block or a comment, in thumbnail coordinates.
+     */
+    private static class Box {
+
+        private int x, y, width, height;
+        private Color color;
+        /**the last update of the thumbnail that found this box on the page*/
+        private int updateCount;
+
+        /**
+         * @return the union of the specified area and of the pixels covered
+         * 			by this box, including its outline
+         */
+        Rectangle addTo(Rectangle area) {
+            if (area == null) {
+                return new Rectangle(x, y, width + 1, height + 1);
+            }
+            area.add(new Rectangle(x, y, width + 1, height + 1));
+            return area;
+        }
+
+        boolean intersects(Rectangle area) {
+            return area.intersects(x, y, width + 1, height + 1);
+        }
+    }
 }
@@ -9,22 +9,32 @@ import java.awt.Graphics2D;
 import java.awt.Image;
 import java.awt.Point;
 import java.awt.Rectangle;
+import java.awt.event.ContainerAdapter;
+import java.awt.event.ContainerEvent;
+import java.awt.event.HierarchyEvent;
+import java.awt.event.HierarchyListener;
+import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
+import java.awt.event.MouseMotionAdapter;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Comparator;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeSet;
+import java.util.Set;
 
 import javax.swing.JComponent;
 import javax.swing.JLayeredPane;
 import javax.swing.JPanel;
 import javax.swing.JToolTip;
 import javax.swing.SwingUtilities;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -33,6 +43,9 @@ import org.w3c.dom.NodeList;
 
 import edu.mit.blocks.codeblocks.Block;
 import edu.mit.blocks.codeblockutil.CToolTip;
+import edu.mit.blocks.renderable.Comment;
+import edu.mit.blocks.renderable.CommentArrow;
+import edu.mit.blocks.renderable.RBHighlightHandler;
 import edu.mit.blocks.renderable.RenderableBlock;
 
 /**
@@ -103,6 +116,11 @@ public class Page implements WorkspaceWidget, SearchableContainer, ISupportMemen
     private static final String emptyString = "";
     /** this.zoomLevel: zoom level state */
     static double zoom = 1.0;
+    /**
+     * The zoom level the content of the pages was last laid out at.  While it
+     * differs from zoom, the pages paint their content scaled to zoom.
+     */
+    static double layoutZoom = 1.0;
     /** The JComponent of this page */
     private final PageJComponent pageJComponent = new PageJComponent();
     /** The abstract width of this page */
@@ -126,6 +144,17 @@ public class Page implements WorkspaceWidget, SearchableContainer, ISupportMemen
     private String pageId = null;
     /** Toggles to show/hide minimize page button. */
     private boolean hideMinimize = false;
+    /** The spatial index of the connectors of the blocks on this page */
+    private final ConnectorIndex connectorIndex;
+    /** Blocks whose Block instance is loaded but whose RenderableBlock is not yet
+     * created, mapped to the node they were loaded from, in loading order */
+    private final Map<Long, Node> pendingBlocks = new LinkedHashMap<Long, Node>();
+    /** The RenderableBlocks residing on this page, in the order they were added.
+     * Kept up to date as blocks are added to or removed from pageJComponent,
+     * which includes blocks being picked up and dropped. */
+    private final Set<RenderableBlock> blocks = new LinkedHashSet<RenderableBlock>();
+    /** A read-only view of blocks */
+    private final Collection<RenderableBlock> blocksView = Collections.unmodifiableSet(blocks);
     //////////////////////////////
     //Constructor/ Destructor	//
     //////////////////////////////
@@ -158,6 +187,23 @@ public class Page implements WorkspaceWidget, SearchableContainer, ISupportMemen
         super();
         this.workspace = workspace;
         this.defaultColor = defaultColor;
+        this.connectorIndex = new ConnectorIndex(workspace, this.pageJComponent);
+        this.pageJComponent.addContainerListener(new ContainerAdapter() {
+
+            @Override
+            public void componentAdded(ContainerEvent e) {
+                if (e.getChild() instanceof RenderableBlock) {
+                    blocks.add((RenderableBlock) e.getChild());
+                }
+            }
+
+            @Override
+            public void componentRemoved(ContainerEvent e) {
+                if (e.getChild() instanceof RenderableBlock) {
+                    blocks.remove((RenderableBlock) e.getChild());
+                }
+            }
+        });
         this.pageJComponent.setLayout(null);
         this.pageJComponent.setName(name);
         this.abstractWidth = pageWidth > 0 ? pageWidth : Page.DEFAULT_ABSTRACT_WIDTH;
@@ -175,6 +221,15 @@ public class Page implements WorkspaceWidget, SearchableContainer, ISupportMemen
             this.pageJComponent.add(collapse);
         }
         this.pageJComponent.setFullView(inFullview);
+        this.pageJComponent.addHierarchyListener(new HierarchyListener() {
+
+            @Override
+            public void hierarchyChanged(HierarchyEvent e) {
+                if ((e.getChangeFlags() & HierarchyEvent.SHOWING_CHANGED) != 0 && pageJComponent.isShowing()) {
+                    loadPendingBlocks();
+                }
+            }
+        });
     }
 
     public void disableMinimize() {
@@ -237,8 +292,10 @@ public class Page implements WorkspaceWidget, SearchableContainer, ISupportMemen
      * removed events.
      */
     public void reset() {
+        this.pendingBlocks.clear();
         this.pageJComponent.removeAll();
         Page.zoom = 1.0;
+        Page.layoutZoom = 1.0;
     }
 
     /**
@@ -246,7 +303,8 @@ public class Page implements WorkspaceWidget, SearchableContainer, ISupportMemen
      * Does NOT fire block removed events.
      */
     public void clearPage() {
-        for (RenderableBlock block : this.getBlocks()) {
+        this.pendingBlocks.clear();
+        for (RenderableBlock block : new ArrayList<RenderableBlock>(this.getLoadedBlocks())) {
             this.pageJComponent.remove(block);
         }
     }
@@ -267,36 +325,56 @@ public class Page implements WorkspaceWidget, SearchableContainer, ISupportMemen
     //Public Accessor			//
     //////////////////////////////
     /**
-     * @return all the RenderableBlocks that reside within this page
+     * @return a live, read-only view of all the RenderableBlocks that reside
+     * 			within this page, in the order they were added.  Callers that
+     * 			add or remove blocks while iterating should iterate over a copy.
      */
     @Override
     public Collection<RenderableBlock> getBlocks() {
-        List<RenderableBlock> blocks = new ArrayList<RenderableBlock>();
-        for (Component block : this.pageJComponent.getComponents()) {
-            if (block instanceof RenderableBlock) {
-                blocks.add((RenderableBlock) block);
-            }
-        }
-        return blocks;
+        loadPendingBlocks();
+        return getLoadedBlocks();
+    }
+
+    /**
+     * @return a live, read-only view of the RenderableBlocks residing on this
+     * 			page, without loading its pending blocks first
+     */
+    Collection<RenderableBlock> getLoadedBlocks() {
+        return blocksView;
     }
 
     /**
-     * @return a collection of top level blocks within this page (blocks with no
-     * 			parents that and are the first block of each stack) or an empty
-     * 			collection if no blocks are found on this page.
+     * @return a read-only view of the ids of the blocks of this page whose
+     * 			RenderableBlocks were not created yet
+     */
+    Collection<Long> getPendingBlockIDs() {
+        return Collections.unmodifiableSet(pendingBlocks.keySet());
+    }
+
+    /**
+     * @param block - the RenderableBlock whose connectors to search around
+     *
+     * @requires block != null
+     * @return the blocks within this page that have a plug or socket close
+     * 			enough to one of block's connectors to possibly link with it.
+     * 			Unlike getBlocks(), the cost of this call depends on the number
+     * 			of blocks near block rather than on the number of blocks on
+     * 			this page.
+     */
+    public Collection<RenderableBlock> getBlocksNear(RenderableBlock block) {
+        return this.connectorIndex.getBlocksNear(block);
+    }
+
+    /**
+     * @return a live, read-only view of the top level blocks within this page
+     * 			(blocks with no parents that and are the first block of each
+     * 			stack), which is empty if no blocks are found on this page.
+     * 			Callers that connect or disconnect blocks while iterating
+     * 			should iterate over a copy.
      */
     public Collection<RenderableBlock> getTopLevelBlocks() {
-        List<RenderableBlock> topBlocks = new ArrayList<RenderableBlock>();
-        for (RenderableBlock renderable : this.getBlocks()) {
-            Block block = workspace.getEnv().getBlock(renderable.getBlockID());
-            if (block.getPlug() == null || block.getPlugBlockID() == null || block.getPlugBlockID().equals(Block.NULL)) {
-                if (block.getBeforeConnector() == null || block.getBeforeBlockID() == null || block.getBeforeBlockID().equals(Block.NULL)) {
-                    topBlocks.add(renderable);
-                    continue;
-                }
-            }
-        }
-        return topBlocks;
+        loadPendingBlocks();
+        return workspace.getEnv().getBlockIndex().getTopLevelBlocks(this);
     }
 
     /**
@@ -548,10 +626,11 @@ public class Page implements WorkspaceWidget, SearchableContainer, ISupportMemen
     /**
      * @requires the current set of blocks of this page != null (though it may be empty)
      * @modifies all the block in this page's set of blocks
-     * @effects Automatically arranges all the blocks within this page naively.
+     * @effects Automatically packs the stacks of blocks within this page into
+     * 			columns no taller than this page.
      */
     public void reformBlockOrdering() {
-        BlockStackSorterUtil.sortBlockStacks(this, this.getTopLevelBlocks());
+        new BlockArranger(Collections.singletonList(this)).apply();
     }
 
     //////////////////////////////
@@ -574,6 +653,24 @@ public class Page implements WorkspaceWidget, SearchableContainer, ISupportMemen
         return Page.zoom;
     }
 
+    /**
+     * Sets the zoom level the content of the pages is laid out at.  While it
+     * differs from the zoom level of the pages, each component of a page
+     * is painted scaled from its own zoom level to that of the page, so that
+     * a zoom change is shown before every block is reshaped to it.
+     * @param newZoom the zoom level the content was laid out at
+     */
+    static void setLayoutZoom(double newZoom) {
+        Page.layoutZoom = newZoom;
+    }
+
+    /**
+     * @return the zoom level the content of the pages was last laid out at
+     */
+    static double getLayoutZoom() {
+        return Page.layoutZoom;
+    }
+
     //////////////////////////////
     //WORKSPACEWIDGET METHODS 	//
     //////////////////////////////
@@ -673,6 +770,32 @@ public class Page implements WorkspaceWidget, SearchableContainer, ISupportMemen
         this.pageJComponent.revalidate();
     }
 
+    /**
+     * @param blocks the RenderableBlocks of a cloned stack, which do not reside
+     * 			on any widget yet
+     *
+     * @requires blocks != null
+     * @modifies this page's set of blocks
+     * @effects Adds the blocks internally and graphically, like addBlocks(), but
+     * 			neither links their default arguments nor notifies workspace
+     * 			listeners, so that the caller can report all of them in a single
+     * 			block cloned event.
+     */
+    public void addClonedBlocks(Collection<RenderableBlock> blocks) {
+        for (RenderableBlock block : blocks) {
+            block.setParentWidget(this);
+            this.getRBParent().addToBlockLayer(block);
+            block.setHighlightParent(this.getRBParent());
+            Block b = workspace.getEnv().getBlock(block.getBlockID());
+            if (b.isPageLabelSetByPage()) {
+                b.setPageLabel(this.getPageName());
+            }
+            block.ignoreDefaultArguments();
+            this.pageJComponent.setComponentZOrder(block, 0);
+        }
+        this.pageJComponent.revalidate();
+    }
+
     /** @overrides WorkspaceWidget.removeBlock() */
     @Override
     public void removeBlock(RenderableBlock block) {
@@ -787,6 +910,61 @@ public class Page implements WorkspaceWidget, SearchableContainer, ISupportMemen
         this.pageJComponent.repaint();
     }
 
+    /**
+     * @param blocks - the ids of loaded Block instances mapped to the
+     * 			nodes they were loaded from
+     *
+     * @requires blocks != null and every Block in blocks has no RenderableBlock
+     * @modifies this page's set of pending blocks
+     * @effects Defers the creation of the RenderableBlocks of blocks until
+     * 			this page is first shown or its blocks are first requested,
+     * 			so that pages that are never displayed never create them.
+     */
+    public void addPendingBlocks(Map<Long, Node> blocks) {
+        this.pendingBlocks.putAll(blocks);
+        if (this.pageJComponent.isShowing()) {
+            loadPendingBlocks();
+        }
+    }
+
+    /**
+     * @return true if this page has blocks whose RenderableBlocks
+     * 			have not been created yet
+     */
+    public boolean hasPendingBlocks() {
+        return !this.pendingBlocks.isEmpty();
+    }
+
+    /**
+     * @modifies this page's set of blocks and set of pending blocks
+     * @effects Creates the RenderableBlocks of all the pending blocks of
+     * 			this page and adds them to this page, as if they had been
+     * 			loaded by loadPageFrom() and addLoadedBlocks().
+     */
+    public void loadPendingBlocks() {
+        if (this.pendingBlocks.isEmpty()) {
+            return;
+        }
+        List<RenderableBlock> loadedBlocks = new ArrayList<RenderableBlock>();
+        Map<Long, Node> blocks = new LinkedHashMap<Long, Node>(this.pendingBlocks);
+        this.pendingBlocks.clear();
+        for (Map.Entry<Long, Node> entry : blocks.entrySet()) {
+            loadedBlocks.add(RenderableBlock.loadBlockNode(workspace, entry.getValue(), this, entry.getKey()));
+        }
+        addLoadedBlocks(loadedBlocks, false);
+    }
+
+    /**
+     * @effects Drops the rasters of all the blocks residing on this page.
+     * 			Each block gets its raster back from the BlockRenderCache the
+     * 			next time it is painted.
+     */
+    public void releaseBlockRasters() {
+        for (RenderableBlock rb : getLoadedBlocks()) {
+            rb.clearBufferedImage();
+        }
+    }
+
     public Node getSaveNode(Document document) {
     	Element pageElement = document.createElement("Page");
 
@@ -817,6 +995,36 @@ public class Page implements WorkspaceWidget, SearchableContainer, ISupportMemen
     	return pageElement;
     }
 
+    /**
+     * Writes the node of this page and its blocks to the specified writer.
+     * The written node is identical to the one returned by getSaveNode().
+     * @param writer the writer to write the node to
+     * @throws XMLStreamException if the node could not be written
+     */
+    public void writeSaveNode(XMLStreamWriter writer) throws XMLStreamException {
+        writer.writeStartElement("Page");
+        writer.writeAttribute("page-name", getPageName());
+        writer.writeAttribute("page-color", getPageColor().getRed() + " " + getPageColor().getGreen() + " " + getPageColor().getBlue());
+        writer.writeAttribute("page-width", String.valueOf((int)getAbstractWidth()));
+        writer.writeAttribute("page-infullview", fullview ? "yes" : "no");
+        if (pageDrawer != null) {
+            writer.writeAttribute("page-drawer", pageDrawer);
+        }
+        if (pageId != null) {
+            writer.writeAttribute("page-id", pageId);
+        }
+
+        Collection<RenderableBlock> blocks = this.getBlocks();
+        if (blocks.size() > 0) {
+            writer.writeStartElement("PageBlocks");
+            for (RenderableBlock rb : blocks) {
+                rb.writeSaveNode(writer);
+            }
+            writer.writeEndElement();
+        }
+        writer.writeEndElement();
+    }
+
     ////////////////////////////////////
     //State Saving Stuff for Undo/Redo//
     ////////////////////////////////////
@@ -1116,6 +1324,44 @@ class PageJComponent extends JLayeredPane implements RBParent {
     private static final int IMAGE_WIDTH = 60;
     private Image image = null;
     private boolean fullview = true;
+    /**
+     * Takes the mouse events of the whole page while its children are painted
+     * scaled, since their bounds stay at the zoom level they were laid out at
+     * and would be hit and dragged away from where they are shown.  Wheel
+     * events still reach the scroll pane.
+     */
+    private final JComponent zoomInputBlocker = new JComponent() {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public boolean contains(int x, int y) {
+            return Page.zoom != Page.layoutZoom;
+        }
+    };
+
+    PageJComponent() {
+        zoomInputBlocker.addMouseListener(new MouseAdapter() {
+        });
+        zoomInputBlocker.addMouseMotionListener(new MouseMotionAdapter() {
+        });
+        this.add(zoomInputBlocker, JLayeredPane.DRAG_LAYER);
+    }
+
+    @Override
+    public void setBounds(int x, int y, int width, int height) {
+        super.setBounds(x, y, width, height);
+        zoomInputBlocker.setBounds(0, 0, width, height);
+    }
+
+    /**
+     * Moves the specified child to the specified position in the z-order,
+     * behind the zoom input blocker, which stays in front of every child.
+     */
+    @Override
+    public void setComponentZOrder(Component comp, int index) {
+        super.setComponentZOrder(comp, comp != zoomInputBlocker && index == 0 ? 1 : index);
+    }
 
     public void setFullView(boolean isFullView) {
         this.fullview = isFullView;
@@ -1163,6 +1409,68 @@ class PageJComponent extends JLayeredPane implements RBParent {
 
     }
 
+    /**
+     * Paints the children of this page.  While the zoom level of the page
+     * differs from the one its content was laid out at, every child is
+     * painted through a scale transform from its own zoom level to the one
+     * of the page, rather than being reshaped to it.  Highlights and comment
+     * arrows are scaled from the zoom level of their block or comment.
+     */
+    @Override
+    protected void paintChildren(Graphics g) {
+        if (Page.zoom == Page.layoutZoom) {
+            super.paintChildren(g);
+            return;
+        }
+        Rectangle clip = g.getClipBounds();
+        // like Swing, paint the last child first so that the first one ends up on top
+        for (int i = getComponentCount() - 1; i >= 0; i--) {
+            Component c = getComponent(i);
+            if (c == zoomInputBlocker || !c.isVisible() || c.getWidth() <= 0 || c.getHeight() <= 0) {
+                continue;
+            }
+            double scale = Page.zoom / getLayoutZoom(c);
+            Rectangle bounds = c.getBounds();
+            Rectangle shown = new Rectangle(
+                    (int) Math.floor(bounds.x * scale),
+                    (int) Math.floor(bounds.y * scale),
+                    (int) Math.ceil(bounds.width * scale) + 1,
+                    (int) Math.ceil(bounds.height * scale) + 1);
+            if (clip != null && !clip.intersects(shown)) {
+                continue;
+            }
+            Graphics2D cg = (Graphics2D) g.create();
+            try {
+                cg.scale(scale, scale);
+                cg.translate(bounds.x, bounds.y);
+                cg.clipRect(0, 0, bounds.width, bounds.height);
+                c.paint(cg);
+            } finally {
+                cg.dispose();
+            }
+        }
+    }
+
+    /**
+     * @return the zoom level the specified child was laid out at
+     */
+    private static double getLayoutZoom(Component c) {
+        if (c instanceof RenderableBlock) {
+            return ((RenderableBlock) c).getZoom();
+        }
+        if (c instanceof Comment) {
+            return ((Comment) c).getZoom();
+        }
+        // highlights and comment arrows follow their block or comment
+        if (c instanceof RBHighlightHandler) {
+            return ((RBHighlightHandler) c).getZoom();
+        }
+        if (c instanceof CommentArrow.Arrow) {
+            return ((CommentArrow.Arrow) c).getZoom();
+        }
+        return Page.layoutZoom;
+    }
+
     //////////////////////////////////
     //RBParent implemented methods	//
     //////////////////////////////////
@@ -1180,81 +1488,3 @@ class PageJComponent extends JLayeredPane implements RBParent {
     }
 }
 
-/**
- * A BlockStatckSortUtil is a utilities class that serves to order
- * blocks from closest to furthest blocks (relative to the x=0 axis).
- */
-class BlockStackSorterUtil {
-
-    /** The minimum bounds between blocks */
-    private static final int BUFFER_BETWEEN_BLOCKS = 20;
-    /** A helper rectangle that maintains the bounds between blocks */
-    private static final Rectangle positioningBounds = new Rectangle(BUFFER_BETWEEN_BLOCKS, BUFFER_BETWEEN_BLOCKS, 0, 0);
-    /** An ordered set of blocks.  Blocks are ordered from closest to furthest (relative to x=0 axis) */
-    private static final TreeSet<RenderableBlock> blocksToArrange = new TreeSet<RenderableBlock>(
-            //TODO ria for now they are ordered in y-coor order
-            //this naive ordering will also fail if two blocks have the same coordinates
-            new Comparator<RenderableBlock>() {
-
-        @Override
-        public int compare(RenderableBlock rb1, RenderableBlock rb2) {
-            if (rb1 == rb2) {
-                return 0;
-            } else {
-                //translate points to a common reference: the parent of rb1
-                Point pt1 = rb1.getLocation();
-                Point pt2 = SwingUtilities.convertPoint(rb2.getParentWidget().getJComponent(),
-                        rb2.getLocation(), rb1.getParentWidget().getJComponent());
-                if (pt1.getY() < pt2.getY()) {
-                    return -1;
-                } else {
-                    return 1;
-                }
-            }
-        }
-    });
-
-    /**
-     * This method serves to help clients sort blocks within a page
-     * in some manner.
-     *
-     * @param page
-     * @param topLevelBlocks
-     *
-     * @requires page != null && topLevelBlocks != null
-     * @modifies the location of all topLevelBlocks
-     * @effects sort the topLevelBlocks and move them to an order location on the page
-     */
-    protected static void sortBlockStacks(Page page, Collection<RenderableBlock> topLevelBlocks) {
-        blocksToArrange.clear();
-        positioningBounds.setBounds(BUFFER_BETWEEN_BLOCKS, BUFFER_BETWEEN_BLOCKS, 0, BUFFER_BETWEEN_BLOCKS);
-        //created an ordered list of blocks based on x-coordinate position
-        blocksToArrange.addAll(topLevelBlocks);
-
-        //Naively places blocks from top to bottom, left to right.
-        for (RenderableBlock block : blocksToArrange) {
-            Rectangle bounds = block.getStackBounds();
-            if (positioningBounds.height + bounds.height > page.getJComponent().getHeight()) {
-                //need to go to next column
-                positioningBounds.x = positioningBounds.x + positioningBounds.width + BUFFER_BETWEEN_BLOCKS;
-                positioningBounds.width = 0;
-                positioningBounds.height = BUFFER_BETWEEN_BLOCKS;
-            }
-            block.setLocation(positioningBounds.x, positioningBounds.height);
-
-            //sets the x and y position for when workspace is unzoomed
-            block.setUnzoomedX(block.calculateUnzoomedX(positioningBounds.x));
-            block.setUnzoomedY(block.calculateUnzoomedY(positioningBounds.height));
-            block.moveConnectedBlocks();
-
-            //update positioning bounds
-            positioningBounds.width = Math.max(positioningBounds.width, bounds.width);
-            positioningBounds.height = positioningBounds.height + bounds.height + BUFFER_BETWEEN_BLOCKS;
-
-            if (positioningBounds.x + positioningBounds.width > page.getJComponent().getWidth()) {
-                //resize page to the difference
-                page.addPixelWidth(positioningBounds.x + positioningBounds.width - page.getJComponent().getWidth());
-            }
-        }
-    }
-}
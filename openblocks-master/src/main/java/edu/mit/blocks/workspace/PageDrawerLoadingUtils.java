@@ -183,7 +183,6 @@ public class PageDrawerLoadingUtils {
     }
 
     public static void loadBlockDrawerSets(Workspace workspace, Element root, FactoryManager manager) {
-        Pattern attrExtractor = Pattern.compile("\"(.*)\"");
         Matcher nameMatcher;
         NodeList drawerSetNodes = root.getElementsByTagName("BlockDrawerSet");
         Node drawerSetNode;
@@ -220,23 +219,19 @@ public class PageDrawerLoadingUtils {
 
                         manager.addStaticDrawer(drawerName, buttonColor);
 
-                        //get block genuses in drawer and create blocks
+                        //get block genuses in drawer; their blocks are created once the drawer is opened
                         NodeList drawerBlocks = drawerNode.getChildNodes();
                         Node blockNode;
-                        ArrayList<RenderableBlock> drawerRBs = new ArrayList<RenderableBlock>();
+                        ArrayList<String> drawerGenera = new ArrayList<String>();
                         for (int k = 0; k < drawerBlocks.getLength(); k++) {
                             blockNode = drawerBlocks.item(k);
                             if (blockNode.getNodeName().equals("BlockGenusMember")) {
                                 String genusName = blockNode.getTextContent();
                                 assert workspace.getEnv().getGenusWithName(genusName) != null : "Unknown BlockGenus: " + genusName;
-                                Block newBlock;
-                                //don't link factory blocks to their stubs because they will
-                                //forever remain inside the drawer and never be active
-                                newBlock = new Block(workspace, genusName, false);
-                                drawerRBs.add(new FactoryRenderableBlock(workspace, manager, newBlock.getBlockID()));
+                                drawerGenera.add(genusName);
                             }
                         }
-                        manager.addStaticBlocks(drawerRBs, drawerName);
+                        manager.addStaticGenera(drawerGenera, drawerName);
                     }
                 }
             }
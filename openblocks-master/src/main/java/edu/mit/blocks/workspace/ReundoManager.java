@@ -1,115 +1,401 @@
 package edu.mit.blocks.workspace;
 
-import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
-import java.util.List;
-import java.util.Stack;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+
+import edu.mit.blocks.codeblocks.Block;
+import edu.mit.blocks.codeblocks.BlockConnector;
+import edu.mit.blocks.codeblocks.BlockLink;
+import edu.mit.blocks.codeblocks.BlockLinkChecker;
+import edu.mit.blocks.renderable.BlockUtilities;
+import edu.mit.blocks.renderable.RenderableBlock;
 
 /**
- * RedoUndoManager manges the redoing and undoing for the WorkspaceController.
+ * RedoUndoManager manges the redoing and undoing for a Workspace.
+ *
+ * Rather than snapshotting the whole workspace on every user event, the
+ * manager keeps a journal of steps.  Each step holds the state of only the
+ * blocks touched by that step, as it was before and after the step.  The
+ * blocks touched by a WorkspaceEvent are the blocks it changes: a renamed or
+ * re-typed block alone, a moved, added or removed block along with the blocks
+ * below it, and for a connection or disconnection the plug block along with
+ * the blocks below it plus the socket block, whose sockets grow or shrink.
+ * The geometry of the blocks above them is not recorded, since it follows
+ * from their stacks being redrawn when a step is undone or redone.
+ *
+ * Events that are not spawned by the user, such as the disconnection that
+ * starts a drag or the connection that ends it, are folded into the next
+ * user event so that a whole gesture is undone at once.
+ *
+ * The "before" half of each step comes from the last known state of every
+ * block.  These are recorded for the blocks on the pages by a checkpoint taken
+ * on reset(), which happens when a project is loaded and whenever a page is
+ * removed, and are refreshed for the touched blocks by each step.  The blocks
+ * of pages that were not shown yet are recorded the first time an event
+ * touches them.  Every CHECKPOINT_INTERVAL steps the known states are
+ * compacted: the states of blocks that left the pages are forgotten.
+ *
+ * At most MAX_STEPS steps are kept; older steps are dropped.
+ *
  * @author Thomas Robinson
  */
 public class ReundoManager implements WorkspaceListener {
-    // Member Variables
 
-    private List<ISupportMemento> managedClasses;
-    private List<Object> currentStateMemento;
-    private Stack<List<Object>> undoMementoStack;
-    private Stack<List<Object>> redoMementoStack;
+    /** The maximum number of steps that may be undone */
+    public static final int MAX_STEPS = 100;
+    /** The number of steps between two compactions of the known states */
+    public static final int CHECKPOINT_INTERVAL = 50;
+
+    // Member Variables
+    private final Workspace workspace;
+    /** The last known state of each block, by block id */
+    private final Map<Long, BlockRecord> knownStates = new HashMap<Long, BlockRecord>();
+    /** The blocks of pages not shown yet at the last checkpoint whose state was not known yet */
+    private final Set<Long> unseenBlocks = new HashSet<Long>();
+    /** The blocks touched by events since the last step */
+    private final Set<Long> pendingBlocks = new LinkedHashSet<Long>();
+    private final LinkedList<Step> undoSteps = new LinkedList<Step>();
+    private final LinkedList<Step> redoSteps = new LinkedList<Step>();
+    /** The number of steps recorded since the last compaction */
+    private int stepsSinceCheckpoint = 0;
     //This lock object prevents events raised during undoing/redoing
     //from being registered as user events. Set it to true to lock
     //out event registering
     private boolean lock = false;
     // Member Variables
 
-    public ReundoManager(ISupportMemento managedClass) {
-        this.managedClasses = new ArrayList<ISupportMemento>();
-        this.managedClasses.add(managedClass);
-
+    public ReundoManager(Workspace workspace) {
+        this.workspace = workspace;
         this.reset();
     }
 
+    /**
+     * Forgets all steps and takes a new checkpoint of the workspace.  Should be
+     * called whenever the content of the workspace is replaced, for example
+     * after a project was loaded.
+     */
     public void reset() {
-        undoMementoStack = new Stack<List<Object>>();
-        redoMementoStack = new Stack<List<Object>>();
+        undoSteps.clear();
+        redoSteps.clear();
+        checkpoint();
+    }
 
-        currentStateMemento = null;
-        //Initial state, nothing in the undo stack, and no current state
-        //There is a workspace completed loading event that fires so that
-        //the current state will be valid. (hence the is null test below.
+    public void workspaceEventOccurred(WorkspaceEvent event) {
+        if (lock) {
+            return;
+        }
+        switch (event.getEventType()) {
+            case WorkspaceEvent.PAGE_REMOVED:
+                //steps may refer to the removed page
+                reset();
+                return;
+            case WorkspaceEvent.WORKSPACE_FINISHED_LOADING:
+                reset();
+                return;
+            default:
+                break;
+        }
+        switch (event.getEventType()) {
+            case WorkspaceEvent.BLOCK_RENAMED:
+            case WorkspaceEvent.BLOCK_GENUS_CHANGED:
+                touch(event.getSourceBlockID());
+                break;
+            default:
+                touchStack(event.getSourceBlockID());
+                break;
+        }
+        BlockLink link = event.getSourceLink();
+        if (link != null) {
+            touchStack(link.getPlugBlockID());
+            touch(link.getSocketBlockID());
+        }
+        if (event.isUserEvent()
+                || event.getEventType() == WorkspaceEvent.BLOCK_RENAMED
+                || event.getEventType() == WorkspaceEvent.BLOCK_GENUS_CHANGED) {
+            recordStep(getStepName(event.getEventType()));
+        }
     }
 
-    public void addManagedClass(ISupportMemento anotherManagedClass) {
-        managedClasses.add(anotherManagedClass);
+    /**
+     * Adds the specified block to the blocks touched since the last step.
+     * @return true if the block was not touched yet
+     */
+    private boolean touch(Long blockID) {
+        if (blockID == null || Block.NULL.equals(blockID) || !pendingBlocks.add(blockID)) {
+            return false;
+        }
+        if (unseenBlocks.remove(blockID)) {
+            //first event on a block of a page that was not shown at the last checkpoint:
+            //its current state is the best known approximation of its state before the event
+            knownStates.put(blockID, capture(blockID));
+        }
+        return true;
     }
 
-    public void workspaceEventOccurred(WorkspaceEvent event) {
-        if (!lock) {
-            if (event.isUserEvent()) {
-                if (currentStateMemento != null) {
-                    undoMementoStack.add(currentStateMemento);
-                }
-                currentStateMemento = new ArrayList<Object>();
+    /**
+     * Adds the specified block and the blocks below it, that is the blocks
+     * connected to its sockets and after connector, to the blocks touched
+     * since the last step.
+     */
+    private void touchStack(Long blockID) {
+        LinkedList<Long> toVisit = new LinkedList<Long>();
+        toVisit.add(blockID);
+        while (!toVisit.isEmpty()) {
+            Long id = toVisit.removeFirst();
+            if (!touch(id)) {
+                continue;
+            }
+            for (BlockConnector socket : BlockLinkChecker.getSocketEquivalents(workspace.getEnv().getBlock(id))) {
+                toVisit.add(socket.getBlockID());
+            }
+        }
+    }
 
-                for (ISupportMemento managedClass : managedClasses) {
-                    currentStateMemento.add(managedClass.getState());
-                }
+    /**
+     * Records a step holding the previous and current state of the blocks touched
+     * since the last step.
+     */
+    private void recordStep(String name) {
+        if (pendingBlocks.isEmpty()) {
+            return;
+        }
+        Step step = new Step(name);
+        for (Long id : pendingBlocks) {
+            BlockRecord after = capture(id);
+            step.before.put(id, knownStates.get(id));
+            step.after.put(id, after);
+            knownStates.put(id, after);
+        }
+        pendingBlocks.clear();
+
+        undoSteps.addLast(step);
+        if (undoSteps.size() > MAX_STEPS) {
+            undoSteps.removeFirst();
+        }
+        redoSteps.clear();
+
+        stepsSinceCheckpoint++;
+        if (stepsSinceCheckpoint >= CHECKPOINT_INTERVAL) {
+            compact();
+        }
+    }
+
+    /**
+     * Records the state of every block residing on a page, replacing all the
+     * known states.  The blocks of pages that were not shown yet are left to be
+     * recorded when an event first touches them.
+     */
+    private void checkpoint() {
+        knownStates.clear();
+        unseenBlocks.clear();
+        pendingBlocks.clear();
+        for (RenderableBlock rb : workspace.getEnv().getBlockIndex().getBlocks()) {
+            knownStates.put(rb.getBlockID(), capture(rb.getBlockID()));
+        }
+        for (Page page : workspace.getBlockCanvas().getPages()) {
+            unseenBlocks.addAll(page.getPendingBlockIDs());
+        }
+        stepsSinceCheckpoint = 0;
+    }
+
+    /**
+     * Forgets the known states of the blocks that no longer reside on a page,
+     * such as deleted blocks.  The known states of the other blocks are kept up
+     * to date by the steps themselves, so none of them is captured again.  The
+     * steps still hold the states they need to bring deleted blocks back.
+     */
+    private void compact() {
+        BlockIndex index = workspace.getEnv().getBlockIndex();
+        for (Iterator<Long> it = knownStates.keySet().iterator(); it.hasNext();) {
+            if (!index.contains(it.next())) {
+                it.remove();
             }
         }
+        stepsSinceCheckpoint = 0;
+    }
+
+    /**
+     * @return the current state of the specified block, or null if it does
+     * 			not exist
+     */
+    private BlockRecord capture(Long blockID) {
+        Block block = workspace.getEnv().getBlock(blockID);
+        if (block == null) {
+            return null;
+        }
+        RenderableBlock rb = workspace.getEnv().getRenderableBlock(blockID);
+        if (rb == null) {
+            return new BlockRecord(null, block.getState(), null);
+        }
+        WorkspaceWidget widget = rb.getParentWidget();
+        return new BlockRecord(widget instanceof Page ? (Page) widget : null, block.getState(), rb.getState());
     }
 
     public void undo() {
         if (canUndo() && !lock) {
-            lock = true;
-            {
-                //Get the undo state
-                List<Object> olderStates = undoMementoStack.pop();
-                //Get an iterator
-                Iterator<Object> olderStatesIterator = olderStates.iterator();
-                //Load it
-                for (ISupportMemento managedClass : managedClasses) {
-                    managedClass.loadState(olderStatesIterator.next());
-                }
-
-                //Put the newer current state on the redo
-                redoMementoStack.push(currentStateMemento);
-                //And make the new current state the one we just loaded
-                currentStateMemento = olderStates;
-            }
-            lock = false;
+            Step step = undoSteps.removeLast();
+            apply(step.before);
+            redoSteps.addLast(step);
         }
     }
 
     public void redo() {
         if (canRedo() && !lock) {
-            lock = true;
-            {
-//				//Get the redo state
-//	    		Object newerState = redoMementoStack.pop();
-//	    		//Load it
-//	    		managedClass.loadState(newerState);
-//	    		//Put the older current state onto the undo stack
-//	    		undoMementoStack.push(currentStateMemento);
-//	    		//And make the new current state the the one we jsut loaded
-//	    		currentStateMemento = newerState;
+            Step step = redoSteps.removeLast();
+            apply(step.after);
+            undoSteps.addLast(step);
+        }
+    }
+
+    /**
+     * Brings the specified blocks to the specified states.
+     */
+    private void apply(Map<Long, BlockRecord> records) {
+        lock = true;
+        try {
+            //restore the blocks first, so that pages see the right connections
+            for (Map.Entry<Long, BlockRecord> entry : records.entrySet()) {
+                Block block = workspace.getEnv().getBlock(entry.getKey());
+                if (block != null && entry.getValue() != null) {
+                    block.loadState(entry.getValue().blockState);
+                }
+            }
+            for (Map.Entry<Long, BlockRecord> entry : records.entrySet()) {
+                RenderableBlock rb = workspace.getEnv().getRenderableBlock(entry.getKey());
+                if (rb == null) {
+                    continue;
+                }
+                BlockRecord record = entry.getValue();
+                Page page = record == null ? null : record.page;
+                if (page == null) {
+                    if (rb.getParentWidget() instanceof Page) {
+                        BlockUtilities.deleteBlock(rb);
+                    }
+                } else {
+                    if (rb.getParentWidget() != page) {
+                        page.addBlock(rb);
+                    }
+                    if (record.renderableState != null) {
+                        rb.loadState(record.renderableState);
+                    }
+                }
+            }
+            Set<Long> topBlocks = new LinkedHashSet<Long>();
+            for (Long id : records.keySet()) {
+                //loading a block's state changes its connections and genus without any event
+                workspace.getEnv().getBlockIndex().update(id);
+                topBlocks.add(getTopBlockID(id));
+            }
+            //the blocks above the restored ones were not recorded: redrawing their
+            //stacks gives them their geometry back
+            for (Long id : topBlocks) {
+                RenderableBlock rb = workspace.getEnv().getRenderableBlock(id);
+                if (rb == null || rb.getParent() == null) {
+                    continue;
+                }
+                rb.redrawFromTop();
+                rb.repaintBlock();
             }
+            knownStates.putAll(records);
+            pendingBlocks.removeAll(records.keySet());
+        } finally {
             lock = false;
         }
+        workspace.getMiniMap().update();
+    }
+
+    /**
+     * @return the id of the first block of the stack of the specified block
+     */
+    private Long getTopBlockID(Long blockID) {
+        Long id = blockID;
+        while (true) {
+            Block block = workspace.getEnv().getBlock(id);
+            BlockConnector plug = block == null ? null : BlockLinkChecker.getPlugEquivalent(block);
+            if (plug == null || !plug.hasBlock()) {
+                return id;
+            }
+            id = plug.getBlockID();
+        }
     }
 
     public boolean canUndo() {
-        return (undoMementoStack.size() > 0);
+        return (undoSteps.size() > 0);
     }
 
     public boolean canRedo() {
-        return (redoMementoStack.size() > 0);
+        return (redoSteps.size() > 0);
     }
 
     public String getUndoText() {
-        return "";
+        return canUndo() ? undoSteps.getLast().name : "";
     }
 
     public String getRedoText() {
-        return "";
+        return canRedo() ? redoSteps.getLast().name : "";
+    }
+
+    private static String getStepName(int eventType) {
+        switch (eventType) {
+            case WorkspaceEvent.BLOCK_ADDED:
+                return "Add Block";
+            case WorkspaceEvent.BLOCK_REMOVED:
+                return "Remove Block";
+            case WorkspaceEvent.BLOCKS_CONNECTED:
+                return "Connect Blocks";
+            case WorkspaceEvent.BLOCKS_DISCONNECTED:
+                return "Disconnect Blocks";
+            case WorkspaceEvent.BLOCK_RENAMED:
+                return "Rename Block";
+            case WorkspaceEvent.BLOCK_MOVED:
+                return "Move Block";
+            case WorkspaceEvent.BLOCK_GENUS_CHANGED:
+                return "Change Block";
+            case WorkspaceEvent.BLOCK_CLONED:
+            case WorkspaceEvent.BLOCK_CLONED_THIS:
+            case WorkspaceEvent.BLOCK_CLONED_RIGHT:
+            case WorkspaceEvent.BLOCK_CLONED_ALL:
+                return "Clone Block";
+            default:
+                return "";
+        }
+    }
+
+    /**
+     * The state of a single block: the page it resides on, if any, and the
+     * mementos of its Block and RenderableBlock.
+     */
+    private static class BlockRecord {
+
+        private final Page page;
+        private final Object blockState;
+        private final Object renderableState;
+
+        BlockRecord(Page page, Object blockState, Object renderableState) {
+            this.page = page;
+            this.blockState = blockState;
+            this.renderableState = renderableState;
+        }
+    }
+
+    /**
+     * A single undoable step: the state of the blocks it touched before and
+     * after it.  A null record stands for a block that did not exist.
+     */
+    private static class Step {
+
+        private final String name;
+        private final Map<Long, BlockRecord> before = new LinkedHashMap<Long, BlockRecord>();
+        private final Map<Long, BlockRecord> after = new LinkedHashMap<Long, BlockRecord>();
+
+        Step(String name) {
+            this.name = name;
+        }
     }
 }
@@ -9,9 +9,11 @@ import java.awt.event.FocusEvent;
 import java.awt.event.FocusListener;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 
@@ -22,20 +24,29 @@ import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
 
 import edu.mit.blocks.codeblockutil.CQueryField;
+import edu.mit.blocks.renderable.RenderableBlock;
 
 /**
  * Contributes a search bar component to the CodeBlocks GUI, which allows the user to find 
  * Searchables such as blocks in the drawers and workspace with a query by name.
+ *
+ * A search bar constructed for a workspace finds the blocks of its containers through the
+ * keyword index of the workspace, and keeps its results up to date from the workspace's
+ * events: a block that is added, removed, renamed or moved is checked against the current
+ * query on its own, so that nothing is searched while the workspace does not change.
+ * Other search bars only search when the query changes.
  */
 public class SearchBar {
 
     private final CQueryField searchPanel;
     private final JTextField searchBar;
     private final String defaultText;
+    /** The workspace whose keyword index finds the blocks, or null to check every element */
+    private final Workspace workspace;
     private Set<SearchableContainer> containerSet = new HashSet<SearchableContainer>();
     private Map<SearchableContainer, Set<SearchableElement>> searchResults = new HashMap<SearchableContainer, Set<SearchableElement>>();
-    private Timer searchUpdater;
-    private static final int SEARCH_UPDATER_DELAY = 5000;
+    /** The container each element of the search results was found in */
+    private final Map<SearchableElement, SearchableContainer> resultContainers = new HashMap<SearchableElement, SearchableContainer>();
     private Timer searchThrottle;
     private static final int SEARCH_THROTTLE_DELAY = 250;
 
@@ -55,7 +66,32 @@ public class SearchBar {
      * presses the Escape key while using the search bar.
      */
     public SearchBar(String defaultText, String tooltip, final Component defaultComponent) {
+        this(defaultText, tooltip, defaultComponent, null);
+    }
+
+    /**
+     * Contructs a new search bar finding blocks through the keyword index of the specified
+     * workspace, and updating its results as the blocks of the workspace change.
+     * @param defaultText the text to show when the user is not using the search bar, 
+     * such as "Search blocks"
+     * @param tooltip the text to show as a tooltip for the search bar when the user hovers the mouse 
+     * over the search bar.
+     * @param workspace the workspace to search, for which focus is requested if the user presses
+     * the Escape key while using the search bar.
+     */
+    public SearchBar(String defaultText, String tooltip, Workspace workspace) {
+        this(defaultText, tooltip, workspace, workspace);
+        workspace.addWorkspaceListener(new WorkspaceListener() {
+
+            public void workspaceEventOccurred(WorkspaceEvent event) {
+                updateSearchResults(event);
+            }
+        }, WorkspaceEventBus.LOW_PRIORITY, WorkspaceEventBus.Delivery.COALESCED);
+    }
+
+    private SearchBar(String defaultText, String tooltip, final Component defaultComponent, Workspace workspace) {
         this.defaultText = defaultText;
+        this.workspace = workspace;
         this.searchPanel = new CQueryField();
         this.searchBar = this.searchPanel.getQueryField();
         searchBar.setToolTipText(tooltip);
@@ -122,20 +158,6 @@ public class SearchBar {
                 }
             }
         });
-
-        // Repeat search periodically to refresh results in case elements change,
-        // such as when a new block is dragged onto the Workspace and should be included in the results.
-        searchUpdater = new Timer(SEARCH_UPDATER_DELAY, new ActionListener() {
-
-            public void actionPerformed(ActionEvent e) {
-                // Skip the update if the throttle is about to perform a search anyway.
-                if (searchThrottle != null && !searchThrottle.isRunning()) {
-                    searchRange = SearchRange.CHECK_ALL;
-                    performSearchTimerHandler();
-                }
-            }
-        });
-        searchUpdater.start();
     }
 
     /**
@@ -188,6 +210,7 @@ public class SearchBar {
     public void reset() {
         synchronized (this) {
             searchResults.clear();
+            resultContainers.clear();
             containerSet.clear();
         }
     }
@@ -234,6 +257,7 @@ public class SearchBar {
             }
         }
         searchResults.clear();
+        resultContainers.clear();
     }
 
     /**
@@ -281,6 +305,10 @@ public class SearchBar {
             // Safely grab a copy of the current set of containers to search.
             containers = new HashSet<SearchableContainer>(containerSet);
         }
+        if (workspace != null) {
+            searchIndex(containers);
+            return;
+        }
         if (range == SearchRange.ADD_FROM_NOT_FOUND || range == SearchRange.CHECK_ALL) {
             for (SearchableContainer container : containers) {
                 // Update the search results for each container for this query
@@ -290,8 +318,9 @@ public class SearchBar {
                     searchResults.put(container, foundElements);
                 }
                 for (SearchableElement element : container.getSearchableElements()) {
-                    if (!foundElements.contains(element) && element.getKeyword().toUpperCase().contains(searchBar.getText().toUpperCase())) {
+                    if (!foundElements.contains(element) && matches(element)) {
                         foundElements.add(element);
+                        resultContainers.put(element, container);
                         element.updateInSearchResults(true);
                     }
                 }
@@ -306,8 +335,9 @@ public class SearchBar {
                 if (foundElements != null) {
                     Set<SearchableElement> elementsToRemove = new HashSet<SearchableElement>();
                     for (SearchableElement element : foundElements) {
-                        if (!element.getKeyword().toUpperCase().contains(searchBar.getText().toUpperCase())) {
+                        if (!matches(element)) {
                             elementsToRemove.add(element);
+                            resultContainers.remove(element);
                             element.updateInSearchResults(false);
                         }
                     }
@@ -319,4 +349,140 @@ public class SearchBar {
             }
         }
     }
+
+    /**
+     * @return true if the keyword of the specified element contains the current query
+     */
+    private boolean matches(SearchableElement element) {
+        return element.getKeyword().toUpperCase().contains(searchBar.getText().toUpperCase());
+    }
+
+    /**
+     * Replaces the search results with the blocks of the specified containers found
+     * by the keyword index of the workspace for the current query.  Only the elements
+     * entering or leaving the results are updated.
+     */
+    private void searchIndex(Set<SearchableContainer> containers) {
+        String query = searchBar.getText();
+        // create the blocks of the drawers that were never shown, so that they can be found
+        workspace.getFactoryManager().loadPendingBlocks();
+        BlockKeywordIndex index = workspace.getEnv().getKeywordIndex();
+        Map<SearchableElement, SearchableContainer> found = new LinkedHashMap<SearchableElement, SearchableContainer>();
+        for (RenderableBlock rb : index.findBlocks(query)) {
+            addMatch(found, rb, containers);
+        }
+        for (RenderableBlock rb : index.findFactoryBlocks(query)) {
+            addMatch(found, rb, containers);
+        }
+        for (SearchableElement element : new ArrayList<SearchableElement>(resultContainers.keySet())) {
+            if (!found.containsKey(element)) {
+                setSearchResult(element, null);
+            }
+        }
+        for (Map.Entry<SearchableElement, SearchableContainer> entry : found.entrySet()) {
+            setSearchResult(entry.getKey(), entry.getValue());
+        }
+        for (SearchableContainer container : containers) {
+            Set<SearchableElement> foundElements = searchResults.get(container);
+            container.updateContainsSearchResults(foundElements != null && !foundElements.isEmpty());
+        }
+    }
+
+    private void addMatch(Map<SearchableElement, SearchableContainer> found, RenderableBlock rb, Set<SearchableContainer> containers) {
+        SearchableContainer container = getContainer(rb);
+        // the index also finds factory blocks by the labels of their sockets
+        if (container != null && containers.contains(container) && matches(rb)) {
+            found.put(rb, container);
+        }
+    }
+
+    /**
+     * Checks the blocks named by the specified event against the current query, and
+     * adds them to, moves them within, or removes them from the search results accordingly.
+     */
+    private void updateSearchResults(WorkspaceEvent event) {
+        switch (event.getEventType()) {
+            case WorkspaceEvent.PAGE_ADDED:
+            case WorkspaceEvent.PAGE_REMOVED:
+            case WorkspaceEvent.WORKSPACE_FINISHED_LOADING:
+                if (!searchBar.getText().equals("") && !searchBar.getText().equals(defaultText)) {
+                    performSearch(SearchRange.CHECK_ALL);
+                }
+                return;
+            case WorkspaceEvent.BLOCK_ADDED:
+            case WorkspaceEvent.BLOCK_REMOVED:
+            case WorkspaceEvent.BLOCK_RENAMED:
+            case WorkspaceEvent.BLOCK_GENUS_CHANGED:
+            case WorkspaceEvent.BLOCK_MOVED:
+                break;
+            default:
+                if (!event.isBlockCloned()) {
+                    return;
+                }
+        }
+        if (searchBar.getText().equals("") || searchBar.getText().equals(defaultText)) {
+            return;
+        }
+        for (Long blockID : event.getSourceBlockIDs()) {
+            RenderableBlock rb = workspace.getEnv().getRenderableBlock(blockID);
+            if (rb == null) {
+                continue;
+            }
+            SearchableContainer container = getContainer(rb);
+            boolean searched;
+            synchronized (this) {
+                searched = containerSet.contains(container);
+            }
+            setSearchResult(rb, searched && matches(rb) ? container : null);
+        }
+    }
+
+    /**
+     * @return the container the specified block resides in: its page, or its drawer
+     * 			for a factory block.  May be null.
+     */
+    private static SearchableContainer getContainer(RenderableBlock rb) {
+        if (rb.getParentWidget() instanceof SearchableContainer) {
+            return (SearchableContainer) rb.getParentWidget();
+        }
+        if (rb.getParent() instanceof SearchableContainer) {
+            return (SearchableContainer) rb.getParent();
+        }
+        return null;
+    }
+
+    /**
+     * Files the specified element in the search results of the specified container,
+     * or removes it from the search results if container is null, notifying the
+     * element and the containers whose results become empty or not empty.
+     */
+    private void setSearchResult(SearchableElement element, SearchableContainer container) {
+        SearchableContainer previous = resultContainers.get(element);
+        if (previous == container) {
+            return;
+        }
+        if (previous != null) {
+            Set<SearchableElement> foundElements = searchResults.get(previous);
+            foundElements.remove(element);
+            resultContainers.remove(element);
+            if (foundElements.isEmpty()) {
+                previous.updateContainsSearchResults(false);
+            }
+        }
+        if (container != null) {
+            Set<SearchableElement> foundElements = searchResults.get(container);
+            if (foundElements == null) {
+                foundElements = new HashSet<SearchableElement>();
+                searchResults.put(container, foundElements);
+            }
+            foundElements.add(element);
+            resultContainers.put(element, container);
+            if (foundElements.size() == 1) {
+                container.updateContainsSearchResults(true);
+            }
+        }
+        if ((previous == null) != (container == null)) {
+            element.updateInSearchResults(container != null);
+        }
+    }
 }
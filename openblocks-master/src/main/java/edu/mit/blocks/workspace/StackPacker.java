@@ -0,0 +1,136 @@
+package edu.mit.blocks.workspace;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A StackPacker packs the bounds of block stacks into columns no taller than
+ * a page, leaving a buffer between stacks.
+ *
+ * Stacks are packed first fit decreasing: from the tallest to the shortest,
+ * each stack goes into the first column with room left for it, or into a new
+ * column if none has.  Stacks taller than the page get a column of their own.
+ * Within a column, stacks are then stacked in reading order (top to bottom,
+ * then left to right, of where they were), and columns are laid out left to
+ * right in the reading order of their first stack, so that an arrangement
+ * stays recognizable.
+ *
+ * A StackPacker only works on the rectangles it is given, so it may pack in
+ * any thread.
+ */
+class StackPacker {
+
+    /** The minimum space between stacks */
+    static final int BUFFER_BETWEEN_BLOCKS = 20;
+
+    private StackPacker() {
+    }
+
+    /**
+     * Packs the specified stack bounds into columns no taller than height.
+     * @param stacks the bounds of the stacks, in the coordinate space of the page
+     * @param height the height of the page
+     * @return the location of each stack, in the order of stacks
+     */
+    static Point[] pack(final List<Rectangle> stacks, int height) {
+        int n = stacks.size();
+        List<Integer> byHeight = new ArrayList<Integer>(n);
+        for (int i = 0; i < n; i++) {
+            byHeight.add(i);
+        }
+        Collections.sort(byHeight, new Comparator<Integer>() {
+
+            @Override
+            public int compare(Integer i1, Integer i2) {
+                int h1 = stacks.get(i1).height;
+                int h2 = stacks.get(i2).height;
+                if (h1 != h2) {
+                    return h1 > h2 ? -1 : 1;
+                }
+                return compareReadingOrder(stacks, i1, i2);
+            }
+        });
+
+        List<Column> columns = new ArrayList<Column>();
+        for (Integer i : byHeight) {
+            int h = stacks.get(i).height;
+            Column fit = null;
+            for (Column column : columns) {
+                if (column.used + h <= height) {
+                    fit = column;
+                    break;
+                }
+            }
+            if (fit == null) {
+                fit = new Column();
+                columns.add(fit);
+            }
+            fit.add(i, stacks.get(i));
+        }
+
+        Comparator<Integer> readingOrder = new Comparator<Integer>() {
+
+            @Override
+            public int compare(Integer i1, Integer i2) {
+                return compareReadingOrder(stacks, i1, i2);
+            }
+        };
+        for (Column column : columns) {
+            Collections.sort(column.stacks, readingOrder);
+        }
+        Collections.sort(columns, new Comparator<Column>() {
+
+            @Override
+            public int compare(Column c1, Column c2) {
+                return compareReadingOrder(stacks, c1.stacks.get(0), c2.stacks.get(0));
+            }
+        });
+
+        Point[] locations = new Point[n];
+        int x = BUFFER_BETWEEN_BLOCKS;
+        for (Column column : columns) {
+            int y = BUFFER_BETWEEN_BLOCKS;
+            for (Integer i : column.stacks) {
+                locations[i] = new Point(x, y);
+                y += stacks.get(i).height + BUFFER_BETWEEN_BLOCKS;
+            }
+            x += column.width + BUFFER_BETWEEN_BLOCKS;
+        }
+        return locations;
+    }
+
+    /**
+     * Orders stacks top to bottom, then left to right, then by index, so that
+     * no two stacks compare equal.
+     */
+    private static int compareReadingOrder(List<Rectangle> stacks, int i1, int i2) {
+        Rectangle r1 = stacks.get(i1);
+        Rectangle r2 = stacks.get(i2);
+        if (r1.y != r2.y) {
+            return r1.y < r2.y ? -1 : 1;
+        }
+        if (r1.x != r2.x) {
+            return r1.x < r2.x ? -1 : 1;
+        }
+        return i1 < i2 ? -1 : (i1 == i2 ? 0 : 1);
+    }
+
+    private static class Column {
+
+        /** The indices of the stacks in this column */
+        private final List<Integer> stacks = new ArrayList<Integer>();
+        /** The height taken by the stacks in this column, including buffers */
+        private int used = BUFFER_BETWEEN_BLOCKS;
+        private int width = 0;
+
+        void add(int i, Rectangle bounds) {
+            stacks.add(i);
+            used += bounds.height + BUFFER_BETWEEN_BLOCKS;
+            width = Math.max(width, bounds.width);
+        }
+    }
+}
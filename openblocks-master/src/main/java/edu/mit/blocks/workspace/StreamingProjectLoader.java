@@ -0,0 +1,417 @@
+package edu.mit.blocks.workspace;
+
+import java.awt.Color;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringTokenizer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import edu.mit.blocks.codeblocks.Block;
+import edu.mit.blocks.codeblocks.BlockGenus;
+
+/**
+ * A StreamingProjectLoader loads the pages and blocks of a saved project
+ * without building a DOM of the whole project and without creating any
+ * Swing component up front.
+ *
+ * Loading happens in three steps:
+ * 1) load() reads the project with a StAX parser in a single pass.  It
+ *    keeps track of the largest block id while reading, and turns each
+ *    Block or BlockStub element of a page into a small DOM fragment that
+ *    Block.loadBlockFrom() can read.
+ * 2) load() then creates the Block instances.  Blocks that neither are
+ *    stubs nor have stubs do not depend on each other, so the blocks of
+ *    each page are created on their own thread.  Stubs and their parents
+ *    share the stub maps of the WorkspaceEnvironment and are created
+ *    afterwards, in document order, on the calling thread.
+ * 3) addPages() adds the loaded pages to the workspace.  The
+ *    RenderableBlocks of a page are only created when that page is
+ *    first shown or its blocks are first requested.
+ *
+ * Clients that only need the Block model, such as batch graders, may call
+ * load() alone and never create a page, or load into an environment that
+ * has no workspace at all (see {@link BlockModel}).  Page drawers, block drawer sets
+ * and workspace settings are not read by this loader; use
+ * Workspace.loadWorkspaceFrom() when these are needed.
+ *
+ * A StreamingProjectLoader is not itself thread-safe; use one instance
+ * per project being loaded.
+ */
+public class StreamingProjectLoader {
+
+    /** The environment to load blocks into */
+    private final WorkspaceEnvironment env;
+    /** The workspace to add pages to, or null if env has none */
+    private final Workspace workspace;
+    /** The largest block id read so far by load() */
+    private long maxId;
+
+    /**
+     * Constructs a new StreamingProjectLoader
+     * @param workspace the workspace to load blocks into
+     */
+    public StreamingProjectLoader(Workspace workspace) {
+        this(workspace.getEnv());
+    }
+
+    /**
+     * Constructs a new StreamingProjectLoader that only loads the Block
+     * instances of a project.  Pages may not be added if the environment
+     * does not belong to a workspace.
+     * @param env the environment to load blocks into
+     */
+    public StreamingProjectLoader(WorkspaceEnvironment env) {
+        this.env = env;
+        this.workspace = env.getWorkspace();
+    }
+
+    /**
+     * Reads the project in the specified stream and loads the Block
+     * instances of all its pages into the workspace.
+     * @param in the stream holding the saved project
+     * @return the pages of the project, in document order
+     * @throws RuntimeException if the project could not be read
+     */
+    public List<LoadedPage> load(InputStream in) {
+        List<LoadedPage> pages = readPages(in);
+        env.reserveBlockID(maxId);
+        loadBlocks(pages);
+        return pages;
+    }
+
+    /**
+     * Adds the specified pages to the workspace.  The first page replaces
+     * the workspace's first page, like Workspace.loadWorkspaceFrom() does.
+     * The RenderableBlocks of each page are created when the page is first
+     * shown.
+     * @param pages the pages returned by load()
+     * @throws IllegalStateException if the environment loaded into does not
+     * 			belong to a workspace
+     */
+    public void addPages(List<LoadedPage> pages) {
+        if (workspace == null) {
+            throw new IllegalStateException("no workspace to add pages to");
+        }
+        for (int i = 0; i < pages.size(); i++) {
+            LoadedPage loaded = pages.get(i);
+            Page page = new Page(workspace, loaded.name, loaded.width, 0, loaded.drawer,
+                    loaded.inFullview, loaded.color, loaded.collapsible);
+            page.setPageId(loaded.pageId);
+            if (i == 0) {
+                workspace.putPage(page, 0);
+            } else {
+                workspace.addPage(page, i);
+            }
+            page.addPendingBlocks(loaded.getBlockNodes());
+        }
+        //the loaded blocks are the starting point for undo
+        workspace.getReundoManager().reset();
+    }
+
+    //////////////////////////////
+    //READING					//
+    //////////////////////////////
+    private List<LoadedPage> readPages(InputStream in) {
+        List<LoadedPage> pages = new ArrayList<LoadedPage>();
+        maxId = 1;
+        try {
+            DocumentBuilder builder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+            XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(in);
+            try {
+                boolean collapsible = true;
+                LoadedPage page = null;
+                boolean inPageBlocks = false;
+                while (reader.hasNext()) {
+                    int event = reader.next();
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        String name = reader.getLocalName();
+                        if (inPageBlocks && (name.equals("Block") || name.equals("BlockStub"))) {
+                            page.nodes.add(readElement(reader, page.document));
+                            continue;
+                        }
+                        trackIds(reader);
+                        if (name.equals("Pages")) {
+                            collapsible = !"no".equals(reader.getAttributeValue(null, "collapsible-pages"));
+                        } else if (name.equals("Page")) {
+                            page = new LoadedPage(reader, collapsible, builder.newDocument());
+                            pages.add(page);
+                        } else if (name.equals("PageBlocks")) {
+                            inPageBlocks = page != null;
+                        }
+                    } else if (event == XMLStreamConstants.END_ELEMENT) {
+                        String name = reader.getLocalName();
+                        if (name.equals("PageBlocks")) {
+                            inPageBlocks = false;
+                        } else if (name.equals("Page")) {
+                            page = null;
+                        }
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new RuntimeException(e);
+        } catch (ParserConfigurationException e) {
+            throw new RuntimeException(e);
+        }
+        return pages;
+    }
+
+    /**
+     * Reads the element the reader is positioned at, including all its
+     * descendants, into a new DOM element owned by document.  Leaves the
+     * reader positioned at the end of the element.
+     */
+    private Element readElement(XMLStreamReader reader, Document document) throws XMLStreamException {
+        Element root = createElement(reader, document);
+        Node current = root;
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            switch (event) {
+                case XMLStreamConstants.START_ELEMENT:
+                    Element child = createElement(reader, document);
+                    current.appendChild(child);
+                    current = child;
+                    depth++;
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    current = current.getParentNode();
+                    depth--;
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    current.appendChild(document.createTextNode(reader.getText()));
+                    break;
+                default:
+                    break;
+            }
+        }
+        return root;
+    }
+
+    private Element createElement(XMLStreamReader reader, Document document) {
+        Element element = document.createElement(getQualifiedName(reader.getPrefix(), reader.getLocalName()));
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            element.setAttribute(getQualifiedName(reader.getAttributePrefix(i), reader.getAttributeLocalName(i)),
+                    reader.getAttributeValue(i));
+        }
+        trackIds(reader);
+        return element;
+    }
+
+    private static String getQualifiedName(String prefix, String localName) {
+        if (prefix == null || prefix.length() == 0) {
+            return localName;
+        }
+        return prefix + ":" + localName;
+    }
+
+    /**
+     * Updates maxId with the id attribute of the element the reader is
+     * positioned at, if any.  Equivalent to evaluating //@id over the
+     * whole project, one element at a time.
+     */
+    private void trackIds(XMLStreamReader reader) {
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            if (reader.getAttributeLocalName(i).equals("id")) {
+                long id = Long.parseLong(reader.getAttributeValue(i));
+                maxId = id > maxId ? id : maxId;
+            }
+        }
+    }
+
+    //////////////////////////////
+    //BLOCK MODELS				//
+    //////////////////////////////
+    private void loadBlocks(final List<LoadedPage> pages) {
+        if (pages.isEmpty()) {
+            return;
+        }
+        int threads = Math.min(pages.size(), Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (final LoadedPage page : pages) {
+                page.ids = new Long[page.nodes.size()];
+                futures.add(executor.submit(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        loadBlocks(page, false);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+        for (LoadedPage page : pages) {
+            loadBlocks(page, true);
+        }
+    }
+
+    /**
+     * Creates the Block instances of the specified page that either do or
+     * do not depend on the stub maps of the WorkspaceEnvironment.
+     */
+    private void loadBlocks(LoadedPage page, boolean dependent) {
+        for (int i = 0; i < page.nodes.size(); i++) {
+            Element node = page.nodes.get(i);
+            if (isStubDependent(node) == dependent) {
+                page.ids[i] = Block.loadBlockFrom(env, node, null).getBlockID();
+            }
+        }
+    }
+
+    /**
+     * @return true if the block loaded from node would read or write
+     * 			the stub maps of the WorkspaceEnvironment
+     */
+    private boolean isStubDependent(Element node) {
+        if (!node.getNodeName().equals("Block")) {
+            return true;
+        }
+        BlockGenus genus = env.getGenusWithName(node.getAttribute("genus-name"));
+        return genus == null || genus.hasStubs();
+    }
+
+    /**
+     * A LoadedPage holds the attributes of a page read by a
+     * StreamingProjectLoader along with the blocks loaded for it.
+     */
+    public static class LoadedPage {
+
+        private final String name;
+        private final Color color;
+        private final int width;
+        private final String drawer;
+        private final boolean inFullview;
+        private final String pageId;
+        private final boolean collapsible;
+        /** The document owning the elements of this page.  Each page has its own
+         * document since DOM implementations do not support concurrent reads
+         * across nodes of a single document. */
+        private final Document document;
+        /** The Block and BlockStub elements of this page, in document order */
+        private final List<Element> nodes = new ArrayList<Element>();
+        /** The ids of the blocks loaded from nodes, by index */
+        private Long[] ids;
+
+        private LoadedPage(XMLStreamReader reader, boolean collapsible, Document document) {
+            this.document = document;
+            this.name = reader.getAttributeValue(null, "page-name");
+            this.color = getColorValue(reader.getAttributeValue(null, "page-color"));
+            String pageWidth = reader.getAttributeValue(null, "page-width");
+            this.width = pageWidth == null ? 0 : Integer.parseInt(pageWidth);
+            this.drawer = reader.getAttributeValue(null, "page-drawer");
+            this.inFullview = !"no".equals(reader.getAttributeValue(null, "page-infullview"));
+            this.pageId = reader.getAttributeValue(null, "page-id");
+            this.collapsible = collapsible;
+        }
+
+        private static Color getColorValue(String color) {
+            if (color != null) {
+                StringTokenizer col = new StringTokenizer(color);
+                if (col.countTokens() == 3) {
+                    return new Color(Integer.parseInt(col.nextToken()), Integer.parseInt(col.nextToken()), Integer.parseInt(col.nextToken()));
+                }
+            }
+            return null;
+        }
+
+        /**
+         * @return the name of this page
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the color of this page, or null if none was saved
+         */
+        Color getColor() {
+            return color;
+        }
+
+        /**
+         * @return the width of this page, or 0 if none was saved
+         */
+        int getWidth() {
+            return width;
+        }
+
+        /**
+         * @return the drawer of this page, or null if it has none
+         */
+        String getDrawer() {
+            return drawer;
+        }
+
+        /**
+         * @return true if this page is in fullview
+         */
+        boolean isInFullview() {
+            return inFullview;
+        }
+
+        /**
+         * @return true if the pages of the project this page was read from
+         * 			are collapsible
+         */
+        boolean isCollapsible() {
+            return collapsible;
+        }
+
+        /**
+         * @return the user-time unique id of this page, or null if none was saved
+         */
+        public String getPageId() {
+            return pageId;
+        }
+
+        /**
+         * @return the ids of the blocks loaded for this page, in document order
+         */
+        public List<Long> getBlockIDs() {
+            return new ArrayList<Long>(getBlockNodes().keySet());
+        }
+
+        Map<Long, Node> getBlockNodes() {
+            Map<Long, Node> blocks = new LinkedHashMap<Long, Node>();
+            for (int i = 0; i < nodes.size(); i++) {
+                if (ids != null && ids[i] != null) {
+                    blocks.put(ids[i], nodes.get(i));
+                }
+            }
+            return blocks;
+        }
+    }
+}
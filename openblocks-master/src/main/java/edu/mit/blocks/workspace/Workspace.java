@@ -5,16 +5,21 @@ import java.awt.Component;
 import java.awt.Container;
 import java.awt.Dimension;
 import java.awt.Point;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.ComponentAdapter;
 import java.awt.event.ComponentEvent;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeSet;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -23,9 +28,12 @@ import javax.swing.JComponent;
 import javax.swing.JLayeredPane;
 import javax.swing.JSplitPane;
 import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
 import javax.xml.xpath.XPathFactory;
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathExpression;
@@ -39,8 +47,11 @@ import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
 import edu.mit.blocks.codeblocks.Block;
+import edu.mit.blocks.codeblocks.BlockConnector;
+import edu.mit.blocks.codeblocks.BlockLinkChecker;
 import edu.mit.blocks.codeblocks.ProcedureOutputManager;
 import edu.mit.blocks.codeblocks.VariableOutputManager;
+import edu.mit.blocks.codeblocks.rendering.ShapeFingerprint;
 import edu.mit.blocks.codeblockutil.Explorer;
 import edu.mit.blocks.codeblockutil.ExplorerEvent;
 import edu.mit.blocks.codeblockutil.ExplorerListener;
@@ -58,17 +69,21 @@ public class Workspace extends JLayeredPane implements ISupportMemento, RBParent
     private static final long serialVersionUID = 328149080422L;
 
     // the environment wrapps all the components of a workspace (Blocks, RenderableBlocks, BlockStubs, BlockGenus)
-    private final WorkspaceEnvironment env = new WorkspaceEnvironment();
+    private final WorkspaceEnvironment env = new WorkspaceEnvironment(this);
 
     public WorkspaceEnvironment getEnv() {
         return this.env;
     }
 
+    // the type information of the procedures and variables of this workspace
+    private final ProcedureOutputManager procedureOutputManager;
+    private final VariableOutputManager variableOutputManager;
+
     /** WorkspaceListeners that monitor:
      * block: added, removed, dropped, label changed, connected, disconnected
      * workspace: scrolled, zoom changed
      */
-    private HashSet<WorkspaceListener> workspaceListeners = new HashSet<WorkspaceListener>();
+    private final WorkspaceEventBus eventBus = new WorkspaceEventBus();
 
     /** WorkspaceWidgets are components within the workspace other than blocks that
      * include bars, buttons, factory drawers, and single instance widgets such as
@@ -124,6 +139,8 @@ public class Workspace extends JLayeredPane implements ISupportMemento, RBParent
 
     private final TypeBlockManager typeBlockManager;
 
+    private final ReundoManager reundoManager;
+
     /// RENDERING LAYERS ///
     public final static Integer PAGE_LAYER = new Integer(0);
     public final static Integer BLOCK_HIGHLIGHT_LAYER = new Integer(1);
@@ -139,7 +156,13 @@ public class Workspace extends JLayeredPane implements ISupportMemento, RBParent
         setPreferredSize(new Dimension(800, 600));
 
         this.factory = new FactoryManager(this);
+        this.procedureOutputManager = new ProcedureOutputManager(this);
+        this.variableOutputManager = new VariableOutputManager(this);
+        this.zoomSettleTimer.setRepeats(false);
         this.addWorkspaceListener(this.factory);
+        //other listeners query the index, so it must be up to date before they run
+        this.addWorkspaceListener(this.env.getBlockIndex(), WorkspaceEventBus.HIGH_PRIORITY, WorkspaceEventBus.Delivery.SYNCHRONOUS);
+        this.addWorkspaceListener(this.env.getKeywordIndex(), WorkspaceEventBus.HIGH_PRIORITY, WorkspaceEventBus.Delivery.SYNCHRONOUS);
         this.blockCanvas.getHorizontalModel().addChangeListener(this);
         for (final Explorer exp : factory.getNavigator().getExplorers()) {
             exp.addListener(this);
@@ -147,6 +170,7 @@ public class Workspace extends JLayeredPane implements ISupportMemento, RBParent
 
         this.miniMap = new MiniMap(this);
         this.addWidget(this.miniMap, true, true);
+        this.addWorkspaceListener(this.miniMap);
         this.addComponentListener(new ComponentAdapter() {
             public void componentResized(ComponentEvent e) {
                 miniMap.repositionMiniMap();
@@ -169,6 +193,10 @@ public class Workspace extends JLayeredPane implements ISupportMemento, RBParent
         this.focusManager = new FocusTraversalManager(this);
 
         this.typeBlockManager = new TypeBlockManager(this, blockCanvas);
+
+        this.reundoManager = new ReundoManager(this);
+        //steps should record the changes made by the other listeners, such as link rules
+        this.addWorkspaceListener(this.reundoManager, WorkspaceEventBus.LOW_PRIORITY, WorkspaceEventBus.Delivery.SYNCHRONOUS);
     }
 
     /*
@@ -359,12 +387,12 @@ public class Workspace extends JLayeredPane implements ISupportMemento, RBParent
      *  	(2) dead blocks,
      *  	(3) or subset blocks.
      *  If no blocks are found, it returns an empty set.
-     * @return all the RenderableBlocks in the Workspace
+     * @return a live, read-only view of all the RenderableBlocks in the Workspace
      * 		   or an empty set if none exists.
      */
     public Iterable<RenderableBlock> getRenderableBlocks() {
-        //TODO: performance issue, must iterate through all blocks
-        return blockCanvas.getBlocks();
+        blockCanvas.loadPendingBlocks();
+        return env.getBlockIndex().getBlocks();
     }
 
     /**
@@ -374,16 +402,11 @@ public class Workspace extends JLayeredPane implements ISupportMemento, RBParent
      *  	(2) dead blocks,
      *  	(3) or subset blocks.
      *  If no blocks are found, it returns an empty set.
-     * @return all the Blocks in the Workspace
+     * @return a live, read-only view of all the Blocks in the Workspace
      * 		   or an empty set if none exists.
      */
     public Iterable<Block> getBlocks() {
-        //TODO: performance issue, must iterate through all blocks
-        final ArrayList<Block> blocks = new ArrayList<Block>();
-        for (final RenderableBlock renderable : blockCanvas.getBlocks()) {
-            blocks.add(getEnv().getBlock(renderable.getBlockID()));
-        }
-        return blocks;
+        return getBlocks(getRenderableBlocks());
     }
 
     /**
@@ -395,18 +418,12 @@ public class Workspace extends JLayeredPane implements ISupportMemento, RBParent
      *  	(4) or subset blocks.
      *  If no blocks are found, it returns an empty set.
      * @param genusName - the genus name of the blocks to return
-     * @return all the RenderableBlocks of the specified genus
+     * @return a live, read-only view of all the RenderableBlocks of the specified genus
      * 		   or an empty set if none exists.
      */
     public Iterable<RenderableBlock> getRenderableBlocksFromGenus(String genusName) {
-        //TODO: performance issue, must iterate through all blocks
-        ArrayList<RenderableBlock> blocks = new ArrayList<RenderableBlock>();
-        for (RenderableBlock block : blockCanvas.getBlocks()) {
-            if (getEnv().getBlock(block.getBlockID()).getGenusName().equals(genusName)) {
-                blocks.add(block);
-            }
-        }
-        return blocks;
+        blockCanvas.loadPendingBlocks();
+        return env.getBlockIndex().getBlocksFromGenus(genusName);
     }
 
     /**
@@ -418,25 +435,47 @@ public class Workspace extends JLayeredPane implements ISupportMemento, RBParent
      *  	(4) or subset blocks.
      *  If no blocks are found, it returns an empty set.
      * @param genusName - the genus name of the blocks to return
-     * @return all the Blocks of the specified genus
+     * @return a live, read-only view of all the Blocks of the specified genus
      * 		   or an empty set if none exists.
      */
     public Iterable<Block> getBlocksFromGenus(String genusName) {
-        //TODO: performance issue, must iterate through all blocks
-        ArrayList<Block> blocks = new ArrayList<Block>();
-        for (RenderableBlock renderable : blockCanvas.getBlocks()) {
-            Block block = getEnv().getBlock(renderable.getBlockID());
-            if (block.getGenusName().equals(genusName)) {
-                blocks.add(block);
+        return getBlocks(getRenderableBlocksFromGenus(genusName));
+    }
+
+    /**
+     * @return a live view of the Blocks of the specified RenderableBlocks
+     */
+    private Iterable<Block> getBlocks(final Iterable<RenderableBlock> renderables) {
+        return new Iterable<Block>() {
+
+            @Override
+            public Iterator<Block> iterator() {
+                final Iterator<RenderableBlock> it = renderables.iterator();
+                return new Iterator<Block>() {
+
+                    @Override
+                    public boolean hasNext() {
+                        return it.hasNext();
+                    }
+
+                    @Override
+                    public Block next() {
+                        return env.getBlock(it.next().getBlockID());
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
             }
-        }
-        return blocks;
+        };
     }
 
     /**
      * Returns the top level blocks in the Workspace (blocks that are
      * parents of stacks)
-     * @return the top level blocks in the Workspace
+     * @return a live, read-only view of the top level blocks in the Workspace
      */
     public Iterable<RenderableBlock> getTopLevelBlocks() {
         return blockCanvas.getTopLevelBlocks();
@@ -444,11 +483,10 @@ public class Workspace extends JLayeredPane implements ISupportMemento, RBParent
 
     /**
      * Cleans up all the blocks within the block canvas using the default
-     * arrangement algorithm.
-     * TODO ria for now its the naive arranger that uses just the y-coor.
+     * arrangement algorithm, flying the blocks to their new location.
      */
     public void cleanUpAllBlocks() {
-        blockCanvas.arrangeAllBlocks();
+        blockCanvas.arrangeAllBlocks(true);
     }
 
     /**
@@ -469,14 +507,22 @@ public class Workspace extends JLayeredPane implements ISupportMemento, RBParent
     // WORKSPACE LISTENERS
     //////////////////////////
     /**
-     * Adds the specified WorkspaceListener
+     * Adds the specified WorkspaceListener.  The listener is notified of each
+     * event synchronously, with normal priority.
      */
     public void addWorkspaceListener(WorkspaceListener listener) {
-        if (listener != null) {
-            // warn of duplicate adds
-            assert (!workspaceListeners.contains(listener)) : "WorkspaceListener " + listener.toString() + " has already been added.";
-            workspaceListeners.add(listener);
-        }
+        eventBus.addListener(listener);
+    }
+
+    /**
+     * Adds the specified WorkspaceListener with the specified priority and delivery.
+     * See WorkspaceEventBus for the available deliveries.
+     * @param listener the listener to add
+     * @param priority listeners of higher priority are notified first
+     * @param delivery how the listener is notified
+     */
+    public void addWorkspaceListener(WorkspaceListener listener, int priority, WorkspaceEventBus.Delivery delivery) {
+        eventBus.addListener(listener, priority, delivery);
     }
 
     /**
@@ -485,7 +531,7 @@ public class Workspace extends JLayeredPane implements ISupportMemento, RBParent
      */
     public void removeWorkspaceListener(WorkspaceListener listener) {
         if (listener != null) {
-            workspaceListeners.remove(listener);
+            eventBus.removeListener(listener);
         }
     }
 
@@ -494,9 +540,15 @@ public class Workspace extends JLayeredPane implements ISupportMemento, RBParent
      * @param event
      */
     public void notifyListeners(WorkspaceEvent event) {
-        for (WorkspaceListener wl : workspaceListeners) {
-            wl.workspaceEventOccurred(event);
-        }
+        eventBus.notifyListeners(event);
+    }
+
+    /**
+     * @return the bus delivering the events of this workspace, which also
+     * 			keeps the timing counters of each listener
+     */
+    public WorkspaceEventBus getEventBus() {
+        return eventBus;
     }
 
     ////////////////////
@@ -521,59 +573,165 @@ public class Workspace extends JLayeredPane implements ISupportMemento, RBParent
     ///////////////////
     // WORKSPACE ZOOM
     ///////////////////
+    /** The delay, in milliseconds, after the last previewed zoom before the blocks are reshaped to it */
+    private static final int ZOOM_SETTLE_DELAY = 150;
+    /** The time, in milliseconds, reshaping blocks to a new zoom may take per event */
+    private static final long ZOOM_BATCH_BUDGET = 15;
     private double zoom = 1.0;
+    /** The top-level blocks still to be reshaped to the current zoom */
+    private final Deque<RenderableBlock> pendingZoomBlocks = new ArrayDeque<RenderableBlock>();
+    /** The shapes whose bevels were handed to the background for the current zoom */
+    private final Set<ShapeFingerprint> prewarmedZoomShapes = new HashSet<ShapeFingerprint>();
+    private final Timer zoomSettleTimer = new Timer(ZOOM_SETTLE_DELAY, new ActionListener() {
+
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            startZoomCommit(Page.getZoomLevel());
+            zoomBatchTimer.start();
+        }
+    });
+    private final Timer zoomBatchTimer = new Timer(0, new ActionListener() {
+
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            if (commitZoomBatch(System.currentTimeMillis() + ZOOM_BATCH_BUDGET, true)) {
+                zoomBatchTimer.stop();
+            }
+        }
+    });
 
     /**
      * Sets the Workspace zoom at the specified zoom level
      * @param newZoom the desired zoom level
      */
     public void setWorkspaceZoom(double newZoom) {
-        double oldZoom = this.zoom;
-        int cDX = 0, cDY = 0;
+        zoomSettleTimer.stop();
+        zoomBatchTimer.stop();
+        startZoomCommit(newZoom);
+        commitZoomBatch(Long.MAX_VALUE, false);
+    }
 
-        this.zoom = newZoom;
+    /**
+     * Shows the Workspace at the specified zoom level right away, and
+     * reshapes its blocks to it once the zoom level stops changing.
+     *
+     * Until then, the pages are resized to the new zoom level and paint the
+     * blocks laid out at the previous one through a scale transform, so that
+     * a zoom level can be previewed on every step of a slider drag without
+     * reshaping every block.  Once the zoom level settles, the stacks are
+     * reshaped a few at a time, each of them painted at its own zoom level
+     * until it is reshaped, while the bevels of the shapes reshaped so far
+     * are rendered in the background.  The pages take no mouse input until
+     * every stack is reshaped, since the blocks are not where they are shown.
+     * @param newZoom the desired zoom level
+     */
+    public void previewWorkspaceZoom(double newZoom) {
+        zoomBatchTimer.stop();
+        Page.setZoomLevel(newZoom);
+        //resizes the pages and the scroll extents to the new zoom, and repaints them
+        getBlockCanvas().reformBlockCanvas();
+        zoomSettleTimer.restart();
+    }
 
+    /**
+     * Starts reshaping the blocks to the specified zoom level.  Factory blocks
+     * are reshaped right away, while the top-level blocks are queued to be
+     * reshaped along with their stacks by commitZoomBatch().
+     */
+    private void startZoomCommit(double newZoom) {
+        this.zoom = newZoom;
         BlockUtilities.setZoomLevel(newZoom);
-        for (RenderableBlock block : getRenderableBlocks()) {
+        Page.setZoomLevel(newZoom);
+        for (RenderableBlock block : getFactoryManager().getLoadedBlocks()) {
             block.setZoomLevel(newZoom);
         }
-        for (RenderableBlock block : getFactoryManager().getBlocks()) {
-            block.setZoomLevel(newZoom);
+        pendingZoomBlocks.clear();
+        prewarmedZoomShapes.clear();
+        for (Page p : getBlockCanvas().getPages()) {
+            pendingZoomBlocks.addAll(p.getTopLevelBlocks());
+        }
+    }
+
+    /**
+     * Reshapes queued stacks to the current zoom until the queue is empty or
+     * the specified deadline passes.
+     * @param deadline the time, in milliseconds, after which no other stack is reshaped
+     * @param prewarm true to render the bevels of the shapes of each reshaped
+     * 			stack in the background, once per distinct shape
+     * @return true if every block was reshaped
+     */
+    private boolean commitZoomBatch(long deadline, boolean prewarm) {
+        while (!pendingZoomBlocks.isEmpty()) {
+            List<RenderableBlock> reshaped = setStackZoom(pendingZoomBlocks.poll(), this.zoom);
+            if (prewarm) {
+                BlockUtilities.prewarmBevelImages(reshaped, new double[0], prewarmedZoomShapes);
+            }
+            if (System.currentTimeMillis() >= deadline && !pendingZoomBlocks.isEmpty()) {
+                return false;
+            }
+        }
+        // blocks that are not part of a page, such as a block being dragged
+        for (RenderableBlock block : getRenderableBlocks()) {
+            if (block.getZoom() != this.zoom) {
+                block.setZoomLevel(this.zoom);
+            }
         }
+        Page.setLayoutZoom(this.zoom);
         for (Page p : getBlockCanvas().getPages()) {
-            for (RenderableBlock block : p.getTopLevelBlocks()) {
-
-                // checks if the x and y position has not been set yet, this happens when
-                // a previously saved project is just opened and the blocks have not been
-                // moved yet. otherwise, the unzoomed X and Y are calculated in RenderableBlock
-                if (block.getUnzoomedX() == 0.0 && block.getUnzoomedY() == 0.0) {
-                    if (newZoom == 1.0) {
-                        block.setUnzoomedX(block.getX());
-                        block.setUnzoomedY(block.getY());
-                    } else {
-                        block.setUnzoomedX(block.calculateUnzoomedX(block.getX()));
-                        block.setUnzoomedY(block.calculateUnzoomedY(block.getY()));
-                    }
-                } else {
-                }
+            p.getJComponent().repaint();
+        }
+        miniMap.update();
+        return true;
+    }
 
+    /**
+     * Reshapes the stack of the specified top-level block to the specified
+     * zoom level, and moves the stack and its comment to their position at it.
+     * @return the blocks of the stack
+     */
+    private List<RenderableBlock> setStackZoom(RenderableBlock block, double newZoom) {
+        double oldZoom = block.getZoom();
+        int cDX = 0, cDY = 0;
 
-                if (block.hasComment()) {
-                    //determine the new relative position of the comment based on the current relative position
-                    cDX = (int) ((block.getComment().getX() - block.getX()) / oldZoom * newZoom);
-                    cDY = (int) ((block.getComment().getY() - block.getY()) / oldZoom * newZoom);
-                }
-                // calculates the new position based on the initial position when zoom is at 1.0
-                block.setLocation((int) (block.getUnzoomedX() * this.zoom), (int) (block.getUnzoomedY() * this.zoom));
-                if (block.hasComment()) {
-                    //Set the comment location to the new relative position
-                    block.getComment().setLocation(block.getX() + cDX, block.getY() + cDY);
+        // checks if the x and y position has not been set yet, this happens when
+        // a previously saved project is just opened and the blocks have not been
+        // moved yet. otherwise, the unzoomed X and Y are calculated in RenderableBlock
+        if (block.getUnzoomedX() == 0.0 && block.getUnzoomedY() == 0.0) {
+            block.setUnzoomedX(block.calculateUnzoomedX(block.getX()));
+            block.setUnzoomedY(block.calculateUnzoomedY(block.getY()));
+        }
+        if (block.hasComment()) {
+            //determine the new relative position of the comment based on the current relative position
+            cDX = (int) ((block.getComment().getX() - block.getX()) / oldZoom * newZoom);
+            cDY = (int) ((block.getComment().getY() - block.getY()) / oldZoom * newZoom);
+        }
+
+        List<RenderableBlock> blocks = new ArrayList<RenderableBlock>();
+        Deque<RenderableBlock> stack = new ArrayDeque<RenderableBlock>();
+        stack.push(block);
+        while (!stack.isEmpty()) {
+            RenderableBlock rb = stack.pop();
+            rb.setZoomLevel(newZoom);
+            blocks.add(rb);
+            for (BlockConnector socket : BlockLinkChecker.getSocketEquivalents(rb.getBlock())) {
+                if (socket.hasBlock()) {
+                    RenderableBlock child = getEnv().getRenderableBlock(socket.getBlockID());
+                    if (child != null) {
+                        stack.push(child);
+                    }
                 }
-                block.redrawFromTop();
-                block.repaint();
             }
         }
-        Page.setZoomLevel(newZoom);
+
+        // calculates the new position based on the initial position when zoom is at 1.0
+        block.setLocation((int) (block.getUnzoomedX() * newZoom), (int) (block.getUnzoomedY() * newZoom));
+        if (block.hasComment()) {
+            //Set the comment location to the new relative position
+            block.getComment().setLocation(block.getX() + cDX, block.getY() + cDY);
+        }
+        block.redrawFromTop();
+        block.repaint();
+        return blocks;
     }
 
     /**
@@ -740,6 +898,20 @@ public class Workspace extends JLayeredPane implements ISupportMemento, RBParent
         return factory;
     }
 
+    /**
+     * @return the manager of the output types of the procedures of this workspace
+     */
+    public ProcedureOutputManager getProcedureOutputManager() {
+        return procedureOutputManager;
+    }
+
+    /**
+     * @return the manager of the types of the variables of this workspace
+     */
+    public VariableOutputManager getVariableOutputManager() {
+        return variableOutputManager;
+    }
+
     /**
      * Returns an unmodifiable Iterable of all the SearchableContainers within this
      * workspace.
@@ -785,6 +957,16 @@ public class Workspace extends JLayeredPane implements ISupportMemento, RBParent
     	return blockCanvas.getSaveNode(document);
     }
 
+    /**
+     * Writes the node of this to the specified writer.  Currently writes
+     * the BlockCanvas node only.
+     * @param writer the writer to write the node to
+     * @throws XMLStreamException if the node could not be written
+     */
+    public void writeSaveNode(XMLStreamWriter writer) throws XMLStreamException {
+        blockCanvas.writeSaveNode(writer);
+    }
+
     
     /**
      * Set the MaxBlockId for WorkspaceEnvironment 
@@ -838,8 +1020,8 @@ public class Workspace extends JLayeredPane implements ISupportMemento, RBParent
     	setMaxBlockId(newRoot, originalLangRoot);
     	
         //reset procedure output information POM finishload
-        ProcedureOutputManager.finishLoad();
-        VariableOutputManager.finishLoad();
+        procedureOutputManager.finishLoad();
+        variableOutputManager.finishLoad();
 
         if (newRoot != null) {
             PageDrawerLoadingUtils.loadBlockDrawerSets(this, originalLangRoot, factory); //
@@ -858,6 +1040,8 @@ public class Workspace extends JLayeredPane implements ISupportMemento, RBParent
             loadWorkspaceSettings(originalLangRoot);
         }
 
+        //the loaded blocks are the starting point for undo
+        reundoManager.reset();
     }
 
     /**
@@ -949,11 +1133,15 @@ public class Workspace extends JLayeredPane implements ISupportMemento, RBParent
 
         //We now reset, the blockcanvas, the factory, and the renderableblocks
         
+        zoomSettleTimer.stop();
+        zoomBatchTimer.stop();
+        pendingZoomBlocks.clear();
         blockCanvas.reset();
         addPageAt(Page.getBlankPage(this), 0, false); //TODO: System expects PAGE_ADDED event
         factory.reset();
 
         env.resetAll();
+        reundoManager.reset();
 
         revalidate();
     }
@@ -985,10 +1173,25 @@ public class Workspace extends JLayeredPane implements ISupportMemento, RBParent
         }
     }
 
+    /**
+     * Undoes the last user action on the blocks of this workspace, if any.
+     */
     public void undo() {
+        reundoManager.undo();
     }
 
+    /**
+     * Redoes the last undone user action, if any.
+     */
     public void redo() {
+        reundoManager.redo();
+    }
+
+    /**
+     * @return the manager tracking the undoable actions of this workspace
+     */
+    public ReundoManager getReundoManager() {
+        return reundoManager;
     }
 
     /******************************************
@@ -1,11 +1,16 @@
 package edu.mit.blocks.workspace;
 
-import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import edu.mit.blocks.codeblocks.Block;
+import edu.mit.blocks.codeblocks.BlockConnectorShape;
 import edu.mit.blocks.codeblocks.BlockGenus;
+import edu.mit.blocks.codeblocks.BlockStubRegistry;
+import edu.mit.blocks.codeblocks.LinkRuleRegistry;
 import edu.mit.blocks.renderable.RenderableBlock;
 
 /**
@@ -15,15 +20,48 @@ import edu.mit.blocks.renderable.RenderableBlock;
  * {@link RenderableBlock}
  * {@link BlockStub}
  * {@link BlockGenus}
+ * {@link LinkRule}
+ * {@link BlockConnectorShape} mappings
  *
  * This enables to separate the components of each workspace, and so to use several at the same time.
+ *
+ * Blocks and RenderableBlocks may be registered and looked up from several threads at once, so that
+ * independent pages can be loaded in parallel (see {@link StreamingProjectLoader}).
+ *
+ * An environment need not belong to a Workspace: the Blocks of an environment created without one
+ * are loaded, linked and saved without any Swing component (see {@link BlockModel}).
  * @author laurentschall
  *
  */
 
 public class WorkspaceEnvironment {
 
-	private final Map<Long, RenderableBlock> allRenderableBlocks = new HashMap<Long, RenderableBlock>();
+    /** The workspace of this environment, or null if it has none */
+    private final Workspace workspace;
+
+    /**
+     * Creates an environment that does not belong to a workspace.
+     */
+    public WorkspaceEnvironment() {
+        this(null);
+    }
+
+    /**
+     * Creates the environment of the specified workspace.
+     */
+    WorkspaceEnvironment(Workspace workspace) {
+        this.workspace = workspace;
+    }
+
+    /**
+     * @return the workspace of this environment, or null if it does not
+     * 			belong to a workspace
+     */
+    public Workspace getWorkspace() {
+        return workspace;
+    }
+
+	private final Map<Long, RenderableBlock> allRenderableBlocks = new ConcurrentHashMap<Long, RenderableBlock>();
 
     // RenderableBlock
 
@@ -33,20 +71,27 @@ public class WorkspaceEnvironment {
      * @return the Renderable specified by blockID; null if RenderableBlock does not exist
      */
     public RenderableBlock getRenderableBlock(Long blockID) {
+        if (blockID == null) {
+            return null;
+        }
         return this.allRenderableBlocks.get(blockID);
     }
 
     public void addRenderableBlock(RenderableBlock block) {
     	this.allRenderableBlocks.put(block.getBlockID(), block);
+    	this.keywordIndex.blockChanged(block.getBlockID());
     }
 
 
     // Block
 
-    private final Map<Long, Block> allBlocks = new HashMap<Long, Block>();
+    private final Map<Long, Block> allBlocks = new ConcurrentHashMap<Long, Block>();
     private long nextBlockID = 1;
 
     public Block getBlock(Long blockID) {
+        if (blockID == null) {
+            return null;
+        }
         return this.allBlocks.get(blockID);
     }
 
@@ -63,60 +108,39 @@ public class WorkspaceEnvironment {
     	this.allBlocks.put(id, block);
     }
 
-    public long getNextBlockID() {
+    public synchronized long getNextBlockID() {
     	return this.nextBlockID++;
     }
     
-    public void setNextBlockID(long blockID) {
+    public synchronized void setNextBlockID(long blockID) {
     	nextBlockID = blockID;
     }
 
-    // BlockStubs
-
-    /** STUB HASH MAPS
-     * key: parentName + parentGenus
-     *
-     * Key includes both parentName and parentGenus because the names of two parents
-     * may be the same if they are of different genii
-     * blockids of parents are not used as a reference because parents and stubs are
-     * connected by the parentName+parentGenus information not the blockID.  This
-     * connection is more apparent when the parent Block is removed/deleted.  The stubs
-     * become dangling references. These stubs are resolved when a new parent block is
-     * created with the previous parent's name.
-     * */
-    private final HashMap<String, Long> parentNameToParentBlock = new HashMap<String, Long>();
-    private final HashMap<String, ArrayList<Long>> parentNameToBlockStubs = new HashMap<String, ArrayList<Long>>();
-
-    public Long getParentBlockID(String parentName) {
-    	return this.parentNameToParentBlock.get(parentName);
-    }
-
-    public void putParentBlock(String parentName, Long parentBlockID) {
-    	this.parentNameToParentBlock.put(parentName, parentBlockID);
-    }
-
-    public void removeParentBlock(String parentName) {
-    	this.parentNameToParentBlock.remove(parentName);
-    }
-
-    public boolean containsParentBlock(String parentName) {
-    	return this.parentNameToParentBlock.containsKey(parentName);
-    }
-
-    public ArrayList<Long> getBlockStubs(String parentName) {
-    	return this.parentNameToBlockStubs.get(parentName);
+    /**
+     * Makes sure that the ids handed out by getNextBlockID() are all greater than blockID
+     * @param blockID an id already in use
+     */
+    public synchronized void reserveBlockID(long blockID) {
+        if (nextBlockID <= blockID) {
+            nextBlockID = blockID + 1;
+        }
     }
 
-    public void putBlockStubs(String parentName, ArrayList<Long> blockStubs) {
-    	this.parentNameToBlockStubs.put(parentName, blockStubs);
-    }
+    // BlockStubs
 
-    public boolean containsBlockStubs(String parentName) {
-    	return this.parentNameToBlockStubs.containsKey(parentName);
-    }
+    /**
+     * The stub parents and stubs of this workspace, keyed by parent name and genus.
+     * Parents and stubs are connected by that information rather than by block id,
+     * so that the stubs of a removed parent are resolved when a new parent block is
+     * created with the previous parent's name.
+     */
+    private final BlockStubRegistry stubRegistry = new BlockStubRegistry();
 
-    public void removeBlockStubs(String parentName) {
-    	this.parentNameToBlockStubs.remove(parentName);
+    /**
+     * @return the registry of the stub parents and stubs of this workspace
+     */
+    public BlockStubRegistry getStubRegistry() {
+    	return this.stubRegistry;
     }
 
     public void resetAll() {
@@ -128,11 +152,12 @@ public class WorkspaceEnvironment {
 
         //Block.reset();
         this.allBlocks.clear();
-        this.nextBlockID = 1;
+        setNextBlockID(1);
+        this.blockIndex.clear();
+        this.keywordIndex.clear();
 
         //BlockStub.reset();
-        this.parentNameToParentBlock.clear();
-        this.parentNameToBlockStubs.clear();
+        this.stubRegistry.clear();
     }
 
     // BlockGenuses
@@ -152,6 +177,13 @@ public class WorkspaceEnvironment {
     public void addBlockGenus(BlockGenus genus) {
     	nameToGenus.put(genus.getGenusName(), genus);
     }
+
+    /**
+     * @return all the BlockGenuses of the current language, in no particular order
+     */
+    public Collection<BlockGenus> getGenera() {
+        return Collections.unmodifiableCollection(nameToGenus.values());
+    }
     
     /**
      * Resets all the Block Genuses of current language.
@@ -160,6 +192,104 @@ public class WorkspaceEnvironment {
         nameToGenus.clear();
     }
 
+    // BlockConnectorShapes
+
+    /** Maps the language specific name of each connector shape to a shape identifying integer */
+    private final Map<String, Integer> connectorShapes = new ConcurrentHashMap<String, Integer>();
+
+    /** The shape name that maps to BlockConnectorShape.COMMAND */
+    private volatile String commandShapeName = null;
+
+    /**
+     * Adds a mapping of a language specific connector shape name to a shape
+     * identifying integer of {@link BlockConnectorShape}
+     */
+    public void addConnectorShapeMapping(String shapeName, int shape) {
+        connectorShapes.put(shapeName, shape);
+        if (shape == BlockConnectorShape.COMMAND) {
+            commandShapeName = shapeName;
+        }
+    }
+
+    /**
+     * Returns the shape identifying integer mapped to the specified connector
+     * shape name; -1 if the name is not mapped
+     */
+    public int getConnectorShapeMapping(String shapeName) {
+        Integer shape = connectorShapes.get(shapeName);
+        if (shape == null) {
+            assert false : ("Unknown Connection Type: " + shapeName);
+            return -1;
+        }
+        return shape;
+    }
+
+    /**
+     * @return the mappings of connector shape names to shape identifying integers
+     */
+    public Map<String, Integer> getConnectorShapeMappings() {
+        return Collections.unmodifiableMap(connectorShapes);
+    }
+
+    /**
+     * @return the shape name that maps to BlockConnectorShape.COMMAND
+     */
+    public String getCommandShapeName() {
+        return commandShapeName;
+    }
+
+    /**
+     * Resets all the connector shape mappings of the current language.
+     */
+    public void resetConnectorShapeMappings() {
+        connectorShapes.clear();
+        commandShapeName = null;
+    }
+
+    // LinkRules
+
+    private final LinkRuleRegistry linkRuleRegistry = new LinkRuleRegistry();
+
+    /**
+     * Returns the registry of the LinkRules of the current language.  Unlike the
+     * rest of this environment, the registry may be read from any thread.
+     * @return the LinkRuleRegistry of this workspace
+     */
+    public LinkRuleRegistry getLinkRuleRegistry() {
+        return linkRuleRegistry;
+    }
+
+    // Block indexes
+
+    private final BlockIndex blockIndex = new BlockIndex(this);
+
+    /**
+     * Returns the index of the live blocks of this environment's workspace, by genus,
+     * by page and by stack.  The Workspace keeps the index up to date.
+     * @return the BlockIndex of this environment
+     */
+    BlockIndex getBlockIndex() {
+        return blockIndex;
+    }
+
+    private final BlockKeywordIndex keywordIndex = new BlockKeywordIndex(this);
+
+    /**
+     * Returns the index of the blocks of this environment by keyword, shared by
+     * type blocking and the search bar.
+     * @return the BlockKeywordIndex of this environment
+     */
+    public BlockKeywordIndex getKeywordIndex() {
+        return keywordIndex;
+    }
+
+    /**
+     * @return all the Block instances of this environment
+     */
+    public Iterable<Block> getBlocks() {
+        return allBlocks.values();
+    }
+
     //add by HE Qichen 20120126
     public Iterable<RenderableBlock> getRenderableBlocks()
     {
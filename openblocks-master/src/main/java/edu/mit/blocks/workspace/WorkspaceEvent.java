@@ -1,5 +1,8 @@
 package edu.mit.blocks.workspace;
 
+import java.util.Collection;
+import java.util.Collections;
+
 import edu.mit.blocks.codeblocks.Block;
 import edu.mit.blocks.codeblocks.BlockLink;
 
@@ -38,6 +41,8 @@ public class WorkspaceEvent {
     private final Workspace workspace;
     
     private Long blockID = Block.NULL;
+    /** The ids of all the blocks created by a block cloned event */
+    private Collection<Long> blockIDs = null;
     private int eventType;
     private WorkspaceWidget widget = null;
     private BlockLink link = null;
@@ -114,6 +119,24 @@ public class WorkspaceEvent {
         this.userSpawned = userSpawned;
     }
 
+    /**
+     * Constructs a new WorkspaceEvent.  This constructor should be used to report
+     * block cloned events, all the blocks cloned at once being reported by a single
+     * event.
+     * @param widget the widget the clones were added to
+     * @param blockID the id of the first block of the clone
+     * @param blockIDs the ids of all the blocks created, including blockID
+     * @param eventType
+     */
+    public WorkspaceEvent(Workspace workspace, WorkspaceWidget widget, Long blockID, Collection<Long> blockIDs, int eventType, boolean userSpawned) {
+        this.workspace = workspace;
+        this.widget = widget;
+        this.eventType = eventType;
+        this.blockID = blockID;
+        this.blockIDs = Collections.unmodifiableCollection(blockIDs);
+        this.userSpawned = userSpawned;
+    }
+
     /**
      * Constructs a new WorkspaceEvent.  This constructor should be used to report
      * block connected/disconnected events.  The specified link contains the connection 
@@ -171,6 +194,30 @@ public class WorkspaceEvent {
         return blockID;
     }
 
+    /**
+     * Returns the ids of all the blocks this event occurred on: for block cloned
+     * events, every block created, and otherwise the source block alone, if any.
+     */
+    public Collection<Long> getSourceBlockIDs() {
+        if (blockIDs != null) {
+            return blockIDs;
+        }
+        if (blockID == null || Block.NULL.equals(blockID)) {
+            return Collections.emptyList();
+        }
+        return Collections.singletonList(blockID);
+    }
+
+    /**
+     * Returns true if this event reports blocks created by cloning, in which
+     * case listeners interested in added blocks should treat every block of
+     * getSourceBlockIDs() as added.
+     */
+    public boolean isBlockCloned() {
+        return eventType == BLOCK_CLONED || eventType == BLOCK_CLONED_THIS
+                || eventType == BLOCK_CLONED_RIGHT || eventType == BLOCK_CLONED_ALL;
+    }
+
     /**
      * Returns the int event type of this
      * @return the int event type of this
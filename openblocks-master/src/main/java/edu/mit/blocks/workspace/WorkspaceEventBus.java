@@ -0,0 +1,312 @@
+package edu.mit.blocks.workspace;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import javax.swing.SwingUtilities;
+
+import edu.mit.blocks.codeblocks.Block;
+
+/**
+ * A WorkspaceEventBus delivers the WorkspaceEvents of a single workspace to
+ * its WorkspaceListeners.
+ *
+ * Listeners are called in order of decreasing priority, and in the order
+ * they were added for equal priorities.  Each listener is registered with
+ * one of three deliveries:
+ * - SYNCHRONOUS listeners are called from notifyListeners() itself, before it
+ *   returns.  This is how all listeners used to be called, and is the default.
+ * - COALESCED listeners are called later on the event dispatch thread.  While
+ *   an event waits to be delivered to such a listener, a newer BLOCK_MOVED
+ *   event for the same block replaces it, so a listener that only needs the
+ *   latest position of each block does not run once per intermediate move.
+ * - BACKGROUND listeners are called later, and coalesced the same way, on a
+ *   thread shared by all background listeners of the bus.  They must not touch
+ *   any Swing component and must be safe to run alongside the event dispatch
+ *   thread; they suit model-only listeners such as compilers or loggers.
+ *
+ * The bus measures how long each listener spends handling events, so that
+ * the listeners dominating a drop can be found with getListenerStats().
+ */
+public class WorkspaceEventBus {
+
+    /** How a listener receives its events */
+    public enum Delivery {
+        SYNCHRONOUS, COALESCED, BACKGROUND
+    }
+
+    /** Priority of listeners that other listeners rely on, such as indexes */
+    public static final int HIGH_PRIORITY = 100;
+    /** Default priority */
+    public static final int NORMAL_PRIORITY = 0;
+    /** Priority of listeners that should see the effect of all other listeners */
+    public static final int LOW_PRIORITY = -100;
+
+    /** The registered listeners in delivery order.  Replaced, never modified, on change. */
+    private volatile Registration[] registrations = new Registration[0];
+    /** The thread of the background listeners, created on first use.  Guarded by this. */
+    private ExecutorService backgroundExecutor = null;
+
+    /**
+     * Adds a SYNCHRONOUS listener of normal priority.
+     * @param listener the listener to add
+     */
+    public void addListener(WorkspaceListener listener) {
+        addListener(listener, NORMAL_PRIORITY, Delivery.SYNCHRONOUS);
+    }
+
+    /**
+     * Adds the specified listener.
+     * @param listener the listener to add
+     * @param priority listeners of higher priority are called first
+     * @param delivery how the listener receives its events
+     */
+    public synchronized void addListener(WorkspaceListener listener, int priority, Delivery delivery) {
+        if (listener == null) {
+            return;
+        }
+        // warn of duplicate adds
+        assert (indexOf(listener) < 0) : "WorkspaceListener " + listener.toString() + " has already been added.";
+        List<Registration> list = new ArrayList<Registration>();
+        Collections.addAll(list, registrations);
+        int i = 0;
+        while (i < list.size() && list.get(i).priority >= priority) {
+            i++;
+        }
+        list.add(i, new Registration(listener, priority, delivery));
+        registrations = list.toArray(new Registration[list.size()]);
+    }
+
+    /**
+     * Removes the specified listener.  Events already waiting to be delivered
+     * to it are dropped.
+     * @param listener the listener to remove
+     */
+    public synchronized void removeListener(WorkspaceListener listener) {
+        int index = indexOf(listener);
+        if (index < 0) {
+            return;
+        }
+        registrations[index].removed = true;
+        List<Registration> list = new ArrayList<Registration>();
+        Collections.addAll(list, registrations);
+        list.remove(index);
+        registrations = list.toArray(new Registration[list.size()]);
+    }
+
+    private int indexOf(WorkspaceListener listener) {
+        Registration[] current = registrations;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i].listener == listener) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Delivers the specified event to all listeners.
+     * @param event the event to deliver
+     */
+    public void notifyListeners(WorkspaceEvent event) {
+        for (Registration registration : registrations) {
+            if (registration.delivery == Delivery.SYNCHRONOUS) {
+                registration.deliver(event);
+            } else {
+                registration.enqueue(event);
+            }
+        }
+    }
+
+    /**
+     * @return the timing counters of every registered listener, in delivery order
+     */
+    public List<ListenerStats> getListenerStats() {
+        List<ListenerStats> stats = new ArrayList<ListenerStats>();
+        for (Registration registration : registrations) {
+            stats.add(registration.stats);
+        }
+        return stats;
+    }
+
+    /**
+     * Clears the timing counters of every registered listener.
+     */
+    public void resetListenerStats() {
+        for (Registration registration : registrations) {
+            registration.stats.reset();
+        }
+    }
+
+    private synchronized ExecutorService getBackgroundExecutor() {
+        if (backgroundExecutor == null) {
+            backgroundExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "WorkspaceEventBus");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return backgroundExecutor;
+    }
+
+    /**
+     * A listener along with how it receives its events and the events waiting
+     * to be delivered to it.
+     */
+    private class Registration implements Runnable {
+
+        private final WorkspaceListener listener;
+        private final int priority;
+        private final Delivery delivery;
+        private final ListenerStats stats;
+        /** Events waiting for delivery, by coalescing key.  Guarded by this. */
+        private final Map<Object, WorkspaceEvent> queue = new LinkedHashMap<Object, WorkspaceEvent>();
+        private volatile boolean removed = false;
+
+        Registration(WorkspaceListener listener, int priority, Delivery delivery) {
+            this.listener = listener;
+            this.priority = priority;
+            this.delivery = delivery;
+            this.stats = new ListenerStats(listener, delivery);
+        }
+
+        void deliver(WorkspaceEvent event) {
+            long start = System.nanoTime();
+            try {
+                listener.workspaceEventOccurred(event);
+            } finally {
+                stats.record(System.nanoTime() - start);
+            }
+        }
+
+        void enqueue(WorkspaceEvent event) {
+            boolean schedule;
+            synchronized (this) {
+                schedule = queue.isEmpty();
+                Object key = getCoalescingKey(event);
+                //re-inserting moves a coalesced event behind the events that came before it
+                if (queue.remove(key) != null) {
+                    stats.recordCoalesced();
+                }
+                queue.put(key, event);
+            }
+            if (schedule) {
+                if (delivery == Delivery.BACKGROUND) {
+                    getBackgroundExecutor().execute(this);
+                } else {
+                    SwingUtilities.invokeLater(this);
+                }
+            }
+        }
+
+        /**
+         * Delivers the waiting events.
+         */
+        @Override
+        public void run() {
+            List<WorkspaceEvent> events;
+            synchronized (this) {
+                events = new ArrayList<WorkspaceEvent>(queue.values());
+                queue.clear();
+            }
+            Iterator<WorkspaceEvent> it = events.iterator();
+            while (it.hasNext() && !removed) {
+                deliver(it.next());
+            }
+        }
+    }
+
+    /**
+     * @return the key under which the specified event replaces an earlier one
+     * 			still waiting for delivery
+     */
+    private static Object getCoalescingKey(WorkspaceEvent event) {
+        Long blockID = event.getSourceBlockID();
+        if (event.getEventType() == WorkspaceEvent.BLOCK_MOVED && blockID != null && !Block.NULL.equals(blockID)) {
+            return "moved:" + blockID;
+        }
+        return new Object();
+    }
+
+    /**
+     * Timing counters of a single listener: how many events it handled, and
+     * how long it took to handle them.
+     */
+    public static class ListenerStats {
+
+        private final WorkspaceListener listener;
+        private final Delivery delivery;
+        private long eventCount;
+        private long coalescedCount;
+        private long totalNanos;
+        private long maxNanos;
+
+        ListenerStats(WorkspaceListener listener, Delivery delivery) {
+            this.listener = listener;
+            this.delivery = delivery;
+        }
+
+        synchronized void record(long nanos) {
+            eventCount++;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+        }
+
+        synchronized void recordCoalesced() {
+            coalescedCount++;
+        }
+
+        synchronized void reset() {
+            eventCount = 0;
+            coalescedCount = 0;
+            totalNanos = 0;
+            maxNanos = 0;
+        }
+
+        public WorkspaceListener getListener() {
+            return listener;
+        }
+
+        public Delivery getDelivery() {
+            return delivery;
+        }
+
+        /** @return the number of events handled by the listener */
+        public synchronized long getEventCount() {
+            return eventCount;
+        }
+
+        /** @return the number of events dropped because a newer event replaced them */
+        public synchronized long getCoalescedCount() {
+            return coalescedCount;
+        }
+
+        /** @return the total time spent by the listener handling events, in nanoseconds */
+        public synchronized long getTotalNanos() {
+            return totalNanos;
+        }
+
+        /** @return the longest time spent by the listener handling a single event, in nanoseconds */
+        public synchronized long getMaxNanos() {
+            return maxNanos;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return listener.getClass().getName() + " (" + delivery + "): " + eventCount + " events, "
+                    + (totalNanos / 1000) + " us total, " + (maxNanos / 1000) + " us max, "
+                    + coalescedCount + " coalesced";
+        }
+    }
+}
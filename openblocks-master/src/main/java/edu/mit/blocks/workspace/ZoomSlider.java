@@ -46,7 +46,7 @@ public class ZoomSlider extends JComponent implements PropertyChangeListener {
 
     public void propertyChange(PropertyChangeEvent e) {
         if (e.getPropertyName().equals(CSlider.VALUE_CHANGED)) {
-            workspace.setWorkspaceZoom(slider.getValue() / 100.0);
+            workspace.previewWorkspaceZoom(slider.getValue() / 100.0);
         } else {
             slider.setValue(slider.getValue());
         }
@@ -748,7 +748,7 @@ public class FocusTraversalManager implements MouseListener, KeyListener, Worksp
     // WORKSPACE LISTENER METHOD //
     ///////////////////////////////
     /**
-     * Subscription: BLOCK_ADDED events.
+     * Subscription: BLOCK_ADDED and block cloned events.
      * Action: add this.mouselistener to the block referanced by event
      * @requires block reference in event is not null
      * @modifies this.blockFocusOwner && event.block
@@ -758,31 +758,32 @@ public class FocusTraversalManager implements MouseListener, KeyListener, Worksp
      * 			is instance of BlockCanvas and RenderableBlock
      */
     public void workspaceEventOccurred(WorkspaceEvent event) {
-        switch (event.getEventType()) {
-            case WorkspaceEvent.BLOCK_ADDED:
-                //System.out.println("FocusManager: Block_Added Event at of "+event.getSourceBlockID()+" on "+event.getSourceWidget());
-                //only add focus manager as listener to blocks added to pages
-                if (!(event.getSourceWidget() instanceof Page)) {
-                    break;
-                }
-                RenderableBlock rb = workspace.getEnv().getRenderableBlock(event.getSourceBlockID());
-                if (rb == null) {
-                    break;
-                }
-
-                //only add once
-                for (MouseListener l : rb.getMouseListeners()) {
-                    if (l.equals(this)) {
-                        return;
-                        //TODO: this shouldn't return, it should break
-                        //but you can't double break in java
-                    }
-                }
+        //only add focus manager as listener to blocks added to pages
+        if ((event.getEventType() != WorkspaceEvent.BLOCK_ADDED && !event.isBlockCloned())
+                || !(event.getSourceWidget() instanceof Page)) {
+            return;
+        }
+        //listen to every block added, but only focus the source block
+        boolean focus = false;
+        for (Long blockID : event.getSourceBlockIDs()) {
+            RenderableBlock rb = workspace.getEnv().getRenderableBlock(blockID);
+            if (rb == null) {
+                continue;
+            }
+            //only add once
+            boolean listening = false;
+            for (MouseListener l : rb.getMouseListeners()) {
+                listening |= l.equals(this);
+            }
+            if (!listening) {
                 rb.addMouseListener(this);
                 rb.addKeyListener(this);
-                setFocus(event.getSourceBlockID());
-                rb.grabFocus();
-                break;
+                focus |= blockID.equals(event.getSourceBlockID());
+            }
+        }
+        if (focus) {
+            setFocus(event.getSourceBlockID());
+            workspace.getEnv().getRenderableBlock(event.getSourceBlockID()).grabFocus();
         }
     }
 
@@ -0,0 +1,63 @@
+package edu.mit.blocks.codeblockutil;
+
+import java.util.Random;
+
+/**
+ * Measures the latency of KeywordIndex queries over synthetic block labels,
+ * compared with testing every label.
+ *
+ * Usage: KeywordIndexBenchmark [labels] [iterations]
+ */
+public class KeywordIndexBenchmark {
+
+    private static final String[] WORDS = {"set", "get", "move", "turn", "forward", "heading", "color",
+        "repeat", "forever", "if", "else", "number", "list", "random", "clear", "patch", "stamp", "say"};
+    private static final String[] QUERIES = {"s", "fo", "set", "head", "patch col", "random 12", "zzz"};
+
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+
+        Random random = new Random(42);
+        String[] labels = new String[size];
+        KeywordIndex<Integer> index = new KeywordIndex<Integer>();
+        for (int i = 0; i < size; i++) {
+            labels[i] = WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)] + " " + i;
+            index.put(i, labels[i]);
+        }
+
+        for (String query : QUERIES) {
+            // warm up both paths before measuring them
+            int matches = 0;
+            for (int i = 0; i < iterations; i++) {
+                matches = index.find(query).size();
+                scan(labels, query);
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                index.find(query);
+            }
+            long indexed = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                scan(labels, query);
+            }
+            long scanned = System.nanoTime() - start;
+            System.out.println("\"" + query + "\" (" + matches + " matches): index " + (indexed / iterations / 1000)
+                    + " us/query, scan " + (scanned / iterations / 1000) + " us/query");
+        }
+    }
+
+    /**
+     * @return the number of labels containing the query, testing every label
+     */
+    private static int scan(String[] labels, String query) {
+        int matches = 0;
+        for (String label : labels) {
+            if (label.toLowerCase().contains(query.toLowerCase())) {
+                matches++;
+            }
+        }
+        return matches;
+    }
+}
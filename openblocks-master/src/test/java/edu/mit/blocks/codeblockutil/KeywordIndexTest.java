@@ -0,0 +1,140 @@
+package edu.mit.blocks.codeblockutil;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class KeywordIndexTest {
+
+    /**
+     * @return an index of the specified keywords, each filed as its own element,
+     * 			padded with enough unrelated elements that short candidate lists
+     * 			are not scanned
+     */
+    private static KeywordIndex<String> index(String... keywords) {
+        KeywordIndex<String> index = new KeywordIndex<String>();
+        for (String keyword : keywords) {
+            index.put(keyword, keyword);
+        }
+        for (int i = 0; i < 100; i++) {
+            index.put("#" + i, "qqq" + i);
+        }
+        return index;
+    }
+
+    @Test
+    public void testFindIgnoresCase() {
+        KeywordIndex<String> index = index("Forward", "backward", "LEFT");
+        assertEquals(Arrays.asList("Forward", "backward"), index.find("WARD"));
+        assertEquals(Arrays.asList("LEFT"), index.find("left"));
+        assertEquals("forward", index.getKeyword("Forward"));
+    }
+
+    @Test
+    public void testRanking() {
+        // earliest position first, then by keyword
+        KeywordIndex<String> index = index("setpower", "power", "motorpower", "powerup", "apower");
+        assertEquals(Arrays.asList("power", "powerup", "apower", "setpower", "motorpower"),
+                index.find("power"));
+    }
+
+    @Test
+    public void testShortAndCommonQueriesAreScanned() {
+        KeywordIndex<String> index = index("ab", "cab", "abc");
+        assertEquals(Arrays.asList("ab", "abc", "cab"), index.find("ab"));
+        assertEquals(103, index.find("").size());
+        // every padding element shares this trigram
+        assertEquals(100, index.find("qqq").size());
+    }
+
+    @Test
+    public void testUnknownTrigram() {
+        KeywordIndex<String> index = index("forward", "backward");
+        assertEquals(Collections.<String>emptyList(), index.find("wardz"));
+        assertEquals(Collections.<String>emptyList(), index.find("xyz"));
+    }
+
+    @Test
+    public void testPutRefiles() {
+        KeywordIndex<String> index = index("forward");
+        index.put("forward", "back");
+        assertEquals(101, index.size());
+        assertEquals(Collections.<String>emptyList(), index.find("forward"));
+        assertEquals(Arrays.asList("forward"), index.find("back"));
+
+        index.put("forward", null);
+        assertEquals("", index.getKeyword("forward"));
+        assertEquals(Collections.<String>emptyList(), index.find("back"));
+    }
+
+    @Test
+    public void testRemoveAndClear() {
+        KeywordIndex<String> index = index("forward", "backward");
+        index.remove("forward");
+        index.remove("not filed");
+        assertNull(index.getKeyword("forward"));
+        assertEquals(Arrays.asList("backward"), index.find("ward"));
+
+        index.clear();
+        assertEquals(0, index.size());
+        assertTrue(index.find("ward").isEmpty());
+        assertTrue(index.find("").isEmpty());
+    }
+
+    @Test
+    public void testMatchesComparingEveryKeyword() {
+        Random random = new Random(42);
+        KeywordIndex<Integer> index = new KeywordIndex<Integer>();
+        final List<String> keywords = new ArrayList<String>();
+        for (int i = 0; i < 500; i++) {
+            StringBuilder keyword = new StringBuilder();
+            int length = 1 + random.nextInt(10);
+            for (int j = 0; j < length; j++) {
+                keyword.append((char) ('a' + random.nextInt(6)));
+            }
+            keywords.add(keyword.toString());
+            index.put(i, keyword.toString());
+        }
+        for (int trial = 0; trial < 200; trial++) {
+            StringBuilder query = new StringBuilder();
+            int length = 1 + random.nextInt(5);
+            for (int j = 0; j < length; j++) {
+                query.append((char) ('a' + random.nextInt(6)));
+            }
+            final String q = query.toString();
+
+            List<Integer> expected = new ArrayList<Integer>();
+            for (int i = 0; i < keywords.size(); i++) {
+                if (keywords.get(i).contains(q)) {
+                    expected.add(i);
+                }
+            }
+            Collections.sort(expected, new Comparator<Integer>() {
+                public int compare(Integer a, Integer b) {
+                    int pa = keywords.get(a).indexOf(q);
+                    int pb = keywords.get(b).indexOf(q);
+                    if (pa != pb) {
+                        return pa < pb ? -1 : 1;
+                    }
+                    return keywords.get(a).compareTo(keywords.get(b));
+                }
+            });
+
+            List<Integer> found = index.find(q);
+            assertEquals(expected.size(), found.size());
+            // elements sharing a keyword may come in any order
+            for (int i = 0; i < found.size(); i++) {
+                assertEquals(keywords.get(expected.get(i)), keywords.get(found.get(i)));
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package edu.mit.blocks.controller;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Compares the latency of loading a language definition from its XML and
+ * from the snapshot written to a language definition cache directory.
+ *
+ * Usage: LangDefBenchmark lang_def.xml lang_def.dtd cacheDir [iterations]
+ */
+public class LangDefBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.out.println("Usage: LangDefBenchmark lang_def.xml lang_def.dtd cacheDir [iterations]");
+            return;
+        }
+        int iterations = args.length > 3 ? Integer.parseInt(args[3]) : 50;
+
+        final WorkspaceController wc = new WorkspaceController();
+        wc.setLangDefDtd(new FileInputStream(args[1]));
+        wc.setLangDefFilePath(args[0]);
+        wc.loadFreshWorkspace();
+
+        Runnable load = new Runnable() {
+
+            @Override
+            public void run() {
+                wc.resetLanguage();
+                wc.loadBlockLanguage(wc.getLangDefRoot());
+            }
+        };
+
+        // warm up the XML path, then write the snapshot once before measuring it
+        measure(load, iterations);
+        long xml = measure(load, iterations);
+        wc.setLangDefCacheDirectory(new File(args[2]));
+        load.run();
+        measure(load, iterations);
+        long snapshot = measure(load, iterations);
+        report("XML", xml, iterations);
+        report("snapshot", snapshot, iterations);
+        System.exit(0);
+    }
+
+    /**
+     * @return the elapsed nanoseconds of running task iterations times
+     */
+    private static long measure(Runnable task, int iterations) {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            task.run();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static void report(String name, long elapsed, int iterations) {
+        System.out.println(name + ": " + (elapsed / iterations / 1000) + " us/load");
+    }
+}
@@ -0,0 +1,96 @@
+package edu.mit.blocks.controller;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Compares the latency and allocation of saving a project through the DOM
+ * path (getSaveString()) and through the streaming path (writeSave()).
+ *
+ * Usage: SaveBenchmark lang_def.xml lang_def.dtd project.xml [iterations]
+ *
+ * Allocation is measured per thread and is only reported on JVMs that
+ * support com.sun.management.ThreadMXBean.
+ */
+public class SaveBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.out.println("Usage: SaveBenchmark lang_def.xml lang_def.dtd project.xml [iterations]");
+            return;
+        }
+        int iterations = args.length > 3 ? Integer.parseInt(args[3]) : 50;
+
+        final WorkspaceController wc = new WorkspaceController();
+        wc.setLangDefDtd(new FileInputStream(args[1]));
+        wc.setLangDefFilePath(args[0]);
+        wc.loadFreshWorkspace();
+        wc.loadProjectFromPath(args[2]);
+
+        Runnable dom = new Runnable() {
+
+            @Override
+            public void run() {
+                wc.getSaveString();
+            }
+        };
+        Runnable streaming = new Runnable() {
+
+            @Override
+            public void run() {
+                wc.writeSave(new NullOutputStream());
+            }
+        };
+
+        // warm up both paths before measuring either
+        measure(dom, iterations);
+        measure(streaming, iterations);
+        report("DOM", measure(dom, iterations), iterations);
+        report("streaming", measure(streaming, iterations), iterations);
+        System.exit(0);
+    }
+
+    /**
+     * @return the elapsed nanoseconds and allocated bytes of running task iterations times
+     */
+    private static long[] measure(Runnable task, int iterations) {
+        long allocated = getAllocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            task.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        return new long[]{elapsed, allocated < 0 ? -1 : getAllocatedBytes() - allocated};
+    }
+
+    private static void report(String name, long[] result, int iterations) {
+        String allocation = result[1] < 0 ? "n/a" : (result[1] / iterations / 1024) + " KB";
+        System.out.println(name + ": " + (result[0] / iterations / 1000) + " us/save, " + allocation + " allocated/save");
+    }
+
+    private static long getAllocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    /**
+     * Discards everything written to it, so that only the cost of producing
+     * the save document is measured.
+     */
+    private static class NullOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+}
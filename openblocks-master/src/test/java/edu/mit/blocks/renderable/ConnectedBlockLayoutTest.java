@@ -0,0 +1,149 @@
+package edu.mit.blocks.renderable;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.Point;
+import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.SwingUtilities;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.mit.blocks.codeblocks.Block;
+import edu.mit.blocks.codeblocks.BlockConnector;
+import edu.mit.blocks.codeblocks.BlockConnectorShape;
+import edu.mit.blocks.codeblocks.BlockLink;
+import edu.mit.blocks.codeblocks.BlockLinkChecker;
+import edu.mit.blocks.controller.WorkspaceController;
+import edu.mit.blocks.workspace.Page;
+import edu.mit.blocks.workspace.Workspace;
+
+public class ConnectedBlockLayoutTest {
+
+    private Workspace workspace;
+    private Page page;
+
+    @Before
+    public void setUp() throws Exception {
+        WorkspaceController controller = new WorkspaceController();
+        controller.setLangDefDtd(new FileInputStream("support/lang_def.dtd"));
+        controller.setLangDefFilePath("support/lang_def.xml");
+        controller.loadFreshWorkspace();
+        workspace = controller.getWorkspace();
+        page = workspace.getBlockCanvas().getPages().get(0);
+    }
+
+    private Block addBlock(String genusName) {
+        Block block = new Block(workspace, genusName);
+        page.addBlock(new RenderableBlock(workspace, page, block.getBlockID()));
+        return block;
+    }
+
+    private static void link(Block socketBlock, BlockConnector socket, Block plugBlock, BlockConnector plug) {
+        BlockLink.getBlockLink(socketBlock.getWorkspace(), socketBlock, plugBlock, socket, plug).connect();
+    }
+
+    private RenderableBlock getRenderableBlock(Block block) {
+        return workspace.getEnv().getRenderableBlock(block.getBlockID());
+    }
+
+    /**
+     * Builds a stack of fd and repeat blocks, each repeat nesting the rest of
+     * the stack inside its command socket, and each fd holding a sum.
+     * @return the blocks of the stack, its top block first
+     */
+    private List<Block> buildNestedStack(int depth) {
+        List<Block> blocks = new ArrayList<Block>();
+        Block top = addBlock("repeat");
+        blocks.add(top);
+        Block last = top;
+        for (int i = 0; i < depth; i++) {
+            Block forward = addBlock("fd");
+            Block sum = addBlock("sum");
+            link(forward, forward.getSocketAt(0), sum, sum.getPlug());
+            link(last, last.getAfterConnector(), forward, forward.getBeforeConnector());
+            Block repeat = addBlock("repeat");
+            link(forward, forward.getAfterConnector(), repeat, repeat.getBeforeConnector());
+            BlockConnector command = null;
+            for (BlockConnector socket : repeat.getSockets()) {
+                if (BlockConnectorShape.isCommandConnector(socket)) {
+                    command = socket;
+                }
+            }
+            Block inner = addBlock("fd");
+            link(repeat, command, inner, inner.getBeforeConnector());
+            blocks.add(forward);
+            blocks.add(sum);
+            blocks.add(repeat);
+            blocks.add(inner);
+            last = inner;
+        }
+        return blocks;
+    }
+
+    /**
+     * Aligns the blocks plugged into the specified block the way
+     * moveConnectedBlocks() did before ConnectedBlockLayout: block by block,
+     * recursing into the sockets of each block moved.
+     */
+    private void moveConnectedBlocksRecursively(RenderableBlock block) {
+        Point myScreenOffset = block.getLocation();
+        for (BlockConnector socket : BlockLinkChecker.getSocketEquivalents(block.getBlock())) {
+            Point socketLocation = block.getSocketPixelPoint(socket);
+            if (socket.hasBlock()) {
+                RenderableBlock rb = workspace.getEnv().getRenderableBlock(socket.getBlockID());
+                Point plugLocation = rb.getSocketPixelPoint(BlockLinkChecker.getPlugEquivalent(rb.getBlock()));
+                Point otherScreenOffset = SwingUtilities.convertPoint(rb.getParent(), rb.getLocation(), block.getParent());
+                otherScreenOffset.translate(-rb.getX(), -rb.getY());
+                rb.setLocation(
+                        (int) Math.round((float) myScreenOffset.getX()
+                        + socketLocation.getX()
+                        - (float) otherScreenOffset.getX()
+                        - plugLocation.getX()),
+                        (int) Math.round((float) myScreenOffset.getY()
+                        + socketLocation.getY()
+                        - (float) otherScreenOffset.getY()
+                        - plugLocation.getY()));
+                moveConnectedBlocksRecursively(rb);
+            }
+        }
+    }
+
+    private void scatter(List<Block> blocks) {
+        for (int i = 1; i < blocks.size(); i++) {
+            getRenderableBlock(blocks.get(i)).setLocation(7 * i % 300, 13 * i % 500);
+        }
+    }
+
+    private List<Point> getLocations(List<Block> blocks) {
+        List<Point> locations = new ArrayList<Point>();
+        for (Block block : blocks) {
+            locations.add(getRenderableBlock(block).getLocation());
+        }
+        return locations;
+    }
+
+    @Test
+    public void testMatchesRecursiveLayout() {
+        List<Block> blocks = buildNestedStack(30);
+        assertEquals(121, blocks.size());
+        RenderableBlock top = getRenderableBlock(blocks.get(0));
+        top.redrawFromTop();
+        top.setLocation(37, 53);
+
+        scatter(blocks);
+        moveConnectedBlocksRecursively(top);
+        List<Point> expected = getLocations(blocks);
+
+        scatter(blocks);
+        top.moveConnectedBlocks();
+        assertEquals(expected, getLocations(blocks));
+
+        // laying out blocks already in place leaves them there
+        top.moveConnectedBlocks();
+        assertEquals(expected, getLocations(blocks));
+    }
+}
@@ -0,0 +1,145 @@
+package edu.mit.blocks.workspace;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Test;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import edu.mit.blocks.codeblocks.Block;
+import edu.mit.blocks.codeblocks.BlockConnectorShape;
+import edu.mit.blocks.codeblocks.BlockLink;
+
+public class BlockModelTest {
+
+    private static Element loadLanguage() throws Exception {
+        return DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                .parse(new File("support/lang_def.xml")).getDocumentElement();
+    }
+
+    private static BlockModel loadProject() throws Exception {
+        BlockModel model = new BlockModel(loadLanguage());
+        InputStream in = BlockModelTest.class.getResourceAsStream("/test001.xml");
+        try {
+            model.load(in);
+        } finally {
+            in.close();
+        }
+        return model;
+    }
+
+    private static BlockModel reload(String saveString) throws Exception {
+        BlockModel model = new BlockModel(loadLanguage());
+        model.load(new ByteArrayInputStream(saveString.getBytes("UTF-8")));
+        return model;
+    }
+
+    @Test
+    public void testLoad() throws Exception {
+        BlockModel model = loadProject();
+        assertEquals(1, model.getBlocks().size());
+        assertEquals(1, model.getTopBlocks().size());
+        assertEquals("setup", model.getBlocks().get(0).getGenusName());
+        assertTrue(model.getBadLinks().isEmpty());
+    }
+
+    @Test
+    public void testSaveRoundTrip() throws Exception {
+        String saved = loadProject().getSaveString();
+        BlockModel reloaded = reload(saved);
+        assertEquals(saved, reloaded.getSaveString());
+
+        reloaded.addPage("extra");
+        Block forward = reloaded.createBlock("fd", "extra", 10, 10);
+        Block back = reloaded.createBlock("bk", "extra", 10, 40);
+        assertNotNull(reloaded.connect(forward, back, forward.getAfterConnector(), back.getBeforeConnector()));
+        String savedWithStack = reloaded.getSaveString();
+
+        BlockModel again = reload(savedWithStack);
+        assertEquals(savedWithStack, again.getSaveString());
+        assertEquals(reloaded.getPageNames(), again.getPageNames());
+        List<Block> stack = again.getBlocks("extra");
+        Block top = null;
+        for (Block block : stack) {
+            if (block.getGenusName().equals("fd")) {
+                top = block;
+            }
+        }
+        assertNotNull(top);
+        assertEquals("bk", again.getEnv().getBlock(top.getAfterBlockID()).getGenusName());
+    }
+
+    @Test
+    public void testConnectFollowsLinkRules() throws Exception {
+        BlockModel model = new BlockModel(loadLanguage());
+        model.addPage("page");
+        Block forward = model.createBlock("fd", "page", 10, 10);
+        Block back = model.createBlock("bk", "page", 10, 40);
+        Block number = model.createBlock("number", "page", 0, 0);
+
+        assertNull(model.canLink(forward, back, forward.getSocketAt(0), back.getBeforeConnector()));
+        assertNotNull(model.connect(forward, back, forward.getAfterConnector(), back.getBeforeConnector()));
+        assertNotNull(model.connect(forward, number, forward.getSocketAt(0), number.getPlug()));
+        assertEquals(number.getBlockID(), forward.getSocketAt(0).getBlockID());
+        assertEquals(back.getBlockID(), forward.getAfterBlockID());
+        assertTrue(model.getBadLinks().isEmpty());
+
+        model.disconnect(back);
+        assertFalse(forward.getAfterConnector().hasBlock());
+        assertTrue(model.getBadLinks().isEmpty());
+    }
+
+    @Test
+    public void testBadLinks() throws Exception {
+        BlockModel model = new BlockModel(loadLanguage());
+        model.addPage("page");
+        Block forward = model.createBlock("fd", "page", 10, 10);
+        Block back = model.createBlock("bk", "page", 10, 40);
+        // a command block in a number socket, linked behind the rules' back
+        BlockLink.getBlockLink(model.getEnv(), forward, back, forward.getSocketAt(0), back.getBeforeConnector()).connect();
+
+        List<BlockLink> badLinks = model.getBadLinks();
+        assertEquals(1, badLinks.size());
+        assertEquals(forward.getBlockID(), badLinks.get(0).getSocketBlockID());
+        assertEquals(back.getBlockID(), badLinks.get(0).getPlugBlockID());
+    }
+
+    @Test
+    public void testModelsKeepTheirOwnConnectorShapes() throws Exception {
+        BlockModel model = new BlockModel(loadLanguage());
+
+        // a language naming the command shape differently
+        Element renamed = loadLanguage();
+        NodeList shapes = renamed.getElementsByTagName("BlockConnectorShape");
+        for (int i = 0; i < shapes.getLength(); i++) {
+            Element shape = (Element) shapes.item(i);
+            if (shape.getAttribute("shape-type").equals("cmd")) {
+                shape.setAttribute("shape-type", "command");
+            }
+        }
+        BlockModel other = new BlockModel(renamed);
+        assertEquals("cmd", model.getEnv().getCommandShapeName());
+        assertEquals("command", other.getEnv().getCommandShapeName());
+
+        other.getEnv().resetConnectorShapeMappings();
+
+        model.addPage("page");
+        Block forward = model.createBlock("fd", "page", 10, 10);
+        Block back = model.createBlock("bk", "page", 10, 40);
+        assertEquals("cmd", forward.getAfterConnector().getKind());
+        assertTrue(BlockConnectorShape.isCommandConnector(forward.getAfterConnector()));
+        assertNotNull(model.connect(forward, back, forward.getAfterConnector(), back.getBeforeConnector()));
+        assertTrue(model.getBadLinks().isEmpty());
+    }
+}
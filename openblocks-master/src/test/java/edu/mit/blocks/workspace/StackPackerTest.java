@@ -0,0 +1,103 @@
+package edu.mit.blocks.workspace;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class StackPackerTest {
+
+    private static final int BUFFER = StackPacker.BUFFER_BETWEEN_BLOCKS;
+
+    @Test
+    public void testEmpty() {
+        assertEquals(0, StackPacker.pack(Collections.<Rectangle>emptyList(), 500).length);
+    }
+
+    @Test
+    public void testFirstFitDecreasing() {
+        // tallest first: 300 opens a column, 250 does not fit under it and
+        // opens another, 150 fits under 300, 100 fits under 250
+        List<Rectangle> stacks = Arrays.asList(
+                new Rectangle(0, 0, 50, 150),
+                new Rectangle(0, 100, 60, 300),
+                new Rectangle(0, 200, 70, 100),
+                new Rectangle(0, 300, 80, 250));
+        Point[] locations = StackPacker.pack(stacks, 500);
+
+        // columns are ordered by their first stack in reading order, and
+        // stacks keep their reading order within a column
+        int secondColumn = BUFFER + 60 + BUFFER;
+        assertEquals(new Point(BUFFER, BUFFER), locations[0]);
+        assertEquals(new Point(BUFFER, BUFFER + 150 + BUFFER), locations[1]);
+        assertEquals(new Point(secondColumn, BUFFER), locations[2]);
+        assertEquals(new Point(secondColumn, BUFFER + 100 + BUFFER), locations[3]);
+    }
+
+    @Test
+    public void testReadingOrder() {
+        // stacks at the same height are read left to right, then by index
+        List<Rectangle> stacks = Arrays.asList(
+                new Rectangle(300, 10, 40, 40),
+                new Rectangle(100, 10, 40, 40),
+                new Rectangle(100, 10, 40, 40),
+                new Rectangle(500, 5, 40, 40));
+        Point[] locations = StackPacker.pack(stacks, 1000);
+
+        assertEquals(BUFFER, locations[3].y);
+        assertEquals(BUFFER + 40 + BUFFER, locations[1].y);
+        assertEquals(BUFFER + 2 * (40 + BUFFER), locations[2].y);
+        assertEquals(BUFFER + 3 * (40 + BUFFER), locations[0].y);
+    }
+
+    @Test
+    public void testStacksTallerThanThePage() {
+        List<Rectangle> stacks = Arrays.asList(
+                new Rectangle(0, 0, 50, 40),
+                new Rectangle(0, 50, 100, 900),
+                new Rectangle(0, 100, 30, 40));
+        Point[] locations = StackPacker.pack(stacks, 500);
+
+        // the tall stack gets a column of its own, after the column of the
+        // others since they start with the first stack in reading order
+        assertEquals(new Point(BUFFER, BUFFER), locations[0]);
+        assertEquals(new Point(BUFFER, BUFFER + 40 + BUFFER), locations[2]);
+        assertEquals(new Point(BUFFER + 50 + BUFFER, BUFFER), locations[1]);
+    }
+
+    @Test
+    public void testNoOverlapsWithinThePage() {
+        Random random = new Random(42);
+        for (int trial = 0; trial < 100; trial++) {
+            int height = 300 + random.nextInt(700);
+            List<Rectangle> stacks = new ArrayList<Rectangle>();
+            int n = random.nextInt(60);
+            for (int i = 0; i < n; i++) {
+                stacks.add(new Rectangle(random.nextInt(1000), random.nextInt(1000),
+                        10 + random.nextInt(200), 10 + random.nextInt(height)));
+            }
+            Point[] locations = StackPacker.pack(stacks, height);
+
+            List<Rectangle> packed = new ArrayList<Rectangle>();
+            for (int i = 0; i < n; i++) {
+                Rectangle r = new Rectangle(locations[i], stacks.get(i).getSize());
+                if (r.y != BUFFER) {
+                    assertTrue("stack below the page", r.y + r.height <= height);
+                }
+                for (Rectangle other : packed) {
+                    assertFalse("stacks overlap", r.intersects(other));
+                }
+                packed.add(r);
+            }
+        }
+    }
+}